@@ -22,14 +22,20 @@ import net.hydromatic.linq4j.expressions.FunctionExpression;
 import net.hydromatic.linq4j.expressions.Primitive;
 import net.hydromatic.linq4j.expressions.Types;
 import net.hydromatic.linq4j.function.*;
+import net.hydromatic.optiq.impl.clone.ArrayTable;
+import net.hydromatic.optiq.impl.jdbc.JdbcSchema;
 import net.hydromatic.optiq.impl.java.ReflectiveSchema;
+import net.hydromatic.optiq.runtime.Enumerables;
 import net.hydromatic.optiq.runtime.Executable;
+import net.hydromatic.optiq.runtime.FieldReader;
+import net.hydromatic.optiq.runtime.SqlFunctions;
 import net.hydromatic.optiq.runtime.Typed;
 
 import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Set;
 
 /**
  * Builtin methods.
@@ -47,9 +53,25 @@ public enum BuiltinMethod {
         ReflectiveSchema.class, "getTarget"),
     DATA_CONTEXT_GET_TABLE(
         DataContext.class, "getTable", String.class, Class.class),
+    DATA_CONTEXT_GET(
+        DataContext.class, "get", String.class),
     JOIN(
         ExtendedEnumerable.class, "join", Enumerable.class, Function1.class,
         Function1.class, Function2.class),
+    HASH_JOIN(
+        Enumerables.class, "hashJoin", Enumerable.class, Enumerable.class,
+        Function1.class, Function1.class, Function2.class, Predicate2.class,
+        boolean.class, boolean.class, DataContext.class),
+    NESTED_LOOP_JOIN(
+        Enumerables.class, "nestedLoopJoin", Enumerable.class,
+        Enumerable.class, Function2.class, Predicate2.class, boolean.class,
+        boolean.class),
+    SEMI_JOIN(
+        Enumerables.class, "semiJoin", Enumerable.class, Enumerable.class,
+        Function1.class, Function1.class),
+    MERGE_JOIN(
+        Enumerables.class, "mergeJoin", Enumerable.class, Enumerable.class,
+        Function1.class, Function1.class, Function2.class),
     SELECT(
         ExtendedEnumerable.class, "select", Function1.class),
     SELECT2(
@@ -63,11 +85,43 @@ public enum BuiltinMethod {
     GROUP_BY2(
         ExtendedEnumerable.class, "groupBy", Function1.class, Function0.class,
         Function2.class, Function2.class),
+    GROUP_BY_LONG(
+        Enumerables.class, "groupByLong", Enumerable.class,
+        LongFunction1.class, Function0.class, Function2.class,
+        Function2.class, DataContext.class),
+    GROUP_BY_SPILL(
+        Enumerables.class, "groupBy", Enumerable.class, Function1.class,
+        Function0.class, Function2.class, Function2.class,
+        EqualityComparer.class, DataContext.class),
+    SORTED_GROUP_BY(
+        Enumerables.class, "sortedGroupBy", Enumerable.class,
+        Function1.class, Function0.class, Function2.class, Function2.class),
+    INTERSECT_SPILL(
+        Enumerables.class, "intersect", Enumerable.class, Enumerable.class,
+        DataContext.class),
+    EXCEPT_SPILL(
+        Enumerables.class, "except", Enumerable.class, Enumerable.class,
+        DataContext.class),
+    WEIGH(Enumerables.class, "weigh", DataContext.class, int.class),
+    PARALLEL_DEGREE(Enumerables.class, "parallelDegree", double.class),
+    PARALLEL_RANGES(
+        Enumerables.class, "parallelRanges", int.class, Function2.class,
+        DataContext.class),
+    PACK_INTS(Enumerables.class, "packInts", int.class, int.class),
+    UNPACK_HIGH(Enumerables.class, "unpackHigh", long.class),
+    UNPACK_LOW(Enumerables.class, "unpackLow", long.class),
     AGGREGATE(
         ExtendedEnumerable.class, "aggregate", Object.class, Function2.class,
         Function1.class),
     ORDER_BY(
         ExtendedEnumerable.class, "orderBy", Function1.class, Comparator.class),
+    ORDER_BY_LIMIT(
+        Enumerables.class, "orderBy", Enumerable.class, Function1.class,
+        Comparator.class, int.class, int.class),
+    ORDER_BY_SPILL(
+        Enumerables.class, "orderBy", Enumerable.class, Function1.class,
+        Comparator.class, DataContext.class),
+    LIMIT(Enumerables.class, "limit", Enumerable.class, int.class, int.class),
     UNION(
         ExtendedEnumerable.class, "union", Enumerable.class),
     CONCAT(
@@ -100,12 +154,31 @@ public enum BuiltinMethod {
         Typed.class, "getElementType"),
     EXECUTABLE_EXECUTE(
         Executable.class, "execute", DataContext.class),
+    FIELD_READER_PROVIDER_GET_FIELD_READERS(
+        FieldReader.Provider.class, "getFieldReaders"),
     COMPARATOR_COMPARE(
         Comparator.class, "compare", Object.class, Object.class),
     COLLECTIONS_REVERSE_ORDER(
         Collections.class, "reverseOrder"),
     MODIFIABLE_TABLE_GET_MODIFIABLE_COLLECTION(
-        ModifiableTable.class, "getModifiableCollection");
+        ModifiableTable.class, "getModifiableCollection"),
+    ARRAY_TABLE_SIZE(
+        ArrayTable.class, "size"),
+    ARRAY_TABLE_COLUMN(
+        ArrayTable.class, "column", int.class),
+    COLUMN_GET_OBJECT(
+        ArrayTable.Column.class, "getObject", int.class),
+    COLUMN_GET_INT(
+        ArrayTable.Column.class, "getInt", int.class),
+    COLUMN_GET_LONG(
+        ArrayTable.Column.class, "getLong", int.class),
+    COLUMN_GET_DOUBLE(
+        ArrayTable.Column.class, "getDouble", int.class),
+    ADD_DISTINCT(
+        SqlFunctions.class, "addDistinct", Set.class, Object[].class),
+    JDBC_SCHEMA_QUERY(
+        JdbcSchema.class, "query", DataContext.class, String.class,
+        Class[].class);
 
     public final Method method;
 
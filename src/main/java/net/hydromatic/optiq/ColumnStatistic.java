@@ -0,0 +1,74 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq;
+
+import java.util.List;
+
+/**
+ * Statistics about a column of a {@link Table}.
+ *
+ * <p>Each field may be null, meaning that the statistic is not known.</p>
+ *
+ * @see Statistic#getColumnStatistic(int)
+ *
+ * @author jhyde
+ */
+public class ColumnStatistic {
+    /** Number of distinct non-null values. */
+    public final Double distinctCount;
+
+    /** Number of null values. */
+    public final Double nullCount;
+
+    /** Smallest non-null value. */
+    public final Comparable min;
+
+    /** Largest non-null value. */
+    public final Comparable max;
+
+    /** Equi-depth histogram: the upper bound of each bucket, in ascending
+     * order. Each bucket holds about the same number of non-null values, and
+     * the first bucket starts at {@link #min}. */
+    public final List<Comparable> histogram;
+
+    /** Creates a ColumnStatistic. */
+    public ColumnStatistic(
+        Double distinctCount,
+        Double nullCount,
+        Comparable min,
+        Comparable max,
+        List<Comparable> histogram)
+    {
+        this.distinctCount = distinctCount;
+        this.nullCount = nullCount;
+        this.min = min;
+        this.max = max;
+        this.histogram = histogram;
+    }
+
+    @Override
+    public String toString() {
+        return "{distinctCount: " + distinctCount
+            + ", nullCount: " + nullCount
+            + ", min: " + min
+            + ", max: " + max
+            + "}";
+    }
+}
+
+// End ColumnStatistic.java
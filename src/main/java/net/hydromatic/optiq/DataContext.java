@@ -31,6 +31,15 @@ public interface DataContext {
      * Returns a sub-schema with a given name, or null.
      */
     Schema getSubSchema(String name);
+
+    /**
+     * Returns a context variable, or null if there is no variable with that
+     * name.
+     *
+     * <p>The values of dynamic parameters are variables named "?0", "?1",
+     * and so forth.</p>
+     */
+    Object get(String name);
 }
 
 // End DataContext.java
@@ -22,7 +22,7 @@ import net.hydromatic.linq4j.expressions.Expression;
 /**
  * Schema that can be modified.
  */
-public interface MutableSchema extends Schema {
+public interface MutableSchema extends VersionedSchema {
     /** Defines a table-function in this schema. There can be multiple
      * table-functions with the same name; this method will not remove a
      * table-function with the same name, just define another overloading. */
@@ -0,0 +1,48 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq;
+
+import org.eigenbase.rel.RelCollation;
+
+import java.util.List;
+
+/**
+ * Statistics about a {@link Table}, used by the planner to estimate the cost
+ * of relational expressions.
+ *
+ * <p>Each method may return {@code null}, meaning that the statistic is not
+ * known.</p>
+ *
+ * @see StatisticalTable
+ * @see Statistics
+ *
+ * @author jhyde
+ */
+public interface Statistic {
+    /** Returns the approximate number of rows in the table. */
+    Double getRowCount();
+
+    /** Returns statistics about the column with a given 0-based ordinal. */
+    ColumnStatistic getColumnStatistic(int ordinal);
+
+    /** Returns the orderings that the rows of the table are known to be
+     * sorted on; an empty list if the rows are in no particular order. */
+    List<RelCollation> getCollations();
+}
+
+// End Statistic.java
@@ -0,0 +1,36 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq;
+
+/**
+ * Extension to {@link Table} that provides statistics about the table's
+ * contents.
+ *
+ * <p>It is optional for a Table to implement this interface. The planner
+ * assumes that a table that does not implement it has 100 rows, and guesses
+ * the selectivity of predicates.</p>
+ *
+ * @author jhyde
+ */
+public interface StatisticalTable<T> extends Table<T> {
+    /** Returns statistics about this table. Never null; use
+     * {@link Statistics#UNKNOWN} if nothing is known. */
+    Statistic getStatistic();
+}
+
+// End StatisticalTable.java
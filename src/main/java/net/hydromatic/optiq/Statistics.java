@@ -0,0 +1,324 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq;
+
+import org.eigenbase.rel.RelCollation;
+import org.eigenbase.rex.RexLiteral;
+import org.eigenbase.rex.RexNode;
+import org.eigenbase.sarg.*;
+import org.eigenbase.stat.RelStatColumnStatistics;
+import org.eigenbase.stat.RelStatSource;
+import org.eigenbase.util.NlsString;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Utility functions regarding {@link Statistic}.
+ *
+ * @author jhyde
+ */
+public class Statistics {
+    private Statistics() {
+    }
+
+    /** Returns a {@link Statistic} that knows nothing about a table. */
+    public static final Statistic UNKNOWN =
+        of(null, Collections.<ColumnStatistic>emptyList());
+
+    /** Returns a statistic with a given row count and set of column
+     * statistics.
+     *
+     * @param rowCount Row count, or null if not known
+     * @param columnStatistics Statistics for each column, indexed by ordinal;
+     *     an element may be null, and the list may be shorter than the
+     *     number of columns
+     */
+    public static Statistic of(
+        Double rowCount,
+        List<ColumnStatistic> columnStatistics)
+    {
+        return of(
+            rowCount,
+            columnStatistics,
+            Collections.<RelCollation>emptyList());
+    }
+
+    /** Returns a statistic with a given row count, set of column statistics,
+     * and list of orderings that the rows are sorted on.
+     *
+     * @param rowCount Row count, or null if not known
+     * @param columnStatistics Statistics for each column, indexed by ordinal
+     * @param collations Orderings that the rows are known to be sorted on
+     */
+    public static Statistic of(
+        final Double rowCount,
+        final List<ColumnStatistic> columnStatistics,
+        final List<RelCollation> collations)
+    {
+        return new Statistic() {
+            public Double getRowCount() {
+                return rowCount;
+            }
+
+            public ColumnStatistic getColumnStatistic(int ordinal) {
+                return ordinal < columnStatistics.size()
+                    ? columnStatistics.get(ordinal)
+                    : null;
+            }
+
+            public List<RelCollation> getCollations() {
+                return collations;
+            }
+        };
+    }
+
+    /** Converts a {@link Statistic} into a {@link RelStatSource}, which is
+     * the form in which the planner's metadata providers consume
+     * statistics. */
+    public static RelStatSource toRelStatSource(Statistic statistic) {
+        return new StatSource(statistic);
+    }
+
+    /** Implementation of {@link RelStatSource} based on a
+     * {@link Statistic}. */
+    private static class StatSource implements RelStatSource {
+        private final Statistic statistic;
+
+        StatSource(Statistic statistic) {
+            this.statistic = statistic;
+        }
+
+        public Double getRowCount() {
+            return statistic.getRowCount();
+        }
+
+        public RelStatColumnStatistics getColumnStatistics(
+            int ordinal,
+            SargIntervalSequence predicate)
+        {
+            final ColumnStatistic column =
+                statistic.getColumnStatistic(ordinal);
+            if (column == null) {
+                return null;
+            }
+            if (predicate == null) {
+                return new ColumnStatisticsImpl(1d, column.distinctCount);
+            }
+            final Double selectivity = selectivity(column, predicate);
+            final Double cardinality;
+            if (column.distinctCount == null) {
+                cardinality = null;
+            } else if (predicate.isPoint()) {
+                cardinality = Math.min(1d, column.distinctCount);
+            } else if (selectivity == null) {
+                cardinality = null;
+            } else {
+                cardinality =
+                    column.distinctCount * Math.min(1d, selectivity);
+            }
+            return new ColumnStatisticsImpl(selectivity, cardinality);
+        }
+
+        /** Estimates the fraction of rows whose value in a column falls
+         * within a sequence of intervals, or returns null if no estimate can
+         * be made. */
+        private Double selectivity(
+            ColumnStatistic column,
+            SargIntervalSequence predicate)
+        {
+            final Double rowCount = statistic.getRowCount();
+            final double nullFraction =
+                column.nullCount != null && rowCount != null && rowCount > 0
+                    ? Math.min(1d, column.nullCount / rowCount)
+                    : 0d;
+            double selectivity = 0d;
+            for (SargInterval interval : predicate.getList()) {
+                final Double s = selectivity(column, nullFraction, interval);
+                if (s == null) {
+                    return null;
+                }
+                selectivity += s;
+            }
+            return Math.min(1d, selectivity);
+        }
+
+        private Double selectivity(
+            ColumnStatistic column,
+            double nullFraction,
+            SargInterval interval)
+        {
+            if (interval.isEmpty()) {
+                return 0d;
+            }
+            final SargEndpoint lower = interval.getLowerBound();
+            final SargEndpoint upper = interval.getUpperBound();
+            if (interval.isPoint()) {
+                if (lower.isNull()) {
+                    return nullFraction;
+                }
+                final Comparable value = value(lower);
+                if (value != null
+                    && (lessThan(value, column.min)
+                        || lessThan(column.max, value)))
+                {
+                    return 0d;
+                }
+                if (column.distinctCount == null
+                    || column.distinctCount < 1d)
+                {
+                    return null;
+                }
+                return (1d - nullFraction) / column.distinctCount;
+            }
+            final Double lowerPosition = position(column, lower);
+            final Double upperPosition = position(column, upper);
+            if (lowerPosition == null || upperPosition == null) {
+                return null;
+            }
+            final boolean includesNull =
+                lower.getInfinitude() < 0
+                || lower.isNull() && lower.isClosed();
+            return (1d - nullFraction)
+                * Math.max(0d, upperPosition - lowerPosition)
+                + (includesNull ? nullFraction : 0d);
+        }
+
+        /** Returns the fraction of non-null values that are less than an
+         * endpoint, or null if not known. */
+        private Double position(ColumnStatistic column, SargEndpoint endpoint)
+        {
+            switch (endpoint.getInfinitude()) {
+            case -1:
+                return 0d;
+            case 1:
+                return 1d;
+            }
+            if (endpoint.isNull()) {
+                return 0d;
+            }
+            final Comparable value = value(endpoint);
+            if (value == null || column.min == null || column.max == null) {
+                return null;
+            }
+            if (!lessThan(column.min, value)) {
+                return 0d;
+            }
+            if (lessThan(column.max, value)) {
+                return 1d;
+            }
+            final List<Comparable> histogram = column.histogram;
+            if (histogram != null && !histogram.isEmpty()) {
+                // Find the bucket that contains the value, and assume that
+                // values are spread evenly within the bucket.
+                for (int i = 0; i < histogram.size(); i++) {
+                    final Comparable bound = histogram.get(i);
+                    if (!lessThan(bound, value)) {
+                        final Comparable previous =
+                            i == 0 ? column.min : histogram.get(i - 1);
+                        final Double within =
+                            interpolate(previous, bound, value);
+                        return (i + (within == null ? 0.5d : within))
+                            / histogram.size();
+                    }
+                }
+                return 1d;
+            }
+            return interpolate(column.min, column.max, value);
+        }
+
+        /** Returns where {@code value} lies between {@code lower} and
+         * {@code upper}, as a fraction, if they are numeric; otherwise
+         * null. */
+        private static Double interpolate(
+            Comparable lower,
+            Comparable upper,
+            Comparable value)
+        {
+            if (!(lower instanceof Number
+                  && upper instanceof Number
+                  && value instanceof Number))
+            {
+                return null;
+            }
+            final double lo = ((Number) lower).doubleValue();
+            final double hi = ((Number) upper).doubleValue();
+            final double v = ((Number) value).doubleValue();
+            if (hi <= lo) {
+                return 0.5d;
+            }
+            return Math.max(0d, Math.min(1d, (v - lo) / (hi - lo)));
+        }
+
+        /** Returns whether {@code a} is less than {@code b}. Returns false if
+         * either is null or if they cannot be compared. */
+        private static boolean lessThan(Comparable a, Comparable b) {
+            if (a == null || b == null) {
+                return false;
+            }
+            if (a instanceof Number && b instanceof Number) {
+                return ((Number) a).doubleValue()
+                    < ((Number) b).doubleValue();
+            }
+            if (a.getClass() != b.getClass()) {
+                return false;
+            }
+            //noinspection unchecked
+            return a.compareTo(b) < 0;
+        }
+
+        /** Returns the value of an endpoint's coordinate, as the kind of
+         * object that a table would hold, or null if the coordinate is not a
+         * literal. */
+        private static Comparable value(SargEndpoint endpoint) {
+            final RexNode coordinate = endpoint.getCoordinate();
+            if (!(coordinate instanceof RexLiteral)) {
+                return null;
+            }
+            final Comparable value = ((RexLiteral) coordinate).getValue();
+            if (value instanceof NlsString) {
+                return ((NlsString) value).getValue();
+            }
+            return value;
+        }
+    }
+
+    /** Implementation of {@link RelStatColumnStatistics} that holds
+     * pre-computed values. */
+    private static class ColumnStatisticsImpl
+        implements RelStatColumnStatistics
+    {
+        private final Double selectivity;
+        private final Double cardinality;
+
+        ColumnStatisticsImpl(Double selectivity, Double cardinality) {
+            this.selectivity = selectivity;
+            this.cardinality = cardinality;
+        }
+
+        public Double getSelectivity() {
+            return selectivity;
+        }
+
+        public Double getCardinality() {
+            return cardinality;
+        }
+    }
+}
+
+// End Statistics.java
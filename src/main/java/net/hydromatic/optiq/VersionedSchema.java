@@ -0,0 +1,35 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq;
+
+/**
+ * Schema whose contents may change, and which says when they have.
+ *
+ * <p>Caches of prepared statements use the version to detect that their
+ * entries are out of date; see
+ * {@link net.hydromatic.optiq.prepare.PlanCache}.</p>
+ */
+public interface VersionedSchema extends Schema {
+    /** Returns a stamp that increases each time the definition of this
+     * schema changes: for example, when a table, table-function or
+     * sub-schema is added, when cached metadata is discarded or expires,
+     * or when the version of one of its sub-schemas changes. */
+    long getVersion();
+}
+
+// End VersionedSchema.java
@@ -32,7 +32,7 @@ import java.util.Map;
  *
  * @author jhyde
  */
-public class DelegatingSchema implements Schema {
+public class DelegatingSchema implements VersionedSchema {
     protected final Schema schema;
 
     /**
@@ -75,6 +75,16 @@ public class DelegatingSchema implements Schema {
     public Schema getSubSchema(String name) {
         return schema.getSubSchema(name);
     }
+
+    public long getVersion() {
+        return schema instanceof VersionedSchema
+            ? ((VersionedSchema) schema).getVersion()
+            : 0L;
+    }
+
+    public Object get(String name) {
+        return schema.get(name);
+    }
 }
 
 // End DelegatingSchema.java
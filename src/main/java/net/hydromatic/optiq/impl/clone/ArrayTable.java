@@ -21,6 +21,7 @@ import net.hydromatic.linq4j.*;
 import net.hydromatic.linq4j.expressions.Expression;
 import net.hydromatic.linq4j.expressions.Primitive;
 import net.hydromatic.optiq.*;
+import net.hydromatic.optiq.runtime.ByteString;
 
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.util.Pair;
@@ -34,15 +35,20 @@ import java.util.*;
  * Column store formats are chosen based on the type and distribution of the
  * values in the column; see {@link Representation} and
  * {@link RepresentationType}.
+ *
+ * <p>Generated code can bypass {@link #enumerator()}, which creates an
+ * {@code Object[]} for each row, and read values directly from each
+ * {@link Column}.</p>
  */
-class ArrayTable<T>
+public class ArrayTable<T>
     extends BaseQueryable<T>
-    implements Table<T>
+    implements StatisticalTable<T>
 {
     private final Schema schema;
     private final RelDataType relDataType;
     private final List<Pair<Representation, Object>> pairs;
     private final int size;
+    private final Statistic statistic;
 
     /** Creates an ArrayTable. */
     public ArrayTable(
@@ -51,13 +57,15 @@ class ArrayTable<T>
         RelDataType relDataType,
         Expression expression,
         List<Pair<Representation, Object>> pairs,
-        int size)
+        int size,
+        Statistic statistic)
     {
         super(schema.getQueryProvider(), elementType, expression);
         this.schema = schema;
         this.relDataType = relDataType;
         this.pairs = pairs;
         this.size = size;
+        this.statistic = statistic;
 
         assert relDataType.getFieldCount() == pairs.size();
     }
@@ -70,6 +78,21 @@ class ArrayTable<T>
         return relDataType;
     }
 
+    public Statistic getStatistic() {
+        return statistic;
+    }
+
+    /** Returns the number of rows in this table. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the column with a given ordinal. */
+    public Column column(int ordinal) {
+        final Pair<Representation, Object> pair = pairs.get(ordinal);
+        return new Column(pair.left, pair.right);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Enumerator<T> enumerator() {
@@ -161,15 +184,14 @@ class ArrayTable<T>
 
         /**
          * Compressed string table. Block of char data. Strings represented
-         * using an unsigned offset into the table (stored using one of the
-         * previous methods).
+         * using an unsigned code (stored using one of the previous methods),
+         * which indexes into an array of offsets into the block.
          *
-         * <p>First 2 bytes are unsigned length; subsequent bytes are string
-         * contents. The null value, strings longer than 64k and strings that
-         * occur very commonly are held in an 'exceptions' array and are
-         * recognized by their high offsets. Other strings are created on demand
-         * (this reduces the number of objects that need to be created during
-         * deserialization from cache.</p>
+         * <p>Distinct values are sorted, so v1 &lt; v2 if and only if
+         * code(v1) &lt; code(v2). The null value has the highest code. Strings
+         * are created on demand (this reduces the number of objects that need
+         * to be held in memory, and created during deserialization from
+         * cache).</p>
          *
          * @see StringDictionary
          */
@@ -183,11 +205,56 @@ class ArrayTable<T>
         BYTE_STRING_DICTIONARY,
     }
 
+    /**
+     * Representation of the values of a column.
+     *
+     * <p>{@link #getInt}, {@link #getLong} and {@link #getDouble} are only
+     * called for columns whose Java type is primitive; generated code reads
+     * any other column using {@link #getObject}. Representations that can
+     * only hold objects, such as {@link StringDictionary}, throw
+     * {@link UnsupportedOperationException} from those methods.</p>
+     */
     public interface Representation {
         RepresentationType getType();
         Object freeze(ColumnLoader.ValueSet valueSet);
         Object getObject(Object dataSet, int ordinal);
         int getInt(Object dataSet, int ordinal);
+        long getLong(Object dataSet, int ordinal);
+        double getDouble(Object dataSet, int ordinal);
+    }
+
+    /**
+     * A column of an {@link ArrayTable}: its representation and frozen data
+     * set.
+     *
+     * <p>Methods are called by generated code, one call per value, so
+     * primitive values are not boxed unless the representation stores them as
+     * objects.</p>
+     */
+    public static class Column {
+        final Representation representation;
+        final Object dataSet;
+
+        Column(Representation representation, Object dataSet) {
+            this.representation = representation;
+            this.dataSet = dataSet;
+        }
+
+        public Object getObject(int ordinal) {
+            return representation.getObject(dataSet, ordinal);
+        }
+
+        public int getInt(int ordinal) {
+            return representation.getInt(dataSet, ordinal);
+        }
+
+        public long getLong(int ordinal) {
+            return representation.getLong(dataSet, ordinal);
+        }
+
+        public double getDouble(int ordinal) {
+            return representation.getDouble(dataSet, ordinal);
+        }
     }
 
     public static class ObjectArray implements Representation {
@@ -215,6 +282,14 @@ class ArrayTable<T>
         public int getInt(Object dataSet, int ordinal) {
             return ((Number) getObject(dataSet, ordinal)).intValue();
         }
+
+        public long getLong(Object dataSet, int ordinal) {
+            return ((Number) getObject(dataSet, ordinal)).longValue();
+        }
+
+        public double getDouble(Object dataSet, int ordinal) {
+            return ((Number) getObject(dataSet, ordinal)).doubleValue();
+        }
     }
 
     public static class PrimitiveArray implements Representation {
@@ -244,23 +319,80 @@ class ArrayTable<T>
         public int getInt(Object dataSet, int ordinal) {
             return Array.getInt(dataSet, ordinal);
         }
+
+        public long getLong(Object dataSet, int ordinal) {
+            return Array.getLong(dataSet, ordinal);
+        }
+
+        public double getDouble(Object dataSet, int ordinal) {
+            return Array.getDouble(dataSet, ordinal);
+        }
     }
 
+    /**
+     * Representation that stores the distinct values of a column of
+     * primitive values in a sorted array of that primitive type, and each
+     * value as a code into that array. Unlike {@link PrimitiveArray}, allows
+     * null values; the null value, if present, has the code one past the
+     * last value.
+     */
     public static class PrimitiveDictionary implements Representation {
+        final int ordinal;
+        final Primitive primitive;
+        final Representation representation;
+
+        public PrimitiveDictionary(
+            int ordinal,
+            Primitive primitive,
+            Representation representation)
+        {
+            this.ordinal = ordinal;
+            this.primitive = primitive;
+            this.representation = representation;
+        }
+
         public RepresentationType getType() {
             return RepresentationType.PRIMITIVE_DICTIONARY;
         }
 
         public Object freeze(ColumnLoader.ValueSet valueSet) {
-            throw new UnsupportedOperationException(); // TODO:
+            final Comparable[] codeValues = sortedKeys(valueSet);
+            final Object codes =
+                representation.freeze(encode(valueSet, codeValues));
+            //noinspection unchecked
+            return Pair.of(
+                codes, primitive.toArray2((List) Arrays.asList(codeValues)));
         }
 
         public Object getObject(Object dataSet, int ordinal) {
-            throw new UnsupportedOperationException(); // TODO:
+            @SuppressWarnings("unchecked")
+            final Pair<Object, Object> pair = (Pair<Object, Object>) dataSet;
+            final int code = representation.getInt(pair.left, ordinal);
+            if (code == Array.getLength(pair.right)) {
+                return null;
+            }
+            return primitive.arrayItem(pair.right, code);
         }
 
         public int getInt(Object dataSet, int ordinal) {
-            throw new UnsupportedOperationException(); // TODO:
+            @SuppressWarnings("unchecked")
+            final Pair<Object, Object> pair = (Pair<Object, Object>) dataSet;
+            final int code = representation.getInt(pair.left, ordinal);
+            return Array.getInt(pair.right, code);
+        }
+
+        public long getLong(Object dataSet, int ordinal) {
+            @SuppressWarnings("unchecked")
+            final Pair<Object, Object> pair = (Pair<Object, Object>) dataSet;
+            final int code = representation.getInt(pair.left, ordinal);
+            return Array.getLong(pair.right, code);
+        }
+
+        public double getDouble(Object dataSet, int ordinal) {
+            @SuppressWarnings("unchecked")
+            final Pair<Object, Object> pair = (Pair<Object, Object>) dataSet;
+            final int code = representation.getInt(pair.left, ordinal);
+            return Array.getDouble(pair.right, code);
         }
     }
 
@@ -281,24 +413,12 @@ class ArrayTable<T>
         }
 
         public Object freeze(ColumnLoader.ValueSet valueSet) {
-            final int n = valueSet.map.keySet().size();
+            final Comparable[] keys = sortedKeys(valueSet);
+            final int n = keys.length;
             int extra = valueSet.containsNull ? 1 : 0;
-            Comparable[] codeValues =
-                valueSet.map.keySet().toArray(new Comparable[n + extra]);
-            Arrays.sort(codeValues, 0, n);
-            ColumnLoader.ValueSet codeValueSet =
-                new ColumnLoader.ValueSet(int.class);
-            for (Comparable value : valueSet.values) {
-                int code;
-                if (value == null) {
-                    code = n;
-                } else {
-                    code = Arrays.binarySearch(codeValues, value);
-                    assert code >= 0 : code + ", " + value;
-                }
-                codeValueSet.add(code);
-            }
-            Object codes = representation.freeze(codeValueSet);
+            Comparable[] codeValues = new Comparable[n + extra];
+            System.arraycopy(keys, 0, codeValues, 0, n);
+            Object codes = representation.freeze(encode(valueSet, keys));
             return Pair.of(codes, codeValues);
         }
 
@@ -311,44 +431,214 @@ class ArrayTable<T>
         public int getInt(Object dataSet, int ordinal) {
             return ((Number) getObject(dataSet, ordinal)).intValue();
         }
+
+        public long getLong(Object dataSet, int ordinal) {
+            return ((Number) getObject(dataSet, ordinal)).longValue();
+        }
+
+        public double getDouble(Object dataSet, int ordinal) {
+            return ((Number) getObject(dataSet, ordinal)).doubleValue();
+        }
     }
 
+    /**
+     * Representation that stores the distinct values of a column of strings
+     * in a single block of char data, sorted, and each value as a code into
+     * that block.
+     *
+     * <p>The frozen data set is a {@link Heap}. String objects are created
+     * on demand, so the column costs one {@code char} per character of each
+     * distinct value plus one {@code int} offset, rather than one object per
+     * distinct value.</p>
+     */
     public static class StringDictionary implements Representation {
+        final int ordinal;
+        final Representation representation;
+
+        public StringDictionary(int ordinal, Representation representation) {
+            this.ordinal = ordinal;
+            this.representation = representation;
+        }
+
         public RepresentationType getType() {
             return RepresentationType.STRING_DICTIONARY;
         }
 
         public Object freeze(ColumnLoader.ValueSet valueSet) {
-            throw new UnsupportedOperationException(); // TODO:
+            final Comparable[] codeValues = sortedKeys(valueSet);
+            final int[] offsets = new int[codeValues.length + 1];
+            int length = 0;
+            for (int i = 0; i < codeValues.length; i++) {
+                offsets[i] = length;
+                length += ((String) codeValues[i]).length();
+            }
+            offsets[codeValues.length] = length;
+            final char[] chars = new char[length];
+            for (int i = 0; i < codeValues.length; i++) {
+                final String s = (String) codeValues[i];
+                s.getChars(0, s.length(), chars, offsets[i]);
+            }
+            final Object codes =
+                representation.freeze(encode(valueSet, codeValues));
+            return new Heap(codes, chars, offsets);
         }
 
         public Object getObject(Object dataSet, int ordinal) {
-            throw new UnsupportedOperationException(); // TODO:
+            final Heap heap = (Heap) dataSet;
+            final int code = representation.getInt(heap.codes, ordinal);
+            if (code == heap.offsets.length - 1) {
+                return null;
+            }
+            final int offset = heap.offsets[code];
+            return new String(
+                (char[]) heap.data, offset, heap.offsets[code + 1] - offset);
         }
 
         public int getInt(Object dataSet, int ordinal) {
-            throw new UnsupportedOperationException(); // TODO:
+            throw notNumeric(this);
+        }
+
+        public long getLong(Object dataSet, int ordinal) {
+            throw notNumeric(this);
+        }
+
+        public double getDouble(Object dataSet, int ordinal) {
+            throw notNumeric(this);
         }
     }
 
+    /**
+     * Representation that stores the distinct values of a column of
+     * {@link ByteString}s in a single block of byte data, sorted, and each
+     * value as a code into that block.
+     *
+     * @see StringDictionary
+     */
     public static class ByteStringDictionary implements Representation {
+        final int ordinal;
+        final Representation representation;
+
+        public ByteStringDictionary(
+            int ordinal,
+            Representation representation)
+        {
+            this.ordinal = ordinal;
+            this.representation = representation;
+        }
+
         public RepresentationType getType() {
             return RepresentationType.BYTE_STRING_DICTIONARY;
         }
 
         public Object freeze(ColumnLoader.ValueSet valueSet) {
-            throw new UnsupportedOperationException(); // TODO:
+            final Comparable[] codeValues = sortedKeys(valueSet);
+            final int[] offsets = new int[codeValues.length + 1];
+            int length = 0;
+            for (int i = 0; i < codeValues.length; i++) {
+                offsets[i] = length;
+                length += ((ByteString) codeValues[i]).length();
+            }
+            offsets[codeValues.length] = length;
+            final byte[] bytes = new byte[length];
+            for (int i = 0; i < codeValues.length; i++) {
+                final ByteString s = (ByteString) codeValues[i];
+                for (int j = 0, k = offsets[i]; j < s.length(); j++, k++) {
+                    bytes[k] = s.byteAt(j);
+                }
+            }
+            final Object codes =
+                representation.freeze(encode(valueSet, codeValues));
+            return new Heap(codes, bytes, offsets);
         }
 
         public Object getObject(Object dataSet, int ordinal) {
-            throw new UnsupportedOperationException(); // TODO:
+            final Heap heap = (Heap) dataSet;
+            final int code = representation.getInt(heap.codes, ordinal);
+            if (code == heap.offsets.length - 1) {
+                return null;
+            }
+            final int offset = heap.offsets[code];
+            final byte[] bytes = new byte[heap.offsets[code + 1] - offset];
+            System.arraycopy(heap.data, offset, bytes, 0, bytes.length);
+            return new ByteString(bytes);
         }
 
         public int getInt(Object dataSet, int ordinal) {
-            throw new UnsupportedOperationException(); // TODO:
+            throw notNumeric(this);
+        }
+
+        public long getLong(Object dataSet, int ordinal) {
+            throw notNumeric(this);
+        }
+
+        public double getDouble(Object dataSet, int ordinal) {
+            throw notNumeric(this);
+        }
+    }
+
+    /** Returns the exception thrown when a numeric value is requested from
+     * a representation whose values are not numbers. */
+    private static UnsupportedOperationException notNumeric(
+        Representation representation)
+    {
+        return new UnsupportedOperationException(
+            representation.getType() + " column has no numeric values");
+    }
+
+    /**
+     * Frozen data of a {@link StringDictionary} or
+     * {@link ByteStringDictionary}.
+     *
+     * <p>Value {@code i} in the dictionary occupies the range
+     * {@code [offsets[i], offsets[i + 1])} of {@code data}. There is one more
+     * offset than there are values; a code equal to the number of values
+     * denotes null.</p>
+     */
+    static class Heap {
+        final Object codes;
+        final Object data;
+        final int[] offsets;
+
+        Heap(Object codes, Object data, int[] offsets) {
+            this.codes = codes;
+            this.data = data;
+            this.offsets = offsets;
         }
     }
 
+    /** Returns the distinct non-null values in a value set, sorted. */
+    private static Comparable[] sortedKeys(ColumnLoader.ValueSet valueSet) {
+        final Comparable[] codeValues =
+            valueSet.map.keySet().toArray(
+                new Comparable[valueSet.map.size()]);
+        Arrays.sort(codeValues);
+        return codeValues;
+    }
+
+    /** Converts each value in a value set into its code, which is its
+     * position in a sorted array of the distinct non-null values. Null values
+     * are assigned the code {@code n}, where {@code n} is the number of
+     * distinct non-null values. */
+    private static ColumnLoader.ValueSet encode(
+        ColumnLoader.ValueSet valueSet,
+        Comparable[] codeValues)
+    {
+        final int n = codeValues.length;
+        final ColumnLoader.ValueSet codeValueSet =
+            new ColumnLoader.ValueSet(int.class);
+        for (Comparable value : valueSet.values) {
+            int code;
+            if (value == null) {
+                code = n;
+            } else {
+                code = Arrays.binarySearch(codeValues, value);
+                assert code >= 0 : code + ", " + value;
+            }
+            codeValueSet.add(code);
+        }
+        return codeValueSet;
+    }
+
     public static class Constant implements Representation {
         final int ordinal;
 
@@ -374,6 +664,16 @@ class ArrayTable<T>
             Pair<Object, Integer> pair = (Pair<Object, Integer>) dataSet;
             return ((Number) pair.left).intValue();
         }
+
+        public long getLong(Object dataSet, int ordinal) {
+            Pair<Object, Integer> pair = (Pair<Object, Integer>) dataSet;
+            return ((Number) pair.left).longValue();
+        }
+
+        public double getDouble(Object dataSet, int ordinal) {
+            Pair<Object, Integer> pair = (Pair<Object, Integer>) dataSet;
+            return ((Number) pair.left).doubleValue();
+        }
     }
 
     public static class BitSlicedPrimitiveArray implements Representation {
@@ -405,6 +705,9 @@ class ArrayTable<T>
             final int remainingChunkCount = valueCount % chunksPerWord;
             final long[] longs = new long[wordCount];
             final int n = valueCount / chunksPerWord;
+            // Negative values have their high bits set; mask them off so
+            // that they do not overwrite the neighboring chunks.
+            final long mask = mask(bitCount);
             int i;
             int k = 0;
             if (valueCount > 0
@@ -415,14 +718,14 @@ class ArrayTable<T>
                 for (i = 0; i < n; i++) {
                     long v = 0;
                     for (int j = 0; j < chunksPerWord; j++) {
-                        v |= (booleans.get(k++) ? (1 << (bitCount * j)) : 0);
+                        v |= (booleans.get(k++) ? (1L << (bitCount * j)) : 0);
                     }
                     longs[i] = v;
                 }
                 if (remainingChunkCount > 0) {
                     long v = 0;
                     for (int j = 0; j < remainingChunkCount; j++) {
-                        v |= (booleans.get(k++) ? (1 << (bitCount * j)) : 0);
+                        v |= (booleans.get(k++) ? (1L << (bitCount * j)) : 0);
                     }
                     longs[i] = v;
                 }
@@ -432,14 +735,14 @@ class ArrayTable<T>
                 for (i = 0; i < n; i++) {
                     long v = 0;
                     for (int j = 0; j < chunksPerWord; j++) {
-                        v |= (numbers.get(k++).longValue() << (bitCount * j));
+                        v |= (numbers.get(k++).longValue() & mask) << (bitCount * j);
                     }
                     longs[i] = v;
                 }
                 if (remainingChunkCount > 0) {
                     long v = 0;
                     for (int j = 0; j < remainingChunkCount; j++) {
-                        v |= (numbers.get(k++).longValue() << (bitCount * j));
+                        v |= (numbers.get(k++).longValue() & mask) << (bitCount * j);
                     }
                     longs[i] = v;
                 }
@@ -448,19 +751,7 @@ class ArrayTable<T>
         }
 
         public Object getObject(Object dataSet, int ordinal) {
-            final long[] longs = (long[]) dataSet;
-            final int chunksPerWord = 64 / bitCount;
-            final int word = ordinal / chunksPerWord;
-            final long v = longs[word];
-            final int chunk = ordinal % chunksPerWord;
-            final int mask = (1 << bitCount) - 1;
-            final int signMask = 1 << (bitCount - 1);
-            final int shift = chunk * bitCount;
-            final long w = v >> shift;
-            long x = w & mask;
-            if (signed && (x & signMask) != 0) {
-                x = -x;
-            }
+            final long x = getLong(dataSet, ordinal);
             switch (primitive) {
             case BOOLEAN:
                 return x != 0;
@@ -480,26 +771,36 @@ class ArrayTable<T>
         }
 
         public int getInt(Object dataSet, int ordinal) {
+            return (int) getLong(dataSet, ordinal);
+        }
+
+        public long getLong(Object dataSet, int ordinal) {
             final long[] longs = (long[]) dataSet;
             final int chunksPerWord = 64 / bitCount;
             final int word = ordinal / chunksPerWord;
             final long v = longs[word];
             final int chunk = ordinal % chunksPerWord;
-            final int mask = (1 << bitCount) - 1;
-            final int signMask = 1 << (bitCount - 1);
             final int shift = chunk * bitCount;
-            final long w = v >> shift;
-            long x = w & mask;
-            if (signed && (x & signMask) != 0) {
-                x = -x;
+            final long x = (v >>> shift) & mask(bitCount);
+            if (signed) {
+                // Sign-extend from bitCount bits to 64.
+                return (x << (64 - bitCount)) >> (64 - bitCount);
             }
-            return (int) x;
+            return x;
+        }
+
+        /** Returns a mask of the low {@code bitCount} bits of a long. */
+        static long mask(int bitCount) {
+            return bitCount == 64 ? -1L : (1L << bitCount) - 1L;
+        }
+
+        public double getDouble(Object dataSet, int ordinal) {
+            return getLong(dataSet, ordinal);
         }
 
         public static long getLong(int bitCount, long[] values, int ordinal) {
             return getLong(
-                bitCount, 64 / bitCount, (1L << bitCount) - 1L,
-                values, ordinal);
+                bitCount, 64 / bitCount, mask(bitCount), values, ordinal);
         }
 
         public static long getLong(
@@ -513,7 +814,7 @@ class ArrayTable<T>
             final int chunk = ordinal % chunksPerWord;
             final long value = values[word];
             final int shift = chunk * bitCount;
-            return (value >> shift) & mask;
+            return (value >>> shift) & mask;
         }
 
         public static void orLong(
@@ -529,7 +830,7 @@ class ArrayTable<T>
             final int word = ordinal / chunksPerWord;
             final int chunk = ordinal % chunksPerWord;
             final int shift = chunk * bitCount;
-            values[word] |= value << shift;
+            values[word] |= (value & mask(bitCount)) << shift;
         }
     }
 }
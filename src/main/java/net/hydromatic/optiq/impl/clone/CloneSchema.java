@@ -83,7 +83,11 @@ public class CloneSchema extends MapSchema {
                 Expressions.constant(name),
                 Expressions.constant(Object.class)),
             loader.representationValues,
-            loader.size());
+            loader.size(),
+            Statistics.of(
+                (double) loader.size(),
+                loader.columnStatistics,
+                loader.collations));
     }
 
     /**
@@ -20,9 +20,14 @@ package net.hydromatic.optiq.impl.clone;
 import net.hydromatic.linq4j.Ord;
 import net.hydromatic.linq4j.expressions.Primitive;
 
+import net.hydromatic.optiq.ColumnStatistic;
 import net.hydromatic.optiq.Table;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.runtime.ByteString;
 
+import org.eigenbase.rel.RelCollation;
+import org.eigenbase.rel.RelCollationImpl;
+import org.eigenbase.rel.RelFieldCollation;
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.reltype.RelDataTypeField;
 import org.eigenbase.util.Pair;
@@ -45,6 +50,12 @@ class ColumnLoader<T> {
     public final List<Pair<ArrayTable.Representation, Object>>
         representationValues =
         new ArrayList<Pair<ArrayTable.Representation, Object>>();
+    public final List<ColumnStatistic> columnStatistics =
+        new ArrayList<ColumnStatistic>();
+    /** Orderings that the loaded rows are sorted on: one for each column
+     * whose values are not null and ascending. */
+    public final List<RelCollation> collations =
+        new ArrayList<RelCollation>();
     private final JavaTypeFactory typeFactory;
 
     /** Creates a column loader, and performs the load. */
@@ -144,6 +155,13 @@ class ColumnLoader<T> {
                 valueSet.add((Comparable) o);
             }
             representationValues.add(valueSet.freeze(pair.i));
+            columnStatistics.add(valueSet.statistic());
+            if (valueSet.ascending) {
+                collations.add(
+                    new RelCollationImpl(
+                        Collections.singletonList(
+                            new RelFieldCollation(pair.i))));
+            }
         }
     }
 
@@ -159,6 +177,14 @@ class ColumnLoader<T> {
         Comparable min;
         Comparable max;
         boolean containsNull;
+        int nullCount;
+        /** Whether every value so far is not null, and is greater than or
+         * equal to the previous value. */
+        boolean ascending = true;
+        Comparable previous;
+
+        /** Number of buckets in the histogram of a column. */
+        static final int HISTOGRAM_BUCKET_COUNT = 20;
 
         ValueSet(Class clazz) {
             this.clazz = clazz;
@@ -166,6 +192,11 @@ class ColumnLoader<T> {
 
         void add(Comparable e) {
             if (e != null) {
+                //noinspection unchecked
+                if (previous != null && previous.compareTo(e) > 0) {
+                    ascending = false;
+                }
+                previous = e;
                 final Comparable old = e;
                 e = map.get(e);
                 if (e == null) {
@@ -182,10 +213,43 @@ class ColumnLoader<T> {
                 }
             } else {
                 containsNull = true;
+                ascending = false;
+                ++nullCount;
             }
             values.add(e);
         }
 
+        /** Returns statistics about the values in this set. Builds an
+         * equi-depth histogram if there are more distinct values than
+         * histogram buckets. */
+        ColumnStatistic statistic() {
+            List<Comparable> histogram = null;
+            if (map.size() > HISTOGRAM_BUCKET_COUNT) {
+                final List<Comparable> sorted =
+                    new ArrayList<Comparable>(values.size() - nullCount);
+                for (Comparable value : values) {
+                    if (value != null) {
+                        sorted.add(value);
+                    }
+                }
+                //noinspection unchecked
+                Collections.sort((List) sorted);
+                histogram = new ArrayList<Comparable>();
+                for (int i = 1; i <= HISTOGRAM_BUCKET_COUNT; i++) {
+                    histogram.add(
+                        sorted.get(
+                            (int) ((long) i * sorted.size()
+                                / HISTOGRAM_BUCKET_COUNT) - 1));
+                }
+            }
+            return new ColumnStatistic(
+                (double) map.size(),
+                (double) nullCount,
+                min,
+                max,
+                histogram);
+        }
+
         Pair<ArrayTable.Representation, Object> freeze(int ordinal) {
             ArrayTable.Representation representation = chooseRep(ordinal);
             return Pair.of(representation, representation.freeze(this));
@@ -216,16 +280,52 @@ class ColumnLoader<T> {
             //     indirections); or
             // (b) if there are very few copies of each value.
             // The condition kind of captures this, but needs to be tuned.
+            //
+            // Strings and byte strings are different. Their dictionaries hold
+            // all values in one block of memory, so we save an object per
+            // distinct value even if there are a lot of distinct values. We
+            // allow up to 64k codes (including the code for null).
             final int codeCount = map.size() + (containsNull ? 1 : 0);
             final int codeBitCount = log2(nextPowerOf2(codeCount));
-            if (codeBitCount < 10 && values.size() > 2000) {
-                final ArrayTable.Representation representation =
-                    chooseFixedRep(-1, Primitive.INT, 0, codeCount - 1);
-                return new ArrayTable.ObjectDictionary(ordinal, representation);
+            if (values.size() > 2000) {
+                if (codeBitCount < 10) {
+                    final ArrayTable.Representation representation =
+                        chooseFixedRep(-1, Primitive.INT, 0, codeCount - 1);
+                    if (p != null) {
+                        return new ArrayTable.PrimitiveDictionary(
+                            ordinal, p, representation);
+                    }
+                    return chooseDictionaryRep(ordinal, representation);
+                }
+                if (codeBitCount <= 16
+                    && (clazz == String.class || clazz == ByteString.class))
+                {
+                    return chooseDictionaryRep(
+                        ordinal,
+                        chooseFixedRep(-1, Primitive.INT, 0, codeCount - 1));
+                }
             }
             return new ArrayTable.ObjectArray(ordinal);
         }
 
+        /** Chooses a dictionary representation for a column of objects.
+         *
+         * @param ordinal Ordinal of this column in table
+         * @param representation Representation of codes
+         */
+        private ArrayTable.Representation chooseDictionaryRep(
+            int ordinal, ArrayTable.Representation representation)
+        {
+            if (clazz == String.class) {
+                return new ArrayTable.StringDictionary(ordinal, representation);
+            }
+            if (clazz == ByteString.class) {
+                return new ArrayTable.ByteStringDictionary(
+                    ordinal, representation);
+            }
+            return new ArrayTable.ObjectDictionary(ordinal, representation);
+        }
+
         private long toLong(Object o) {
             // We treat Boolean and Character as if they were subclasses of
             // Number but actually they are not.
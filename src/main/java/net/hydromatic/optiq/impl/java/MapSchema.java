@@ -49,6 +49,9 @@ public class MapSchema implements MutableSchema {
     protected final JavaTypeFactory typeFactory;
     private final Expression expression;
 
+    /** Number of modifications to this schema; see {@link #getVersion()}. */
+    private volatile int modCount;
+
     /**
      * Creates a MapSchema.
      *
@@ -145,16 +148,34 @@ public class MapSchema implements MutableSchema {
         return subSchemaMap.get(name);
     }
 
+    public Object get(String name) {
+        return null;
+    }
+
     public void addTableFunction(String name, TableFunction tableFunction) {
         putMulti(membersMap, name, tableFunction);
+        ++modCount;
     }
 
     public void addTable(String name, Table table) {
         tableMap.put(name, table);
+        ++modCount;
     }
 
     public void addSchema(String name, Schema schema) {
         subSchemaMap.put(name, schema);
+        ++modCount;
+    }
+
+    public long getVersion() {
+        // Objects are never removed, so the sum increases monotonically.
+        long version = modCount;
+        for (Schema schema : subSchemaMap.values()) {
+            if (schema instanceof VersionedSchema) {
+                version += ((VersionedSchema) schema).getVersion();
+            }
+        }
+        return version;
     }
 
     public Expression getSubSchemaExpression(String name, Class type) {
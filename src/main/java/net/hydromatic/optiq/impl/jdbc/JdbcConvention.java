@@ -0,0 +1,104 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.jdbc;
+
+import net.hydromatic.linq4j.expressions.Expression;
+
+import org.eigenbase.relopt.*;
+import org.eigenbase.sql.SqlDialect;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calling convention for relational expressions that are "implemented" by
+ * generating SQL for a particular JDBC data source.
+ *
+ * <p>Each {@link JdbcSchema} has its own convention, so that the planner only
+ * combines relational expressions (say, the two inputs to a join) if they come
+ * from the same data source and can therefore be executed as a single SQL
+ * statement.</p>
+ *
+ * @author jhyde
+ */
+public class JdbcConvention implements Convention {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    /** Factor by which the cost of a relational expression is reduced if it
+     * is executed by the JDBC data source. Encourages the planner to push as
+     * much work as possible down to the source. */
+    static final double COST_MULTIPLIER = 0.8d;
+
+    public final SqlDialect dialect;
+    public final Expression expression;
+    private final String name;
+    private List<RelOptRule> rules;
+
+    /**
+     * Creates a JdbcConvention.
+     *
+     * @param dialect SQL dialect of the data source
+     * @param expression Expression that yields the {@link JdbcSchema} at run
+     *     time
+     * @param name Name of convention; must be unique
+     */
+    public JdbcConvention(
+        SqlDialect dialect, Expression expression, String name)
+    {
+        this.dialect = dialect;
+        this.expression = expression;
+        this.name = name;
+    }
+
+    /** Creates a JdbcConvention with a generated name. */
+    public static JdbcConvention of(
+        SqlDialect dialect, Expression expression)
+    {
+        return new JdbcConvention(
+            dialect, expression, "JDBC" + NEXT_ID.getAndIncrement());
+    }
+
+    public String toString() {
+        return getName();
+    }
+
+    public Class getInterface() {
+        return JdbcRel.class;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public RelTraitDef getTraitDef() {
+        return ConventionTraitDef.instance;
+    }
+
+    /** Registers the rules that convert relational expressions to this
+     * convention, and back to the Enumerable convention. */
+    public synchronized void register(RelOptPlanner planner) {
+        if (rules == null) {
+            rules = JdbcRules.rules(this);
+        }
+        for (RelOptRule rule : rules) {
+            planner.addRule(rule);
+        }
+    }
+}
+
+// End JdbcConvention.java
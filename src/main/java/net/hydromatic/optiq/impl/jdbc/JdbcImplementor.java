@@ -0,0 +1,546 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.jdbc;
+
+import org.eigenbase.rel.*;
+import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.reltype.RelDataTypeField;
+import org.eigenbase.rex.*;
+import org.eigenbase.sql.*;
+import org.eigenbase.sql.fun.SqlStdOperatorTable;
+import org.eigenbase.sql.parser.SqlParserPos;
+import org.eigenbase.sql.type.SqlTypeUtil;
+import org.eigenbase.util.NlsString;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * State for generating a SQL statement from a tree of {@link JdbcRel}s.
+ *
+ * <p>Each relational expression returns a {@link Result}, which contains a
+ * fragment of SQL and enough information for the consumer to decide whether
+ * it can add its own clause to the same SELECT statement or whether it needs
+ * to wrap the fragment in a sub-query.</p>
+ *
+ * @author jhyde
+ */
+public class JdbcImplementor {
+    public static final SqlParserPos POS = SqlParserPos.ZERO;
+
+    /** Operators that can be passed through to the data source unchanged.
+     * Division is not included, because integer division in SQL varies
+     * by database. */
+    private static final Set<SqlOperator> OPERATORS =
+        new HashSet<SqlOperator>(
+            Arrays.<SqlOperator>asList(
+                SqlStdOperatorTable.andOperator,
+                SqlStdOperatorTable.orOperator,
+                SqlStdOperatorTable.notOperator,
+                SqlStdOperatorTable.equalsOperator,
+                SqlStdOperatorTable.notEqualsOperator,
+                SqlStdOperatorTable.greaterThanOperator,
+                SqlStdOperatorTable.greaterThanOrEqualOperator,
+                SqlStdOperatorTable.lessThanOperator,
+                SqlStdOperatorTable.lessThanOrEqualOperator,
+                SqlStdOperatorTable.isNullOperator,
+                SqlStdOperatorTable.isNotNullOperator,
+                SqlStdOperatorTable.isTrueOperator,
+                SqlStdOperatorTable.isFalseOperator,
+                SqlStdOperatorTable.plusOperator,
+                SqlStdOperatorTable.minusOperator,
+                SqlStdOperatorTable.multiplyOperator,
+                SqlStdOperatorTable.prefixMinusOperator,
+                SqlStdOperatorTable.likeOperator));
+
+    final SqlDialect dialect;
+    private final Set<String> aliasSet = new HashSet<String>();
+
+    public JdbcImplementor(SqlDialect dialect) {
+        this.dialect = dialect;
+    }
+
+    /** Clauses in a SQL query, in the order in which they are evaluated. */
+    enum Clause {
+        FROM, WHERE, GROUP_BY, HAVING, SELECT, ORDER_BY
+    }
+
+    /** Generates SQL for an input of a relational expression. */
+    public Result visitChild(int ordinal, RelNode input) {
+        assert input instanceof JdbcRel : input;
+        return ((JdbcRel) input).implement(this);
+    }
+
+    /** Creates a result for a table reference, such as
+     * {@code "foodmart"."sales_fact_1997"}. */
+    public Result result(SqlIdentifier table, String name, RelDataType rowType) {
+        final String alias = newAlias(name);
+        final List<SqlNode> fields = new ArrayList<SqlNode>();
+        for (RelDataTypeField field : rowType.getFieldList()) {
+            fields.add(
+                new SqlIdentifier(new String[] {alias, field.getName()}, POS));
+        }
+        return new Result(
+            table, alias, Collections.<Clause>emptyList(), fields, rowType,
+            Collections.<RelFieldCollation>emptyList());
+    }
+
+    /** Creates a result for a FROM item that is not a table reference, for
+     * example a join. */
+    public Result result(SqlNode node, List<SqlNode> fields, RelDataType rowType)
+    {
+        return new Result(
+            node, null, Collections.<Clause>emptyList(), fields, rowType,
+            Collections.<RelFieldCollation>emptyList());
+    }
+
+    /** Returns an alias based on a given name that is unique within the
+     * statement being generated. */
+    String newAlias(String name) {
+        String alias = name;
+        for (int i = 0; !aliasSet.add(alias); i++) {
+            alias = name + i;
+        }
+        return alias;
+    }
+
+    /** Returns whether an expression can be translated to SQL. */
+    public static boolean canImplement(RexNode node) {
+        if (node instanceof RexInputRef) {
+            return true;
+        }
+        if (node instanceof RexLiteral) {
+            return canImplement((RexLiteral) node);
+        }
+        if (node instanceof RexCall) {
+            final RexCall call = (RexCall) node;
+            final SqlOperator op = call.getOperator();
+            if (op == SqlStdOperatorTable.castFunc) {
+                // Casts to character types would need a character set.
+                if (!SqlTypeUtil.isNumeric(call.getType())) {
+                    return false;
+                }
+            } else if (!OPERATORS.contains(op)) {
+                return false;
+            } else if (op == SqlStdOperatorTable.likeOperator
+                && call.getOperands().length != 2)
+            {
+                // LIKE with an ESCAPE clause
+                return false;
+            }
+            for (RexNode operand : call.getOperands()) {
+                if (!canImplement(operand)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // Dynamic parameters, correlating variables, field accesses, ...
+        return false;
+    }
+
+    private static boolean canImplement(RexLiteral literal) {
+        if (literal.getValue() == null) {
+            return true;
+        }
+        switch (literal.getTypeName()) {
+        case BOOLEAN:
+        case DECIMAL:
+        case DOUBLE:
+        case CHAR:
+        case DATE:
+        case TIME:
+        case TIMESTAMP:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** Returns whether an aggregate function can be translated to SQL. */
+    public static boolean canImplement(AggregateCall aggCall) {
+        final Aggregation aggregation = aggCall.getAggregation();
+        return aggregation == SqlStdOperatorTable.countOperator
+            || aggregation == SqlStdOperatorTable.sumOperator
+            || aggregation == SqlStdOperatorTable.minOperator
+            || aggregation == SqlStdOperatorTable.maxOperator;
+    }
+
+    /** Converts an expression from {@link RexNode} to {@link SqlNode}
+     * format.
+     *
+     * @param fields SQL expressions for the fields of the input row
+     * @param rex Expression; must satisfy {@link #canImplement(RexNode)}
+     * @return SQL expression
+     */
+    public SqlNode toSql(List<SqlNode> fields, RexNode rex) {
+        if (rex instanceof RexInputRef) {
+            return fields.get(((RexInputRef) rex).getIndex());
+        }
+        if (rex instanceof RexLiteral) {
+            return toSql((RexLiteral) rex);
+        }
+        if (rex instanceof RexCall) {
+            final RexCall call = (RexCall) rex;
+            final SqlOperator op = call.getOperator();
+            final List<SqlNode> nodes = new ArrayList<SqlNode>();
+            for (RexNode operand : call.getOperands()) {
+                nodes.add(toSql(fields, operand));
+            }
+            if (op == SqlStdOperatorTable.castFunc) {
+                return op.createCall(
+                    POS,
+                    nodes.get(0),
+                    SqlTypeUtil.convertTypeToSpec(call.getType()));
+            }
+            if (op == SqlStdOperatorTable.andOperator
+                || op == SqlStdOperatorTable.orOperator)
+            {
+                // Rex allows AND and OR to have more than two operands.
+                SqlNode node = nodes.get(0);
+                for (int i = 1; i < nodes.size(); i++) {
+                    node = op.createCall(POS, node, nodes.get(i));
+                }
+                return node;
+            }
+            return op.createCall(POS, nodes);
+        }
+        throw new AssertionError("cannot translate " + rex);
+    }
+
+    private SqlNode toSql(RexLiteral literal) {
+        final Object value = literal.getValue();
+        if (value == null) {
+            return SqlLiteral.createNull(POS);
+        }
+        switch (literal.getTypeName()) {
+        case BOOLEAN:
+            return SqlLiteral.createBoolean((Boolean) value, POS);
+        case DECIMAL:
+            final BigDecimal decimal = (BigDecimal) value;
+            final SqlNumericLiteral exact =
+                SqlLiteral.createExactNumeric(
+                    decimal.abs().toPlainString(), POS);
+            return decimal.signum() < 0
+                ? SqlLiteral.createNegative(exact, POS)
+                : exact;
+        case DOUBLE:
+            return SqlLiteral.createApproxNumeric(value.toString(), POS);
+        case CHAR:
+            return SqlLiteral.createCharString(
+                ((NlsString) value).getValue(), POS);
+        case DATE:
+            return SqlLiteral.createDate((Calendar) value, POS);
+        case TIME:
+            return SqlLiteral.createTime(
+                (Calendar) value, literal.getType().getPrecision(), POS);
+        case TIMESTAMP:
+            return SqlLiteral.createTimestamp(
+                (Calendar) value, literal.getType().getPrecision(), POS);
+        default:
+            throw new AssertionError("cannot translate literal " + literal);
+        }
+    }
+
+    /** Converts a call to an aggregate function to SQL. */
+    public SqlNode toSql(List<SqlNode> fields, AggregateCall aggCall) {
+        final SqlAggFunction op = (SqlAggFunction) aggCall.getAggregation();
+        final List<SqlNode> operands = new ArrayList<SqlNode>();
+        for (int arg : aggCall.getArgList()) {
+            operands.add(fields.get(arg));
+        }
+        if (operands.isEmpty()) {
+            // COUNT(*)
+            operands.add(new SqlIdentifier("*", POS));
+        }
+        return op.createCall(
+            aggCall.isDistinct()
+                ? SqlLiteral.createSymbol(SqlSelectKeyword.Distinct, POS)
+                : null,
+            POS,
+            operands.toArray(new SqlNode[operands.size()]));
+    }
+
+    /** Converts a sort key to SQL. */
+    public SqlNode toSql(List<SqlNode> fields, RelFieldCollation collation) {
+        SqlNode node = fields.get(collation.getFieldIndex());
+        switch (collation.getDirection()) {
+        case Descending:
+        case StrictlyDescending:
+            node = SqlStdOperatorTable.descendingOperator.createCall(POS, node);
+        }
+        switch (collation.nullDirection) {
+        case FIRST:
+            node = SqlStdOperatorTable.nullsFirstOperator.createCall(POS, node);
+            break;
+        case LAST:
+            node = SqlStdOperatorTable.nullsLastOperator.createCall(POS, node);
+            break;
+        }
+        return node;
+    }
+
+    /** Result of implementing a node. */
+    public class Result {
+        /** A {@link SqlSelect}, or a FROM item such as a table reference or
+         * a join. */
+        final SqlNode node;
+        /** Alias with which this result is referenced in an enclosing FROM
+         * clause; null for joins. */
+        private final String alias;
+        private final List<Clause> clauses;
+        /** SQL expressions for each field, in the scope of {@link #node}. If
+         * the SELECT clause has been set, these are the expressions in the
+         * SELECT clause. */
+        final List<SqlNode> fields;
+        final RelDataType rowType;
+        /** Column names, made unique. */
+        private final List<String> columnNames;
+        /** Keys by which the rows of this result are sorted, in terms of
+         * {@link #fields}; empty if there is no ORDER BY clause, or if its
+         * keys are not all fields. */
+        private final List<RelFieldCollation> collations;
+
+        private Result(
+            SqlNode node,
+            String alias,
+            List<Clause> clauses,
+            List<SqlNode> fields,
+            RelDataType rowType,
+            List<RelFieldCollation> collations)
+        {
+            this.node = node;
+            this.alias = alias;
+            this.clauses = clauses;
+            this.fields = fields;
+            this.rowType = rowType;
+            this.collations = collations;
+            assert fields.size() == rowType.getFieldCount();
+            this.columnNames = new ArrayList<String>();
+            final Set<String> nameSet = new HashSet<String>();
+            for (RelDataTypeField field : rowType.getFieldList()) {
+                String name = field.getName();
+                for (int i = 0; !nameSet.add(name); i++) {
+                    name = field.getName() + i;
+                }
+                columnNames.add(name);
+            }
+        }
+
+        private boolean isSelect() {
+            return node instanceof SqlSelect;
+        }
+
+        /** Returns a node that can be included in the FROM clause of a
+         * query that uses this result. */
+        public SqlNode asFrom() {
+            if (isSelect()) {
+                return SqlStdOperatorTable.asOperator.createCall(
+                    POS, asSelect(), new SqlIdentifier(alias, POS));
+            }
+            if (alias != null) {
+                return SqlStdOperatorTable.asOperator.createCall(
+                    POS, node, new SqlIdentifier(alias, POS));
+            }
+            return node;
+        }
+
+        /** Returns expressions for the fields of this result, as seen by a
+         * query that has this result in its FROM clause. */
+        public List<SqlNode> fromFields() {
+            if (!isSelect()) {
+                return fields;
+            }
+            final List<SqlNode> list = new ArrayList<SqlNode>();
+            for (String columnName : columnNames) {
+                list.add(
+                    new SqlIdentifier(new String[] {alias, columnName}, POS));
+            }
+            return list;
+        }
+
+        /** Converts this result to a SELECT statement, setting its SELECT
+         * clause if necessary. */
+        public SqlSelect asSelect() {
+            final SqlNodeList selectList = new SqlNodeList(POS);
+            for (int i = 0; i < fields.size(); i++) {
+                selectList.add(as(fields.get(i), columnNames.get(i)));
+            }
+            if (isSelect()) {
+                final SqlSelect select = (SqlSelect) node;
+                select.setOperand(SqlSelect.SELECT_OPERAND, selectList);
+                return select;
+            }
+            return SqlStdOperatorTable.selectOperator.createCall(
+                null, selectList, asFrom(), null, null, null, null, null, POS);
+        }
+
+        private SqlNode as(SqlNode node, String name) {
+            if (node instanceof SqlIdentifier) {
+                final String[] names = ((SqlIdentifier) node).names;
+                if (names[names.length - 1].equals(name)) {
+                    return node;
+                }
+            }
+            return SqlStdOperatorTable.asOperator.createCall(
+                POS, node, new SqlIdentifier(name, POS));
+        }
+
+        /** Returns a result that can be referenced by an alias, wrapping
+         * this result in a SELECT statement if it is a join. */
+        public Result asQuery() {
+            if (isSelect() || alias != null) {
+                return this;
+            }
+            return new Result(
+                asSelect(),
+                newAlias("t"),
+                Arrays.asList(Clause.FROM, Clause.SELECT),
+                fields,
+                rowType,
+                Collections.<RelFieldCollation>emptyList());
+        }
+
+        /** Creates a builder for a query that adds the given clauses to this
+         * result. If this result already has a clause that is evaluated at
+         * the same time or later than any of the new clauses, the new query
+         * uses this result as a sub-query.
+         *
+         * <p>SQL does not guarantee the order of the rows of a sub-query,
+         * so if this result is sorted, its ORDER BY clause moves to the new
+         * query (unless the new query aggregates, which loses the order
+         * anyway).</p> */
+        public Builder builder(JdbcRel rel, Clause... newClauses) {
+            boolean needNew = false;
+            for (Clause clause : clauses) {
+                for (Clause newClause : newClauses) {
+                    if (clause.ordinal() >= newClause.ordinal()) {
+                        needNew = true;
+                    }
+                }
+            }
+            final SqlSelect select;
+            final List<SqlNode> selectFields;
+            final List<Clause> selectClauses = new ArrayList<Clause>();
+            List<RelFieldCollation> selectCollations = collations;
+            if (isSelect() && !needNew) {
+                select = (SqlSelect) node;
+                selectFields = fields;
+                selectClauses.addAll(clauses);
+            } else {
+                final boolean aggregate =
+                    Arrays.asList(newClauses).contains(Clause.GROUP_BY);
+                if (isSelect()
+                    && clauses.contains(Clause.ORDER_BY)
+                    && (aggregate || !collations.isEmpty()))
+                {
+                    ((SqlSelect) node).setOperand(
+                        SqlSelect.ORDER_OPERAND, null);
+                }
+                select =
+                    SqlStdOperatorTable.selectOperator.createCall(
+                        null, null, asFrom(), null, null, null, null, null,
+                        POS);
+                selectFields = fromFields();
+                selectClauses.add(Clause.FROM);
+                if (aggregate) {
+                    selectCollations =
+                        Collections.<RelFieldCollation>emptyList();
+                } else if (!collations.isEmpty()) {
+                    final List<SqlNode> orderByList = new ArrayList<SqlNode>();
+                    for (RelFieldCollation collation : collations) {
+                        orderByList.add(toSql(selectFields, collation));
+                    }
+                    select.setOperand(
+                        SqlSelect.ORDER_OPERAND,
+                        new SqlNodeList(orderByList, POS));
+                    selectClauses.add(Clause.ORDER_BY);
+                }
+            }
+            selectClauses.addAll(Arrays.asList(newClauses));
+            return new Builder(
+                rel, selectClauses, select, selectFields, selectCollations);
+        }
+    }
+
+    /** Builder for a SELECT statement. */
+    public class Builder {
+        private final JdbcRel rel;
+        private final List<Clause> clauses;
+        private final SqlSelect select;
+        /** SQL expressions for the fields of the input, in the scope of
+         * the statement being built. */
+        public final List<SqlNode> fields;
+        /** Sort keys of the statement, in terms of {@link #fields}. */
+        private List<RelFieldCollation> collations;
+
+        Builder(
+            JdbcRel rel,
+            List<Clause> clauses,
+            SqlSelect select,
+            List<SqlNode> fields,
+            List<RelFieldCollation> collations)
+        {
+            this.rel = rel;
+            this.clauses = clauses;
+            this.select = select;
+            this.fields = fields;
+            this.collations = collations;
+        }
+
+        public void setWhere(SqlNode node) {
+            assert clauses.contains(Clause.WHERE);
+            select.setOperand(SqlSelect.WHERE_OPERAND, node);
+        }
+
+        public void setGroupBy(SqlNodeList nodeList) {
+            assert clauses.contains(Clause.GROUP_BY);
+            select.setOperand(SqlSelect.GROUP_OPERAND, nodeList);
+        }
+
+        /** Sets the ORDER BY clause. Each key is a field of the input. */
+        public void setOrderBy(List<RelFieldCollation> collations) {
+            assert clauses.contains(Clause.ORDER_BY);
+            final List<SqlNode> orderByList = new ArrayList<SqlNode>();
+            for (RelFieldCollation collation : collations) {
+                orderByList.add(toSql(fields, collation));
+            }
+            select.setOperand(
+                SqlSelect.ORDER_OPERAND, new SqlNodeList(orderByList, POS));
+            this.collations = collations;
+        }
+
+        /** Returns the result, with the fields of the input unchanged. */
+        public Result result() {
+            return new Result(
+                select, newAlias("t"), clauses, fields, rel.getRowType(),
+                collations);
+        }
+
+        /** Returns the result, with the given expressions as the fields
+         * of the SELECT clause. The statement remains sorted, but the sort
+         * keys are no longer known in terms of the fields. */
+        public Result result(List<SqlNode> selectFields) {
+            return new Result(
+                select, newAlias("t"), clauses, selectFields,
+                rel.getRowType(), Collections.<RelFieldCollation>emptyList());
+        }
+    }
+}
+
+// End JdbcImplementor.java
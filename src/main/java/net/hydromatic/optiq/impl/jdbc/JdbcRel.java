@@ -0,0 +1,38 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.jdbc;
+
+import org.eigenbase.rel.RelNode;
+
+/**
+ * Relational expression that uses JDBC calling convention.
+ *
+ * @author jhyde
+ */
+public interface JdbcRel extends RelNode {
+    /**
+     * Generates the SQL for this relational expression, building upon the
+     * SQL generated for its inputs.
+     *
+     * @param implementor Implementor
+     * @return SQL fragment and the information needed to build upon it
+     */
+    JdbcImplementor.Result implement(JdbcImplementor implementor);
+}
+
+// End JdbcRel.java
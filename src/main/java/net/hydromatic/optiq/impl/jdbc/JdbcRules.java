@@ -0,0 +1,542 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.jdbc;
+
+import net.hydromatic.optiq.impl.jdbc.JdbcImplementor.Clause;
+import net.hydromatic.optiq.rules.java.EnumerableConvention;
+
+import org.eigenbase.rel.*;
+import org.eigenbase.rel.convert.ConverterRule;
+import org.eigenbase.relopt.*;
+import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.rex.RexNode;
+import org.eigenbase.rex.RexProgram;
+import org.eigenbase.sql.*;
+import org.eigenbase.sql.fun.SqlStdOperatorTable;
+
+import java.util.*;
+
+import static net.hydromatic.optiq.impl.jdbc.JdbcImplementor.POS;
+
+/**
+ * Rules and relational operators for the {@link JdbcConvention} calling
+ * convention.
+ *
+ * <p>Each rule converts a logical relational expression to a relational
+ * expression that generates SQL for a particular JDBC data source. A rule
+ * declines to convert an expression that contains something that cannot be
+ * expressed in portable SQL (for example a dynamic parameter or a call to a
+ * user-defined function); that part of the query is executed in Java, on top
+ * of a {@link JdbcToEnumerableConverter}.</p>
+ *
+ * @author jhyde
+ */
+public class JdbcRules {
+    private JdbcRules() {
+        throw new AssertionError("no instances!");
+    }
+
+    /** Creates the rules for a particular JDBC convention. */
+    public static List<RelOptRule> rules(JdbcConvention out) {
+        return Arrays.<RelOptRule>asList(
+            new JdbcToEnumerableConverterRule(out),
+            new JdbcJoinRule(out),
+            new JdbcFilterRule(out),
+            new JdbcProjectRule(out),
+            new JdbcAggregateRule(out),
+            new JdbcSortRule(out));
+    }
+
+    /** Abstract base class for rules that convert to JDBC convention. */
+    abstract static class JdbcConverterRule extends ConverterRule {
+        protected final JdbcConvention out;
+
+        JdbcConverterRule(
+            Class clazz, RelTrait in, JdbcConvention out, String description)
+        {
+            super(clazz, in, out, description + ":" + out.getName());
+            this.out = out;
+        }
+    }
+
+    /**
+     * Rule that converts a {@link JdbcRel} to
+     * {@link EnumerableConvention#ARRAY}, by executing the generated SQL.
+     */
+    static class JdbcToEnumerableConverterRule extends ConverterRule {
+        JdbcToEnumerableConverterRule(JdbcConvention in) {
+            super(
+                RelNode.class,
+                in,
+                EnumerableConvention.ARRAY,
+                "JdbcToEnumerableConverterRule:" + in.getName());
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            if (rel.getRowType().getFieldCount() == 0) {
+                // SQL does not allow a query with no columns.
+                return null;
+            }
+            return new JdbcToEnumerableConverter(
+                rel.getCluster(),
+                rel.getTraitSet().replace(getOutTrait()),
+                rel);
+        }
+    }
+
+    /** Rule that converts a join to JDBC. */
+    private static class JdbcJoinRule extends JdbcConverterRule {
+        private JdbcJoinRule(JdbcConvention out) {
+            super(JoinRel.class, Convention.NONE, out, "JdbcJoinRule");
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            final JoinRel join = (JoinRel) rel;
+            if (!join.getVariablesStopped().isEmpty()
+                || !JdbcImplementor.canImplement(join.getCondition()))
+            {
+                return null;
+            }
+            final List<RelNode> newInputs = new ArrayList<RelNode>();
+            for (RelNode input : join.getInputs()) {
+                newInputs.add(
+                    convert(input, input.getTraitSet().replace(out)));
+            }
+            return new JdbcJoinRel(
+                join.getCluster(),
+                join.getTraitSet().replace(out),
+                newInputs.get(0),
+                newInputs.get(1),
+                join.getCondition(),
+                join.getJoinType(),
+                join.getVariablesStopped());
+        }
+    }
+
+    /** Join operator implemented in JDBC convention. */
+    public static class JdbcJoinRel extends JoinRelBase implements JdbcRel {
+        protected JdbcJoinRel(
+            RelOptCluster cluster,
+            RelTraitSet traits,
+            RelNode left,
+            RelNode right,
+            RexNode condition,
+            JoinRelType joinType,
+            Set<String> variablesStopped)
+        {
+            super(
+                cluster, traits, left, right, condition, joinType,
+                variablesStopped);
+            assert getConvention() instanceof JdbcConvention;
+        }
+
+        @Override
+        public JdbcJoinRel copy(
+            RelTraitSet traitSet,
+            RexNode conditionExpr,
+            RelNode left,
+            RelNode right)
+        {
+            return new JdbcJoinRel(
+                getCluster(), traitSet, left, right, conditionExpr,
+                joinType, variablesStopped);
+        }
+
+        @Override
+        public RelOptCost computeSelfCost(RelOptPlanner planner) {
+            return super.computeSelfCost(planner)
+                .multiplyBy(JdbcConvention.COST_MULTIPLIER);
+        }
+
+        public JdbcImplementor.Result implement(JdbcImplementor implementor) {
+            final JdbcImplementor.Result leftResult =
+                implementor.visitChild(0, left);
+            // A join on the right-hand side would need parentheses; make
+            // it into a sub-query instead.
+            final JdbcImplementor.Result rightResult =
+                implementor.visitChild(1, right).asQuery();
+            final List<SqlNode> fields = new ArrayList<SqlNode>();
+            fields.addAll(leftResult.fromFields());
+            fields.addAll(rightResult.fromFields());
+            final SqlNode join =
+                SqlStdOperatorTable.joinOperator.createCall(
+                    leftResult.asFrom(),
+                    SqlLiteral.createBoolean(false, POS),
+                    SqlLiteral.createSymbol(joinType(joinType), POS),
+                    rightResult.asFrom(),
+                    SqlLiteral.createSymbol(
+                        SqlJoinOperator.ConditionType.On, POS),
+                    implementor.toSql(fields, condition),
+                    POS);
+            return implementor.result(join, fields, getRowType());
+        }
+
+        private static SqlJoinOperator.JoinType joinType(
+            JoinRelType joinType)
+        {
+            switch (joinType) {
+            case LEFT:
+                return SqlJoinOperator.JoinType.Left;
+            case RIGHT:
+                return SqlJoinOperator.JoinType.Right;
+            case FULL:
+                return SqlJoinOperator.JoinType.Full;
+            default:
+                return SqlJoinOperator.JoinType.Inner;
+            }
+        }
+    }
+
+    /** Rule that converts a filter to JDBC. */
+    private static class JdbcFilterRule extends JdbcConverterRule {
+        private JdbcFilterRule(JdbcConvention out) {
+            super(FilterRel.class, Convention.NONE, out, "JdbcFilterRule");
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            final FilterRel filter = (FilterRel) rel;
+            if (!JdbcImplementor.canImplement(filter.getCondition())) {
+                return null;
+            }
+            return new JdbcFilterRel(
+                rel.getCluster(),
+                rel.getTraitSet().replace(out),
+                convert(
+                    filter.getChild(),
+                    filter.getChild().getTraitSet().replace(out)),
+                filter.getCondition());
+        }
+    }
+
+    /** Implementation of {@link FilterRel} in JDBC convention. */
+    public static class JdbcFilterRel extends FilterRelBase implements JdbcRel
+    {
+        public JdbcFilterRel(
+            RelOptCluster cluster,
+            RelTraitSet traitSet,
+            RelNode child,
+            RexNode condition)
+        {
+            super(cluster, traitSet, child, condition);
+            assert getConvention() instanceof JdbcConvention;
+        }
+
+        public JdbcFilterRel copy(RelTraitSet traitSet, List<RelNode> inputs) {
+            return new JdbcFilterRel(
+                getCluster(), traitSet, sole(inputs), getCondition());
+        }
+
+        @Override
+        public RelOptCost computeSelfCost(RelOptPlanner planner) {
+            return super.computeSelfCost(planner)
+                .multiplyBy(JdbcConvention.COST_MULTIPLIER);
+        }
+
+        public JdbcImplementor.Result implement(JdbcImplementor implementor) {
+            final JdbcImplementor.Result x =
+                implementor.visitChild(0, getChild());
+            final JdbcImplementor.Builder builder =
+                x.builder(this, Clause.WHERE);
+            builder.setWhere(
+                implementor.toSql(builder.fields, getCondition()));
+            return builder.result();
+        }
+    }
+
+    /** Rule that converts a project to JDBC. */
+    private static class JdbcProjectRule extends JdbcConverterRule {
+        private JdbcProjectRule(JdbcConvention out) {
+            super(ProjectRel.class, Convention.NONE, out, "JdbcProjectRule");
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            final ProjectRel project = (ProjectRel) rel;
+            for (RexNode exp : project.getProjectExps()) {
+                if (!JdbcImplementor.canImplement(exp)) {
+                    return null;
+                }
+            }
+            return new JdbcProjectRel(
+                rel.getCluster(),
+                rel.getTraitSet().replace(out),
+                convert(
+                    project.getChild(),
+                    project.getChild().getTraitSet().replace(out)),
+                project.getProjectExps(),
+                project.getRowType(),
+                project.getFlags());
+        }
+    }
+
+    /** Implementation of {@link ProjectRel} in JDBC convention. */
+    public static class JdbcProjectRel
+        extends ProjectRelBase
+        implements JdbcRel
+    {
+        public JdbcProjectRel(
+            RelOptCluster cluster,
+            RelTraitSet traitSet,
+            RelNode child,
+            RexNode[] exps,
+            RelDataType rowType,
+            int flags)
+        {
+            super(
+                cluster, traitSet, child, exps, rowType, flags,
+                Collections.<RelCollation>emptyList());
+            assert getConvention() instanceof JdbcConvention;
+        }
+
+        public JdbcProjectRel copy(RelTraitSet traitSet, List<RelNode> inputs)
+        {
+            return new JdbcProjectRel(
+                getCluster(), traitSet, sole(inputs), exps, rowType,
+                getFlags());
+        }
+
+        /** Returns the collations of the input whose columns this projection
+         * keeps, so that a converter above it knows the order of the rows
+         * that the data source returns. */
+        @Override
+        public List<RelCollation> getCollationList() {
+            final RexProgram program =
+                RexProgram.create(
+                    getChild().getRowType(),
+                    exps,
+                    null,
+                    rowType,
+                    getCluster().getRexBuilder());
+            return program.getCollations(getChild().getCollationList());
+        }
+
+        @Override
+        public RelOptCost computeSelfCost(RelOptPlanner planner) {
+            return super.computeSelfCost(planner)
+                .multiplyBy(JdbcConvention.COST_MULTIPLIER);
+        }
+
+        public JdbcImplementor.Result implement(JdbcImplementor implementor) {
+            final JdbcImplementor.Result x =
+                implementor.visitChild(0, getChild());
+            final JdbcImplementor.Builder builder =
+                x.builder(this, Clause.SELECT);
+            final List<SqlNode> selectList = new ArrayList<SqlNode>();
+            for (RexNode exp : exps) {
+                selectList.add(implementor.toSql(builder.fields, exp));
+            }
+            return builder.result(selectList);
+        }
+    }
+
+    /** Rule that converts an aggregate to JDBC. */
+    private static class JdbcAggregateRule extends JdbcConverterRule {
+        private JdbcAggregateRule(JdbcConvention out) {
+            super(
+                AggregateRel.class, Convention.NONE, out, "JdbcAggregateRule");
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            final AggregateRel agg = (AggregateRel) rel;
+            for (AggregateCall aggCall : agg.getAggCallList()) {
+                if (!JdbcImplementor.canImplement(aggCall)) {
+                    return null;
+                }
+            }
+            return new JdbcAggregateRel(
+                rel.getCluster(),
+                rel.getTraitSet().replace(out),
+                convert(
+                    agg.getChild(),
+                    agg.getChild().getTraitSet().replace(out)),
+                agg.getGroupSet(),
+                agg.getAggCallList());
+        }
+    }
+
+    /** Aggregate operator implemented in JDBC convention. */
+    public static class JdbcAggregateRel
+        extends AggregateRelBase
+        implements JdbcRel
+    {
+        public JdbcAggregateRel(
+            RelOptCluster cluster,
+            RelTraitSet traitSet,
+            RelNode child,
+            BitSet groupSet,
+            List<AggregateCall> aggCalls)
+        {
+            super(cluster, traitSet, child, groupSet, aggCalls);
+            assert getConvention() instanceof JdbcConvention;
+        }
+
+        @Override
+        public JdbcAggregateRel copy(
+            RelTraitSet traitSet, List<RelNode> inputs)
+        {
+            return new JdbcAggregateRel(
+                getCluster(), traitSet, sole(inputs), groupSet, aggCalls);
+        }
+
+        @Override
+        public RelOptCost computeSelfCost(RelOptPlanner planner) {
+            return super.computeSelfCost(planner)
+                .multiplyBy(JdbcConvention.COST_MULTIPLIER);
+        }
+
+        public JdbcImplementor.Result implement(JdbcImplementor implementor) {
+            final JdbcImplementor.Result x =
+                implementor.visitChild(0, getChild());
+            final JdbcImplementor.Builder builder =
+                x.builder(this, Clause.GROUP_BY, Clause.SELECT);
+            final List<SqlNode> groupByList = new ArrayList<SqlNode>();
+            final List<SqlNode> selectList = new ArrayList<SqlNode>();
+            for (int group = groupSet.nextSetBit(0);
+                 group >= 0;
+                 group = groupSet.nextSetBit(group + 1))
+            {
+                final SqlNode field = builder.fields.get(group);
+                groupByList.add(field);
+                selectList.add(field);
+            }
+            for (AggregateCall aggCall : aggCalls) {
+                selectList.add(implementor.toSql(builder.fields, aggCall));
+            }
+            if (!groupByList.isEmpty()) {
+                // An empty GROUP BY list would be printed as "GROUP BY ()",
+                // which not every database understands. A query without
+                // GROUP BY has the same effect.
+                builder.setGroupBy(new SqlNodeList(groupByList, POS));
+            }
+            return builder.result(selectList);
+        }
+    }
+
+    /** Rule that converts a sort to JDBC. */
+    private static class JdbcSortRule extends JdbcConverterRule {
+        private JdbcSortRule(JdbcConvention out) {
+            super(SortRel.class, Convention.NONE, out, "JdbcSortRule");
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            final SortRel sort = (SortRel) rel;
+            if (sort.getOffset() != null || sort.getFetch() != null) {
+                // Dialects disagree on how to express OFFSET and FETCH
+                // (LIMIT, TOP, ROWNUM), so leave them to the enumerable
+                // convention, which reads only as many rows as it needs.
+                return null;
+            }
+            return new JdbcSortRel(
+                rel.getCluster(),
+                rel.getTraitSet().replace(out),
+                convert(
+                    sort.getChild(),
+                    sort.getChild().getTraitSet().replace(out)),
+                sort.getCollations());
+        }
+    }
+
+    /** Sort operator implemented in JDBC convention. */
+    public static class JdbcSortRel extends SortRel implements JdbcRel {
+        public JdbcSortRel(
+            RelOptCluster cluster,
+            RelTraitSet traitSet,
+            RelNode child,
+            List<RelFieldCollation> collations)
+        {
+            super(cluster, traitSet, child, collations);
+            assert getConvention() instanceof JdbcConvention;
+            assert getConvention() == child.getConvention();
+        }
+
+        @Override
+        public JdbcSortRel copy(
+            RelTraitSet traitSet,
+            RelNode newInput,
+            List<RelFieldCollation> newCollations,
+            RexNode offset,
+            RexNode fetch)
+        {
+            assert offset == null && fetch == null;
+            return new JdbcSortRel(
+                getCluster(), traitSet, newInput, newCollations);
+        }
+
+        @Override
+        public RelOptCost computeSelfCost(RelOptPlanner planner) {
+            return super.computeSelfCost(planner)
+                .multiplyBy(JdbcConvention.COST_MULTIPLIER);
+        }
+
+        public JdbcImplementor.Result implement(JdbcImplementor implementor) {
+            final JdbcImplementor.Result x =
+                implementor.visitChild(0, getChild());
+            final JdbcImplementor.Builder builder =
+                x.builder(this, Clause.ORDER_BY);
+            builder.setOrderBy(getCollations());
+            return builder.result();
+        }
+    }
+
+    /** Relational expression that reads a table from a JDBC data source. */
+    public static class JdbcTableScan
+        extends TableAccessRelBase
+        implements JdbcRel
+    {
+        final JdbcTable jdbcTable;
+
+        public JdbcTableScan(
+            RelOptCluster cluster,
+            RelOptTable table,
+            JdbcTable jdbcTable,
+            JdbcConvention jdbcConvention)
+        {
+            super(cluster, cluster.traitSetOf(jdbcConvention), table);
+            this.jdbcTable = jdbcTable;
+            assert jdbcTable != null;
+        }
+
+        @Override
+        public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+            assert inputs.isEmpty();
+            return new JdbcTableScan(
+                getCluster(), table, jdbcTable,
+                (JdbcConvention) getConvention());
+        }
+
+        @Override
+        public RelOptCost computeSelfCost(RelOptPlanner planner) {
+            return super.computeSelfCost(planner)
+                .multiplyBy(JdbcConvention.COST_MULTIPLIER);
+        }
+
+        public JdbcImplementor.Result implement(JdbcImplementor implementor) {
+            return implementor.result(
+                jdbcTable.tableName(),
+                jdbcTable.getName(),
+                getRowType());
+        }
+    }
+}
+
+// End JdbcRules.java
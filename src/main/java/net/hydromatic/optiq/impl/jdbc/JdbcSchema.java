@@ -17,12 +17,19 @@
 */
 package net.hydromatic.optiq.impl.jdbc;
 
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
 import net.hydromatic.linq4j.QueryProvider;
 import net.hydromatic.linq4j.expressions.Expression;
+import net.hydromatic.linq4j.expressions.Primitive;
+import net.hydromatic.linq4j.function.Function0;
+import net.hydromatic.linq4j.function.Function1;
 
 import net.hydromatic.optiq.*;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
 import net.hydromatic.optiq.jdbc.OptiqConnection;
+import net.hydromatic.optiq.runtime.ExecutionContext;
 
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.reltype.RelDataTypeFactory;
@@ -31,6 +38,8 @@ import org.eigenbase.sql.type.SqlTypeName;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.sql.DataSource;
 
 /**
@@ -42,7 +51,7 @@ import javax.sql.DataSource;
  *
  * @author jhyde
  */
-public class JdbcSchema implements Schema {
+public class JdbcSchema implements VersionedSchema {
     final QueryProvider queryProvider;
     final DataSource dataSource;
     private final String catalog;
@@ -50,6 +59,30 @@ public class JdbcSchema implements Schema {
     final JavaTypeFactory typeFactory;
     private final Expression expression;
     final SqlDialect dialect;
+    final JdbcConvention convention;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private volatile boolean countRows;
+
+    /** Cache of table definitions, by name. A table that does not exist is
+     * cached as null. */
+    private final ConcurrentMap<String, CacheEntry<JdbcTable>> tableCache =
+        new ConcurrentHashMap<String, CacheEntry<JdbcTable>>();
+    /** Cache of the list of table names; has at most one entry. */
+    private final ConcurrentMap<String, CacheEntry<List<String>>>
+        tableNamesCache =
+        new ConcurrentHashMap<String, CacheEntry<List<String>>>();
+    private volatile long cacheTimeoutMillis = DEFAULT_CACHE_TIMEOUT_MILLIS;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    /** Incremented each time cached metadata is discarded or expires; see
+     * {@link #getVersion()}. */
+    private final AtomicLong version = new AtomicLong();
+
+    /** Default value of {@link #getFetchSize()}. */
+    public static final int DEFAULT_FETCH_SIZE = 100;
+
+    /** Default value of {@link #getCacheTimeoutMillis()}: 10 minutes. */
+    public static final long DEFAULT_CACHE_TIMEOUT_MILLIS = 10 * 60 * 1000L;
 
     /**
      * Creates a JDBC schema.
@@ -78,6 +111,7 @@ public class JdbcSchema implements Schema {
         this.schema = schema;
         this.typeFactory = typeFactory;
         this.expression = expression;
+        this.convention = JdbcConvention.of(dialect, expression);
         assert expression != null;
         assert typeFactory != null;
         assert dialect != null;
@@ -131,11 +165,251 @@ public class JdbcSchema implements Schema {
         return queryProvider;
     }
 
+    /** Returns the calling convention of relational expressions that are
+     * executed by this schema's data source. */
+    public JdbcConvention getConvention() {
+        return convention;
+    }
+
+    /** Returns the number of rows fetched at a time from the data source,
+     * if the statement does not specify a fetch size. */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /** Sets the number of rows fetched at a time from the data source, if the
+     * statement does not specify a fetch size. 0 means use the JDBC driver's
+     * default, which for some drivers means read the whole result set into
+     * memory. */
+    public void setFetchSize(int fetchSize) {
+        assert fetchSize >= 0;
+        this.fetchSize = fetchSize;
+    }
+
+    /** Returns whether to execute {@code select count(*)} against a table
+     * whose row count the data source's metadata does not give. */
+    public boolean isCountRows() {
+        return countRows;
+    }
+
+    /** Sets whether to execute {@code select count(*)} against a table whose
+     * row count the data source's metadata does not give. Default false,
+     * because counting a large table is expensive, and happens while a
+     * statement is being planned; the planner then uses a default row
+     * count. Row counts are cached with the table, until the table is
+     * refreshed. */
+    public void setCountRows(boolean countRows) {
+        this.countRows = countRows;
+    }
+
+    /**
+     * Executes a SQL query against this schema's data source. Called from
+     * generated code.
+     *
+     * <p>Each row is an array of objects, or, if the query has precisely one
+     * column, the value of that column.</p>
+     *
+     * <p>If {@code root} contains an {@link ExecutionContext}, the
+     * query uses its fetch size, and is cancelled and closed with it.</p>
+     *
+     * @param root Data context of the current execution
+     * @param sql SQL query
+     * @param fieldClasses Java class of each column; a primitive class means
+     *     that the column is read using the corresponding getXxx method
+     * @return Enumerable over the rows of the query
+     */
+    public Enumerable<Object> query(
+        DataContext root,
+        final String sql,
+        final Class[] fieldClasses)
+    {
+        final ExecutionContext executionContext =
+            (ExecutionContext) root.get(ExecutionContext.NAME);
+        final int fetchSize =
+            executionContext != null && executionContext.getFetchSize() > 0
+                ? executionContext.getFetchSize()
+                : this.fetchSize;
+        final List<Primitive> primitives = new ArrayList<Primitive>();
+        for (Class fieldClass : fieldClasses) {
+            final Primitive primitive = Primitive.of(fieldClass);
+            primitives.add(primitive != null ? primitive : Primitive.OTHER);
+        }
+        final Function1<ResultSet, Function0<Object[]>> rowBuilderFactory =
+            JdbcUtils.ObjectArrayRowBuilder.factory(primitives);
+        return new AbstractEnumerable<Object>() {
+            public Enumerator<Object> enumerator() {
+                final Enumerator<Object[]> enumerator =
+                    JdbcUtils.sqlEnumerator(
+                        sql, JdbcSchema.this, rowBuilderFactory, fetchSize,
+                        executionContext);
+                if (fieldClasses.length == 1) {
+                    return new Enumerator<Object>() {
+                        public Object current() {
+                            return enumerator.current()[0];
+                        }
+
+                        public boolean moveNext() {
+                            return enumerator.moveNext();
+                        }
+
+                        public void reset() {
+                            enumerator.reset();
+                        }
+                    };
+                }
+                //noinspection unchecked
+                return (Enumerator) enumerator;
+            }
+        };
+    }
+
+    /** Returns how long, in milliseconds, metadata read from the data source
+     * is kept before it is read again. */
+    public long getCacheTimeoutMillis() {
+        return cacheTimeoutMillis;
+    }
+
+    /**
+     * Sets how long metadata read from the data source is kept before it is
+     * read again.
+     *
+     * @param cacheTimeoutMillis Timeout in milliseconds; 0 means do not cache,
+     *     negative means cache until {@link #refresh()} is called
+     */
+    public void setCacheTimeoutMillis(long cacheTimeoutMillis) {
+        this.cacheTimeoutMillis = cacheTimeoutMillis;
+    }
+
+    /** Discards all cached metadata, so that the next request for a table or
+     * the list of tables reads it from the data source. */
+    public void refresh() {
+        tableCache.clear();
+        tableNamesCache.clear();
+        version.incrementAndGet();
+    }
+
+    /** Discards the cached definition of one table. */
+    public void refresh(String tableName) {
+        tableCache.remove(tableName);
+        version.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The version changes when {@link #refresh()} is called, and when
+     * a cached table definition or list of tables expires, because the
+     * definitions and row counts read next time may be different. If
+     * metadata is not cached, the version is different every time.</p>
+     */
+    public long getVersion() {
+        final long timeout = cacheTimeoutMillis;
+        if (timeout == 0) {
+            return version.incrementAndGet();
+        }
+        expire(tableCache, timeout);
+        expire(tableNamesCache, timeout);
+        return version.get();
+    }
+
+    /** Removes the entries of a cache that have expired. */
+    private <V> void expire(
+        ConcurrentMap<String, CacheEntry<V>> cache, long timeout)
+    {
+        for (Map.Entry<String, CacheEntry<V>> entry : cache.entrySet()) {
+            if (entry.getValue().isExpired(timeout)) {
+                remove(cache, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** Removes an expired entry from a cache, and increments the version if
+     * it was present. */
+    private <V> void remove(
+        ConcurrentMap<String, CacheEntry<V>> cache,
+        String key,
+        CacheEntry<V> entry)
+    {
+        if (cache.remove(key, entry)) {
+            version.incrementAndGet();
+        }
+    }
+
+    /** Returns statistics about the use of this schema's metadata cache. */
+    public CacheStatistics getCacheStatistics() {
+        return new CacheStatistics(hitCount.get(), missCount.get());
+    }
+
+    /**
+     * Returns the value for a key from a cache, calling {@code loader} to
+     * compute it if it is absent or has expired.
+     *
+     * <p>If several threads ask for the same key at the same time, only one
+     * calls the loader, and the others wait for its result. Failures are not
+     * cached.</p>
+     */
+    private <V> V lookup(
+        ConcurrentMap<String, CacheEntry<V>> cache,
+        String key,
+        Callable<V> loader)
+    {
+        final long timeout = cacheTimeoutMillis;
+        if (timeout == 0) {
+            missCount.incrementAndGet();
+            return new CacheEntry<V>(loader).get();
+        }
+        for (;;) {
+            CacheEntry<V> entry = cache.get(key);
+            if (entry != null && entry.isExpired(timeout)) {
+                remove(cache, key, entry);
+                entry = null;
+            }
+            if (entry == null) {
+                final CacheEntry<V> newEntry = new CacheEntry<V>(loader);
+                entry = cache.putIfAbsent(key, newEntry);
+                if (entry == null) {
+                    missCount.incrementAndGet();
+                    try {
+                        return newEntry.get();
+                    } catch (RuntimeException e) {
+                        cache.remove(key, newEntry);
+                        throw e;
+                    }
+                }
+            }
+            try {
+                final V value = entry.task.get();
+                hitCount.incrementAndGet();
+                return value;
+            } catch (CancellationException e) {
+                cache.remove(key, entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                // Another thread's load failed. Try again, and if it fails
+                // again, this thread will see the exception.
+                cache.remove(key, entry);
+            }
+        }
+    }
+
     public List<TableFunction> getTableFunctions(String name) {
         return Collections.emptyList();
     }
 
     public Collection<String> getTableNames() {
+        return lookup(
+            tableNamesCache,
+            "",
+            new Callable<List<String>>() {
+                public List<String> call() {
+                    return Collections.unmodifiableList(loadTableNames());
+                }
+            });
+    }
+
+    private List<String> loadTableNames() {
         Connection connection = null;
         ResultSet resultSet = null;
         try {
@@ -159,9 +433,20 @@ public class JdbcSchema implements Schema {
         }
     }
 
-    public <T> Table<T> getTable(String name, Class<T> elementType) {
+    public <T> Table<T> getTable(final String name, Class<T> elementType) {
         assert elementType != null;
+        //noinspection unchecked
+        return (Table) lookup(
+            tableCache,
+            name,
+            new Callable<JdbcTable>() {
+                public JdbcTable call() {
+                    return loadTable(name);
+                }
+            });
+    }
 
+    private JdbcTable loadTable(String name) {
         Connection connection = null;
         ResultSet resultSet = null;
         try {
@@ -201,7 +486,8 @@ public class JdbcSchema implements Schema {
             }
             final RelDataType type =
                 typeFactory.createStructType(fieldInfo);
-            return (Table) new JdbcTable(type, this, name);
+            return new JdbcTable(
+                type, this, catalogName, schemaName, tableName);
         } catch (SQLException e) {
             throw new RuntimeException(
                 "Exception while reading definition of table '" + name + "'",
@@ -236,11 +522,72 @@ public class JdbcSchema implements Schema {
         return null;
     }
 
+    public Object get(String name) {
+        return null;
+    }
+
     public Collection<String> getSubSchemaNames() {
         return Collections.emptyList();
     }
 
-    private static void close(
+    /** Statistics about the use of a {@link JdbcSchema}'s metadata cache.
+     * A hit is a request satisfied without reading from the data source;
+     * a miss is one that read from the data source. */
+    public static class CacheStatistics {
+        public final long hitCount;
+        public final long missCount;
+
+        public CacheStatistics(long hitCount, long missCount) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hitCount + ", misses=" + missCount;
+        }
+    }
+
+    /** Entry in a metadata cache. Holds the task that computes the value, so
+     * that threads that want the same value can wait for it rather than
+     * reading it themselves. */
+    private static class CacheEntry<V> {
+        final FutureTask<V> task;
+        final long timestamp = System.currentTimeMillis();
+
+        CacheEntry(Callable<V> loader) {
+            this.task = new FutureTask<V>(loader);
+        }
+
+        /** Returns whether this entry is older than a given timeout; a
+         * negative timeout means that entries never expire. */
+        boolean isExpired(long timeout) {
+            return timeout > 0
+                && System.currentTimeMillis() - timestamp >= timeout;
+        }
+
+        /** Computes the value in the current thread and returns it. */
+        V get() {
+            task.run();
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    static void close(
         Connection connection, Statement statement, ResultSet resultSet)
     {
         if (resultSet != null) {
@@ -21,15 +21,23 @@ import net.hydromatic.linq4j.*;
 import net.hydromatic.linq4j.expressions.*;
 
 import net.hydromatic.linq4j.function.*;
-import net.hydromatic.optiq.DataContext;
-import net.hydromatic.optiq.Table;
+import net.hydromatic.optiq.*;
 
+import org.eigenbase.rel.RelNode;
+import org.eigenbase.relopt.RelOptCluster;
+import org.eigenbase.relopt.RelOptTable;
 import org.eigenbase.reltype.RelDataType;
-import org.eigenbase.sql.SqlWriter;
-import org.eigenbase.sql.pretty.SqlPrettyWriter;
+import org.eigenbase.reltype.RelDataTypeField;
+import org.eigenbase.sql.*;
+import org.eigenbase.sql.fun.SqlStdOperatorTable;
+import org.eigenbase.sql.parser.SqlParserPos;
 
 import java.lang.reflect.Type;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
 
 /**
@@ -41,20 +49,34 @@ import java.util.*;
  * The resulting queryable can then be converted to a SQL query, which can be
  * executed efficiently on the JDBC server.</p>
  *
+ * <p>When used in a SQL statement, the table is translated to a
+ * {@link JdbcRules.JdbcTableScan}, and the planner pushes filters,
+ * projections, aggregations, sorts and joins into the generated SQL.</p>
+ *
  * @author jhyde
  */
-class JdbcTable extends AbstractQueryable<Object[]> implements Table<Object[]> {
+class JdbcTable
+    extends AbstractQueryable<Object[]>
+    implements TranslatableTable<Object[]>, StatisticalTable<Object[]>
+{
     private final JdbcSchema schema;
+    private final String catalogName;
+    private final String schemaName;
     private final String tableName;
     private final RelDataType rowType;
+    private volatile Statistic statistic;
 
     public JdbcTable(
         RelDataType rowType,
         JdbcSchema schema,
+        String catalogName,
+        String schemaName,
         String tableName)
     {
         this.rowType = rowType;
         this.schema = schema;
+        this.catalogName = catalogName;
+        this.schemaName = schemaName;
         this.tableName = tableName;
         assert rowType != null;
         assert schema != null;
@@ -65,6 +87,26 @@ class JdbcTable extends AbstractQueryable<Object[]> implements Table<Object[]> {
         return "JdbcTable {" + tableName + "}";
     }
 
+    /** Returns the name of the table within the data source. */
+    public String getName() {
+        return tableName;
+    }
+
+    /** Returns the fully-qualified name of the table, for use in SQL
+     * statements. Omits the catalog and schema if they are null or empty. */
+    SqlIdentifier tableName() {
+        final List<String> names = new ArrayList<String>(3);
+        if (catalogName != null && !catalogName.equals("")) {
+            names.add(catalogName);
+        }
+        if (schemaName != null && !schemaName.equals("")) {
+            names.add(schemaName);
+        }
+        names.add(tableName);
+        return new SqlIdentifier(
+            names.toArray(new String[names.size()]), SqlParserPos.ZERO);
+    }
+
     public QueryProvider getProvider() {
         return schema.queryProvider;
     }
@@ -91,26 +133,166 @@ class JdbcTable extends AbstractQueryable<Object[]> implements Table<Object[]> {
     }
 
     public Enumerator<Object[]> enumerator() {
-        SqlWriter writer = new SqlPrettyWriter(schema.dialect);
-        writer.keyword("select");
-        writer.literal("*");
-        writer.keyword("from");
-        writer.identifier("foodmart");
-        writer.literal(".");
-        writer.identifier(tableName);
-        final String sql = writer.toString();
-
-        Function1<ResultSet, Function0<Object[]>> rowBuilderFactory;
-            rowBuilderFactory =
-                JdbcUtils.ObjectArrayRowBuilder.factory(
-                    JdbcUtils.getPrimitives(
-                        schema.typeFactory, rowType));
+        final SqlSelect select =
+            SqlStdOperatorTable.selectOperator.createCall(
+                null,
+                new SqlNodeList(
+                    Collections.singletonList(
+                        new SqlIdentifier("*", SqlParserPos.ZERO)),
+                    SqlParserPos.ZERO),
+                tableName(),
+                null,
+                null,
+                null,
+                null,
+                null,
+                SqlParserPos.ZERO);
+        final String sql = select.toSqlString(schema.dialect).getSql();
+        Function1<ResultSet, Function0<Object[]>> rowBuilderFactory =
+            JdbcUtils.ObjectArrayRowBuilder.factory(
+                JdbcUtils.getPrimitives(schema.typeFactory, rowType));
         return JdbcUtils.sqlEnumerator(sql, schema, rowBuilderFactory);
     }
 
     public RelDataType getRowType() {
         return rowType;
     }
+
+    /** Returns statistics about this table. They are read from the data
+     * source the first time they are needed, and live as long as this table
+     * remains in its schema's cache. */
+    public Statistic getStatistic() {
+        Statistic statistic = this.statistic;
+        if (statistic == null) {
+            // If two threads get here at the same time, both will read the
+            // statistics. That is harmless.
+            statistic = readStatistic();
+            this.statistic = statistic;
+        }
+        return statistic;
+    }
+
+    /** Reads statistics about this table from the data source.
+     *
+     * <p>Gets the row count and the number of distinct values of each
+     * column that has a single-column index from
+     * {@link DatabaseMetaData#getIndexInfo}, asking for approximate values.
+     * If that does not give the row count, and the schema allows it (see
+     * {@link JdbcSchema#setCountRows(boolean)}), executes
+     * {@code select count(*)}.</p>
+     *
+     * <p>Statistics only affect the quality of plans, so returns
+     * {@link Statistics#UNKNOWN} rather than throwing if the data source
+     * cannot provide them.</p>
+     */
+    private Statistic readStatistic() {
+        Connection connection = null;
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = schema.dataSource.getConnection();
+            resultSet =
+                connection.getMetaData().getIndexInfo(
+                    catalogName, schemaName, tableName, false, true);
+            Double rowCount = null;
+            final Map<String, IndexInfo> indexes =
+                new HashMap<String, IndexInfo>();
+            while (resultSet.next()) {
+                final short type = resultSet.getShort(7);
+                final double cardinality = resultSet.getDouble(11);
+                final boolean cardinalityKnown = !resultSet.wasNull();
+                if (type == DatabaseMetaData.tableIndexStatistic) {
+                    if (cardinalityKnown) {
+                        rowCount = cardinality;
+                    }
+                    continue;
+                }
+                final String indexName = resultSet.getString(6);
+                IndexInfo index = indexes.get(indexName);
+                if (index == null) {
+                    index = new IndexInfo(!resultSet.getBoolean(4));
+                    indexes.put(indexName, index);
+                }
+                index.columnNames.add(resultSet.getString(9));
+                if (cardinalityKnown) {
+                    index.cardinality = cardinality;
+                }
+            }
+            resultSet.close();
+            resultSet = null;
+
+            // Every row has a distinct value in a unique index.
+            if (rowCount == null) {
+                for (IndexInfo index : indexes.values()) {
+                    if (index.unique && index.cardinality != null) {
+                        rowCount = index.cardinality;
+                    }
+                }
+            }
+            if (rowCount == null && schema.isCountRows()) {
+                statement = connection.createStatement();
+                resultSet =
+                    statement.executeQuery(
+                        "select count(*) from "
+                        + tableName().toSqlString(schema.dialect).getSql());
+                if (resultSet.next()) {
+                    rowCount = resultSet.getDouble(1);
+                }
+            }
+
+            final List<RelDataTypeField> fields = rowType.getFieldList();
+            final List<ColumnStatistic> columnStatistics =
+                new ArrayList<ColumnStatistic>(
+                    Collections.<ColumnStatistic>nCopies(
+                        fields.size(), null));
+            for (IndexInfo index : indexes.values()) {
+                if (index.columnNames.size() != 1) {
+                    continue;
+                }
+                final Double distinctCount =
+                    index.unique ? rowCount : index.cardinality;
+                if (distinctCount == null) {
+                    continue;
+                }
+                for (int i = 0; i < fields.size(); i++) {
+                    if (fields.get(i).getName().equals(
+                            index.columnNames.get(0)))
+                    {
+                        columnStatistics.set(
+                            i,
+                            new ColumnStatistic(
+                                distinctCount, null, null, null, null));
+                    }
+                }
+            }
+            return Statistics.of(rowCount, columnStatistics);
+        } catch (SQLException e) {
+            return Statistics.UNKNOWN;
+        } finally {
+            JdbcSchema.close(connection, statement, resultSet);
+        }
+    }
+
+    public RelNode toRel(
+        RelOptTable.ToRelContext context,
+        RelOptTable relOptTable)
+    {
+        final RelOptCluster cluster = context.getCluster();
+        schema.convention.register(cluster.getPlanner());
+        return new JdbcRules.JdbcTableScan(
+            cluster, relOptTable, this, schema.convention);
+    }
+
+    /** Information about an index, gathered while reading statistics. */
+    private static class IndexInfo {
+        final boolean unique;
+        final List<String> columnNames = new ArrayList<String>();
+        Double cardinality;
+
+        IndexInfo(boolean unique) {
+            this.unique = unique;
+        }
+    }
 }
 
 // End JdbcTable.java
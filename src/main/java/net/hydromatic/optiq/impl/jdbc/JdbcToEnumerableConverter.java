@@ -0,0 +1,124 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.impl.jdbc;
+
+import net.hydromatic.linq4j.expressions.*;
+
+import net.hydromatic.optiq.BuiltinMethod;
+import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.rules.java.*;
+import net.hydromatic.optiq.runtime.Hook;
+
+import org.eigenbase.rel.RelCollation;
+import org.eigenbase.rel.RelNode;
+import org.eigenbase.rel.convert.ConverterRelImpl;
+import org.eigenbase.relopt.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Relational expression representing a scan of a table in a JDBC data source.
+ *
+ * <p>Generates the SQL for its input, a tree of {@link JdbcRel}s, and
+ * generates Java code that executes that SQL statement and returns its rows
+ * as an {@link net.hydromatic.linq4j.Enumerable}.</p>
+ *
+ * @author jhyde
+ */
+public class JdbcToEnumerableConverter
+    extends ConverterRelImpl
+    implements EnumerableRel
+{
+    private final PhysType physType;
+
+    protected JdbcToEnumerableConverter(
+        RelOptCluster cluster,
+        RelTraitSet traits,
+        RelNode input)
+    {
+        super(cluster, ConventionTraitDef.instance, traits, input);
+        this.physType =
+            PhysTypeImpl.of(
+                (JavaTypeFactory) cluster.getTypeFactory(),
+                getRowType(),
+                (EnumerableConvention) getConvention());
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new JdbcToEnumerableConverter(
+            getCluster(), traitSet, sole(inputs));
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner) {
+        return super.computeSelfCost(planner).multiplyBy(.1);
+    }
+
+    public PhysType getPhysType() {
+        return physType;
+    }
+
+    /** Returns the collations of the input. The generated SQL keeps the
+     * ORDER BY of the input (see {@link JdbcImplementor.Result#builder}), so
+     * the data source returns the rows in that order. */
+    @Override
+    public List<RelCollation> getCollationList() {
+        return getChild().getCollationList();
+    }
+
+    /** Generates the SQL statement for this converter's input. */
+    public String generateSql() {
+        final JdbcConvention convention =
+            (JdbcConvention) getChild().getConvention();
+        final JdbcImplementor jdbcImplementor =
+            new JdbcImplementor(convention.dialect);
+        final JdbcImplementor.Result result =
+            jdbcImplementor.visitChild(0, getChild());
+        return result.asSelect().toSqlString(convention.dialect).getSql();
+    }
+
+    public BlockExpression implement(EnumerableRelImplementor implementor) {
+        // Generate:
+        //   ((JdbcSchema) schema).query(
+        //       root, "select ...", new Class[] {...})
+        final JdbcConvention convention =
+            (JdbcConvention) getChild().getConvention();
+        final String sql = generateSql();
+        Hook.QUERY_PLAN.run(sql);
+        final List<Expression> fieldClasses = new ArrayList<Expression>();
+        for (int i = 0; i < getRowType().getFieldCount(); i++) {
+            fieldClasses.add(Expressions.constant(physType.fieldClass(i)));
+        }
+        final BlockBuilder list = new BlockBuilder();
+        list.add(
+            Expressions.return_(
+                null,
+                Expressions.call(
+                    Expressions.convert_(
+                        convention.expression, JdbcSchema.class),
+                    BuiltinMethod.JDBC_SCHEMA_QUERY.method,
+                    EnumerableRelImplementor.ROOT,
+                    Expressions.constant(sql),
+                    Expressions.newArrayInit(Class.class, fieldClasses))));
+        return list.toBlock();
+    }
+}
+
+// End JdbcToEnumerableConverter.java
@@ -22,6 +22,7 @@ import net.hydromatic.linq4j.expressions.Primitive;
 import net.hydromatic.linq4j.function.*;
 
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.runtime.ExecutionContext;
 
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.reltype.RelDataTypeField;
@@ -44,43 +45,191 @@ final class JdbcUtils {
 
     /** Executes a SQL query and returns the results as an enumerator. The
      * parameterization not withstanding, the result type must be an array of
-     * objects. */
+     * objects. Uses the data source's default fetch size, and the statement
+     * cannot be cancelled. */
     static <T> Enumerator<T> sqlEnumerator(
         String sql,
         JdbcSchema dataContext,
         Function1<ResultSet, Function0<T>> rowBuilderFactory)
     {
-        Connection connection;
-        Statement statement;
-        try {
-            connection = dataContext.dataSource.getConnection();
-            statement = connection.createStatement();
-            final ResultSet resultSet;
-            resultSet = statement.executeQuery(sql);
-            final Function0<T> rowBuilder = rowBuilderFactory.apply(resultSet);
-            return new Enumerator<T>() {
-                public T current() {
-                    return rowBuilder.apply();
+        return new JdbcEnumerator<T>(
+            sql, dataContext, rowBuilderFactory, 0, null);
+    }
+
+    /** Executes a SQL query and returns the results as an enumerator.
+     *
+     * <p>The query is not executed until the first call to
+     * {@link Enumerator#moveNext()}. The JDBC statement and connection are
+     * closed, returning the connection to the data source's pool, when the
+     * last row has been read, or when the execution context is closed,
+     * whichever happens first.</p>
+     *
+     * @param sql SQL query
+     * @param schema Schema whose data source will execute the query
+     * @param rowBuilderFactory Creates a row builder for a result set
+     * @param fetchSize Number of rows to fetch at a time; 0 means use the
+     *     driver's default
+     * @param executionContext Execution context that may cancel or close
+     *     the statement; may be null
+     */
+    static <T> Enumerator<T> sqlEnumerator(
+        String sql,
+        JdbcSchema schema,
+        Function1<ResultSet, Function0<T>> rowBuilderFactory,
+        int fetchSize,
+        ExecutionContext executionContext)
+    {
+        return new JdbcEnumerator<T>(
+            sql, schema, rowBuilderFactory, fetchSize, executionContext);
+    }
+
+    /** Enumerator that reads the results of a SQL query from a JDBC data
+     * source, streaming rows rather than reading them all into memory. */
+    private static class JdbcEnumerator<T>
+        implements Enumerator<T>, ExecutionContext.Resource
+    {
+        private final String sql;
+        private final JdbcSchema schema;
+        private final Function1<ResultSet, Function0<T>> rowBuilderFactory;
+        private final int fetchSize;
+        private final ExecutionContext executionContext;
+
+        private Connection connection;
+        private volatile Statement statement;
+        private ResultSet resultSet;
+        private Function0<T> rowBuilder;
+        private boolean done;
+        private volatile boolean cancelled;
+
+        JdbcEnumerator(
+            String sql,
+            JdbcSchema schema,
+            Function1<ResultSet, Function0<T>> rowBuilderFactory,
+            int fetchSize,
+            ExecutionContext executionContext)
+        {
+            this.sql = sql;
+            this.schema = schema;
+            this.rowBuilderFactory = rowBuilderFactory;
+            this.fetchSize = fetchSize;
+            this.executionContext = executionContext;
+        }
+
+        public T current() {
+            return rowBuilder.apply();
+        }
+
+        public boolean moveNext() {
+            if (done) {
+                return false;
+            }
+            try {
+                if (resultSet == null) {
+                    open();
+                }
+                if (resultSet.next()) {
+                    return true;
                 }
+            } catch (SQLException e) {
+                close();
+                if (cancelled) {
+                    throw new RuntimeException(
+                        "Statement cancelled: " + sql, e);
+                }
+                throw new RuntimeException(
+                    "Error while executing SQL: " + sql, e);
+            }
+            done = true;
+            close();
+            return false;
+        }
 
-                public boolean moveNext() {
-                    try {
-                        return resultSet.next();
-                    } catch (SQLException e) {
-                        throw new RuntimeException(e);
-                    }
+        /** Resets by closing the current statement; the query is executed
+         * again on the next call to {@link #moveNext()}. (The result set is
+         * forward-only, so we cannot just call {@link ResultSet#first()}.) */
+        public void reset() {
+            close();
+            done = false;
+        }
+
+        private void open() throws SQLException {
+            if (cancelled) {
+                throw new SQLException("Statement cancelled");
+            }
+            connection = schema.dataSource.getConnection();
+            final Statement statement =
+                connection.createStatement(
+                    ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            this.statement = statement;
+            if (fetchSize > 0) {
+                if (schema.dialect.getDatabaseProduct()
+                    == SqlDialect.DatabaseProduct.MYSQL)
+                {
+                    // MySQL's driver reads the whole result into memory
+                    // unless fetch size is MIN_VALUE (or the connection has
+                    // useCursorFetch=true).
+                    statement.setFetchSize(Integer.MIN_VALUE);
+                } else {
+                    statement.setFetchSize(fetchSize);
+                }
+            }
+            if (executionContext != null) {
+                executionContext.register(this);
+                if (this.statement == null) {
+                    // Execution was closed while we were registering.
+                    throw new SQLException("Statement closed");
                 }
+            }
+            resultSet = statement.executeQuery(sql);
+            rowBuilder = rowBuilderFactory.apply(resultSet);
+        }
 
-                public void reset() {
-                    try {
-                        resultSet.first();
-                    } catch (SQLException e) {
-                        throw new RuntimeException(e);
-                    }
+        public void cancel() {
+            cancelled = true;
+            final Statement statement = this.statement;
+            if (statement != null) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    // ignore
                 }
-            };
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+            }
+        }
+
+        public void close() {
+            done = true;
+            if (executionContext != null) {
+                executionContext.unregister(this);
+            }
+            final ResultSet resultSet = this.resultSet;
+            final Statement statement = this.statement;
+            final Connection connection = this.connection;
+            this.resultSet = null;
+            this.statement = null;
+            this.connection = null;
+            this.rowBuilder = null;
+            if (resultSet != null) {
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                    // ignore
+                }
+            }
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // ignore
+                }
+            }
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    // ignore
+                }
+            }
         }
     }
 
@@ -19,6 +19,7 @@ package net.hydromatic.optiq.jdbc;
 
 import net.hydromatic.optiq.MutableSchema;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.prepare.PlanCache;
 
 import net.hydromatic.linq4j.QueryProvider;
 
@@ -56,6 +57,18 @@ public interface OptiqConnection extends Connection, QueryProvider {
      */
     JavaTypeFactory getTypeFactory();
 
+    /**
+     * Returns the cache of prepared statements.
+     *
+     * <p>By default, connections share
+     * {@link net.hydromatic.optiq.prepare.PlanCache#INSTANCE}. If the
+     * {@code planCacheSize} connection property is set, the connection has
+     * its own cache of that capacity.</p>
+     *
+     * @return Plan cache
+     */
+    PlanCache getPlanCache();
+
     /**
      * Returns an instance of the connection properties.
      *
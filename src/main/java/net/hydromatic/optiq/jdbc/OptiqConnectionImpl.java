@@ -27,11 +27,14 @@ import net.hydromatic.optiq.impl.clone.CloneSchema;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
 import net.hydromatic.optiq.impl.java.MapSchema;
 import net.hydromatic.optiq.impl.jdbc.JdbcSchema;
+import net.hydromatic.optiq.prepare.PlanCache;
 import net.hydromatic.optiq.server.OptiqServer;
 import net.hydromatic.optiq.server.OptiqServerStatement;
 
 import org.apache.commons.dbcp.BasicDataSource;
 
+import org.eigenbase.relopt.volcano.PlanningBudget;
+
 import java.lang.reflect.Type;
 import java.sql.*;
 import java.util.*;
@@ -65,6 +68,7 @@ abstract class OptiqConnectionImpl implements OptiqConnection, QueryProvider {
     private String schema;
     private final OptiqDatabaseMetaData metaData;
     final Helper helper = Helper.INSTANCE;
+    final PlanCache planCache;
 
     final OptiqServer server = new OptiqServer() {
         final List<OptiqServerStatement> statementList =
@@ -104,6 +108,11 @@ abstract class OptiqConnectionImpl implements OptiqConnection, QueryProvider {
         this.holdability = metaData.getResultSetHoldability();
         this.informationSchema =
             metaData.meta.createInformationSchema();
+        final String planCacheSize = info.getProperty("planCacheSize");
+        this.planCache =
+            planCacheSize == null
+                ? PlanCache.INSTANCE
+                : new PlanCache(Integer.parseInt(planCacheSize));
 
         // Temporary... for testing under Mondrian.
         if (info.getProperty("cloneFoodMart") != null) {
@@ -151,10 +160,76 @@ abstract class OptiqConnectionImpl implements OptiqConnection, QueryProvider {
         return typeFactory;
     }
 
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+
     public Properties getProperties() {
         return info;
     }
 
+    /**
+     * Returns the limits on the effort spent planning each statement, from
+     * the {@code plannerTimeLimit} (milliseconds),
+     * {@code plannerRuleFiringLimit} and {@code plannerSetLimit} connection
+     * properties. Reads the properties each time, so changes made via
+     * {@link #getProperties()} apply to statements prepared afterwards.
+     */
+    PlanningBudget getPlanningBudget() {
+        final long timeLimit = intProperty("plannerTimeLimit");
+        final int ruleFiringLimit = intProperty("plannerRuleFiringLimit");
+        final int setLimit = intProperty("plannerSetLimit");
+        if (timeLimit == 0 && ruleFiringLimit == 0 && setLimit == 0) {
+            return PlanningBudget.UNLIMITED;
+        }
+        return new PlanningBudget(timeLimit, ruleFiringLimit, setLimit);
+    }
+
+    /**
+     * Returns the maximum number of rows that the operators of each
+     * statement may hold in memory before they spill rows to disk, from the
+     * {@code memoryRowLimit} connection property, or 0 if there is no limit.
+     */
+    int getMemoryRowLimit() {
+        return intProperty("memoryRowLimit");
+    }
+
+    /**
+     * Returns whether to apply heuristic rewrites, such as pushing filters
+     * past joins, in a separate pass before cost-based planning, from the
+     * {@code heuristicPlanning} connection property. True unless the
+     * property is "false".
+     */
+    boolean isHeuristicPlanning() {
+        return !"false".equalsIgnoreCase(
+            info.getProperty("heuristicPlanning"));
+    }
+
+    /**
+     * Returns whether to generate code that fuses an aggregate without
+     * GROUP BY with the calc and scan beneath it, and a join with the calc
+     * above it, from the {@code operatorFusion} connection property. True
+     * unless the property is "false".
+     */
+    boolean isOperatorFusion() {
+        return !"false".equalsIgnoreCase(
+            info.getProperty("operatorFusion"));
+    }
+
+    private int intProperty(String name) {
+        final String value = info.getProperty(name);
+        if (value == null) {
+            return 0;
+        }
+        final int i = Integer.parseInt(value);
+        if (i < 0) {
+            throw new IllegalArgumentException(
+                "connection property " + name + " must not be negative: "
+                + value);
+        }
+        return i;
+    }
+
     // QueryProvider methods
 
     public <T> Queryable<T> createQuery(
@@ -180,7 +255,7 @@ abstract class OptiqConnectionImpl implements OptiqConnection, QueryProvider {
             OptiqStatement statement = createStatement();
             OptiqPrepare.PrepareResult enumerable =
                 statement.prepare(queryable);
-            return (Enumerator<T>) enumerable.execute();
+            return (Enumerator<T>) enumerable.execute(rootSchema);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
@@ -17,14 +17,18 @@
 */
 package net.hydromatic.optiq.jdbc;
 
+import net.hydromatic.linq4j.Enumerable;
 import net.hydromatic.linq4j.Enumerator;
 import net.hydromatic.linq4j.Queryable;
-import net.hydromatic.linq4j.RawEnumerable;
 
 import net.hydromatic.optiq.*;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.prepare.PlanCache;
 import net.hydromatic.optiq.runtime.ColumnMetaData;
+import net.hydromatic.optiq.runtime.ExecutionContext;
+import net.hydromatic.optiq.runtime.FieldReader;
 
+import org.eigenbase.relopt.volcano.PlanningBudget;
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.sql.SqlNode;
 
@@ -35,6 +39,7 @@ import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.*;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -63,6 +68,24 @@ public interface OptiqPrepare {
         Schema getRootSchema();
 
         List<String> getDefaultSchemaPath();
+
+        /** Returns the cache in which to look for, and store, prepared
+         * statements; or null if statements are not to be cached. */
+        PlanCache getPlanCache();
+
+        /** Returns the limits on the effort spent planning a statement;
+         * never null. */
+        PlanningBudget getPlanningBudget();
+
+        /** Returns whether to apply heuristic rewrites in a separate pass
+         * before cost-based planning. If false, the rewrite rules are given
+         * to the cost-based planner instead. */
+        boolean isHeuristicPlanning();
+
+        /** Returns whether to generate code that evaluates a pipeline of
+         * operators in a single loop, rather than as a chain of
+         * enumerators. */
+        boolean isOperatorFusion();
     }
 
     public static class ParseResult {
@@ -78,35 +101,77 @@ public interface OptiqPrepare {
         }
     }
 
+    /** Statement that has been prepared and can be executed any number of
+     * times, each time with different values for its parameters. */
+    interface Bindable<T> {
+        /**
+         * Executes the statement.
+         *
+         * <p>The statement may have been prepared by another connection
+         * (see {@link net.hydromatic.optiq.prepare.PlanCache}), so it reads
+         * from the root schema of the connection that executes it.</p>
+         *
+         * @param rootSchema Root schema of the executing connection
+         * @param parameterValues Values of the parameters; the i'th value is
+         *   returned from {@link DataContext#get} with name "?i"
+         * @param executionContext Settings and resources of this execution,
+         *   returned from {@link DataContext#get} with name
+         *   {@link ExecutionContext#NAME}; may be null
+         * @return Enumerable over the rows of the result
+         */
+        Enumerable<T> bind(
+            Schema rootSchema,
+            List<Object> parameterValues,
+            ExecutionContext executionContext);
+    }
+
     public static class PrepareResult<T> {
         public final String sql; // for debug
         public final List<Parameter> parameterList;
         public final List<ColumnMetaData> columnList;
-        public final RawEnumerable<T> enumerable;
+        public final Bindable<T> bindable;
         public final Class resultClazz;
+        /** Generated readers of the fields of each row, or null if the rows
+         * are not records; see {@link FieldReader}. */
+        public final List<FieldReader> fieldReaderList;
 
         public PrepareResult(
             String sql,
             List<Parameter> parameterList,
             List<ColumnMetaData> columnList,
-            RawEnumerable<T> enumerable,
-            Class resultClazz)
+            Bindable<T> bindable,
+            Class resultClazz,
+            List<FieldReader> fieldReaderList)
         {
             super();
             this.sql = sql;
             this.parameterList = parameterList;
             this.columnList = columnList;
-            this.enumerable = enumerable;
+            this.bindable = bindable;
             this.resultClazz = resultClazz;
+            this.fieldReaderList = fieldReaderList;
         }
 
-        public Enumerator<T> execute() {
-            return enumerable.enumerator();
+        public Enumerator<T> execute(Schema rootSchema) {
+            return execute(rootSchema, Collections.emptyList(), null);
+        }
+
+        public Enumerator<T> execute(
+            Schema rootSchema,
+            List<Object> parameterValues,
+            ExecutionContext executionContext)
+        {
+            return bindable.bind(rootSchema, parameterValues, executionContext)
+                .enumerator();
         }
     }
 
   /**
      * Metadata for a parameter. Plus a slot to hold its value.
+     *
+     * <p>Prepared statements may share a {@link PrepareResult} (see
+     * {@link net.hydromatic.optiq.prepare.PlanCache}), so each statement holds
+     * its own copy of the parameters; see {@link #copy()}.</p>
      */
     public static class Parameter {
         public final boolean signed;
@@ -139,25 +204,39 @@ public interface OptiqPrepare {
             this.name = name;
         }
 
+        /** Creates a copy of this parameter, with no value. */
+        public Parameter copy() {
+            return new Parameter(
+                signed, precision, scale, parameterType, typeName, className,
+                name);
+        }
+
         public void setByte(byte o) {
+            setValue((Object) o);
         }
 
         public void setValue(char o) {
+            setValue((Object) String.valueOf(o));
         }
 
         public void setShort(short o) {
+            setValue((Object) o);
         }
 
         public void setInt(int o) {
+            setValue((Object) o);
         }
 
         public void setValue(long o) {
+            setValue((Object) o);
         }
 
         public void setValue(byte[] o) {
+            setValue((Object) o);
         }
 
         public void setBoolean(boolean o) {
+            setValue((Object) o);
         }
 
         public void setValue(Object o) {
@@ -171,10 +250,22 @@ public interface OptiqPrepare {
             return value != null;
         }
 
+        /** Returns the value of this parameter; null if it has been set to
+         * null, or has not been set. */
+        public Object getValue() {
+            return value == DUMMY_VALUE ? null : value;
+        }
+
+        /** Removes the value of this parameter. */
+        public void clear() {
+            value = null;
+        }
+
         public void setRowId(RowId x) {
         }
 
         public void setNString(String value) {
+            setValue(value);
         }
 
         public void setNCharacterStream(Reader value, long length) {
@@ -229,42 +320,55 @@ public interface OptiqPrepare {
         }
 
         public void setTimestamp(Timestamp x) {
+            setValue(x);
         }
 
         public void setTime(Time x) {
+            setValue(x);
         }
 
         public void setFloat(float x) {
+            setValue((Object) x);
         }
 
         public void setDouble(double x) {
+            setValue((Object) x);
         }
 
         public void setBigDecimal(BigDecimal x) {
+            setValue(x);
         }
 
         public void setString(String x) {
+            setValue(x);
         }
 
         public void setBytes(byte[] x) {
+            setValue((Object) x);
         }
 
         public void setDate(Date x, Calendar cal) {
+            setValue(x);
         }
 
         public void setDate(Date x) {
+            setValue(x);
         }
 
         public void setObject(Object x, int targetSqlType) {
+            setValue(x);
         }
 
         public void setObject(Object x) {
+            setValue(x);
         }
 
         public void setNull(int sqlType) {
+            setValue((Object) null);
         }
 
         public void setTime(Time x, Calendar cal) {
+            setValue(x);
         }
 
         public void setRef(Ref x) {
@@ -280,15 +384,19 @@ public interface OptiqPrepare {
         }
 
         public void setTimestamp(Timestamp x, Calendar cal) {
+            setValue(x);
         }
 
         public void setNull(int sqlType, String typeName) {
+            setValue((Object) null);
         }
 
         public void setURL(URL x) {
+            setValue(x);
         }
 
         public void setObject(Object x, int targetSqlType, int scaleOrLength) {
+            setValue(x);
         }
     }
 }
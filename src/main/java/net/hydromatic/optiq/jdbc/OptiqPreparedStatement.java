@@ -24,7 +24,9 @@ import java.io.Reader;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 
 /**
  * Implementation of {@link java.sql.PreparedStatement}
@@ -41,6 +43,8 @@ abstract class OptiqPreparedStatement
 {
     private final OptiqPrepare.PrepareResult<?> prepareResult;
     private final ResultSetMetaData resultSetMetaData;
+    private final List<OptiqPrepare.Parameter> parameterList =
+        new ArrayList<OptiqPrepare.Parameter>();
 
     /**
      * Creates an OptiqPreparedStatement.
@@ -62,6 +66,12 @@ abstract class OptiqPreparedStatement
             connection, resultSetType, resultSetConcurrency,
             resultSetHoldability);
         this.prepareResult = parseQuery(sql);
+
+        // The prepared result may be shared with other statements, so make
+        // our own copies of the parameters to hold values.
+        for (OptiqPrepare.Parameter parameter : prepareResult.parameterList) {
+            parameterList.add(parameter.copy());
+        }
         this.resultSetMetaData =
             connection.factory.newResultSetMetaData(this, prepareResult);
     }
@@ -69,9 +79,30 @@ abstract class OptiqPreparedStatement
     // implement PreparedStatement
 
     public ResultSet executeQuery() throws SQLException {
+        checkParameters();
         return executeQueryInternal(prepareResult);
     }
 
+    /** Throws if any parameter has not been set. A parameter set to null,
+     * using {@link #setNull}, is set. */
+    private void checkParameters() throws SQLException {
+        for (int i = 0; i < parameterList.size(); i++) {
+            if (!parameterList.get(i).isSet()) {
+                throw connection.helper.createException(
+                    "parameter ordinal " + (i + 1) + " is not set");
+            }
+        }
+    }
+
+    @Override
+    protected List<Object> getParameterValues() {
+        final List<Object> list = new ArrayList<Object>();
+        for (OptiqPrepare.Parameter parameter : parameterList) {
+            list.add(parameter.getValue());
+        }
+        return list;
+    }
+
     public ParameterMetaData getParameterMetaData() throws SQLException {
         return this;
     }
@@ -159,7 +190,9 @@ abstract class OptiqPreparedStatement
     }
 
     public void clearParameters() throws SQLException {
-        throw new UnsupportedOperationException();
+        for (OptiqPrepare.Parameter parameter : parameterList) {
+            parameter.clear();
+        }
     }
 
     public void setObject(
@@ -173,7 +206,8 @@ abstract class OptiqPreparedStatement
     }
 
     public boolean execute() throws SQLException {
-        throw new UnsupportedOperationException();
+        checkParameters();
+        return executeInternal(prepareResult);
     }
 
     public void addBatch() throws SQLException {
@@ -258,7 +292,7 @@ abstract class OptiqPreparedStatement
     protected OptiqPrepare.Parameter getParameter(int param) throws SQLException
     {
         try {
-            return prepareResult.parameterList.get(param - 1);
+            return parameterList.get(param - 1);
         } catch (IndexOutOfBoundsException e) {
             //noinspection ThrowableResultOfMethodCallIgnored
             throw connection.helper.toSQLException(
@@ -268,7 +302,7 @@ abstract class OptiqPreparedStatement
     }
 
     public int getParameterCount() {
-        return prepareResult.parameterList.size();
+        return parameterList.size();
     }
 
     public int isNullable(int param) throws SQLException {
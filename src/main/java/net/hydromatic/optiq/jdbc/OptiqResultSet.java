@@ -52,6 +52,7 @@ public class OptiqResultSet implements ResultSet {
     private int concurrency;
     private int holdability;
     private boolean closed;
+    private volatile ExecutionContext executionContext;
 
     OptiqResultSet(
         OptiqStatement statement,
@@ -83,11 +84,18 @@ public class OptiqResultSet implements ResultSet {
 
     public void close() {
         closed = true;
+        final ExecutionContext executionContext = this.executionContext;
+        if (executionContext != null) {
+            executionContext.close();
+        }
     }
 
     // not JDBC
     void cancel() {
-        // TODO:
+        final ExecutionContext executionContext = this.executionContext;
+        if (executionContext != null) {
+            executionContext.cancel();
+        }
     }
 
     /**
@@ -98,10 +106,28 @@ public class OptiqResultSet implements ResultSet {
      * execute/cancel don't happen at the same time.</p>
      */
     void execute() {
-        Enumerator enumerator = prepareResult.execute();
+        executionContext =
+            new ExecutionContext(
+                fetchSize,
+                statement.getQueryTimeoutMillis(),
+                statement.connection.getMemoryRowLimit());
+        Enumerator enumerator =
+            prepareResult.execute(
+                statement.connection.getRootSchema(),
+                statement.getParameterValues(),
+                executionContext);
+        final int maxRows = statement.getMaxRows();
+        if (maxRows > 0) {
+            // Stop reading from the enumerator, and hence from any back-end,
+            // after maxRows rows.
+            enumerator = Enumerables.limit(enumerator, 0, maxRows);
+        }
         this.cursor =
             prepareResult.columnList.size() == 1
                 ? new ObjectEnumeratorCursor(enumerator)
+                : prepareResult.fieldReaderList != null
+                ? new FieldReaderCursor(
+                    enumerator, prepareResult.fieldReaderList)
                 : prepareResult.resultClazz != null
                     && !prepareResult.resultClazz.isArray()
                 ? new RecordEnumeratorCursor(
@@ -117,13 +143,24 @@ public class OptiqResultSet implements ResultSet {
     }
 
     public boolean next() throws SQLException {
+        final ExecutionContext executionContext = this.executionContext;
+        if (executionContext != null && executionContext.isCancelled()) {
+            // Cancelled by Statement.cancel() or by the query timeout.
+            throw statement.connection.helper.createException(
+                "Statement canceled");
+        }
         if (cursor.next()) {
             ++row;
             return true;
-        } else {
-            afterLast = true;
-            return false;
         }
+        if (executionContext != null && executionContext.isCancelled()) {
+            // Cancelled while the cursor was waiting for a row; a parallel
+            // scan, for instance, stops returning rows.
+            throw statement.connection.helper.createException(
+                "Statement canceled");
+        }
+        afterLast = true;
+        return false;
     }
 
     public boolean wasNull() throws SQLException {
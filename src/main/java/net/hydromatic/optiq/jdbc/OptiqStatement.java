@@ -20,8 +20,11 @@ package net.hydromatic.optiq.jdbc;
 import net.hydromatic.linq4j.Queryable;
 import net.hydromatic.optiq.Schema;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.prepare.PlanCache;
 import net.hydromatic.optiq.server.OptiqServerStatement;
 
+import org.eigenbase.relopt.volcano.PlanningBudget;
+
 import java.sql.*;
 import java.util.Collections;
 import java.util.List;
@@ -54,6 +57,7 @@ abstract class OptiqStatement
     final int resultSetHoldability;
     private int fetchSize;
     private int fetchDirection;
+    private int maxRows;
 
     OptiqStatement(
         OptiqConnectionImpl connection,
@@ -112,12 +116,16 @@ abstract class OptiqStatement
         throw new UnsupportedOperationException();
     }
 
-    public int getMaxRows() throws SQLException {
-        throw new UnsupportedOperationException();
+    public int getMaxRows() {
+        return maxRows;
     }
 
     public void setMaxRows(int max) throws SQLException {
-        throw new UnsupportedOperationException();
+        if (max < 0) {
+            throw connection.helper.createException(
+                "illegal maxRows value " + max);
+        }
+        this.maxRows = max;
     }
 
     public void setEscapeProcessing(boolean enable) throws SQLException {
@@ -368,6 +376,16 @@ abstract class OptiqStatement
         }
     }
 
+    /**
+     * Returns the values of the parameters of this statement, to be used
+     * when it is next executed. A plain statement has no parameters.
+     *
+     * @return List of parameter values
+     */
+    protected List<Object> getParameterValues() {
+        return Collections.emptyList();
+    }
+
     protected <T> OptiqPrepare.PrepareResult<T> parseQuery(String sql) {
         return net.hydromatic.optiq.prepare.Factory.implement().prepareSql(
             new ContextImpl(connection), sql, null, Object[].class);
@@ -400,6 +418,22 @@ abstract class OptiqStatement
                 ? Collections.<String>emptyList()
                 : Collections.singletonList(schemaName);
         }
+
+        public PlanCache getPlanCache() {
+            return connection.planCache;
+        }
+
+        public PlanningBudget getPlanningBudget() {
+            return connection.getPlanningBudget();
+        }
+
+        public boolean isHeuristicPlanning() {
+            return connection.isHeuristicPlanning();
+        }
+
+        public boolean isOperatorFusion() {
+            return connection.isOperatorFusion();
+        }
     }
 }
 
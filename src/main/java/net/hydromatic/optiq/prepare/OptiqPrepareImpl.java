@@ -30,7 +30,12 @@ import net.hydromatic.optiq.runtime.*;
 import org.eigenbase.oj.stmt.*;
 import org.eigenbase.rel.*;
 import org.eigenbase.rel.rules.*;
+import org.eigenbase.rel.metadata.CachingRelMetadataProvider;
+import org.eigenbase.rel.metadata.ChainedRelMetadataProvider;
+import org.eigenbase.rel.metadata.RelMetadataProvider;
 import org.eigenbase.relopt.*;
+import org.eigenbase.relopt.hep.*;
+import org.eigenbase.relopt.volcano.PlanningBudget;
 import org.eigenbase.relopt.volcano.VolcanoPlanner;
 import org.eigenbase.reltype.*;
 import org.eigenbase.rex.RexBuilder;
@@ -41,8 +46,12 @@ import org.eigenbase.sql.parser.SqlParseException;
 import org.eigenbase.sql.parser.SqlParser;
 import org.eigenbase.sql.type.*;
 import org.eigenbase.sql.util.ChainedSqlOperatorTable;
+import org.eigenbase.sql.util.SqlBasicVisitor;
 import org.eigenbase.sql.validate.*;
 import org.eigenbase.sql2rel.SqlToRelConverter;
+import org.eigenbase.stat.RelStatSource;
+import org.eigenbase.trace.EigenbaseTimingTracer;
+import org.eigenbase.trace.EigenbaseTrace;
 import org.eigenbase.util.Pair;
 
 import org.codehaus.janino.*;
@@ -76,7 +85,10 @@ class OptiqPrepareImpl implements OptiqPrepare {
             new OptiqPreparingStmt(
                 catalogReader,
                 typeFactory,
-                context.getRootSchema());
+                context.getRootSchema(),
+                context.getPlanningBudget(),
+                context.isHeuristicPlanning(),
+                context.isOperatorFusion());
         preparingStmt.setResultConvention(EnumerableConvention.ARRAY);
 
         SqlParser parser = new SqlParser(sql);
@@ -107,7 +119,45 @@ class OptiqPrepareImpl implements OptiqPrepare {
         Queryable<T> expression,
         Type elementType)
     {
-        return prepare_(context, sql, expression, elementType);
+        final PlanCache planCache = context.getPlanCache();
+        if (planCache == null || sql == null) {
+            return prepare_(context, sql, expression, elementType);
+        }
+        final Schema rootSchema = context.getRootSchema();
+        final List<String> schemaPath = context.getDefaultSchemaPath();
+        final List<Object> settings = planSettings(context);
+        PrepareResult<T> prepareResult =
+            planCache.get(rootSchema, sql, schemaPath, elementType, settings);
+        if (prepareResult == null) {
+            final OptiqPreparingStmt preparingStmt =
+                createPreparingStmt(context);
+            prepareResult =
+                prepare2_(context, sql, expression, elementType, preparingStmt);
+
+            // Do not cache a plan that the planning budget cut short; the
+            // next attempt may find a better one.
+            if (preparingStmt.getBudgetExhaustion() == null) {
+                // Put after preparing; preparing may have caused tables to
+                // be added to the schema, changing its version.
+                planCache.put(
+                    rootSchema, sql, schemaPath, elementType, settings,
+                    prepareResult);
+            }
+        }
+        return prepareResult;
+    }
+
+    /** Returns the values of the settings that affect how a statement is
+     * planned and implemented, and which therefore form part of its key in
+     * the plan cache. */
+    private static List<Object> planSettings(Context context) {
+        final PlanningBudget budget = context.getPlanningBudget();
+        return Arrays.<Object>asList(
+            budget.timeLimitMillis,
+            budget.ruleFiringLimit,
+            budget.setLimit,
+            context.isHeuristicPlanning(),
+            context.isOperatorFusion());
     }
 
     <T> PrepareResult<T> prepare_(
@@ -116,17 +166,35 @@ class OptiqPrepareImpl implements OptiqPrepare {
         Queryable<T> queryable,
         Type elementType)
     {
+        return prepare2_(
+            context, sql, queryable, elementType,
+            createPreparingStmt(context));
+    }
+
+    private OptiqPreparingStmt createPreparingStmt(Context context) {
         final JavaTypeFactory typeFactory = context.getTypeFactory();
         OptiqCatalogReader catalogReader =
             new OptiqCatalogReader(
                 context.getRootSchema(),
                 context.getDefaultSchemaPath(),
                 typeFactory);
-        final OptiqPreparingStmt preparingStmt =
-            new OptiqPreparingStmt(
-                catalogReader,
-                typeFactory,
-                context.getRootSchema());
+        return new OptiqPreparingStmt(
+            catalogReader,
+            typeFactory,
+            context.getRootSchema(),
+            context.getPlanningBudget(),
+            context.isHeuristicPlanning(),
+            context.isOperatorFusion());
+    }
+
+    private <T> PrepareResult<T> prepare2_(
+        Context context,
+        String sql,
+        Queryable<T> queryable,
+        Type elementType,
+        OptiqPreparingStmt preparingStmt)
+    {
+        final JavaTypeFactory typeFactory = context.getTypeFactory();
         final EnumerableConvention convention;
         if (elementType == Object[].class) {
             convention = EnumerableConvention.ARRAY;
@@ -137,6 +205,8 @@ class OptiqPrepareImpl implements OptiqPrepare {
 
         final RelDataType x;
         final PreparedResult preparedResult;
+        final List<Parameter> parameters = new ArrayList<Parameter>();
+        final List<Type> parameterTypes = new ArrayList<Type>();
         if (sql != null) {
             assert queryable == null;
             SqlParser parser = new SqlParser(sql);
@@ -153,7 +223,8 @@ class OptiqPrepareImpl implements OptiqPrepare {
                         SqlStdOperatorTable.instance(),
                         new OptiqSqlOperatorTable(rootSchema, typeFactory)));
             final SqlValidator validator =
-                new OptiqSqlValidator(opTab, catalogReader, typeFactory);
+                new OptiqSqlValidator(
+                    opTab, preparingStmt.getCatalogReader(), typeFactory);
             preparedResult = preparingStmt.prepareSql(
                 sqlNode, Object.class, validator, true);
             if (sqlNode instanceof SqlInsert) {
@@ -162,6 +233,25 @@ class OptiqPrepareImpl implements OptiqPrepare {
             } else {
                 x = validator.getValidatedNodeType(sqlNode);
             }
+            for (SqlDynamicParam dynamicParam : findDynamicParams(sqlNode)) {
+                final RelDataType type =
+                    validator.getValidatedNodeType(dynamicParam);
+                final SqlTypeName sqlTypeName = type.getSqlTypeName();
+                Type javaClass = typeFactory.getJavaClass(type);
+                if (!(javaClass instanceof Class)) {
+                    javaClass = Object.class;
+                }
+                parameterTypes.add(javaClass);
+                parameters.add(
+                    new Parameter(
+                        SqlTypeUtil.isNumeric(type),
+                        sqlTypeName.allowsPrec() ? type.getPrecision() : 0,
+                        sqlTypeName.allowsScale() ? type.getScale() : 0,
+                        sqlTypeName.getJdbcOrdinal(),
+                        sqlTypeName.getName(),
+                        ((Class) javaClass).getName(),
+                        "?" + dynamicParam.getIndex()));
+            }
         } else {
             assert queryable != null;
             x = context.getTypeFactory().createType(elementType);
@@ -169,8 +259,6 @@ class OptiqPrepareImpl implements OptiqPrepare {
                 preparingStmt.prepareQueryable(queryable, x);
         }
 
-        // TODO: parameters
-        final List<Parameter> parameters = Collections.emptyList();
         // TODO: column meta data
         final List<ColumnMetaData> columns =
             new ArrayList<ColumnMetaData>();
@@ -210,18 +298,118 @@ class OptiqPrepareImpl implements OptiqPrepare {
                     false,
                     null));
         }
-        final Enumerable<T> enumerable =
-            (Enumerable<T>) preparedResult.execute();
+        // Execute the compiled code each time the statement is bound to a
+        // set of parameter values, not once now. Then the result can be
+        // executed several times, and shared via the plan cache, including
+        // with other connections.
+        final Bindable<T> bindable =
+            new Bindable<T>() {
+                public Enumerable<T> bind(
+                    Schema rootSchema,
+                    List<Object> parameterValues,
+                    ExecutionContext executionContext)
+                {
+                    if (!(preparedResult instanceof OptiqPreparedExecution)) {
+                        //noinspection unchecked
+                        return (Enumerable<T>) preparedResult.execute();
+                    }
+                    final List<Object> values = new ArrayList<Object>();
+                    for (Ord<Object> value : Ord.zip(parameterValues)) {
+                        final Type type = parameterTypes.get(value.i);
+                        if (value.e == null
+                            && type instanceof Class
+                            && ((Class) type).isPrimitive())
+                        {
+                            throw new IllegalArgumentException(
+                                "parameter ordinal " + (value.i + 1)
+                                + " must not be null");
+                        }
+                        values.add(coerce(value.e, type));
+                    }
+                    //noinspection unchecked
+                    return ((OptiqPreparedExecution) preparedResult).execute(
+                        new ExecutionDataContext(
+                            rootSchema, values, executionContext));
+                }
+            };
         Class resultClazz = null;
         if (preparedResult instanceof Typed) {
             resultClazz = (Class) ((Typed) preparedResult).getElementType();
         }
+        List<FieldReader> fieldReaders = null;
+        if (preparedResult instanceof OptiqPreparedExecution) {
+            fieldReaders =
+                ((OptiqPreparedExecution) preparedResult).getFieldReaders();
+        }
         return new PrepareResult<T>(
             sql,
             parameters,
             columns,
-            enumerable,
-            resultClazz);
+            bindable,
+            resultClazz,
+            fieldReaders);
+    }
+
+    /** Returns the dynamic parameters in a statement, ordered by index. */
+    private static List<SqlDynamicParam> findDynamicParams(SqlNode sqlNode) {
+        final List<SqlDynamicParam> list = new ArrayList<SqlDynamicParam>();
+        sqlNode.accept(
+            new SqlBasicVisitor<Void>() {
+                public Void visit(SqlDynamicParam param) {
+                    while (list.size() <= param.getIndex()) {
+                        list.add(null);
+                    }
+                    list.set(param.getIndex(), param);
+                    return null;
+                }
+            });
+        return list;
+    }
+
+    /** Converts the value of a parameter to the Java class that the generated
+     * code expects; for example, a {@link Long} to an {@link Integer}, or a
+     * {@code byte[]} to a {@link ByteString}. */
+    private static Object coerce(Object value, Type type) {
+        if (value == null
+            || !(type instanceof Class)
+            || ((Class) type).isInstance(value))
+        {
+            return value;
+        }
+        final Class clazz = (Class) type;
+        if (value instanceof Number) {
+            final Number number = (Number) value;
+            Primitive primitive = Primitive.ofBox(clazz);
+            if (primitive == null) {
+                primitive = Primitive.of(clazz);
+            }
+            if (primitive != null) {
+                switch (primitive) {
+                case BYTE:
+                    return number.byteValue();
+                case SHORT:
+                    return number.shortValue();
+                case INT:
+                    return number.intValue();
+                case LONG:
+                    return number.longValue();
+                case FLOAT:
+                    return number.floatValue();
+                case DOUBLE:
+                    return number.doubleValue();
+                }
+            }
+            if (clazz == BigDecimal.class) {
+                return new BigDecimal(number.toString());
+            }
+        }
+        if (value instanceof byte[] && clazz == ByteString.class) {
+            return new ByteString((byte[]) value);
+        }
+        if (clazz == String.class) {
+            return value.toString();
+        }
+        return value;
     }
 
     private static RelDataType makeStruct(
@@ -235,21 +423,98 @@ class OptiqPrepareImpl implements OptiqPrepare {
             RelDataTypeFactory.FieldInfoBuilder.of("$0", type));
     }
 
+    /**
+     * Rewrites that almost always improve a plan, and so are applied
+     * before cost-based planning, to give the cost-based planner a smaller
+     * search space.
+     *
+     * <p>Each list of rules becomes one {@link HepProgram}, and the programs
+     * are applied in order. Within a program, the rules fire until none of
+     * them matches. The first program reduces constant expressions and
+     * prunes relational expressions that can return no rows; the second
+     * pushes filters and projects towards the inputs and merges adjacent
+     * filters, projects and unions.</p>
+     */
+    private static final List<List<RelOptRule>> HEURISTIC_RULES =
+        Arrays.<List<RelOptRule>>asList(
+            Arrays.<RelOptRule>asList(
+                ReduceExpressionsRule.filterInstance,
+                ReduceExpressionsRule.projectInstance,
+                ReduceExpressionsRule.joinInstance,
+                ReduceExpressionsRule.calcInstance,
+                RemoveEmptyRule.unionInstance,
+                RemoveEmptyRule.projectInstance,
+                RemoveEmptyRule.filterInstance),
+            Arrays.<RelOptRule>asList(
+                PushFilterPastProjectRule.instance,
+                PushFilterPastJoinRule.instance,
+                PushFilterPastSetOpRule.instance,
+                MergeFilterRule.instance,
+                PushProjectPastJoinRule.instance,
+                MergeProjectRule.instance,
+                RemoveTrivialProjectRule.instance,
+                CombineUnionsRule.instance));
+
+    /** Creates the programs of heuristic rewrites that are applied, in
+     * order, to each statement before cost-based planning. Programs keep
+     * state while they run, so each statement gets its own.
+     *
+     * <p>After the {@link #HEURISTIC_RULES}, a last program chooses the
+     * order of joins. It flattens each tree of joins, bottom-up, into a
+     * {@link MultiJoinRel}, then converts each MultiJoinRel back into a tree
+     * of joins, in an order chosen by {@link OptimizeJoinOrderRule}. The
+     * cost-based planner does not reorder joins.</p> */
+    static List<HepProgram> createHeuristicPrograms() {
+        final List<HepProgram> programs = new ArrayList<HepProgram>();
+        for (List<RelOptRule> rules : HEURISTIC_RULES) {
+            final HepProgramBuilder builder = new HepProgramBuilder();
+            builder.addRuleCollection(rules);
+            programs.add(builder.createProgram());
+        }
+        final HepProgramBuilder builder = new HepProgramBuilder();
+        builder.addMatchOrder(HepMatchOrder.BOTTOM_UP);
+        builder.addRuleInstance(ConvertMultiJoinRule.instance);
+        builder.addRuleInstance(OptimizeJoinOrderRule.instance);
+        builder.addRuleCollection(
+            Arrays.<RelOptRule>asList(
+                MergeProjectRule.instance,
+                RemoveTrivialProjectRule.instance));
+        programs.add(builder.createProgram());
+        return programs;
+    }
+
     private static class OptiqPreparingStmt extends OJPreparingStmt {
         private final RelOptPlanner planner;
+        private final List<HepProgram> heuristicPrograms;
+        private final boolean operatorFusion;
         private final RexBuilder rexBuilder;
         private final Schema schema;
         private int expansionDepth;
         private SqlValidator sqlValidator;
 
+        /** Converter for the statement being prepared. It remembers the
+         * correlating variables that {@link #decorrelate} removes. Converters
+         * created to expand views are not stored. */
+        private SqlToRelConverter sqlToRelConverter;
+
         public OptiqPreparingStmt(
             CatalogReader catalogReader,
             RelDataTypeFactory typeFactory,
-            Schema schema)
+            Schema schema,
+            PlanningBudget planningBudget,
+            boolean heuristicPlanning,
+            boolean operatorFusion)
         {
             super(catalogReader);
             this.schema = schema;
-            planner = new VolcanoPlanner();
+            this.operatorFusion = operatorFusion;
+            this.timingTracer =
+                new EigenbaseTimingTracer(
+                    EigenbaseTrace.getSqlTimingTracer(), "begin prepare");
+            final VolcanoPlanner volcanoPlanner = new VolcanoPlanner();
+            volcanoPlanner.setBudget(planningBudget);
+            volcanoPlanner.setExecutor(new RexExecutorImpl());
+            planner = volcanoPlanner;
             planner.addRelTraitDef(ConventionTraitDef.instance);
             RelOptUtil.registerAbstractRels(planner);
             planner.addRule(JavaRules.ENUMERABLE_JOIN_RULE);
@@ -262,13 +527,26 @@ class OptiqPrepareImpl implements OptiqPrepare {
             planner.addRule(JavaRules.ENUMERABLE_TABLE_MODIFICATION_RULE);
             planner.addRule(JavaRules.ENUMERABLE_VALUES_RULE);
             planner.addRule(JavaRules.ENUMERABLE_ONE_ROW_RULE);
+            planner.addRule(JavaRules.ENUMERABLE_EMPTY_RULE);
             planner.addRule(JavaRules.ENUMERABLE_CUSTOM_TO_ARRAY_RULE);
             planner.addRule(JavaRules.ENUMERABLE_ARRAY_TO_CUSTOM_RULE);
             planner.addRule(JavaRules.EnumerableCustomCalcRule.INSTANCE);
             planner.addRule(TableAccessRule.instance);
-            planner.addRule(PushFilterPastProjectRule.instance);
-            planner.addRule(PushFilterPastJoinRule.instance);
             planner.addRule(RemoveDistinctAggregateRule.instance);
+            planner.addRule(ReduceAggregatesRule.instance);
+            planner.addRule(SemiJoinRule.instance);
+            planner.addRule(JavaRules.ENUMERABLE_SEMI_JOIN_RULE);
+            if (heuristicPlanning) {
+                heuristicPrograms = createHeuristicPrograms();
+            } else {
+                // Let the cost-based planner apply the rewrites.
+                heuristicPrograms = Collections.emptyList();
+                for (List<RelOptRule> rules : HEURISTIC_RULES) {
+                    for (RelOptRule rule : rules) {
+                        planner.addRule(rule);
+                    }
+                }
+            }
 
             rexBuilder = new RexBuilder(typeFactory);
         }
@@ -322,6 +600,84 @@ class OptiqPrepareImpl implements OptiqPrepare {
                 SqlKind.SELECT);
         }
 
+        OptiqCatalogReader getCatalogReader() {
+            return (OptiqCatalogReader) catalogReader;
+        }
+
+        /** Returns a description of the budget limit that stopped the
+         * planner, or null if planning ran to completion. */
+        String getBudgetExhaustion() {
+            return planner instanceof VolcanoPlanner
+                ? ((VolcanoPlanner) planner).getBudgetExhaustion()
+                : null;
+        }
+
+        @Override
+        protected RelNode optimize(
+            RelDataType logicalRowType,
+            RelNode rootRel)
+        {
+            // Apply cheap rewrites first, so that the cost-based planner
+            // has fewer alternatives to consider.
+            rootRel = applyHeuristicPrograms(rootRel);
+
+            // Cache metadata (row counts, selectivity and so forth) while
+            // planning; the planner's timestamps tell the cache when a
+            // result is stale.
+            final RelOptCluster cluster = rootRel.getCluster();
+            cluster.setMetadataProvider(
+                new CachingRelMetadataProvider(
+                    cluster.getMetadataProvider(), planner));
+            final RelNode optimized = super.optimize(logicalRowType, rootRel);
+            if (timingTracer != null && planner instanceof VolcanoPlanner) {
+                final VolcanoPlanner volcanoPlanner = (VolcanoPlanner) planner;
+                final String exhaustion = volcanoPlanner.getBudgetExhaustion();
+                timingTracer.traceTime(
+                    "end planning ("
+                    + volcanoPlanner.getRuleFiringCount() + " rule firings"
+                    + (exhaustion == null
+                        ? ""
+                        : ", stopped at " + exhaustion)
+                    + ")");
+            }
+            return optimized;
+        }
+
+        /**
+         * Applies the heuristic programs, in order, to a relational
+         * expression. Each program runs in its own {@link HepPlanner}.
+         *
+         * <p>While a program runs, the metadata of the planner's vertices
+         * comes from the planner, and is not cached, because a vertex
+         * changes each time a rule fires.</p>
+         */
+        private RelNode applyHeuristicPrograms(RelNode rootRel) {
+            if (heuristicPrograms.isEmpty()) {
+                return rootRel;
+            }
+            final RelOptCluster cluster = rootRel.getCluster();
+            final RelMetadataProvider metadataProvider =
+                cluster.getMetadataProvider();
+            try {
+                for (HepProgram program : heuristicPrograms) {
+                    final HepPlanner hepPlanner = new HepPlanner(program);
+                    final ChainedRelMetadataProvider chain =
+                        new ChainedRelMetadataProvider();
+                    chain.addProvider(metadataProvider);
+                    hepPlanner.registerMetadataProviders(chain);
+                    cluster.setMetadataProvider(chain);
+                    hepPlanner.setRoot(rootRel);
+                    rootRel = hepPlanner.findBestExp();
+                }
+            } finally {
+                cluster.setMetadataProvider(metadataProvider);
+            }
+            if (timingTracer != null) {
+                timingTracer.traceTime("end heuristic planning");
+            }
+            return rootRel;
+        }
+
         @Override
         protected SqlToRelConverter getSqlToRelConverter(
             SqlValidator validator,
@@ -331,6 +687,9 @@ class OptiqPrepareImpl implements OptiqPrepare {
                 new SqlToRelConverter(
                     this, validator, catalogReader, env, planner, rexBuilder);
             sqlToRelConverter.setTrimUnusedFields(false);
+            if (expansionDepth == 0) {
+                this.sqlToRelConverter = sqlToRelConverter;
+            }
             return sqlToRelConverter;
         }
 
@@ -338,7 +697,7 @@ class OptiqPrepareImpl implements OptiqPrepare {
         protected EnumerableRelImplementor getRelImplementor(
             RexBuilder rexBuilder)
         {
-            return new EnumerableRelImplementor(rexBuilder);
+            return new EnumerableRelImplementor(rexBuilder, operatorFusion);
         }
 
         @Override
@@ -382,6 +741,9 @@ class OptiqPrepareImpl implements OptiqPrepare {
         }
 
         private SqlToRelConverter getSqlToRelConverter() {
+            if (sqlToRelConverter != null) {
+                return sqlToRelConverter;
+            }
             return getSqlToRelConverter(getSqlValidator(), catalogReader);
         }
 
@@ -395,7 +757,10 @@ class OptiqPrepareImpl implements OptiqPrepare {
 
         @Override
         protected RelNode decorrelate(SqlNode query, RelNode rootRel) {
-            return rootRel;
+            // Converts correlated sub-queries (EXISTS, IN, scalar sub-queries
+            // that reference the outer query) into joins and aggregates, which
+            // the enumerable rules can implement.
+            return getSqlToRelConverter().decorrelate(query, rootRel);
         }
 
         @Override
@@ -445,6 +810,7 @@ class OptiqPrepareImpl implements OptiqPrepare {
             RelDataType resultType = rootRel.getRowType();
             boolean isDml = sqlKind.belongsTo(SqlKind.DML);
             javaCompiler = createCompiler();
+            Hook.PLAN.run(RelOptUtil.toString(rootRel));
             EnumerableRelImplementor relImplementor =
                 getRelImplementor(rootRel.getCluster().getRexBuilder());
             ClassDeclaration expr =
@@ -456,6 +822,7 @@ class OptiqPrepareImpl implements OptiqPrepare {
                 System.out.println();
                 System.out.println(s);
             }
+            Hook.JAVA_PLAN.run(s);
 
             final Executable executable;
             try {
@@ -464,7 +831,11 @@ class OptiqPrepareImpl implements OptiqPrepare {
                         new Scanner(null, new StringReader(s)),
                         expr.name,
                         Utilities.class,
-                        new Class[]{Executable.class, Typed.class},
+                        new Class[] {
+                            Executable.class,
+                            Typed.class,
+                            FieldReader.Provider.class
+                        },
                         getClass().getClassLoader());
             } catch (Exception e) {
                 throw Helper.INSTANCE.wrap(
@@ -479,25 +850,95 @@ class OptiqPrepareImpl implements OptiqPrepare {
                 timingTracer.traceTime("end compilation");
             }
 
-            return new PreparedExecution(
-                null,
+            return new OptiqPreparedExecution(
                 rootRel,
                 resultType,
                 isDml,
                 mapTableModOp(isDml, sqlKind),
-                null,
-                fieldOrigins)
-            {
-                @Override
-                public Object execute() {
-                    return executable.execute(schema);
-                }
+                fieldOrigins,
+                executable,
+                schema);
+        }
+    }
 
-                @Override
-                public Type getElementType() {
-                    return ((Typed) executable).getElementType();
-                }
-            };
+    /** Prepared statement whose generated code has been compiled into an
+     * {@link Executable}. */
+    private static class OptiqPreparedExecution extends PreparedExecution {
+        private final Executable executable;
+        private final DataContext root;
+
+        OptiqPreparedExecution(
+            RelNode rootRel,
+            RelDataType rowType,
+            boolean isDml,
+            TableModificationRel.Operation tableModOp,
+            List<List<String>> fieldOrigins,
+            Executable executable,
+            DataContext root)
+        {
+            super(
+                null, rootRel, rowType, isDml, tableModOp, null, fieldOrigins);
+            this.executable = executable;
+            this.root = root;
+        }
+
+        @Override
+        public Object execute() {
+            return executable.execute(root);
+        }
+
+        /** Executes the statement against a given data context; for example,
+         * one that supplies the values of dynamic parameters. */
+        public Enumerable execute(DataContext dataContext) {
+            return executable.execute(dataContext);
+        }
+
+        @Override
+        public Type getElementType() {
+            return ((Typed) executable).getElementType();
+        }
+
+        /** Returns the generated readers of the fields of the rows, or null
+         * if the rows are not records. */
+        public List<FieldReader> getFieldReaders() {
+            return ((FieldReader.Provider) executable).getFieldReaders();
+        }
+    }
+
+    /** Data context that supplies the values of dynamic parameters and the
+     * {@link ExecutionContext}, and delegates everything else to the root
+     * schema. */
+    private static class ExecutionDataContext implements DataContext {
+        private final DataContext root;
+        private final List<Object> values;
+        private final ExecutionContext executionContext;
+
+        ExecutionDataContext(
+            DataContext root,
+            List<Object> values,
+            ExecutionContext executionContext)
+        {
+            this.root = root;
+            this.values = values;
+            this.executionContext = executionContext;
+        }
+
+        public <T> Queryable<T> getTable(String name, Class<T> elementType) {
+            return root.getTable(name, elementType);
+        }
+
+        public Schema getSubSchema(String name) {
+            return root.getSubSchema(name);
+        }
+
+        public Object get(String name) {
+            if (name.startsWith("?")) {
+                return values.get(Integer.parseInt(name.substring(1)));
+            }
+            if (name.equals(ExecutionContext.NAME)) {
+                return executionContext;
+            }
+            return root.get(name);
         }
     }
 
@@ -552,10 +993,32 @@ class OptiqPrepareImpl implements OptiqPrepare {
             if (clazz.isInstance(table)) {
                 return clazz.cast(table);
             }
+            if (clazz == RelStatSource.class) {
+                final Statistic statistic = getStatistic();
+                if (statistic != null) {
+                    return clazz.cast(Statistics.toRelStatSource(statistic));
+                }
+            }
+            return null;
+        }
+
+        /** Returns statistics about the table, or null if the table does not
+         * provide any. */
+        private Statistic getStatistic() {
+            if (table instanceof StatisticalTable) {
+                return ((StatisticalTable) table).getStatistic();
+            }
             return null;
         }
 
         public double getRowCount() {
+            final Statistic statistic = getStatistic();
+            if (statistic != null) {
+                final Double rowCount = statistic.getRowCount();
+                if (rowCount != null) {
+                    return rowCount;
+                }
+            }
             return 100;
         }
 
@@ -585,6 +1048,14 @@ class OptiqPrepareImpl implements OptiqPrepare {
         }
 
         public List<RelCollation> getCollationList() {
+            final Statistic statistic = getStatistic();
+            if (statistic != null) {
+                final List<RelCollation> collations =
+                    statistic.getCollations();
+                if (collations != null) {
+                    return collations;
+                }
+            }
             return Collections.emptyList();
         }
 
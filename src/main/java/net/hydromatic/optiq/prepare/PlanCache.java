@@ -0,0 +1,351 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.prepare;
+
+import net.hydromatic.optiq.Schema;
+import net.hydromatic.optiq.TableFunction;
+import net.hydromatic.optiq.VersionedSchema;
+import net.hydromatic.optiq.jdbc.OptiqPrepare;
+
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of prepared statements.
+ *
+ * <p>Preparing a statement (parsing, validation, planning, and compiling the
+ * generated Java code) is expensive, and applications tend to execute the
+ * same small set of statements many times. A plan cache remembers the
+ * {@link OptiqPrepare.PrepareResult} of each statement, keyed by its SQL text,
+ * the default schema path, the type of its rows, the values of the
+ * settings that affect planning (such as the planning budget), the
+ * contents of the root schema and its version.</p>
+ *
+ * <p>By default, all connections share {@link #INSTANCE}. Two connections
+ * share a plan only if their root schemas contain the same sub-schema and
+ * table objects under the same names; connections that each create their
+ * own schemas therefore only re-use their own plans.</p>
+ *
+ * <p>When the version of the root schema changes (for example, when a
+ * table is added to a {@link net.hydromatic.optiq.MutableSchema}, or a
+ * {@link net.hydromatic.optiq.impl.jdbc.JdbcSchema} is refreshed) the
+ * statement is prepared again; entries for old versions are no longer
+ * found, and are eventually evicted.</p>
+ *
+ * <p>The cache is divided into segments, each with its own lock, so that
+ * threads preparing different statements rarely wait for each other. The
+ * least-recently used entry of a segment is evicted when the segment is
+ * full.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public class PlanCache {
+    /** Default maximum number of entries. */
+    public static final int DEFAULT_CAPACITY = 500;
+
+    /** Maximum number of segments. */
+    private static final int SEGMENT_COUNT = 16;
+
+    /** Cache shared by all connections that do not set the
+     * {@code planCacheSize} property. */
+    public static final PlanCache INSTANCE = new PlanCache(DEFAULT_CAPACITY);
+
+    private final int capacity;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates a PlanCache.
+     *
+     * @param capacity Maximum number of entries
+     */
+    public PlanCache(int capacity) {
+        assert capacity > 0;
+        this.capacity = capacity;
+        final int segmentCount = Math.min(SEGMENT_COUNT, capacity);
+        for (int i = 0; i < segmentCount; i++) {
+            segments.add(
+                new Segment(
+                    capacity / segmentCount
+                    + (i < capacity % segmentCount ? 1 : 0)));
+        }
+    }
+
+    /**
+     * Looks up a prepared statement.
+     *
+     * @param rootSchema Root schema
+     * @param sql SQL text
+     * @param schemaPath Default schema path
+     * @param elementType Type of rows
+     * @param settings Values of the settings that affect planning
+     * @return Prepared statement, or null if not found
+     */
+    public <T> OptiqPrepare.PrepareResult<T> get(
+        Schema rootSchema,
+        String sql,
+        List<String> schemaPath,
+        Type elementType,
+        List<Object> settings)
+    {
+        final Key key =
+            new Key(rootSchema, sql, schemaPath, elementType, settings);
+        //noinspection unchecked
+        final OptiqPrepare.PrepareResult<T> result = segment(key).get(key);
+        if (result != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Adds a prepared statement to the cache.
+     *
+     * <p>Call this method after the statement has been prepared, because
+     * preparing a statement may itself modify the schema (for
+     * instance, a {@link net.hydromatic.optiq.impl.clone.CloneSchema} loads
+     * tables on first use), and the entry is keyed by the version of the
+     * schema when this method is called.</p>
+     *
+     * @param rootSchema Root schema
+     * @param sql SQL text
+     * @param schemaPath Default schema path
+     * @param elementType Type of rows
+     * @param settings Values of the settings that affect planning
+     * @param result Prepared statement
+     */
+    public void put(
+        Schema rootSchema,
+        String sql,
+        List<String> schemaPath,
+        Type elementType,
+        List<Object> settings,
+        OptiqPrepare.PrepareResult result)
+    {
+        final Key key =
+            new Key(rootSchema, sql, schemaPath, elementType, settings);
+        segment(key).put(key, result);
+    }
+
+    private Segment segment(Key key) {
+        // Spread the hash bits, as HashMap does, before choosing a segment.
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments.get((h & 0x7fffffff) % segments.size());
+    }
+
+    /** Removes all entries. */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /** Returns the number of entries. */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /** Returns the maximum number of entries. */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Returns the number of look-ups that found a prepared statement. */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** Returns the number of look-ups that did not find a prepared
+     * statement. */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /** Returns the number of entries removed to make room for newer
+     * entries. */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public String toString() {
+        return "PlanCache(size=" + size()
+            + ", capacity=" + capacity
+            + ", hits=" + hitCount
+            + ", misses=" + missCount
+            + ", evictions=" + evictionCount
+            + ")";
+    }
+
+    /** Returns the version of a schema, or 0 if its contents never change. */
+    static long version(Schema schema) {
+        return schema instanceof VersionedSchema
+            ? ((VersionedSchema) schema).getVersion()
+            : 0L;
+    }
+
+    /** Returns a list of the names and objects that a root schema contains:
+     * its sub-schemas, tables and table functions. Objects are compared by
+     * identity. */
+    static List<Object> contents(Schema rootSchema) {
+        final List<Object> list = new ArrayList<Object>();
+        for (String name : new TreeSet<String>(rootSchema.getSubSchemaNames()))
+        {
+            list.add(name);
+            list.add(new Identity(rootSchema.getSubSchema(name)));
+        }
+        for (String name : new TreeSet<String>(rootSchema.getTableNames())) {
+            list.add(name);
+            list.add(new Identity(rootSchema.getTable(name, Object.class)));
+        }
+        for (Map.Entry<String, List<TableFunction>> entry
+            : new TreeMap<String, List<TableFunction>>(
+                rootSchema.getTableFunctions()).entrySet())
+        {
+            list.add(entry.getKey());
+            for (TableFunction tableFunction : entry.getValue()) {
+                list.add(new Identity(tableFunction));
+            }
+        }
+        return list;
+    }
+
+    /** Part of a cache, with its own lock, holding the entries whose keys
+     * hash to it. Access-ordered, so that the eldest entry is the
+     * least-recently used. */
+    private class Segment
+        extends LinkedHashMap<Key, OptiqPrepare.PrepareResult>
+    {
+        private final int segmentCapacity;
+
+        Segment(int segmentCapacity) {
+            super(16, 0.75f, true);
+            this.segmentCapacity = segmentCapacity;
+        }
+
+        protected boolean removeEldestEntry(
+            Map.Entry<Key, OptiqPrepare.PrepareResult> eldest)
+        {
+            if (size() > segmentCapacity) {
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        public synchronized OptiqPrepare.PrepareResult get(Object key) {
+            return super.get(key);
+        }
+
+        public synchronized OptiqPrepare.PrepareResult put(
+            Key key, OptiqPrepare.PrepareResult value)
+        {
+            return super.put(key, value);
+        }
+
+        public synchronized void clear() {
+            super.clear();
+        }
+
+        public synchronized int size() {
+            return super.size();
+        }
+    }
+
+    /** Wrapper that compares an object by identity. */
+    private static class Identity {
+        final Object o;
+
+        Identity(Object o) {
+            this.o = o;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(o);
+        }
+
+        public boolean equals(Object obj) {
+            return obj == this
+                || obj instanceof Identity
+                && o == ((Identity) obj).o;
+        }
+    }
+
+    /** Key of an entry in the cache. SQL is normalized by trimming leading
+     * and trailing white space; white space inside the statement is
+     * significant (it may be part of a literal). */
+    private static class Key {
+        final String sql;
+        final List<String> schemaPath;
+        final Type elementType;
+        final List<Object> settings;
+        final List<Object> contents;
+        final long version;
+        final int hashCode;
+
+        Key(
+            Schema rootSchema,
+            String sql,
+            List<String> schemaPath,
+            Type elementType,
+            List<Object> settings)
+        {
+            this.sql = sql.trim();
+            this.schemaPath = new ArrayList<String>(schemaPath);
+            this.elementType = elementType;
+            this.settings = new ArrayList<Object>(settings);
+            this.contents = contents(rootSchema);
+            this.version = version(rootSchema);
+            int h = this.sql.hashCode();
+            h = h * 31 + this.schemaPath.hashCode();
+            h = h * 31 + elementType.hashCode();
+            h = h * 31 + this.settings.hashCode();
+            h = h * 31 + contents.hashCode();
+            h = h * 31 + (int) (version ^ (version >>> 32));
+            this.hashCode = h;
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object obj) {
+            return obj == this
+                || obj instanceof Key
+                && hashCode == ((Key) obj).hashCode
+                && version == ((Key) obj).version
+                && sql.equals(((Key) obj).sql)
+                && schemaPath.equals(((Key) obj).schemaPath)
+                && elementType.equals(((Key) obj).elementType)
+                && settings.equals(((Key) obj).settings)
+                && contents.equals(((Key) obj).contents);
+        }
+    }
+}
+
+// End PlanCache.java
@@ -0,0 +1,287 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.prepare;
+
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.expressions.*;
+
+import net.hydromatic.optiq.BuiltinMethod;
+import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.rules.java.EnumerableRelImplementor;
+import net.hydromatic.optiq.rules.java.RexToLixTranslator;
+import net.hydromatic.optiq.runtime.Executable;
+import net.hydromatic.optiq.runtime.Utilities;
+
+import org.eigenbase.relopt.RelOptPlanner;
+import org.eigenbase.reltype.RelDataType;
+import org.eigenbase.rex.*;
+
+import org.codehaus.janino.ClassBodyEvaluator;
+import org.codehaus.janino.Scanner;
+
+import java.io.StringReader;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Evaluates constant expressions at planning time, by generating Java code
+ * for them, in the same way as for the expressions in a query, and running
+ * it once.
+ *
+ * <p>Because the generated code is the code that would have run for each
+ * row, a reduced expression has the same value as it would have had at run
+ * time. If an expression cannot be translated, or throws when evaluated (for
+ * example, <code>1 / 0</code>), it is not reduced, and its error, if any, is
+ * left to occur at run time.</p>
+ *
+ * <p>The expressions of each call to {@link #reduce} are compiled into one
+ * class. The planner may reduce the same expression many times, in
+ * equivalent relational expressions, so the executor remembers the reduced
+ * value of each expression, including expressions that could not be
+ * reduced, and compiles only expressions that it has not seen before. An
+ * executor is used by one statement's planner, so the memory is released
+ * when the statement has been prepared.</p>
+ *
+ * @see org.eigenbase.rel.rules.ReduceExpressionsRule
+ */
+public class RexExecutorImpl implements RelOptPlanner.Executor {
+    private static final long MILLIS_IN_DAY = 24 * 60 * 60 * 1000;
+
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+    /** Reduced value of each expression that has been evaluated, keyed by
+     * {@link #key(RexNode)}. An expression that could not be reduced maps to
+     * itself. */
+    private final Map<String, RexNode> reducedMap =
+        new HashMap<String, RexNode>();
+
+    public void reduce(
+        RexBuilder rexBuilder,
+        List<RexNode> constExps,
+        List<RexNode> reducedValues)
+    {
+        final List<RexNode> newExps = new ArrayList<RexNode>();
+        for (RexNode constExp : constExps) {
+            if (!reducedMap.containsKey(key(constExp))) {
+                newExps.add(constExp);
+            }
+        }
+        if (!newExps.isEmpty()) {
+            List<Object> values = evaluate(rexBuilder, newExps);
+            if (values == null) {
+                // At least one expression failed. Evaluate them one at a
+                // time, so that the others can still be reduced.
+                values = new ArrayList<Object>();
+                for (RexNode constExp : newExps) {
+                    final List<Object> value =
+                        newExps.size() == 1
+                            ? null
+                            : evaluate(
+                                rexBuilder,
+                                Collections.singletonList(constExp));
+                    values.add(value == null ? constExp : value.get(0));
+                }
+            }
+            for (int i = 0; i < newExps.size(); i++) {
+                final RexNode constExp = newExps.get(i);
+                final Object value = values.get(i);
+                reducedMap.put(
+                    key(constExp),
+                    value == constExp
+                        ? constExp
+                        : toLiteral(rexBuilder, constExp, value));
+            }
+        }
+        for (RexNode constExp : constExps) {
+            reducedValues.add(reducedMap.get(key(constExp)));
+        }
+    }
+
+    /** Returns the key of an expression in {@link #reducedMap}. The digest
+     * of an expression does not always include its type; for example, the
+     * digest of a literal does not. */
+    private static String key(RexNode exp) {
+        return exp + ":" + exp.getType().getFullTypeString();
+    }
+
+    /**
+     * Generates, compiles and runs a program that evaluates a list of
+     * constant expressions.
+     *
+     * @return list of values, or null if the expressions could not be
+     * compiled or evaluated
+     */
+    private List<Object> evaluate(
+        RexBuilder rexBuilder,
+        List<RexNode> constExps)
+    {
+        final JavaTypeFactory typeFactory =
+            (JavaTypeFactory) rexBuilder.getTypeFactory();
+        final RexProgramBuilder programBuilder =
+            new RexProgramBuilder(
+                typeFactory.createStructType(
+                    new RelDataType[0], new String[0]),
+                rexBuilder);
+        for (RexNode constExp : constExps) {
+            programBuilder.addProject(constExp, null);
+        }
+        final String s;
+        final Executable executable;
+        try {
+            final BlockBuilder builder = new BlockBuilder();
+            final List<Expression> expressions =
+                RexToLixTranslator.translateProjects(
+                    programBuilder.getProgram(),
+                    typeFactory,
+                    builder,
+                    new RexToLixTranslator.InputGetter() {
+                        public Expression field(
+                            BlockBuilder list, int index)
+                        {
+                            throw new AssertionError(
+                                "constant expression references field "
+                                + index);
+                        }
+                    });
+            builder.add(
+                Expressions.return_(
+                    null,
+                    Expressions.call(
+                        BuiltinMethod.AS_ENUMERABLE.method,
+                        Expressions.newArrayInit(
+                            Object.class, expressions))));
+            final MemberDeclaration method =
+                Expressions.methodDecl(
+                    Modifier.PUBLIC,
+                    Enumerable.class,
+                    BuiltinMethod.EXECUTABLE_EXECUTE.method.getName(),
+                    Expressions.list(EnumerableRelImplementor.ROOT),
+                    builder.toBlock());
+            s = Expressions.toString(
+                Collections.singletonList(method), "\n", false);
+            executable = (Executable)
+                ClassBodyEvaluator.createFastClassBodyEvaluator(
+                    new Scanner(null, new StringReader(s)),
+                    "Reducer",
+                    Utilities.class,
+                    new Class[]{Executable.class},
+                    getClass().getClassLoader());
+        } catch (Exception e) {
+            return null;
+        }
+        try {
+            final List<Object> values = new ArrayList<Object>();
+            final Enumerator<Object> enumerator =
+                executable.execute(null).enumerator();
+            while (enumerator.moveNext()) {
+                values.add(enumerator.current());
+            }
+            assert values.size() == constExps.size();
+            return values;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Converts a value, in the representation used by generated code, into a
+     * literal of the same type as the expression that produced it.
+     *
+     * <p>Returns the original expression if the value cannot be represented
+     * as a literal.</p>
+     */
+    private static RexNode toLiteral(
+        RexBuilder rexBuilder,
+        RexNode constExp,
+        Object value)
+    {
+        final RelDataType type = constExp.getType();
+        if (value == null) {
+            return rexBuilder.makeCast(type, rexBuilder.constantNull());
+        }
+        final RexLiteral literal;
+        try {
+            switch (type.getSqlTypeName()) {
+            case BOOLEAN:
+                literal = rexBuilder.makeLiteral((Boolean) value);
+                break;
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+                literal =
+                    rexBuilder.makeExactLiteral(
+                        BigDecimal.valueOf(((Number) value).longValue()),
+                        type);
+                break;
+            case DECIMAL:
+                literal =
+                    rexBuilder.makeExactLiteral((BigDecimal) value, type);
+                break;
+            case FLOAT:
+            case REAL:
+            case DOUBLE:
+                literal =
+                    rexBuilder.makeApproxLiteral(
+                        BigDecimal.valueOf(((Number) value).doubleValue()),
+                        type);
+                break;
+            case CHAR:
+            case VARCHAR:
+                literal = rexBuilder.makeLiteral((String) value);
+                break;
+            case DATE:
+                literal =
+                    rexBuilder.makeDateLiteral(
+                        calendar(((Number) value).longValue() * MILLIS_IN_DAY));
+                break;
+            case TIME:
+                literal =
+                    rexBuilder.makeTimeLiteral(
+                        calendar(((Number) value).longValue()),
+                        type.getPrecision());
+                break;
+            case TIMESTAMP:
+                literal =
+                    rexBuilder.makeTimestampLiteral(
+                        calendar(((Number) value).longValue()),
+                        type.getPrecision());
+                break;
+            default:
+                return constExp;
+            }
+        } catch (NumberFormatException e) {
+            // Infinity or NaN
+            return constExp;
+        }
+        if (literal.getType().equals(type)) {
+            return literal;
+        }
+        return rexBuilder.makeCast(type, literal);
+    }
+
+    private static Calendar calendar(long millis) {
+        final Calendar calendar = Calendar.getInstance(GMT);
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+}
+
+// End RexExecutorImpl.java
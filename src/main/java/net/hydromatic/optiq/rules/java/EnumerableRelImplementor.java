@@ -25,13 +25,18 @@ import net.hydromatic.optiq.BuiltinMethod;
 import net.hydromatic.optiq.DataContext;
 import net.hydromatic.optiq.jdbc.JavaTypeFactoryImpl;
 import net.hydromatic.optiq.runtime.Executable;
+import net.hydromatic.optiq.runtime.ExecutionContext;
+import net.hydromatic.optiq.runtime.FieldReader;
 import net.hydromatic.optiq.runtime.Utilities;
 
 import org.eigenbase.rel.RelImplementorImpl;
 import org.eigenbase.rel.RelNode;
 import org.eigenbase.relopt.RelImplementor;
 import org.eigenbase.rex.RexBuilder;
+import org.eigenbase.util.Pair;
 
+import java.io.Serializable;
+import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.util.*;
@@ -44,10 +49,68 @@ import java.util.*;
  * @author jhyde
  */
 public class EnumerableRelImplementor extends RelImplementorImpl {
+    /** Parameter of the generated {@code execute} method that provides
+     * access to schemas and to the values of dynamic parameters. */
+    public static final ParameterExpression ROOT =
+        Expressions.parameter(Modifier.FINAL, DataContext.class, "root");
+
     public Map<String, Queryable> map = new LinkedHashMap<String, Queryable>();
 
+    private final boolean operatorFusion;
+
     public EnumerableRelImplementor(RexBuilder rexBuilder) {
+        this(rexBuilder, true);
+    }
+
+    /**
+     * Creates an EnumerableRelImplementor.
+     *
+     * @param rexBuilder Rex builder
+     * @param operatorFusion Whether operators may generate code that
+     *   evaluates their inputs in the same loop, rather than consuming each
+     *   input through an enumerator; see {@link #isOperatorFusion()}
+     */
+    public EnumerableRelImplementor(
+        RexBuilder rexBuilder,
+        boolean operatorFusion)
+    {
         super(rexBuilder);
+        this.operatorFusion = operatorFusion;
+    }
+
+    /** Returns whether operators should fuse pipelines.
+     *
+     * <p>Two kinds of pipeline are fused. An aggregate without GROUP BY
+     * generates one loop that reads the rows of its input, or of the scan
+     * under a calc, and evaluates the calc's filter and projections, keeping
+     * values in local variables. A calc without a filter over a join is
+     * evaluated by the join's result selector. Without fusion, each operator
+     * wraps its input in a new {@link net.hydromatic.linq4j.Enumerator}, and
+     * creates a row object for its consumer.</p>
+     *
+     * <p>Other operators, including aggregates with GROUP BY and the probe
+     * side of a hash join, read their inputs through enumerators whether or
+     * not fusion is enabled.</p> */
+    public boolean isOperatorFusion() {
+        return operatorFusion;
+    }
+
+    /** Returns an expression for the data context to pass to an operator
+     * that holds rows of a given physical type in memory.
+     *
+     * <p>If the rows are estimated to be larger than
+     * {@link ExecutionContext#ROW_BYTES}, wraps {@link #ROOT} so that the
+     * memory budget counts each row by its size; see
+     * {@link net.hydromatic.optiq.runtime.Enumerables#weigh}.</p> */
+    public static Expression root(PhysType physType) {
+        final int rowBytes = physType.estimateRowBytes();
+        if (rowBytes <= ExecutionContext.ROW_BYTES) {
+            return ROOT;
+        }
+        return Expressions.call(
+            BuiltinMethod.WEIGH.method,
+            ROOT,
+            Expressions.constant(rowBytes));
     }
 
     public BlockExpression visitChild(
@@ -68,14 +131,12 @@ public class EnumerableRelImplementor extends RelImplementorImpl {
             new ArrayList<MemberDeclaration>();
         declareSyntheticClasses(implement, memberDeclarations);
 
-        ParameterExpression root =
-            Expressions.parameter(Modifier.FINAL, DataContext.class, "root");
         memberDeclarations.add(
             Expressions.methodDecl(
                 Modifier.PUBLIC,
                 Enumerable.class,
                 BuiltinMethod.EXECUTABLE_EXECUTE.method.getName(),
-                Expressions.list(root),
+                Expressions.list(ROOT),
                 implement));
         memberDeclarations.add(
             Expressions.methodDecl(
@@ -88,6 +149,7 @@ public class EnumerableRelImplementor extends RelImplementorImpl {
                         null,
                         Expressions.constant(
                             rootRel.getPhysType().getJavaRowType())))));
+        declareFieldReaders(rootRel, memberDeclarations);
         return Expressions.classDecl(
             Modifier.PUBLIC,
             "Baz",
@@ -96,6 +158,160 @@ public class EnumerableRelImplementor extends RelImplementorImpl {
             memberDeclarations);
     }
 
+    /**
+     * Declares a {@link FieldReader.Provider#getFieldReaders()} method that
+     * returns a {@link FieldReader} for each field of the row class.
+     *
+     * <p>If the rows are not records, or if the row has only one field (in
+     * which case the row is the value of the field), the method returns
+     * null.</p>
+     */
+    private void declareFieldReaders(
+        EnumerableRel rootRel,
+        List<MemberDeclaration> memberDeclarations)
+    {
+        final Type rowType = rootRel.getPhysType().getJavaRowType();
+        final List<Pair<String, Type>> fields =
+            new ArrayList<Pair<String, Type>>();
+        if (rowType instanceof JavaTypeFactoryImpl.SyntheticRecordType) {
+            for (Types.RecordField field
+                : ((JavaTypeFactoryImpl.SyntheticRecordType) rowType)
+                    .getRecordFields())
+            {
+                fields.add(
+                    Pair.<String, Type>of(field.getName(), field.getType()));
+            }
+        } else if (rowType instanceof Class
+            && !((Class) rowType).isArray())
+        {
+            for (Field field : ((Class) rowType).getFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    fields.add(
+                        Pair.<String, Type>of(
+                            field.getName(), field.getType()));
+                }
+            }
+        }
+        final Expression readers;
+        if (fields.size() < 2
+            || fields.size() != rootRel.getRowType().getFieldCount())
+        {
+            readers = Expressions.constant(null);
+        } else {
+            final List<Expression> newReaders = new ArrayList<Expression>();
+            for (Pair<String, Type> field : fields) {
+                newReaders.add(
+                    newFieldReader(rowType, field.left, field.right));
+            }
+            readers =
+                Expressions.call(
+                    Arrays.class,
+                    "asList",
+                    Expressions.newArrayInit(FieldReader.class, newReaders));
+        }
+        memberDeclarations.add(
+            Expressions.methodDecl(
+                Modifier.PUBLIC,
+                List.class,
+                BuiltinMethod.FIELD_READER_PROVIDER_GET_FIELD_READERS.method
+                    .getName(),
+                Collections.<ParameterExpression>emptyList(),
+                Blocks.toFunctionBlock(Expressions.return_(null, readers))));
+    }
+
+    /** Creates an instance of an anonymous class that reads a field of a
+     * row.
+     *
+     * <p>For example, for a field "empid" of type {@code int},
+     *
+     * <blockquote><pre>
+     * new FieldReader() {
+     *   public Object get(Object row) {
+     *     return Integer.valueOf(((Employee) row).empid);
+     *   }
+     *   public boolean isPrimitive() {
+     *     return true;
+     *   }
+     *   public int getInt(Object row) {
+     *     return ((Employee) row).empid;
+     *   }
+     *   public long getLong(Object row) {
+     *     return (long) ((Employee) row).empid;
+     *   }
+     *   ...
+     * }</pre></blockquote>
+     */
+    private Expression newFieldReader(
+        Type rowType,
+        String fieldName,
+        Type fieldType)
+    {
+        final ParameterExpression row =
+            Expressions.parameter(Object.class, "row");
+        final Expression value =
+            Expressions.field(Expressions.convert_(row, rowType), fieldName);
+        final List<MemberDeclaration> memberDeclarations =
+            new ArrayList<MemberDeclaration>();
+        final Primitive primitive = Primitive.of(fieldType);
+        memberDeclarations.add(
+            readerMethodDecl(
+                Object.class,
+                "get",
+                row,
+                primitive == null
+                    ? value
+                    : Expressions.call(primitive.boxClass, "valueOf", value)));
+        if (primitive != null) {
+            memberDeclarations.add(
+                Expressions.methodDecl(
+                    Modifier.PUBLIC,
+                    boolean.class,
+                    "isPrimitive",
+                    Collections.<ParameterExpression>emptyList(),
+                    Blocks.toFunctionBlock(
+                        Expressions.return_(
+                            null, Expressions.constant(true)))));
+            final List<Primitive> targets =
+                primitive == Primitive.BOOLEAN
+                    ? Collections.singletonList(Primitive.BOOLEAN)
+                    : Arrays.asList(
+                        Primitive.BYTE, Primitive.SHORT, Primitive.INT,
+                        Primitive.LONG, Primitive.FLOAT, Primitive.DOUBLE);
+            for (Primitive target : targets) {
+                memberDeclarations.add(
+                    readerMethodDecl(
+                        target.primitiveClass,
+                        "get"
+                            + Character.toUpperCase(
+                                target.primitiveName.charAt(0))
+                            + target.primitiveName.substring(1),
+                        row,
+                        target == primitive
+                            ? value
+                            : Expressions.convert_(
+                                value, target.primitiveClass)));
+            }
+        }
+        return Expressions.new_(
+            FieldReader.class,
+            Collections.<Expression>emptyList(),
+            memberDeclarations);
+    }
+
+    private MemberDeclaration readerMethodDecl(
+        Type returnType,
+        String methodName,
+        ParameterExpression row,
+        Expression value)
+    {
+        return Expressions.methodDecl(
+            Modifier.PUBLIC,
+            returnType,
+            methodName,
+            Collections.singletonList(row),
+            Blocks.toFunctionBlock(Expressions.return_(null, value)));
+    }
+
     private void declareSyntheticClasses(
         BlockExpression implement,
         List<MemberDeclaration> memberDeclarations)
@@ -118,7 +334,7 @@ public class EnumerableRelImplementor extends RelImplementorImpl {
                 Modifier.PUBLIC | Modifier.STATIC,
                 type.getName(),
                 null,
-                Collections.<Type>emptyList(),
+                Collections.<Type>singletonList(Serializable.class),
                 new ArrayList<MemberDeclaration>());
 
         // For each field:
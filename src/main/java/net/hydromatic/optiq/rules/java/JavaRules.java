@@ -19,7 +19,9 @@ package net.hydromatic.optiq.rules.java;
 
 import net.hydromatic.optiq.BuiltinMethod;
 import net.hydromatic.optiq.ModifiableTable;
+import net.hydromatic.optiq.impl.clone.ArrayTable;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
+import net.hydromatic.optiq.runtime.Enumerables;
 
 import net.hydromatic.linq4j.*;
 import net.hydromatic.linq4j.expressions.*;
@@ -30,6 +32,7 @@ import org.eigenbase.oj.stmt.OJPreparingStmt;
 import org.eigenbase.rel.*;
 import org.eigenbase.rel.convert.ConverterRule;
 import org.eigenbase.rel.metadata.RelMetadataQuery;
+import org.eigenbase.rel.rules.SemiJoinRel;
 import org.eigenbase.relopt.*;
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.reltype.RelDataTypeField;
@@ -66,6 +69,9 @@ public class JavaRules {
         new EnumerableJoinRule();
     public static final String[] LEFT_RIGHT = new String[]{"left", "right"};
 
+    public static final RelOptRule ENUMERABLE_SEMI_JOIN_RULE =
+        new EnumerableSemiJoinRule();
+
     private static class EnumerableJoinRule extends ConverterRule {
         private EnumerableJoinRule() {
             super(
@@ -105,11 +111,33 @@ public class JavaRules {
         }
     }
 
+    /** Implementation of {@link JoinRel} in
+     * {@link EnumerableConvention enumerable calling convention}.
+     *
+     * <p>If the condition contains equalities between a column of each input,
+     * builds a hash table on the right input, and applies any remaining terms
+     * of the condition to each pair of rows whose keys match. Otherwise, joins
+     * using nested loops. Supports INNER, LEFT, RIGHT and FULL joins.</p>
+     *
+     * <p>If the statement has a memory budget and the right input does not
+     * fit, the hash join partitions both inputs to disk; see
+     * {@link Enumerables#hashJoin}.</p>
+     *
+     * <p>If the join is an inner equi-join and both inputs are known to be
+     * sorted on the join keys (see {@link RelNode#getCollationList()}),
+     * merges the inputs instead, holding only the rows of the current key in
+     * memory and preserving the order of the left input. A merge join does
+     * not build a hash table, so it costs less than a hash join.</p> */
     public static class EnumerableJoinRel
         extends JoinRelBase
         implements EnumerableRel
     {
         private final PhysType physType;
+        private final List<Integer> leftKeys = new ArrayList<Integer>();
+        private final List<Integer> rightKeys = new ArrayList<Integer>();
+        /** Terms of the condition that are not equalities between a column of
+         * each input; never null, may be a literal TRUE. */
+        private final RexNode remaining;
 
         protected EnumerableJoinRel(
             RelOptCluster cluster,
@@ -129,10 +157,13 @@ public class JavaRules {
                 condition,
                 joinType,
                 variablesStopped);
-            if (!RelOptUtil.isEqui(left, right, condition)) {
-                throw new InvalidRelException(
-                    "EnumerableJoinRel only supports equi-join");
-            }
+            this.remaining =
+                RelOptUtil.splitJoinCondition(
+                    left,
+                    right,
+                    condition,
+                    leftKeys,
+                    rightKeys);
             this.physType =
                 PhysTypeImpl.of(
                     (JavaTypeFactory) cluster.getTypeFactory(),
@@ -171,24 +202,64 @@ public class JavaRules {
         public RelOptCost computeSelfCost(RelOptPlanner planner) {
             // Inflate Java cost to make Cascading implementation more
             // attractive.
-            return super.computeSelfCost(planner).multiplyBy(2d);
+            RelOptCost cost = super.computeSelfCost(planner).multiplyBy(2d);
+            if (leftKeys.isEmpty()) {
+                // Nested loops join evaluates the condition for every pair of
+                // rows.
+                cost =
+                    cost.plus(
+                        planner.makeCost(
+                            RelMetadataQuery.getRowCount(left)
+                            * RelMetadataQuery.getRowCount(right),
+                            0,
+                            0));
+            } else if (mergeKeys() == null) {
+                // Hash join builds a hash table from the right input. A
+                // merge join streams both inputs, so is cheaper.
+                cost =
+                    cost.plus(
+                        planner.makeCost(
+                            0,
+                            RelMetadataQuery.getRowCount(right),
+                            0));
+            }
+            return cost;
         }
 
-        public BlockExpression implement(EnumerableRelImplementor implementor) {
-            final List<Integer> leftKeys = new ArrayList<Integer>();
-            final List<Integer> rightKeys = new ArrayList<Integer>();
-            RexNode remaining =
-                RelOptUtil.splitJoinCondition(
-                    left,
-                    right,
-                    condition,
-                    leftKeys,
-                    rightKeys);
-            if (!remaining.isAlwaysTrue()) {
-                // We checked "isEqui" in constructor. Something went wrong.
-                throw new AssertionError(
-                    "not equi-join condition: " + remaining);
+        @Override
+        public List<RelCollation> getCollationList() {
+            if (mergeKeys() != null) {
+                return left.getCollationList();
             }
+            return Collections.emptyList();
+        }
+
+        public BlockExpression implement(EnumerableRelImplementor implementor) {
+            return implement(implementor, null, physType);
+        }
+
+        /** Implements this join, applying a program to each joined row.
+         *
+         * <p>Called by {@link EnumerableCalcRel} to fuse a projection into
+         * the join: the result selector evaluates the projections, so the
+         * join does not create a row for the calc to read and discard.</p>
+         *
+         * @param implementor Implementor
+         * @param program Program without a condition, whose input is the row
+         *   of this join; or null to return the joined rows
+         * @param outputPhysType Physical type of the rows returned
+         */
+        BlockExpression implement(
+            EnumerableRelImplementor implementor,
+            RexProgram program,
+            PhysType outputPhysType)
+        {
+            assert program == null || program.getCondition() == null;
+            final Expression selector =
+                generateSelector(
+                    (JavaTypeFactory) implementor.getTypeFactory(),
+                    program,
+                    outputPhysType);
             BlockBuilder list = new BlockBuilder();
             Expression leftExpression =
                 list.append(
@@ -198,30 +269,214 @@ public class JavaRules {
                 list.append(
                     "right",
                     implementor.visitChild(this, 1, (EnumerableRel) right));
-            final PhysType keyPhysType =
-                ((EnumerableRel) left).getPhysType().project(
-                    leftKeys, JavaRowFormat.CUSTOM);
+            final PhysType leftPhysType = ((EnumerableRel) left).getPhysType();
+            final PhysType rightPhysType =
+                ((EnumerableRel) right).getPhysType();
+            final Pair<List<Integer>, List<Integer>> mergeKeys = mergeKeys();
+            if (mergeKeys != null) {
+                return list.append(
+                    Expressions.call(
+                        null,
+                        BuiltinMethod.MERGE_JOIN.method,
+                        Expressions.list(
+                            leftExpression,
+                            rightExpression,
+                            leftPhysType.generateAccessor(mergeKeys.left),
+                            rightPhysType.generateAccessor(mergeKeys.right),
+                            selector)))
+                    .toBlock();
+            }
+            final Expression predicate =
+                remaining.isAlwaysTrue()
+                    ? Expressions.constant(null)
+                    : generatePredicate(
+                        (JavaTypeFactory) implementor.getTypeFactory(),
+                        leftPhysType,
+                        rightPhysType);
+            final Expression generateNullsOnLeft =
+                Expressions.constant(joinType.generatesNullsOnLeft());
+            final Expression generateNullsOnRight =
+                Expressions.constant(joinType.generatesNullsOnRight());
+            if (leftKeys.isEmpty()) {
+                return list.append(
+                    Expressions.call(
+                        null,
+                        BuiltinMethod.NESTED_LOOP_JOIN.method,
+                        Expressions.list(
+                            leftExpression,
+                            rightExpression,
+                            selector,
+                            predicate,
+                            generateNullsOnLeft,
+                            generateNullsOnRight)))
+                    .toBlock();
+            }
             return list.append(
                 Expressions.call(
-                    leftExpression,
-                    BuiltinMethod.JOIN.method,
+                    null,
+                    BuiltinMethod.HASH_JOIN.method,
                     Expressions.list(
+                        leftExpression,
                         rightExpression,
-                        ((EnumerableRel) left).getPhysType()
-                            .generateAccessor(leftKeys),
-                        ((EnumerableRel) right).getPhysType()
-                            .generateAccessor(rightKeys),
-                        generateSelector())
-                        .appendIfNotNull(keyPhysType.comparer())))
+                        leftPhysType.generateAccessor(leftKeys),
+                        rightPhysType.generateAccessor(rightKeys),
+                        selector,
+                        predicate,
+                        generateNullsOnLeft,
+                        generateNullsOnRight,
+                        EnumerableRelImplementor.root(rightPhysType))))
                 .toBlock();
         }
 
-        Expression generateSelector() {
+        /** Returns the join keys of each input, reordered so that both inputs
+         * are sorted on them, or null if this join cannot be implemented as
+         * a merge join.
+         *
+         * <p>Requires an inner equi-join whose key columns have the same
+         * primitive type on both sides, so that Java's ordering of key values
+         * is the ordering that the inputs were sorted by.
+         *
+         * <p>Called by the planner, when the inputs are
+         * {@link org.eigenbase.relopt.volcano.RelSubset}s and their
+         * collations are those of the best expression found so far, and
+         * again during implementation, when the inputs are concrete
+         * relational expressions. Only the second answer decides how the
+         * join is implemented.</p> */
+        Pair<List<Integer>, List<Integer>> mergeKeys() {
+            if (joinType != JoinRelType.INNER
+                || !remaining.isAlwaysTrue()
+                || leftKeys.isEmpty()
+                || new HashSet<Integer>(leftKeys).size() < leftKeys.size())
+            {
+                return null;
+            }
+            final JavaTypeFactory typeFactory =
+                (JavaTypeFactory) getCluster().getTypeFactory();
+            final List<RelDataTypeField> leftFields =
+                left.getRowType().getFieldList();
+            final List<RelDataTypeField> rightFields =
+                right.getRowType().getFieldList();
+            for (Pair<Integer, Integer> pair : Pair.zip(leftKeys, rightKeys)) {
+                final Class leftClass =
+                    EnumUtil.javaRowClass(
+                        typeFactory, leftFields.get(pair.left).getType());
+                final Class rightClass =
+                    EnumUtil.javaRowClass(
+                        typeFactory, rightFields.get(pair.right).getType());
+                if (Primitive.of(leftClass) == null
+                    && Primitive.ofBox(leftClass) == null
+                    || !Primitive.box(leftClass).equals(
+                        Primitive.box(rightClass)))
+                {
+                    return null;
+                }
+            }
+            for (RelCollation leftCollation : left.getCollationList()) {
+                final List<Integer> newLeftKeys =
+                    ascendingPrefix(leftCollation, leftKeys.size());
+                if (newLeftKeys == null
+                    || !leftKeys.containsAll(newLeftKeys))
+                {
+                    continue;
+                }
+                final List<Integer> newRightKeys = new ArrayList<Integer>();
+                for (int leftKey : newLeftKeys) {
+                    newRightKeys.add(
+                        rightKeys.get(leftKeys.indexOf(leftKey)));
+                }
+                for (RelCollation rightCollation : right.getCollationList()) {
+                    if (newRightKeys.equals(
+                            ascendingPrefix(rightCollation, leftKeys.size())))
+                    {
+                        return Pair.of(newLeftKeys, newRightKeys);
+                    }
+                }
+            }
+            return null;
+        }
+
+        /** Returns the fields of the first {@code n} columns of a collation,
+         * or null if the collation has fewer columns or is not ascending on
+         * each of them. */
+        private static List<Integer> ascendingPrefix(
+            RelCollation collation,
+            int n)
+        {
+            final List<RelFieldCollation> fieldCollations =
+                collation.getFieldCollations();
+            if (fieldCollations.size() < n) {
+                return null;
+            }
+            final List<Integer> fields = new ArrayList<Integer>();
+            for (RelFieldCollation fieldCollation
+                : fieldCollations.subList(0, n))
+            {
+                switch (fieldCollation.getDirection()) {
+                case Ascending:
+                case StrictlyAscending:
+                    fields.add(fieldCollation.getFieldIndex());
+                    break;
+                default:
+                    return null;
+                }
+            }
+            return fields;
+        }
+
+        /** Generates a {@link Predicate2} that evaluates the terms of the
+         * join condition that are not used as hash keys. */
+        private Expression generatePredicate(
+            JavaTypeFactory typeFactory,
+            PhysType leftPhysType,
+            PhysType rightPhysType)
+        {
+            final ParameterExpression leftParameter =
+                Expressions.parameter(
+                    leftPhysType.getJavaRowType(), LEFT_RIGHT[0]);
+            final ParameterExpression rightParameter =
+                Expressions.parameter(
+                    rightPhysType.getJavaRowType(), LEFT_RIGHT[1]);
+            final RexProgramBuilder programBuilder =
+                new RexProgramBuilder(
+                    typeFactory.createJoinType(
+                        new RelDataType[] {
+                            left.getRowType(), right.getRowType()}),
+                    getCluster().getRexBuilder());
+            programBuilder.addCondition(remaining);
+            final BlockBuilder builder = new BlockBuilder();
+            final Expression condition =
+                RexToLixTranslator.translateCondition(
+                    programBuilder.getProgram(),
+                    typeFactory,
+                    builder,
+                    new RexToLixTranslator.InputGetterImpl(
+                        Arrays.asList(
+                            Pair.<Expression, PhysType>of(
+                                leftParameter, leftPhysType),
+                            Pair.<Expression, PhysType>of(
+                                rightParameter, rightPhysType))));
+            builder.add(Expressions.return_(null, condition));
+            return Expressions.lambda(
+                Predicate2.class,
+                builder.toBlock(),
+                Arrays.asList(leftParameter, rightParameter));
+        }
+
+        /** Generates a {@link Function2} that creates an output row from a
+         * row of each input. If there is a program, the output row is the
+         * result of the program applied to the joined row. */
+        Expression generateSelector(
+            JavaTypeFactory typeFactory,
+            RexProgram program,
+            PhysType outputPhysType)
+        {
             // A parameter for each input.
             final List<ParameterExpression> parameters =
                 new ArrayList<ParameterExpression>();
 
-            // Generate all fields.
+            // Generate all fields. If an input can be null-padded (the right
+            // input of a LEFT join, for example), guard each field:
+            //   left == null ? (Integer) null : left.deptno
             final List<Expression> expressions =
                 new ArrayList<Expression>();
             for (Ord<RelNode> rel : Ord.zip(getInputs())) {
@@ -231,21 +486,218 @@ public class JavaRules {
                         inputPhysType.getJavaRowType(),
                         LEFT_RIGHT[rel.i]);
                 parameters.add(parameter);
+                final boolean generatesNulls =
+                    rel.i == 0
+                        ? joinType.generatesNullsOnLeft()
+                        : joinType.generatesNullsOnRight();
                 int fieldCount = inputPhysType.getRowType().getFieldCount();
                 for (int i = 0; i < fieldCount; i++) {
-                    expressions.add(
+                    Expression expression =
                         Types.castIfNecessary(
                             inputPhysType.fieldClass(i),
-                            inputPhysType.fieldReference(parameter, i)));
+                            inputPhysType.fieldReference(parameter, i));
+                    if (generatesNulls) {
+                        final Class fieldClass =
+                            physType.fieldClass(expressions.size());
+                        expression =
+                            Expressions.condition(
+                                Expressions.equal(
+                                    parameter, Expressions.constant(null)),
+                                Expressions.constant(null, fieldClass),
+                                Types.castIfNecessary(
+                                    fieldClass, expression));
+                    }
+                    expressions.add(expression);
                 }
             }
+            if (program == null) {
+                return Expressions.lambda(
+                    Function2.class,
+                    outputPhysType.record(expressions),
+                    parameters);
+            }
+
+            //   new Function2<Employee, Department, IntString>() {
+            //       public IntString apply(Employee left, Department right) {
+            //           return new IntString(
+            //               left.empid,
+            //               right == null ? (String) null : right.name);
+            //       }
+            //   }
+            final BlockBuilder builder = new BlockBuilder();
+            final List<Expression> projects =
+                RexToLixTranslator.translateProjects(
+                    program,
+                    typeFactory,
+                    builder,
+                    new RexToLixTranslator.InputGetter() {
+                        public Expression field(
+                            BlockBuilder list, int index)
+                        {
+                            return expressions.get(index);
+                        }
+                    });
+            builder.add(
+                Expressions.return_(
+                    null,
+                    outputPhysType.record(projects)));
             return Expressions.lambda(
                 Function2.class,
-                physType.record(expressions),
+                builder.toBlock(),
                 parameters);
         }
     }
 
+    private static class EnumerableSemiJoinRule extends ConverterRule {
+        private EnumerableSemiJoinRule() {
+            super(
+                SemiJoinRel.class,
+                Convention.NONE,
+                EnumerableConvention.CUSTOM,
+                "EnumerableSemiJoinRule");
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            final SemiJoinRel semiJoin = (SemiJoinRel) rel;
+            final List<RelNode> newInputs = new ArrayList<RelNode>();
+            for (RelNode input : semiJoin.getInputs()) {
+                if (!(input.getConvention() instanceof EnumerableConvention)) {
+                    input =
+                        convert(
+                            input,
+                            input.getTraitSet()
+                                .replace(EnumerableConvention.CUSTOM));
+                }
+                newInputs.add(input);
+            }
+            return new EnumerableSemiJoinRel(
+                semiJoin.getCluster(),
+                semiJoin.getTraitSet().replace(EnumerableConvention.CUSTOM),
+                newInputs.get(0),
+                newInputs.get(1),
+                semiJoin.getCondition(),
+                semiJoin.getLeftKeys(),
+                semiJoin.getRightKeys());
+        }
+    }
+
+    /** Implementation of {@link SemiJoinRel} in
+     * {@link EnumerableConvention enumerable calling convention}.
+     *
+     * <p>Builds a hash set of the keys of the right input, and returns each
+     * row of the left input whose key is in the set.</p> */
+    public static class EnumerableSemiJoinRel
+        extends JoinRelBase
+        implements EnumerableRel
+    {
+        private final PhysType physType;
+        private final List<Integer> leftKeys;
+        private final List<Integer> rightKeys;
+
+        protected EnumerableSemiJoinRel(
+            RelOptCluster cluster,
+            RelTraitSet traits,
+            RelNode left,
+            RelNode right,
+            RexNode condition,
+            List<Integer> leftKeys,
+            List<Integer> rightKeys)
+        {
+            super(
+                cluster,
+                traits,
+                left,
+                right,
+                condition,
+                JoinRelType.INNER,
+                Collections.<String>emptySet());
+            assert !leftKeys.isEmpty();
+            assert leftKeys.size() == rightKeys.size();
+            this.leftKeys = leftKeys;
+            this.rightKeys = rightKeys;
+            this.physType =
+                PhysTypeImpl.of(
+                    (JavaTypeFactory) cluster.getTypeFactory(),
+                    getRowType(),
+                    (EnumerableConvention) getConvention());
+        }
+
+        public PhysType getPhysType() {
+            return physType;
+        }
+
+        @Override
+        public EnumerableSemiJoinRel copy(
+            RelTraitSet traitSet,
+            RexNode conditionExpr,
+            RelNode left,
+            RelNode right)
+        {
+            return new EnumerableSemiJoinRel(
+                getCluster(),
+                traitSet,
+                left,
+                right,
+                conditionExpr,
+                leftKeys,
+                rightKeys);
+        }
+
+        @Override
+        public RelDataType deriveRowType() {
+            // Only the columns of the left input.
+            return deriveJoinRowType(
+                left.getRowType(),
+                null,
+                JoinRelType.INNER,
+                getCluster().getTypeFactory(),
+                null,
+                Collections.<RelDataTypeField>emptyList());
+        }
+
+        @Override
+        public double getRows() {
+            return RelMetadataQuery.getRowCount(left)
+                * RexUtil.getSelectivity(condition);
+        }
+
+        @Override
+        public RelOptCost computeSelfCost(RelOptPlanner planner) {
+            // Reads each input once; only the right input's keys are held in
+            // memory.
+            final double rowCount =
+                RelMetadataQuery.getRowCount(left)
+                + RelMetadataQuery.getRowCount(right);
+            return planner.makeCost(rowCount, 0, 0);
+        }
+
+        public BlockExpression implement(EnumerableRelImplementor implementor) {
+            BlockBuilder list = new BlockBuilder();
+            Expression leftExpression =
+                list.append(
+                    "left",
+                    implementor.visitChild(this, 0, (EnumerableRel) left));
+            Expression rightExpression =
+                list.append(
+                    "right",
+                    implementor.visitChild(this, 1, (EnumerableRel) right));
+            final PhysType leftPhysType = ((EnumerableRel) left).getPhysType();
+            final PhysType rightPhysType =
+                ((EnumerableRel) right).getPhysType();
+            return list.append(
+                Expressions.call(
+                    null,
+                    BuiltinMethod.SEMI_JOIN.method,
+                    Expressions.list(
+                        leftExpression,
+                        rightExpression,
+                        leftPhysType.generateAccessor(leftKeys),
+                        rightPhysType.generateAccessor(rightKeys))))
+                .toBlock();
+        }
+    }
+
     /**
      * Utilities for generating programs in the Enumerable (functional)
      * style.
@@ -284,6 +736,45 @@ public class JavaRules {
             return clazz instanceof Class ? (Class) clazz : Object[].class;
         }
 
+        /** Returns the first columns of a collation of a relational
+         * expression if they are exactly a given set of columns, or null if
+         * the rows are not known to be sorted on those columns.
+         *
+         * <p>The collations come from {@link RelNode#getCollationList()},
+         * which relational expressions derive from their inputs, so this
+         * method gives the same answer while the planner costs an expression
+         * as when the expression is implemented.</p> */
+        static List<RelFieldCollation> sortedPrefix(
+            RelNode rel,
+            BitSet columns)
+        {
+            final int n = columns.cardinality();
+            for (RelCollation collation : rel.getCollationList()) {
+                final List<RelFieldCollation> fieldCollations =
+                    collation.getFieldCollations();
+                if (fieldCollations.size() < n) {
+                    continue;
+                }
+                final BitSet prefix = new BitSet();
+                for (RelFieldCollation fieldCollation
+                    : fieldCollations.subList(0, n))
+                {
+                    prefix.set(fieldCollation.getFieldIndex());
+                }
+                if (prefix.equals(columns)) {
+                    return fieldCollations.subList(0, n);
+                }
+            }
+            return null;
+        }
+
+        /** Returns whether the rows of a relational expression are sorted,
+         * in any direction, on a set of columns, and therefore the rows that
+         * have the same values of those columns are contiguous. */
+        static boolean isSortedOn(RelNode rel, BitSet columns) {
+            return sortedPrefix(rel, columns) != null;
+        }
+
         public static Expression foldAnd(List<Expression> conditions) {
             Expression e = null;
             for (Expression condition : conditions) {
@@ -373,6 +864,11 @@ public class JavaRules {
             return physType;
         }
 
+        /** Returns the expression that yields the table's contents. */
+        public Expression getExpression() {
+            return expression;
+        }
+
         public BlockExpression implement(EnumerableRelImplementor implementor) {
             return Blocks.toBlock(expression);
         }
@@ -569,6 +1065,11 @@ public class JavaRules {
             return planner.makeCost(dRows, dCpu, dIo);
         }
 
+        @Override
+        public List<RelCollation> getCollationList() {
+            return program.getCollations(getChild().getCollationList());
+        }
+
         public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs)
         {
             return new EnumerableCalcRel(
@@ -585,6 +1086,20 @@ public class JavaRules {
         }
 
         public BlockExpression implement(EnumerableRelImplementor implementor) {
+            if (getChild() instanceof EnumerableTableAccessRel
+                && getChild().getTable().unwrap(ArrayTable.class) != null)
+            {
+                return implementArrayTable(
+                    implementor, (EnumerableTableAccessRel) getChild());
+            }
+            if (implementor.isOperatorFusion()
+                && getChild() instanceof EnumerableJoinRel
+                && program.getCondition() == null)
+            {
+                // Project inside the join's result selector.
+                return ((EnumerableJoinRel) getChild()).implement(
+                    implementor, program, physType);
+            }
             final JavaTypeFactory typeFactory =
                 (JavaTypeFactory) implementor.getTypeFactory();
             final BlockBuilder statements = new BlockBuilder();
@@ -719,11 +1234,294 @@ public class JavaRules {
             return statements.toBlock();
         }
 
+        /** Implements this calc over a scan of an {@link ArrayTable}.
+         *
+         * <p>Reads values straight from the table's columns, by row ordinal,
+         * rather than asking the table for an enumerator of {@code Object[]}
+         * rows. Only columns referenced by the program are accessed. Primitive
+         * values are read without boxing, and the filter is evaluated before
+         * the output row is created.</p>
+         *
+         * <p>The enumerable is built for a range of row ordinals, and
+         * {@link Enumerables#parallelRanges(int, Function2,
+         * net.hydromatic.optiq.DataContext)} decides, each time the
+         * statement is executed, whether to split the table into ranges and
+         * filter and project each range on a thread of a shared pool. Rows
+         * are returned in table order.</p>
+         */
+        private BlockExpression implementArrayTable(
+            EnumerableRelImplementor implementor,
+            EnumerableTableAccessRel child)
+        {
+            final JavaTypeFactory typeFactory =
+                (JavaTypeFactory) implementor.getTypeFactory();
+            final BlockBuilder statements = new BlockBuilder();
+
+            // final ArrayTable table = (ArrayTable) <<table expression>>;
+            // final int rowCount = table.size();
+            // final ArrayTable.Column column3 = table.column(3);
+            // return new AbstractEnumerable<IntString>() {
+            //     Enumerator<IntString> enumerator() {
+            //         return new Enumerator<IntString>() {
+            //             public int i = -1;
+            //             public void reset() {
+            //                 i = -1;
+            //             }
+            //             public boolean moveNext() {
+            //                 while (i + 1 < rowCount) {
+            //                     i = i + 1;
+            //                     if (column3.getInt(i) > 10) {
+            //                         return true;
+            //                     }
+            //                 }
+            //                 return false;
+            //             }
+            //             public Object current() {
+            //                 return new IntString(column3.getInt(i), ...);
+            //             }
+            // ...
+            //
+            // wrapped in a factory for a range [lo, hi) of rows:
+            //
+            // return Enumerables.parallelRanges(rowCount,
+            //     new Function2<Integer, Integer, Enumerable<IntString>>() {
+            //         public Enumerable<IntString> apply(
+            //             Integer start, Integer end) {
+            //             final int lo = start.intValue();
+            //             final int hi = end.intValue();
+            //             return new AbstractEnumerable<IntString>() {
+            //                 ... as above, for i from lo to hi - 1
+            //             };
+            //         }
+            //     },
+            //     root);
+            Type outputJavaType = getPhysType().getJavaRowType();
+            final Type enumeratorType =
+                Types.of(
+                    Enumerator.class, outputJavaType);
+            final Expression table =
+                statements.append(
+                    "table",
+                    Expressions.convert_(
+                        child.getExpression(), ArrayTable.class));
+            final Expression rowCount =
+                statements.append(
+                    "rowCount",
+                    Expressions.call(
+                        table, BuiltinMethod.ARRAY_TABLE_SIZE.method));
+            final BlockBuilder rangeStatements = new BlockBuilder();
+            final ParameterExpression start =
+                Expressions.parameter(Integer.class, "start");
+            final ParameterExpression end =
+                Expressions.parameter(Integer.class, "end");
+            final Expression initialOrdinal =
+                Expressions.subtract(
+                    rangeStatements.append(
+                        "lo",
+                        RexToLixTranslator.convert(start, int.class)),
+                    Expressions.constant(1));
+            final Expression endOrdinal =
+                rangeStatements.append(
+                    "hi",
+                    RexToLixTranslator.convert(end, int.class));
+            final ParameterExpression i =
+                Expressions.parameter(int.class, "i");
+            final ColumnInputGetter inputGetter =
+                new ColumnInputGetter(
+                    statements, table, child.getPhysType(), i);
+
+            final BlockBuilder list = new BlockBuilder();
+            list.add(
+                Expressions.statement(
+                    Expressions.assign(
+                        i,
+                        Expressions.add(i, Expressions.constant(1)))));
+            Expression condition =
+                RexToLixTranslator.translateCondition(
+                    program,
+                    typeFactory,
+                    list,
+                    inputGetter);
+            list.add(
+                Expressions.ifThen(
+                    condition,
+                    Expressions.return_(
+                        null, Expressions.constant(true))));
+            final BlockExpression moveNextBody =
+                Expressions.block(
+                    Expressions.while_(
+                        Expressions.lessThan(
+                            Expressions.add(i, Expressions.constant(1)),
+                            endOrdinal),
+                        list.toBlock()),
+                    Expressions.return_(
+                        null,
+                        Expressions.constant(false)));
+
+            final BlockBuilder list2 = new BlockBuilder();
+            List<Expression> expressions =
+                RexToLixTranslator.translateProjects(
+                    program,
+                    typeFactory,
+                    list2,
+                    inputGetter);
+            list2.add(
+                Expressions.return_(
+                    null,
+                    physType.record(expressions)));
+            BlockExpression currentBody =
+                list2.toBlock();
+
+            final Expression body =
+                Expressions.new_(
+                    enumeratorType,
+                    NO_EXPRS,
+                    Expressions.<MemberDeclaration>list(
+                        Expressions.fieldDecl(
+                            Modifier.PUBLIC,
+                            i,
+                            initialOrdinal),
+                        EnumUtil.overridingMethodDecl(
+                            BuiltinMethod.ENUMERATOR_RESET.method,
+                            NO_PARAMS,
+                            Expressions.block(
+                                Expressions.statement(
+                                    Expressions.assign(
+                                        i, initialOrdinal)))),
+                        EnumUtil.overridingMethodDecl(
+                            BuiltinMethod.ENUMERATOR_MOVE_NEXT.method,
+                            NO_PARAMS,
+                            moveNextBody),
+                        Expressions.methodDecl(
+                            Modifier.PUBLIC,
+                            BRIDGE_METHODS
+                                ? Object.class
+                                : outputJavaType,
+                            "current",
+                            NO_PARAMS,
+                            currentBody)));
+            final Expression enumerable =
+                Expressions.new_(
+                    ABSTRACT_ENUMERABLE_CTOR,
+                    NO_EXPRS,
+                    Arrays.<MemberDeclaration>asList(
+                        Expressions.methodDecl(
+                            Modifier.PUBLIC,
+                            enumeratorType,
+                            BuiltinMethod.ENUMERABLE_ENUMERATOR
+                                .method.getName(),
+                            NO_PARAMS,
+                            Blocks.toFunctionBlock(body))));
+            rangeStatements.add(enumerable);
+            statements.add(
+                Expressions.return_(
+                    null,
+                    Expressions.call(
+                        null,
+                        BuiltinMethod.PARALLEL_RANGES.method,
+                        Expressions.list(
+                            rowCount,
+                            Expressions.lambda(
+                                Function2.class,
+                                rangeStatements.toBlock(),
+                                Arrays.asList(start, end)),
+                            EnumerableRelImplementor.ROOT))));
+            return statements.toBlock();
+        }
+
         public RexProgram getProgram() {
             return program;
         }
     }
 
+    /**
+     * Implementation of {@link RexToLixTranslator.InputGetter} that reads
+     * fields from the columns of an {@link ArrayTable}.
+     *
+     * <p>Declares a variable for each column the first time it is
+     * referenced.</p>
+     */
+    private static class ColumnInputGetter
+        implements RexToLixTranslator.InputGetter
+    {
+        private final BlockBuilder statements;
+        private final Expression table;
+        private final PhysType physType;
+        private final ParameterExpression ordinal;
+        private final Map<Integer, Expression> columns =
+            new HashMap<Integer, Expression>();
+
+        ColumnInputGetter(
+            BlockBuilder statements,
+            Expression table,
+            PhysType physType,
+            ParameterExpression ordinal)
+        {
+            this.statements = statements;
+            this.table = table;
+            this.physType = physType;
+            this.ordinal = ordinal;
+        }
+
+        public Expression field(BlockBuilder list, int index) {
+            Expression column = columns.get(index);
+            if (column == null) {
+                column =
+                    statements.append(
+                        "column" + index,
+                        Expressions.call(
+                            table,
+                            BuiltinMethod.ARRAY_TABLE_COLUMN.method,
+                            Expressions.constant(index)));
+                columns.put(index, column);
+            }
+            final Class clazz = physType.fieldClass(index);
+            final Primitive primitive = Primitive.of(clazz);
+            if (primitive != null) {
+                switch (primitive) {
+                case BYTE:
+                case CHAR:
+                case SHORT:
+                    return Expressions.convert_(
+                        Expressions.call(
+                            column,
+                            BuiltinMethod.COLUMN_GET_INT.method,
+                            ordinal),
+                        clazz);
+                case INT:
+                    return Expressions.call(
+                        column, BuiltinMethod.COLUMN_GET_INT.method, ordinal);
+                case LONG:
+                    return Expressions.call(
+                        column, BuiltinMethod.COLUMN_GET_LONG.method, ordinal);
+                case FLOAT:
+                    return Expressions.convert_(
+                        Expressions.call(
+                            column,
+                            BuiltinMethod.COLUMN_GET_DOUBLE.method,
+                            ordinal),
+                        clazz);
+                case DOUBLE:
+                    return Expressions.call(
+                        column,
+                        BuiltinMethod.COLUMN_GET_DOUBLE.method,
+                        ordinal);
+                case BOOLEAN:
+                    return RexToLixTranslator.convert(
+                        Expressions.call(
+                            column,
+                            BuiltinMethod.COLUMN_GET_OBJECT.method,
+                            ordinal),
+                        clazz);
+                }
+            }
+            return Types.castIfNecessary(
+                clazz,
+                Expressions.call(
+                    column, BuiltinMethod.COLUMN_GET_OBJECT.method, ordinal));
+        }
+    }
+
     public static final EnumerableAggregateRule ENUMERABLE_AGGREGATE_RULE =
         new EnumerableAggregateRule();
 
@@ -785,12 +1583,6 @@ public class JavaRules {
             super(cluster, traitSet, child, groupSet, aggCalls);
             assert getConvention() instanceof EnumerableConvention;
 
-            for (AggregateCall aggCall : aggCalls) {
-                if (aggCall.isDistinct()) {
-                    throw new InvalidRelException(
-                        "distinct aggregation not supported");
-                }
-            }
             this.physType =
                 PhysTypeImpl.of(
                     (JavaTypeFactory) cluster.getTypeFactory(),
@@ -820,7 +1612,56 @@ public class JavaRules {
             return physType;
         }
 
+        @Override
+        public RelOptCost computeSelfCost(RelOptPlanner planner) {
+            final RelOptCost cost = super.computeSelfCost(planner);
+            if (groupSet.isEmpty()
+                || EnumUtil.isSortedOn(getChild(), groupSet))
+            {
+                // A scalar aggregate, or an aggregate whose input is sorted
+                // on the group key, keeps one accumulator at a time.
+                return cost;
+            }
+            // Otherwise, each input row probes a hash table of groups.
+            return cost.plus(
+                planner.makeCost(
+                    0,
+                    RelMetadataQuery.getRowCount(getChild()),
+                    0));
+        }
+
+        /** Returns the collation of the group key, if the input is sorted on
+         * it. The aggregate then returns groups in the order of its input;
+         * see {@link Enumerables#sortedGroupBy}. */
+        @Override
+        public List<RelCollation> getCollationList() {
+            if (groupSet.isEmpty()) {
+                return Collections.emptyList();
+            }
+            final List<RelFieldCollation> prefix =
+                EnumUtil.sortedPrefix(getChild(), groupSet);
+            if (prefix == null) {
+                return Collections.emptyList();
+            }
+            final List<Integer> groupList = Util.toList(groupSet);
+            final List<RelFieldCollation> fieldCollations =
+                new ArrayList<RelFieldCollation>();
+            for (RelFieldCollation fieldCollation : prefix) {
+                fieldCollations.add(
+                    fieldCollation.copy(
+                        groupList.indexOf(fieldCollation.getFieldIndex())));
+            }
+            return Collections.<RelCollation>singletonList(
+                new RelCollationImpl(fieldCollations));
+        }
+
         public BlockExpression implement(EnumerableRelImplementor implementor) {
+            if (implementor.isOperatorFusion() && groupSet.isEmpty()) {
+                final BlockExpression fused = implementFused(implementor);
+                if (fused != null) {
+                    return fused;
+                }
+            }
             final JavaTypeFactory typeFactory =
                 (JavaTypeFactory) implementor.getTypeFactory();
             final BlockBuilder statements = new BlockBuilder();
@@ -884,16 +1725,41 @@ public class JavaRules {
                     Util.toList(groupSet),
                     JavaRowFormat.CUSTOM);
             final int keyArity = groupSet.cardinality();
+            final List<Class> keyClasses = new ArrayList<Class>();
             for (int groupKey : Util.toIter(groupSet)) {
                 keyExpressions.add(
                     inputPhysType.fieldReference(parameter, groupKey));
+                keyClasses.add(inputPhysType.fieldClass(groupKey));
             }
+
+            // If the key is one NOT NULL integer column, or two that fit in
+            // an int, generate a LongFunction1 key selector and call
+            // Enumerables.groupByLong, which neither boxes keys nor
+            // allocates a hash map entry per row:
+            //
+            // LongFunction1<Employee> keySelector =
+            //     new LongFunction1<Employee>() {
+            //         public long apply(Employee a0) {
+            //             return (long) a0.deptno;
+            //         }
+            //     };
+            //
+            // If the input is sorted on the key columns, the rows of each
+            // group are contiguous, so call Enumerables.sortedGroupBy, which
+            // returns each group as soon as it is complete.
+            final boolean sorted =
+                keyArity > 0 && EnumUtil.isSortedOn(child, groupSet);
+            final Expression longKey =
+                sorted ? null : longKey(keyClasses, keyExpressions);
             final Expression keySelector =
                 statements.append(
                     "keySelector",
-                    child.getPhysType().generateSelector(
-                        parameter,
-                        Util.toList(groupSet)));
+                    longKey != null
+                        ? Expressions.lambda(
+                            LongFunction1.class, longKey, parameter)
+                        : child.getPhysType().generateSelector(
+                            parameter,
+                            Util.toList(groupSet)));
 
             final List<RexImpTable.AggImplementor2> implementors =
                 new ArrayList<RexImpTable.AggImplementor2>();
@@ -929,6 +1795,20 @@ public class JavaRules {
                             ord.e.left.getArgList())));
             }
 
+            // Each DISTINCT aggregate call also has a slot for the set of
+            // arguments that its group has seen so far:
+            //
+            //   new HashSet()
+            final List<Integer> distinctSlots = new ArrayList<Integer>();
+            for (AggregateCall aggCall : aggCalls) {
+                if (aggCall.isDistinct()) {
+                    distinctSlots.add(initExpressions.size());
+                    initExpressions.add(Expressions.new_(HashSet.class));
+                } else {
+                    distinctSlots.add(-1);
+                }
+            }
+
             final PhysType accPhysType =
                 PhysTypeImpl.of(
                     typeFactory,
@@ -978,6 +1858,22 @@ public class JavaRules {
                                 Expressions.constant(null)));
                     }
                 }
+                final int distinctSlot = distinctSlots.get(ord.i);
+                if (distinctSlot >= 0) {
+                    // SqlFunctions.addDistinct(acc.s, new Object[] {in.x})
+                    conditions.add(
+                        Expressions.call(
+                            null,
+                            BuiltinMethod.ADD_DISTINCT.method,
+                            accPhysType.fieldReference(
+                                accParameter, distinctSlot),
+                            Expressions.newArrayInit(
+                                Object.class,
+                                accessors(
+                                    inputPhysType,
+                                    inParameter,
+                                    ord.e.left))));
+                }
                 final Statement assign =
                     Expressions.statement(
                         Expressions.assign(
@@ -1015,6 +1911,9 @@ public class JavaRules {
             final ParameterExpression keyParameter;
             if (keyArity == 0) {
                 keyParameter = null;
+            } else if (longKey != null) {
+                keyParameter = Expressions.parameter(Long.class, "key");
+                results.addAll(unpackLongKey(keyClasses, keyParameter));
             } else {
                 final Type keyType = keyPhysType.getJavaRowType();
                 keyParameter = Expressions.parameter(keyType, "key");
@@ -1064,24 +1963,537 @@ public class JavaRules {
                             Function2.class,
                             resultPhysType.record(results),
                             Expressions.list(keyParameter, accParameter)));
-                statements.add(
-                    Expressions.return_(
-                        null,
-                        Expressions.call(
-                            childExp,
-                            BuiltinMethod.GROUP_BY2.method,
-                            Expressions
-                                .list(
+                if (sorted) {
+                    statements.add(
+                        Expressions.return_(
+                            null,
+                            Expressions.call(
+                                null,
+                                BuiltinMethod.SORTED_GROUP_BY.method,
+                                Expressions.list(
+                                    childExp,
+                                    keySelector,
+                                    accumulatorInitializer,
+                                    accumulatorAdder,
+                                    resultSelector))));
+                } else if (longKey != null) {
+                    statements.add(
+                        Expressions.return_(
+                            null,
+                            Expressions.call(
+                                null,
+                                BuiltinMethod.GROUP_BY_LONG.method,
+                                Expressions.list(
+                                    childExp,
+                                    keySelector,
+                                    accumulatorInitializer,
+                                    accumulatorAdder,
+                                    resultSelector,
+                                    EnumerableRelImplementor.root(physType)))));
+                } else {
+                    final Expression comparer = keyPhysType.comparer();
+                    statements.add(
+                        Expressions.return_(
+                            null,
+                            Expressions.call(
+                                null,
+                                BuiltinMethod.GROUP_BY_SPILL.method,
+                                Expressions.list(
+                                    childExp,
                                     keySelector,
                                     accumulatorInitializer,
                                     accumulatorAdder,
-                                    resultSelector)
-                                .appendIfNotNull(
-                                    keyPhysType.comparer()))));
+                                    resultSelector,
+                                    comparer != null
+                                        ? comparer
+                                        : Expressions.constant(
+                                            null, EqualityComparer.class),
+                                    EnumerableRelImplementor.root(physType)))));
+                }
+            }
+            return statements.toBlock();
+        }
+
+        /** Implements an aggregate without GROUP BY as a single loop over
+         * the rows of its input, keeping the accumulator of each aggregate
+         * function in a local variable.
+         *
+         * <p>If the input is an {@link EnumerableCalcRel}, the loop also
+         * evaluates the calc's condition and the projections that the
+         * aggregate functions use, so no row is created for the calc's
+         * output. If the rows come from an {@link ArrayTable}, the loop reads
+         * the table's columns by ordinal, rather than asking for an
+         * enumerator.</p>
+         *
+         * <p>A calc over an {@link ArrayTable} scans the table in parallel if
+         * the table is large enough. So that the aggregate and the calc agree,
+         * the generated code decides when the statement is executed, calling
+         * {@link Enumerables#parallelDegree(double)} with the size of the
+         * table, as {@link Enumerables#parallelRanges(int, Function2,
+         * net.hydromatic.optiq.DataContext)} does. If the table will be
+         * split into ranges, the loop reads the rows of the calc instead of
+         * the columns of the table.</p>
+         *
+         * <p>Grouped aggregates are not fused; they, and joins, read their
+         * inputs through enumerators.</p>
+         *
+         * <p>Returns null if the aggregate cannot be fused (if an aggregate
+         * function is DISTINCT, for instance), in which case the caller
+         * generates the usual code.</p> */
+        private BlockExpression implementFused(
+            EnumerableRelImplementor implementor)
+        {
+            final JavaTypeFactory typeFactory =
+                (JavaTypeFactory) implementor.getTypeFactory();
+            final List<RexImpTable.AggImplementor2> implementors =
+                new ArrayList<RexImpTable.AggImplementor2>();
+            for (AggregateCall aggCall : aggCalls) {
+                final RexImpTable.AggImplementor2 implementor2 =
+                    RexImpTable.INSTANCE.get2(aggCall.getAggregation());
+                if (aggCall.isDistinct() || implementor2 == null) {
+                    return null;
+                }
+                implementors.add(implementor2);
+            }
+            final BlockBuilder statements = new BlockBuilder();
+            final EnumerableRel child = (EnumerableRel) getChild();
+
+            // final ArrayTable table = (ArrayTable) <<table expression>>;
+            // final int rowCount = table.size();
+            // return new AbstractEnumerable<Object[]>() {
+            //     public Enumerator<Object[]> enumerator() {
+            //         final ArrayTable.Column column3 = table.column(3);
+            //         int acc0 = 0;
+            //         Integer acc1 = null;
+            //         int i = -1;
+            //         while (i + 1 < rowCount) {
+            //             i = i + 1;
+            //             boolean pass = false;
+            //             {
+            //                 pass = column3.getInt(i) > 10;
+            //             }
+            //             if (pass) {
+            //                 final Integer v = (Integer) column4.getObject(i);
+            //                 acc0 = acc0 + 1;
+            //                 if (v != null) {
+            //                     acc1 = acc1 == null ? v : ...;
+            //                 }
+            //             }
+            //         }
+            //         return Linq4j.singletonEnumerable(
+            //             new Object[] {acc0, acc1}).enumerator();
+            //     }
+            // };
+            //
+            // or, if the rows come from an enumerator,
+            //
+            //         final Enumerator<Employee> inputEnumerator =
+            //             input.enumerator();
+            //         ...
+            //         while (inputEnumerator.moveNext()) {
+            //             final Employee row =
+            //                 (Employee) inputEnumerator.current();
+            //             ...
+            //
+            // The condition is evaluated in a block of its own, so that its
+            // variables cannot clash with those declared for the
+            // projections.
+            //
+            // If the input is a calc over an ArrayTable, the enumerator first
+            // checks whether the calc would scan the table in parallel:
+            //
+            //         if (Enumerables.parallelDegree(rowCount) > 1) {
+            //             final Enumerator<Employee> inputEnumerator =
+            //                 input.enumerator();
+            //             ... loop over the rows of the calc ...
+            //         }
+            //         ... loop over the columns of the table ...
+            final EnumerableCalcRel calc =
+                child instanceof EnumerableCalcRel
+                    ? (EnumerableCalcRel) child
+                    : null;
+            final RexProgram program = calc == null ? null : calc.getProgram();
+            final EnumerableRel source =
+                calc == null ? child : (EnumerableRel) calc.getChild();
+            final BlockExpression body;
+            if (source instanceof EnumerableTableAccessRel
+                && source.getTable().unwrap(ArrayTable.class) != null)
+            {
+                final Expression table =
+                    statements.append(
+                        "table",
+                        Expressions.convert_(
+                            ((EnumerableTableAccessRel) source).getExpression(),
+                            ArrayTable.class));
+                final Expression rowCount =
+                    statements.append(
+                        "rowCount",
+                        Expressions.call(
+                            table, BuiltinMethod.ARRAY_TABLE_SIZE.method));
+                final BlockExpression columnLoop =
+                    fusedLoop(
+                        typeFactory, implementors, program,
+                        source.getPhysType(), table, rowCount, null);
+                if (calc == null) {
+                    body = columnLoop;
+                } else {
+                    final Expression input =
+                        statements.append(
+                            "input", implementor.visitChild(this, 0, calc));
+                    body =
+                        Expressions.block(
+                            Expressions.ifThen(
+                                Expressions.greaterThan(
+                                    Expressions.call(
+                                        null,
+                                        BuiltinMethod.PARALLEL_DEGREE.method,
+                                        rowCount),
+                                    Expressions.constant(1)),
+                                fusedLoop(
+                                    typeFactory, implementors, null,
+                                    calc.getPhysType(), null, null, input)),
+                            columnLoop);
+                }
+            } else {
+                final Expression input =
+                    statements.append(
+                        "input",
+                        implementor.visitChild(
+                            calc == null ? this : calc, 0, source));
+                body =
+                    fusedLoop(
+                        typeFactory, implementors, program,
+                        source.getPhysType(), null, null, input);
             }
+            statements.add(
+                Expressions.return_(
+                    null,
+                    Expressions.new_(
+                        ABSTRACT_ENUMERABLE_CTOR,
+                        NO_EXPRS,
+                        Arrays.<MemberDeclaration>asList(
+                            Expressions.methodDecl(
+                                Modifier.PUBLIC,
+                                Types.of(
+                                    Enumerator.class,
+                                    physType.getJavaRowType()),
+                                BuiltinMethod.ENUMERABLE_ENUMERATOR
+                                    .method.getName(),
+                                NO_PARAMS,
+                                body)))));
             return statements.toBlock();
         }
 
+        /** Generates the body of the enumerator of a fused aggregate: a loop
+         * that reads the rows of the source, evaluates the program, if any,
+         * and adds to the accumulators, followed by a statement that returns
+         * the result.
+         *
+         * @param typeFactory Type factory
+         * @param implementors Implementor of each aggregate function
+         * @param program Calc program between the source and this aggregate,
+         *     or null
+         * @param sourcePhysType Physical type of the source's rows
+         * @param table Expression for the {@link ArrayTable} whose columns
+         *     to read, or null
+         * @param rowCount Expression for the number of rows in the table, or
+         *     null
+         * @param input Expression for the enumerable to read if there is no
+         *     table, or null
+         */
+        private BlockExpression fusedLoop(
+            JavaTypeFactory typeFactory,
+            List<RexImpTable.AggImplementor2> implementors,
+            RexProgram program,
+            PhysType sourcePhysType,
+            Expression table,
+            Expression rowCount,
+            Expression input)
+        {
+            final PhysType inputPhysType =
+                ((EnumerableRel) getChild()).getPhysType();
+            final BlockBuilder methodStatements = new BlockBuilder();
+            final List<Statement> loopStatements = new ArrayList<Statement>();
+            final Expression loopCondition;
+            final RexToLixTranslator.InputGetter inputGetter;
+            if (table != null) {
+                final ParameterExpression i =
+                    Expressions.parameter(int.class, "i");
+                methodStatements.add(
+                    Expressions.declare(0, i, Expressions.constant(-1)));
+                loopCondition =
+                    Expressions.lessThan(
+                        Expressions.add(i, Expressions.constant(1)),
+                        rowCount);
+                loopStatements.add(
+                    Expressions.statement(
+                        Expressions.assign(
+                            i,
+                            Expressions.add(i, Expressions.constant(1)))));
+                inputGetter =
+                    new ColumnInputGetter(
+                        methodStatements, table, sourcePhysType, i);
+            } else {
+                final Type rowType = sourcePhysType.getJavaRowType();
+                final ParameterExpression inputEnumerator =
+                    Expressions.parameter(
+                        Types.of(Enumerator.class, rowType),
+                        "inputEnumerator");
+                methodStatements.add(
+                    Expressions.declare(
+                        Modifier.FINAL,
+                        inputEnumerator,
+                        Expressions.call(
+                            input,
+                            BuiltinMethod.ENUMERABLE_ENUMERATOR.method)));
+                loopCondition =
+                    Expressions.call(
+                        inputEnumerator,
+                        BuiltinMethod.ENUMERATOR_MOVE_NEXT.method);
+                final ParameterExpression row =
+                    Expressions.parameter(rowType, "row");
+                loopStatements.add(
+                    Expressions.declare(
+                        Modifier.FINAL,
+                        row,
+                        RexToLixTranslator.convert(
+                            Expressions.call(
+                                inputEnumerator,
+                                BuiltinMethod.ENUMERATOR_CURRENT.method),
+                            rowType)));
+                inputGetter =
+                    new RexToLixTranslator.InputGetterImpl(
+                        Collections.singletonList(
+                            Pair.<Expression, PhysType>of(
+                                row, sourcePhysType)));
+            }
+
+            // Declare an accumulator for each aggregate function:
+            //
+            //   int acc0 = 0;
+            final List<ParameterExpression> accumulators =
+                new ArrayList<ParameterExpression>();
+            final RelDataType inputRowType = getChild().getRowType();
+            for (Ord<Pair<AggregateCall, RexImpTable.AggImplementor2>> ord
+                : Ord.zip(Pair.zip(aggCalls, implementors)))
+            {
+                final Expression init =
+                    ord.e.right.implementInit(
+                        ord.e.left.getAggregation(),
+                        physType.fieldClass(ord.i),
+                        fieldTypes(
+                            typeFactory,
+                            inputRowType,
+                            ord.e.left.getArgList()));
+                final ParameterExpression accumulator =
+                    Expressions.parameter(init.getType(), "acc" + ord.i);
+                methodStatements.add(
+                    Expressions.declare(0, accumulator, init));
+                accumulators.add(accumulator);
+            }
+
+            // Evaluate each field that an aggregate function uses, once per
+            // row. If there is a calc, translate only the projections that
+            // are used.
+            final BlockBuilder addStatements = new BlockBuilder();
+            final SortedSet<Integer> fields = new TreeSet<Integer>();
+            for (AggregateCall aggCall : aggCalls) {
+                fields.addAll(aggCall.getArgList());
+            }
+            final Map<Integer, Expression> fieldExpressions =
+                new HashMap<Integer, Expression>();
+            if (program == null) {
+                for (int field : fields) {
+                    fieldExpressions.put(
+                        field,
+                        addStatements.append(
+                            "arg" + field,
+                            Types.castIfNecessary(
+                                inputPhysType.fieldClass(field),
+                                inputGetter.field(addStatements, field))));
+                }
+            } else {
+                final RexProgramBuilder programBuilder =
+                    new RexProgramBuilder(
+                        program.getInputRowType(),
+                        getCluster().getRexBuilder());
+                for (int field : fields) {
+                    programBuilder.addProject(
+                        program.expandLocalRef(
+                            program.getProjectList().get(field)),
+                        null);
+                }
+                final List<Expression> projects =
+                    RexToLixTranslator.translateProjects(
+                        programBuilder.getProgram(),
+                        typeFactory,
+                        addStatements,
+                        inputGetter);
+                for (Pair<Integer, Expression> pair
+                    : Pair.zip(new ArrayList<Integer>(fields), projects))
+                {
+                    fieldExpressions.put(
+                        pair.left,
+                        Types.castIfNecessary(
+                            inputPhysType.fieldClass(pair.left),
+                            pair.right));
+                }
+            }
+
+            //   acc0 = acc0 + 1;
+            //   if (v != null) {
+            //       acc1 = acc1 + v;
+            //   }
+            for (Ord<Pair<AggregateCall, RexImpTable.AggImplementor2>> ord
+                : Ord.zip(Pair.zip(aggCalls, implementors)))
+            {
+                final ParameterExpression accumulator =
+                    accumulators.get(ord.i);
+                final List<Expression> arguments = new ArrayList<Expression>();
+                final List<Expression> conditions = new ArrayList<Expression>();
+                for (int arg : ord.e.left.getArgList()) {
+                    final Expression argument = fieldExpressions.get(arg);
+                    arguments.add(argument);
+                    if (inputPhysType.fieldNullable(arg)) {
+                        conditions.add(
+                            Expressions.notEqual(
+                                argument, Expressions.constant(null)));
+                    }
+                }
+                final Statement assign =
+                    Expressions.statement(
+                        Expressions.assign(
+                            accumulator,
+                            ord.e.right.implementAdd(
+                                ord.e.left.getAggregation(),
+                                accumulator,
+                                arguments)));
+                if (conditions.isEmpty()) {
+                    addStatements.add(assign);
+                } else {
+                    addStatements.add(
+                        Expressions.ifThen(
+                            EnumUtil.foldAnd(conditions),
+                            assign));
+                }
+            }
+
+            if (program == null || program.getCondition() == null) {
+                loopStatements.add(addStatements.toBlock());
+            } else {
+                final ParameterExpression pass =
+                    Expressions.parameter(boolean.class, "pass");
+                final BlockBuilder conditionStatements = new BlockBuilder();
+                final Expression condition =
+                    RexToLixTranslator.translateCondition(
+                        program,
+                        typeFactory,
+                        conditionStatements,
+                        inputGetter);
+                conditionStatements.add(
+                    Expressions.statement(
+                        Expressions.assign(pass, condition)));
+                loopStatements.add(
+                    Expressions.declare(
+                        0, pass, Expressions.constant(false)));
+                loopStatements.add(conditionStatements.toBlock());
+                loopStatements.add(
+                    Expressions.ifThen(pass, addStatements.toBlock()));
+            }
+            methodStatements.add(
+                Expressions.while_(
+                    loopCondition,
+                    Expressions.block(
+                        loopStatements.toArray(
+                            new Statement[loopStatements.size()]))));
+
+            final List<Expression> results = Expressions.list();
+            for (Ord<Pair<AggregateCall, RexImpTable.AggImplementor2>> ord
+                : Ord.zip(Pair.zip(aggCalls, implementors)))
+            {
+                results.add(
+                    ord.e.right.implementResult(
+                        ord.e.left.getAggregation(),
+                        accumulators.get(ord.i)));
+            }
+            methodStatements.add(
+                Expressions.return_(
+                    null,
+                    Expressions.call(
+                        Expressions.call(
+                            BuiltinMethod.SINGLETON_ENUMERABLE.method,
+                            physType.record(results)),
+                        BuiltinMethod.ENUMERABLE_ENUMERATOR.method)));
+            return methodStatements.toBlock();
+        }
+
+        /** Returns an expression that computes a row's group key as a
+         * {@code long}, or null if the key columns are not suitable for
+         * {@link net.hydromatic.optiq.runtime.Enumerables#groupByLong}. */
+        private static Expression longKey(
+            List<Class> keyClasses,
+            List<Expression> keyExpressions)
+        {
+            switch (keyClasses.size()) {
+            case 1:
+                if (isIntegerKey(keyClasses.get(0), true)) {
+                    return Expressions.convert_(
+                        keyExpressions.get(0), long.class);
+                }
+                return null;
+            case 2:
+                if (isIntegerKey(keyClasses.get(0), false)
+                    && isIntegerKey(keyClasses.get(1), false))
+                {
+                    return Expressions.call(
+                        null,
+                        BuiltinMethod.PACK_INTS.method,
+                        Expressions.list(
+                            Expressions.convert_(
+                                keyExpressions.get(0), int.class),
+                            Expressions.convert_(
+                                keyExpressions.get(1), int.class)));
+                }
+                return null;
+            default:
+                return null;
+            }
+        }
+
+        private static boolean isIntegerKey(Class clazz, boolean allowLong) {
+            return clazz == int.class
+                || clazz == short.class
+                || clazz == byte.class
+                || allowLong && clazz == long.class;
+        }
+
+        /** Returns expressions that recover the key columns from a key that
+         * was computed by {@link #longKey}. */
+        private static List<Expression> unpackLongKey(
+            List<Class> keyClasses,
+            Expression key)
+        {
+            final Expression longKey =
+                RexToLixTranslator.convert(key, long.class);
+            if (keyClasses.size() == 1) {
+                return Collections.<Expression>singletonList(
+                    Expressions.convert_(longKey, keyClasses.get(0)));
+            }
+            return Arrays.<Expression>asList(
+                Expressions.convert_(
+                    Expressions.call(
+                        null,
+                        BuiltinMethod.UNPACK_HIGH.method,
+                        Expressions.list(longKey)),
+                    keyClasses.get(0)),
+                Expressions.convert_(
+                    Expressions.call(
+                        null,
+                        BuiltinMethod.UNPACK_LOW.method,
+                        Expressions.list(longKey)),
+                    keyClasses.get(1)));
+        }
+
         private List<Type> fieldTypes(
             final JavaTypeFactory typeFactory,
             final RelDataType inputRowType,
@@ -1152,10 +2564,21 @@ public class JavaRules {
                 rel.getCluster(),
                 rel.getTraitSet().replace(EnumerableConvention.ARRAY),
                 convertedChild,
-                sort.getCollations());
+                sort.getCollations(),
+                sort.getOffset(),
+                sort.getFetch());
         }
     }
 
+    /** Implementation of {@link SortRel} in
+     * {@link EnumerableConvention enumerable calling convention}.
+     *
+     * <p>If there is a FETCH, uses a bounded heap to find the top rows rather
+     * than sorting the whole input. If there are no sort keys, just skips and
+     * limits rows, and stops reading the input when it has enough. If the
+     * input is already sorted on the sort keys, does the same. Otherwise,
+     * sorts the whole input, spilling sorted runs to disk if the statement
+     * has a memory budget that the input does not fit into.</p> */
     public static class EnumerableSortRel
         extends SortRel
         implements EnumerableRel
@@ -1166,9 +2589,11 @@ public class JavaRules {
             RelOptCluster cluster,
             RelTraitSet traitSet,
             RelNode child,
-            List<RelFieldCollation> collations)
+            List<RelFieldCollation> collations,
+            RexNode offset,
+            RexNode fetch)
         {
-            super(cluster, traitSet, child, collations);
+            super(cluster, traitSet, child, collations, offset, fetch);
             assert getConvention() instanceof EnumerableConvention;
             assert getConvention() == child.getConvention();
             this.physType =
@@ -1182,19 +2607,99 @@ public class JavaRules {
         public EnumerableSortRel copy(
             RelTraitSet traitSet,
             RelNode newInput,
-            List<RelFieldCollation> newCollations)
+            List<RelFieldCollation> newCollations,
+            RexNode offset,
+            RexNode fetch)
         {
             return new EnumerableSortRel(
                 getCluster(),
                 traitSet,
                 newInput,
-                newCollations);
+                newCollations,
+                offset,
+                fetch);
         }
 
         public PhysType getPhysType() {
             return physType;
         }
 
+        @Override
+        public RelOptCost computeSelfCost(RelOptPlanner planner) {
+            final RelOptCost cost = super.computeSelfCost(planner);
+            if (collations.isEmpty() || isInputSorted()) {
+                return cost;
+            }
+            // Sorting compares each row with log2(n) others.
+            final double rowCount =
+                RelMetadataQuery.getRowCount(getChild());
+            return cost.plus(
+                planner.makeCost(
+                    0,
+                    rowCount * Math.log(Math.max(rowCount, 2d))
+                    / Math.log(2d),
+                    0));
+        }
+
+        /** Returns whether the input is known to be sorted on the sort keys,
+         * so that this sort only needs to skip and limit rows.
+         *
+         * <p>Requires each key to be a column of a primitive type, which
+         * cannot be null and whose Java ordering is the SQL ordering, so that
+         * an ordering that the input declares (say, the ORDER BY of a query
+         * sent to a JDBC data source) is the one this sort would produce.</p>
+         */
+        boolean isInputSorted() {
+            final JavaTypeFactory typeFactory =
+                (JavaTypeFactory) getCluster().getTypeFactory();
+            final List<RelDataTypeField> fields =
+                getRowType().getFieldList();
+            for (RelFieldCollation collation : collations) {
+                final Class clazz =
+                    EnumUtil.javaRowClass(
+                        typeFactory,
+                        fields.get(collation.getFieldIndex()).getType());
+                if (!clazz.isPrimitive()) {
+                    return false;
+                }
+            }
+            final int n = collations.size();
+            for (RelCollation collation : getChild().getCollationList()) {
+                final List<RelFieldCollation> fieldCollations =
+                    collation.getFieldCollations();
+                if (fieldCollations.size() >= n
+                    && fieldCollations.subList(0, n).equals(collations))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Converts the value of OFFSET to an int, the type in which the
+         * enumerable operators count rows. Rejects a value that does not
+         * fit, rather than silently truncating it. */
+        static int offsetValue(RexNode offset) {
+            final BigDecimal value = RexLiteral.bigDecimalValue(offset);
+            if (value.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) > 0) {
+                throw new IllegalArgumentException(
+                    "OFFSET value " + value + " is greater than maximum "
+                    + Integer.MAX_VALUE);
+            }
+            return value.intValue();
+        }
+
+        /** Converts the value of FETCH to an int. A value that does not fit
+         * is clamped to {@link Integer#MAX_VALUE}, which is more rows than a
+         * sort can hold. */
+        static int fetchValue(RexNode fetch) {
+            final BigDecimal value = RexLiteral.bigDecimalValue(fetch);
+            if (value.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) > 0) {
+                return Integer.MAX_VALUE;
+            }
+            return value.intValue();
+        }
+
         public BlockExpression implement(EnumerableRelImplementor implementor) {
             final BlockBuilder statements = new BlockBuilder();
             final EnumerableRel child = (EnumerableRel) getChild();
@@ -1204,6 +2709,24 @@ public class JavaRules {
                     implementor.visitChild(
                         this, 0, child));
 
+            final int offset =
+                this.offset == null ? 0 : offsetValue(this.offset);
+            final int fetch =
+                this.fetch == null ? -1 : fetchValue(this.fetch);
+            if (collations.isEmpty() || isInputSorted()) {
+                statements.add(
+                    Expressions.return_(
+                        null,
+                        Expressions.call(
+                            null,
+                            BuiltinMethod.LIMIT.method,
+                            Expressions.list(
+                                childExp,
+                                Expressions.constant(offset),
+                                Expressions.constant(fetch)))));
+                return statements.toBlock();
+            }
+
             PhysType inputPhysType = child.getPhysType();
             final Pair<Expression, Expression> pair =
                 inputPhysType.generateCollationKey(
@@ -1215,22 +2738,43 @@ public class JavaRules {
 
             final Expression comparatorExp = pair.right;
 
-            final List<Expression> arguments =
-                Expressions.list(keySelector);
-            if (comparatorExp != null) {
-                final Expression comparator =
-                    statements.append(
-                        "comparator",
-                        comparatorExp);
-                arguments.add(comparator);
+            if (offset > 0 || fetch >= 0) {
+                // Enumerables.orderBy(child, keySelector, comparator,
+                //     offset, fetch)
+                statements.add(
+                    Expressions.return_(
+                        null,
+                        Expressions.call(
+                            null,
+                            BuiltinMethod.ORDER_BY_LIMIT.method,
+                            Expressions.list(
+                                childExp,
+                                keySelector,
+                                comparatorExp == null
+                                    ? Expressions.constant(
+                                        null, Comparator.class)
+                                    : statements.append(
+                                        "comparator", comparatorExp),
+                                Expressions.constant(offset),
+                                Expressions.constant(fetch)))));
+                return statements.toBlock();
             }
+
+            // Enumerables.orderBy(child, keySelector, comparator, root)
             statements.add(
                 Expressions.return_(
                     null,
                     Expressions.call(
-                        childExp,
-                        BuiltinMethod.ORDER_BY.method,
-                        arguments)));
+                        null,
+                        BuiltinMethod.ORDER_BY_SPILL.method,
+                        Expressions.list(
+                            childExp,
+                            keySelector,
+                            comparatorExp == null
+                                ? Expressions.constant(null, Comparator.class)
+                                : statements.append(
+                                    "comparator", comparatorExp),
+                            EnumerableRelImplementor.root(physType)))));
             return statements.toBlock();
         }
     }
@@ -1384,6 +2928,12 @@ public class JavaRules {
         }
     }
 
+    /** Implementation of {@link IntersectRel} in
+     * {@link EnumerableConvention enumerable calling convention}.
+     *
+     * <p>Holds the distinct rows of each input after the first in a hash
+     * table, within the statement's memory budget; see
+     * {@link Enumerables#intersect}.</p> */
     public static class EnumerableIntersectRel
         extends IntersectRelBase
         implements EnumerableRel
@@ -1432,14 +2982,21 @@ public class JavaRules {
 
                 if (intersectExp == null) {
                     intersectExp = childExp;
-                } else {
+                } else if (all) {
                     intersectExp =
                         Expressions.call(
                             intersectExp,
-                            all
-                                ? BuiltinMethod.CONCAT.method
-                                : BuiltinMethod.INTERSECT.method,
+                            BuiltinMethod.CONCAT.method,
                             childExp);
+                } else {
+                    intersectExp =
+                        Expressions.call(
+                            null,
+                            BuiltinMethod.INTERSECT_SPILL.method,
+                            Expressions.list(
+                                intersectExp,
+                                childExp,
+                                EnumerableRelImplementor.root(physType)));
                 }
             }
 
@@ -1493,6 +3050,12 @@ public class JavaRules {
         }
     }
 
+    /** Implementation of {@link MinusRel} in
+     * {@link EnumerableConvention enumerable calling convention}.
+     *
+     * <p>Holds the distinct rows of each input after the first, and the rows
+     * returned so far, in a hash table, within the statement's memory budget;
+     * see {@link Enumerables#except}.</p> */
     public static class EnumerableMinusRel
         extends MinusRelBase
         implements EnumerableRel
@@ -1544,9 +3107,12 @@ public class JavaRules {
                 } else {
                     minusExp =
                         Expressions.call(
-                            minusExp,
-                            BuiltinMethod.EXCEPT.method,
-                            childExp);
+                            null,
+                            BuiltinMethod.EXCEPT_SPILL.method,
+                            Expressions.list(
+                                minusExp,
+                                childExp,
+                                EnumerableRelImplementor.root(physType)));
                 }
             }
 
@@ -1727,6 +3293,32 @@ public class JavaRules {
         }
     }
 
+    public static final EnumerableEmptyRule ENUMERABLE_EMPTY_RULE =
+        new EnumerableEmptyRule();
+
+    /** Rule that converts an {@link EmptyRel}, which rules such as
+     * {@link org.eigenbase.rel.rules.ReduceExpressionsRule} create when they
+     * prove that a relational expression returns no rows, into an
+     * {@link EnumerableValuesRel} with no rows. */
+    public static class EnumerableEmptyRule extends ConverterRule {
+        private EnumerableEmptyRule() {
+            super(
+                EmptyRel.class,
+                Convention.NONE,
+                EnumerableConvention.ARRAY,
+                "EnumerableEmptyRule");
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            return new EnumerableValuesRel(
+                rel.getCluster(),
+                rel.getRowType(),
+                Collections.<List<RexLiteral>>emptyList(),
+                rel.getTraitSet().replace(EnumerableConvention.ARRAY));
+        }
+    }
+
     public static final EnumerableOneRowRule ENUMERABLE_ONE_ROW_RULE =
         new EnumerableOneRowRule();
 
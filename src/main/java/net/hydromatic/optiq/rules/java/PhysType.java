@@ -104,6 +104,13 @@ public interface PhysType {
      * @return Expression to create a row
      */
     Expression record(List<Expression> expressions);
+
+    /** Returns a rough estimate of the number of bytes that a row of this
+     * type occupies in memory, including the objects that its fields refer
+     * to. Operators that hold rows in memory use it to weigh the rows
+     * against the memory budget; see
+     * {@link net.hydromatic.optiq.runtime.ExecutionContext#weigh(int)}. */
+    int estimateRowBytes();
 }
 
 // End PhysType.java
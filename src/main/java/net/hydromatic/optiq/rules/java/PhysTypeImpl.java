@@ -34,6 +34,16 @@ import java.util.*;
 
 /** Implementation of {@link PhysType}. */
 public class PhysTypeImpl implements PhysType {
+    /** Estimated size of an object header and its padding. */
+    private static final int OBJECT_BYTES = 16;
+    /** Estimated size of a reference. */
+    private static final int REFERENCE_BYTES = 8;
+    /** Estimated size of an empty string, including its character
+     * array. */
+    private static final int STRING_BYTES = 40;
+    /** Length assumed for a string whose type has no smaller precision. */
+    private static final int STRING_CHARS = 32;
+
     private final JavaTypeFactory typeFactory;
     private final RelDataType rowType;
     private final Type javaRowClass;
@@ -322,6 +332,50 @@ public class PhysTypeImpl implements PhysType {
         return fieldClasses.get(field);
     }
 
+    public int estimateRowBytes() {
+        // A row of a single field is the field's value; any other row is an
+        // object (an array or a record) with a header.
+        int bytes = format == JavaRowFormat.SCALAR ? 0 : OBJECT_BYTES;
+        for (int i = 0; i < fieldClasses.size(); i++) {
+            final Class clazz = fieldClasses.get(i);
+            if (clazz.isPrimitive() && format == JavaRowFormat.CUSTOM) {
+                // A record holds a primitive field in place.
+                bytes += primitiveBytes(clazz);
+                continue;
+            }
+            if (format != JavaRowFormat.SCALAR) {
+                bytes += REFERENCE_BYTES;
+            }
+            if (clazz.isPrimitive() || Primitive.ofBox(clazz) != null) {
+                bytes += OBJECT_BYTES;
+            } else if (clazz == String.class) {
+                final int precision =
+                    rowType.getFieldList().get(i).getType().getPrecision();
+                final int chars =
+                    precision > 0 && precision < STRING_CHARS
+                        ? precision
+                        : STRING_CHARS;
+                bytes += STRING_BYTES + 2 * chars;
+            } else {
+                bytes += 2 * OBJECT_BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    private static int primitiveBytes(Class clazz) {
+        if (clazz == long.class || clazz == double.class) {
+            return 8;
+        }
+        if (clazz == int.class || clazz == float.class) {
+            return 4;
+        }
+        if (clazz == short.class || clazz == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
     public boolean fieldNullable(int field) {
         return rowType.getFieldList().get(field).getType().isNullable();
     }
@@ -25,6 +25,9 @@ import org.eigenbase.rel.Aggregation;
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.rex.*;
 import org.eigenbase.sql.SqlOperator;
+import org.eigenbase.sql.fun.SqlCountAggFunction;
+import org.eigenbase.sql.fun.SqlMinMaxAggFunction;
+import org.eigenbase.sql.fun.SqlSumAggFunction;
 import org.eigenbase.sql.fun.SqlStdOperatorTable;
 
 import java.lang.reflect.Type;
@@ -153,7 +156,27 @@ public class RexImpTable {
     }
 
     public AggImplementor2 get2(final Aggregation aggregation) {
-        return agg2Map.get(aggregation);
+        final AggImplementor2 implementor = agg2Map.get(aggregation);
+        if (implementor != null) {
+            return implementor;
+        }
+        // Rewrites such as sub-query conversion (EXISTS uses MIN) and
+        // ReduceAggregatesRule (AVG becomes SUM / COUNT) create their own
+        // instances of the builtin aggregate functions, so they are not in
+        // the map.
+        if (aggregation instanceof SqlMinMaxAggFunction) {
+            return agg2Map.get(
+                ((SqlMinMaxAggFunction) aggregation).isMin()
+                    ? minOperator
+                    : maxOperator);
+        }
+        if (aggregation instanceof SqlSumAggFunction) {
+            return agg2Map.get(sumOperator);
+        }
+        if (aggregation instanceof SqlCountAggFunction) {
+            return agg2Map.get(countOperator);
+        }
+        return null;
     }
 
     static Expression optimize(Expression expression) {
@@ -453,7 +476,9 @@ public class RexImpTable {
                 Expressions.convert_(
                     Expressions.call(
                         SqlFunctions.class,
-                        aggregation == minOperator ? "lesser" : "greater",
+                        ((SqlMinMaxAggFunction) aggregation).isMin()
+                            ? "lesser"
+                            : "greater",
                         unbox(accumulator),
                         arg),
                     arg.getType()));
@@ -19,6 +19,7 @@ package net.hydromatic.optiq.rules.java;
 
 import net.hydromatic.linq4j.expressions.*;
 
+import net.hydromatic.optiq.BuiltinMethod;
 import net.hydromatic.optiq.impl.java.JavaTypeFactory;
 import net.hydromatic.optiq.runtime.SqlFunctions;
 
@@ -185,6 +186,9 @@ public class RexToLixTranslator {
         if (expr instanceof RexLiteral) {
             return translateLiteral(expr, null, typeFactory);
         }
+        if (expr instanceof RexDynamicParam) {
+            return translateDynamicParam((RexDynamicParam) expr, mayBeNull);
+        }
         if (expr instanceof RexCall) {
             final RexCall call = (RexCall) expr;
             final SqlOperator operator = call.getOperator();
@@ -239,6 +243,34 @@ public class RexToLixTranslator {
         }
     }
 
+    /** Translates a dynamic parameter. The value is read from the data
+     * context each time the statement is executed, so the same compiled code
+     * can be used for different parameter values.
+     *
+     * <p>Generates "(Integer) root.get("?0")". The value is read as the
+     * boxed class, because a parameter may be set to null; it is unboxed
+     * only if the caller has established that it is not null.</p> */
+    private Expression translateDynamicParam(
+        RexDynamicParam param,
+        boolean mayBeNull)
+    {
+        final Expression expression =
+            Expressions.call(
+                EnumerableRelImplementor.ROOT,
+                BuiltinMethod.DATA_CONTEXT_GET.method,
+                Expressions.constant("?" + param.getIndex()));
+        final Type javaClass = typeFactory.getJavaClass(param.getType());
+        if (javaClass == null) {
+            return expression;
+        }
+        final Expression boxed =
+            convert(expression, Primitive.box(javaClass));
+        if (mayBeNull || Primitive.of(javaClass) == null) {
+            return boxed;
+        }
+        return convert(boxed, javaClass);
+    }
+
     List<Expression> translateList(List<RexNode> operandList) {
         final List<Expression> list = new ArrayList<Expression>();
         for (RexNode rex : operandList) {
@@ -386,7 +418,8 @@ public class RexToLixTranslator {
     }
 
     /** Implementation of {@link InputGetter} that calls
-     * {@link PhysType#fieldReference}. */
+     * {@link PhysType#fieldReference}. If there are several inputs, their
+     * fields are numbered consecutively, as in the row type of a join. */
     public static class InputGetterImpl implements InputGetter {
         private List<Pair<Expression, PhysType>> inputs;
 
@@ -395,10 +428,20 @@ public class RexToLixTranslator {
         }
 
         public Expression field(BlockBuilder list, int index) {
-            final Pair<Expression, PhysType> input = inputs.get(0);
-            final PhysType physType = input.right;
-            final Expression left = list.append("current" + index, input.left);
-            return physType.fieldReference(left, index);
+            int offset = 0;
+            for (Pair<Expression, PhysType> input : inputs) {
+                final PhysType physType = input.right;
+                final int fieldCount =
+                    physType.getRowType().getFieldCount();
+                if (index < offset + fieldCount) {
+                    final Expression left =
+                        list.append("current" + index, input.left);
+                    return physType.fieldReference(left, index - offset);
+                }
+                offset += fieldCount;
+            }
+            throw new AssertionError(
+                "field " + index + " not found in inputs " + inputs);
         }
     }
 }
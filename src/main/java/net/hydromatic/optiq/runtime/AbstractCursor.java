@@ -58,6 +58,22 @@ abstract class AbstractCursor implements Cursor {
         // Create an accessor appropriate to the underlying type; the accessor
         // can convert to any type in the same family.
         Getter getter = createGetter(ordinal);
+        if (getter instanceof PrimitiveGetter) {
+            final PrimitiveGetter primitiveGetter = (PrimitiveGetter) getter;
+            switch (type.type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return new PrimitiveExactNumericAccessor(primitiveGetter);
+            case Types.BOOLEAN:
+                return new PrimitiveBooleanAccessor(primitiveGetter);
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return new PrimitiveApproximateNumericAccessor(
+                    primitiveGetter);
+            }
+        }
         switch (type.type) {
         case Types.TINYINT:
             return new ByteAccessor(getter);
@@ -393,6 +409,57 @@ abstract class AbstractCursor implements Cursor {
         }
     }
 
+    /**
+     * Accessor of exact numeric values that reads them from a
+     * {@link PrimitiveGetter}, without boxing; corresponds to
+     * {@link java.sql.Types#TINYINT}, {@link java.sql.Types#SMALLINT},
+     * {@link java.sql.Types#INTEGER} and {@link java.sql.Types#BIGINT}.
+     */
+    private static class PrimitiveExactNumericAccessor
+        extends ExactNumericAccessor
+    {
+        private final PrimitiveGetter primitiveGetter;
+
+        public PrimitiveExactNumericAccessor(PrimitiveGetter getter) {
+            super(getter);
+            this.primitiveGetter = getter;
+        }
+
+        public long getLong() {
+            return primitiveGetter.getLong();
+        }
+
+        public int getInt() {
+            return primitiveGetter.getInt();
+        }
+
+        public short getShort() {
+            return primitiveGetter.getShort();
+        }
+
+        public byte getByte() {
+            return primitiveGetter.getByte();
+        }
+    }
+
+    /**
+     * Accessor that reads a {@code boolean} value from a
+     * {@link PrimitiveGetter}, without boxing; corresponds to
+     * {@link java.sql.Types#BOOLEAN}.
+     */
+    private static class PrimitiveBooleanAccessor extends BooleanAccessor {
+        private final PrimitiveGetter primitiveGetter;
+
+        public PrimitiveBooleanAccessor(PrimitiveGetter getter) {
+            super(getter);
+            this.primitiveGetter = getter;
+        }
+
+        public boolean getBoolean() {
+            return primitiveGetter.getBoolean();
+        }
+    }
+
     /**
      * Accessor of values that are {@link Double} or null.
      */
@@ -482,6 +549,30 @@ abstract class AbstractCursor implements Cursor {
         }
     }
 
+    /**
+     * Accessor of approximate numeric values that reads them from a
+     * {@link PrimitiveGetter}, without boxing; corresponds to
+     * {@link java.sql.Types#FLOAT} and {@link java.sql.Types#DOUBLE}.
+     */
+    private static class PrimitiveApproximateNumericAccessor
+        extends ApproximateNumericAccessor
+    {
+        private final PrimitiveGetter primitiveGetter;
+
+        public PrimitiveApproximateNumericAccessor(PrimitiveGetter getter) {
+            super(getter);
+            this.primitiveGetter = getter;
+        }
+
+        public double getDouble() {
+            return primitiveGetter.getDouble();
+        }
+
+        public float getFloat() {
+            return primitiveGetter.getFloat();
+        }
+    }
+
     /**
      * Accessor of exact numeric values. The subclass must implement the
      * {@link #getLong()} method.
@@ -646,6 +737,30 @@ abstract class AbstractCursor implements Cursor {
 
         boolean wasNull();
     }
+
+    /**
+     * Getter of a value of primitive type, which is never null, and which
+     * can be read without boxing it.
+     *
+     * <p>If {@link #createGetter(int)} returns a getter that implements this
+     * interface, the numeric and boolean accessors call its typed methods
+     * rather than {@link #getObject()}.</p>
+     */
+    protected interface PrimitiveGetter extends Getter {
+        boolean getBoolean();
+
+        byte getByte();
+
+        short getShort();
+
+        int getInt();
+
+        long getLong();
+
+        float getFloat();
+
+        double getDouble();
+    }
 }
 
 // End AbstractCursor.java
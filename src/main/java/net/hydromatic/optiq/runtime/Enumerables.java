@@ -0,0 +1,2168 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.Linq4j;
+import net.hydromatic.linq4j.Queryable;
+import net.hydromatic.linq4j.function.EqualityComparer;
+import net.hydromatic.linq4j.function.Function0;
+import net.hydromatic.linq4j.function.Function1;
+import net.hydromatic.linq4j.function.Function2;
+import net.hydromatic.linq4j.function.LongFunction1;
+import net.hydromatic.linq4j.function.Predicate2;
+
+import net.hydromatic.optiq.DataContext;
+import net.hydromatic.optiq.Schema;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Relational operators over {@link Enumerable}s that linq4j does not
+ * provide. Called by generated code.
+ *
+ * @author jhyde
+ */
+public class Enumerables {
+    /** Minimum number of rows that a parallel scan gives to each thread.
+     * Smaller ranges cost more to schedule than they save. */
+    public static final int MIN_ROWS_PER_PARTITION = 100000;
+
+    /** Maximum number of threads that a parallel scan uses. */
+    public static final int MAX_DEGREE =
+        Runtime.getRuntime().availableProcessors();
+
+    /** Maximum number of rows that each range of a parallel scan reads ahead
+     * of its consumer. */
+    public static final int RANGE_QUEUE_SIZE = 1024;
+
+    /** Minimum number of rows that an operator holds in memory before it
+     * spills, even if the memory budget is exhausted; prevents an operator
+     * from writing a file for each row. */
+    public static final int SPILL_MIN_ROWS = 100;
+
+    /** Number of bits of a key's hash code that choose its spill partition;
+     * there are 2<sup>SPILL_PARTITION_BITS</sup> partitions. */
+    private static final int SPILL_PARTITION_BITS = 4;
+
+    /** Maximum number of times a hash aggregation or hash join
+     * re-partitions a partition that does not fit into memory. */
+    private static final int MAX_SPILL_DEPTH = 3;
+
+    private static ExecutorService executor;
+
+    private Enumerables() {
+    }
+
+    /**
+     * Joins two inputs by building a hash table on the inner input.
+     *
+     * <p>Unlike {@link net.hydromatic.linq4j.ExtendedEnumerable#join}, can
+     * apply a residual predicate to each pair of rows whose keys match, and
+     * can generate null-padded rows for outer joins. The result selector is
+     * called with {@code null} for the side that has no matching row.</p>
+     *
+     * <p>Following SQL semantics, a key that is null, or is an array that
+     * contains null, matches no row.</p>
+     *
+     * @param outer Outer (left) input
+     * @param inner Inner (right) input, which is read into memory
+     * @param outerKeySelector Returns the key of an outer row
+     * @param innerKeySelector Returns the key of an inner row
+     * @param resultSelector Combines an outer and inner row
+     * @param predicate Condition that matching rows must also satisfy, or
+     *     null
+     * @param generateNullsOnLeft Whether to emit inner rows that match no
+     *     outer row (RIGHT and FULL join)
+     * @param generateNullsOnRight Whether to emit outer rows that match no
+     *     inner row (LEFT and FULL join)
+     * @param root Data context, whose {@link ExecutionContext}, if any,
+     *     limits the number of inner rows held in memory
+     */
+    public static <TSource, TInner, TKey, TResult> Enumerable<TResult>
+    hashJoin(
+        final Enumerable<TSource> outer,
+        final Enumerable<TInner> inner,
+        final Function1<TSource, TKey> outerKeySelector,
+        final Function1<TInner, TKey> innerKeySelector,
+        final Function2<TSource, TInner, TResult> resultSelector,
+        final Predicate2<TSource, TInner> predicate,
+        final boolean generateNullsOnLeft,
+        final boolean generateNullsOnRight,
+        final DataContext root)
+    {
+        return new AbstractEnumerable<TResult>() {
+            public Enumerator<TResult> enumerator() {
+                final ExecutionContext context = executionContext(root);
+                if (context == null || context.getMemoryRowLimit() == 0) {
+                    return new JoinEnumerator<TSource, TInner, TKey, TResult>(
+                        outer.enumerator(), inner, outerKeySelector,
+                        innerKeySelector, resultSelector, predicate,
+                        generateNullsOnLeft, generateNullsOnRight);
+                }
+                return graceHashJoin(
+                    outer, inner, outerKeySelector, innerKeySelector,
+                    resultSelector, predicate, generateNullsOnLeft,
+                    generateNullsOnRight, context, 0);
+            }
+        };
+    }
+
+    /**
+     * Joins two inputs, spilling both to disk if the inner input does not
+     * fit into the memory budget.
+     *
+     * <p>Reads the inner input into memory until the budget is exhausted.
+     * If the whole input fits, joins as {@link #hashJoin} does. Otherwise
+     * (a "grace" hash join) writes the inner rows to one of several
+     * partition files according to the hash code of their key, does the same
+     * to the outer rows, and then joins each pair of partitions, one at a
+     * time. Rows whose keys match are in partitions with the same number.
+     * A pair of partitions whose inner partition does not fit into memory is
+     * joined in the same way, using different bits of the hash code, up to
+     * {@link #MAX_SPILL_DEPTH} times.</p>
+     *
+     * <p>As in {@link #groupBy}, the inner input is not spilled until it has
+     * at least {@link #SPILL_MIN_ROWS} rows in memory, nor if its rows, or
+     * the rows of the outer input, cannot be written to a
+     * {@link SpillFile}; the rows are then held in memory beyond the
+     * budget.</p>
+     *
+     * @param depth Number of times that the rows have already been
+     *     partitioned
+     */
+    private static <TSource, TInner, TKey, TResult> Enumerator<TResult>
+    graceHashJoin(
+        final Enumerable<TSource> outer,
+        final Enumerable<TInner> inner,
+        final Function1<TSource, TKey> outerKeySelector,
+        final Function1<TInner, TKey> innerKeySelector,
+        final Function2<TSource, TInner, TResult> resultSelector,
+        final Predicate2<TSource, TInner> predicate,
+        final boolean generateNullsOnLeft,
+        final boolean generateNullsOnRight,
+        final ExecutionContext context,
+        final int depth)
+    {
+        final List<TInner> innerRows = new ArrayList<TInner>();
+        final Enumerator<TInner> inners = inner.enumerator();
+        Enumerator<TSource> outers = null;
+        boolean canSpill = depth < MAX_SPILL_DEPTH;
+        boolean spill = false;
+        int reserved = 0;
+        while (inners.moveNext()) {
+            if (context.reserve(1)) {
+                ++reserved;
+            } else if (canSpill && innerRows.size() >= SPILL_MIN_ROWS) {
+                // Look at the first outer row, to check that the rows of
+                // both inputs can be written. Whatever the answer, do not
+                // ask again.
+                canSpill = false;
+                outers = outer.enumerator();
+                boolean outerEmpty = !outers.moveNext();
+                if (!outerEmpty) {
+                    outers = pushBack(outers);
+                }
+                if (SpillFile.canWrite(inners.current())
+                    && (outerEmpty || SpillFile.canWrite(outers.current())))
+                {
+                    spill = true;
+                    break;
+                }
+            }
+            innerRows.add(inners.current());
+        }
+        if (!spill) {
+            return releasing(
+                new JoinEnumerator<TSource, TInner, TKey, TResult>(
+                    outers != null ? outers : outer.enumerator(),
+                    Linq4j.asEnumerable(innerRows), outerKeySelector,
+                    innerKeySelector, resultSelector, predicate,
+                    generateNullsOnLeft, generateNullsOnRight),
+                context,
+                reserved);
+        }
+
+        // The current inner row did not fit. Write it, the rows already
+        // read, and the rest of the inner input, to partition files.
+        final List<SpillFile<TInner>> innerPartitions =
+            spillPartitions(context);
+        for (TInner row : innerRows) {
+            final Object key = innerKeySelector.apply(row);
+            innerPartitions.get(partition(key, depth)).add(row);
+        }
+        context.release(reserved);
+        innerRows.clear();
+        do {
+            final TInner row = inners.current();
+            final Object key = innerKeySelector.apply(row);
+            innerPartitions.get(partition(key, depth)).add(row);
+        } while (inners.moveNext());
+
+        final List<SpillFile<TSource>> outerPartitions =
+            spillPartitions(context);
+        while (outers.moveNext()) {
+            final TSource row = outers.current();
+            final Object key = outerKeySelector.apply(row);
+            outerPartitions.get(partition(key, depth)).add(row);
+        }
+        return new ChainEnumerator<TResult>(innerPartitions.size()) {
+            protected Enumerator<TResult> create(int i) {
+                return graceHashJoin(
+                    outerPartitions.get(i), innerPartitions.get(i),
+                    outerKeySelector, innerKeySelector, resultSelector,
+                    predicate, generateNullsOnLeft, generateNullsOnRight,
+                    context, depth + 1);
+            }
+        };
+    }
+
+    /**
+     * Joins two inputs by evaluating a predicate for every pair of rows.
+     * Used when the join condition has no equality terms that could serve as
+     * hash keys.
+     *
+     * <p>The inner input is read into memory once, and scanned for each
+     * outer row (a block nested loops join whose block is the whole inner
+     * input).</p>
+     *
+     * @see #hashJoin
+     */
+    public static <TSource, TInner, TResult> Enumerable<TResult>
+    nestedLoopJoin(
+        final Enumerable<TSource> outer,
+        final Enumerable<TInner> inner,
+        final Function2<TSource, TInner, TResult> resultSelector,
+        final Predicate2<TSource, TInner> predicate,
+        final boolean generateNullsOnLeft,
+        final boolean generateNullsOnRight)
+    {
+        return new AbstractEnumerable<TResult>() {
+            public Enumerator<TResult> enumerator() {
+                return new JoinEnumerator<TSource, TInner, Object, TResult>(
+                    outer.enumerator(), inner, null, null, resultSelector,
+                    predicate, generateNullsOnLeft, generateNullsOnRight);
+            }
+        };
+    }
+
+    /**
+     * Returns the rows of the outer input whose key matches the key of at
+     * least one row of the inner input. Each outer row is returned at most
+     * once, however many inner rows it matches.
+     *
+     * <p>Builds a hash set of the keys of the inner input, then makes one
+     * pass over the outer input. As in {@link #hashJoin}, a key that is null,
+     * or is an array that contains null, matches no row.</p>
+     *
+     * @param outer Outer (left) input
+     * @param inner Inner (right) input, whose keys are read into memory
+     * @param outerKeySelector Returns the key of an outer row
+     * @param innerKeySelector Returns the key of an inner row
+     */
+    public static <TSource, TInner, TKey> Enumerable<TSource> semiJoin(
+        final Enumerable<TSource> outer,
+        final Enumerable<TInner> inner,
+        final Function1<TSource, TKey> outerKeySelector,
+        final Function1<TInner, TKey> innerKeySelector)
+    {
+        return new AbstractEnumerable<TSource>() {
+            public Enumerator<TSource> enumerator() {
+                final Set<Object> innerKeys = new HashSet<Object>();
+                final Enumerator<TInner> inners = inner.enumerator();
+                while (inners.moveNext()) {
+                    final Object key =
+                        joinKey(innerKeySelector.apply(inners.current()));
+                    if (key != null) {
+                        innerKeys.add(key);
+                    }
+                }
+                final Enumerator<TSource> outers = outer.enumerator();
+                return new Enumerator<TSource>() {
+                    public TSource current() {
+                        return outers.current();
+                    }
+
+                    public boolean moveNext() {
+                        while (outers.moveNext()) {
+                            final Object key =
+                                joinKey(
+                                    outerKeySelector.apply(outers.current()));
+                            if (key != null && innerKeys.contains(key)) {
+                                return true;
+                            }
+                        }
+                        return false;
+                    }
+
+                    public void reset() {
+                        outers.reset();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Joins two inputs that are sorted on their join keys, by reading both
+     * in step.
+     *
+     * <p>Unlike {@link #hashJoin}, holds in memory only the rows of each input
+     * that share the current key, and returns rows in the order of the outer
+     * input. Both inputs must be sorted in ascending order of their keys,
+     * compared using {@link Comparable#compareTo}; a key that has more than
+     * one column is an array, compared column by column. As in
+     * {@link #hashJoin}, a key that is null, or is an array that contains
+     * null, matches no row, so null keys may appear anywhere in the
+     * input.</p>
+     *
+     * <p>Only inner join is supported.</p>
+     *
+     * @param outer Outer (left) input, sorted on its key
+     * @param inner Inner (right) input, sorted on its key
+     * @param outerKeySelector Returns the key of an outer row
+     * @param innerKeySelector Returns the key of an inner row
+     * @param resultSelector Combines an outer and inner row
+     */
+    public static <TSource, TInner, TKey, TResult> Enumerable<TResult>
+    mergeJoin(
+        final Enumerable<TSource> outer,
+        final Enumerable<TInner> inner,
+        final Function1<TSource, TKey> outerKeySelector,
+        final Function1<TInner, TKey> innerKeySelector,
+        final Function2<TSource, TInner, TResult> resultSelector)
+    {
+        return new AbstractEnumerable<TResult>() {
+            public Enumerator<TResult> enumerator() {
+                return new MergeJoinEnumerator<TSource, TInner, TKey, TResult>(
+                    outer.enumerator(), inner.enumerator(), outerKeySelector,
+                    innerKeySelector, resultSelector);
+            }
+        };
+    }
+
+    /**
+     * Groups the rows of an input by a key of type {@code long}, and
+     * aggregates each group.
+     *
+     * <p>Specialization of {@link
+     * net.hydromatic.linq4j.ExtendedEnumerable#groupBy(Function1, Function0,
+     * Function2, Function2)} for keys that are integer columns, or two
+     * {@code int} columns packed by {@link #packInts}. Keys are held in an
+     * open-addressing hash table of primitive {@code long} values, so reading
+     * a row allocates no boxed key and no hash map entry. Each group
+     * allocates one accumulator, and boxes its key once, when its result is
+     * created. Groups are returned in the order of the hash table.</p>
+     *
+     * @param source Input
+     * @param keySelector Returns the key of a row
+     * @param accumulatorInitializer Creates the accumulator for a new group
+     * @param accumulatorAdder Adds a row to an accumulator
+     * @param resultSelector Creates the result of a group from its key and
+     *     accumulator
+     * @param root Data context; if its {@link ExecutionContext} has a memory
+     *     budget, aggregates as {@link #groupBy} does, so that groups can
+     *     spill to disk
+     */
+    public static <TSource, TAccumulate, TResult> Enumerable<TResult>
+    groupByLong(
+        final Enumerable<TSource> source,
+        final LongFunction1<TSource> keySelector,
+        final Function0<TAccumulate> accumulatorInitializer,
+        final Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+        final Function2<Long, TAccumulate, TResult> resultSelector,
+        final DataContext root)
+    {
+        return new AbstractEnumerable<TResult>() {
+            public Enumerator<TResult> enumerator() {
+                final ExecutionContext context = executionContext(root);
+                if (context != null && context.getMemoryRowLimit() > 0) {
+                    return groupBy(
+                        source.enumerator(),
+                        new Function1<TSource, Long>() {
+                            public Long apply(TSource a0) {
+                                return keySelector.apply(a0);
+                            }
+                        },
+                        accumulatorInitializer, accumulatorAdder,
+                        resultSelector, context, 0);
+                }
+                final LongHashTable table = new LongHashTable();
+                final Enumerator<TSource> os = source.enumerator();
+                while (os.moveNext()) {
+                    final TSource o = os.current();
+                    final int slot = table.slot(keySelector.apply(o));
+                    @SuppressWarnings("unchecked")
+                    TAccumulate accumulator = (TAccumulate) table.values[slot];
+                    if (accumulator == null) {
+                        accumulator = accumulatorInitializer.apply();
+                    }
+                    table.values[slot] = accumulatorAdder.apply(accumulator, o);
+                }
+                final List<TResult> results =
+                    new ArrayList<TResult>(table.size);
+                for (int i = 0; i < table.keys.length; i++) {
+                    if (table.used[i]) {
+                        @SuppressWarnings("unchecked")
+                        final TAccumulate accumulator =
+                            (TAccumulate) table.values[i];
+                        results.add(
+                            resultSelector.apply(table.keys[i], accumulator));
+                    }
+                }
+                return Linq4j.enumerator(results);
+            }
+        };
+    }
+
+    /**
+     * Groups the rows of an input by a key, and aggregates each group,
+     * spilling rows to disk if the groups do not fit into the memory budget.
+     *
+     * <p>If there is no memory budget, calls {@link
+     * net.hydromatic.linq4j.ExtendedEnumerable#groupBy(Function1, Function0,
+     * Function2, Function2, EqualityComparer)}. Otherwise (a hybrid hash
+     * aggregation) adds rows to groups in memory until the budget is
+     * exhausted. After that, a row whose group is in memory is added to it,
+     * and every other row is written to one of several partition files
+     * according to the hash code of its key. When the input is exhausted,
+     * returns the groups in memory, then aggregates each partition in the same
+     * way, one at a time.</p>
+     *
+     * <p>Rows are not spilled until there are at least
+     * {@link #SPILL_MIN_ROWS} groups in memory, nor if they cannot be written
+     * to a {@link SpillFile}; the groups are then held in memory beyond the
+     * budget.</p>
+     *
+     * <p>Keys are compared using {@link Object#equals}, or, if they are arrays,
+     * {@link Arrays#equals(Object[], Object[])}.</p>
+     *
+     * @param source Input
+     * @param keySelector Returns the key of a row
+     * @param accumulatorInitializer Creates the accumulator for a new group
+     * @param accumulatorAdder Adds a row to an accumulator
+     * @param resultSelector Creates the result of a group from its key and
+     *     accumulator
+     * @param comparer Compares keys if there is no memory budget, or null
+     * @param root Data context, whose {@link ExecutionContext}, if any,
+     *     limits the number of groups held in memory
+     */
+    public static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult>
+    groupBy(
+        final Enumerable<TSource> source,
+        final Function1<TSource, TKey> keySelector,
+        final Function0<TAccumulate> accumulatorInitializer,
+        final Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+        final Function2<TKey, TAccumulate, TResult> resultSelector,
+        final EqualityComparer<TKey> comparer,
+        final DataContext root)
+    {
+        return new AbstractEnumerable<TResult>() {
+            public Enumerator<TResult> enumerator() {
+                final ExecutionContext context = executionContext(root);
+                if (context != null && context.getMemoryRowLimit() > 0) {
+                    return groupBy(
+                        source.enumerator(), keySelector,
+                        accumulatorInitializer, accumulatorAdder,
+                        resultSelector, context, 0);
+                }
+                return (comparer == null
+                    ? source.groupBy(
+                        keySelector, accumulatorInitializer, accumulatorAdder,
+                        resultSelector)
+                    : source.groupBy(
+                        keySelector, accumulatorInitializer, accumulatorAdder,
+                        resultSelector, comparer))
+                    .enumerator();
+            }
+        };
+    }
+
+    /** Aggregates rows, within a memory budget. {@code depth} is the number
+     * of times that the rows have already been partitioned. */
+    private static <TSource, TKey, TAccumulate, TResult> Enumerator<TResult>
+    groupBy(
+        Enumerator<TSource> os,
+        final Function1<TSource, TKey> keySelector,
+        final Function0<TAccumulate> accumulatorInitializer,
+        final Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+        final Function2<TKey, TAccumulate, TResult> resultSelector,
+        final ExecutionContext context,
+        final int depth)
+    {
+        final Map<Object, Group<TKey, TAccumulate>> groups =
+            new LinkedHashMap<Object, Group<TKey, TAccumulate>>();
+        List<SpillFile<TSource>> partitions = null;
+        boolean canSpill = depth < MAX_SPILL_DEPTH;
+        int reserved = 0;
+        while (os.moveNext()) {
+            final TSource row = os.current();
+            final TKey key = keySelector.apply(row);
+            final Object groupKey = groupKey(key);
+            Group<TKey, TAccumulate> group = groups.get(groupKey);
+            if (group == null) {
+                if (partitions == null) {
+                    if (context.reserve(1)) {
+                        ++reserved;
+                    } else if (canSpill && groups.size() >= SPILL_MIN_ROWS) {
+                        // If the rows cannot be written, hold the groups in
+                        // memory, beyond the budget.
+                        canSpill = false;
+                        if (SpillFile.canWrite(row)) {
+                            partitions = spillPartitions(context);
+                        }
+                    }
+                }
+                if (partitions != null) {
+                    partitions.get(partition(groupKey, depth)).add(row);
+                    continue;
+                }
+                group =
+                    new Group<TKey, TAccumulate>(
+                        key, accumulatorInitializer.apply());
+                groups.put(groupKey, group);
+            }
+            group.accumulator = accumulatorAdder.apply(group.accumulator, row);
+        }
+        final List<TResult> results = new ArrayList<TResult>(groups.size());
+        for (Group<TKey, TAccumulate> group : groups.values()) {
+            results.add(resultSelector.apply(group.key, group.accumulator));
+        }
+        groups.clear();
+        context.release(reserved);
+        if (partitions == null) {
+            return Linq4j.enumerator(results);
+        }
+        final List<SpillFile<TSource>> partitionList = partitions;
+        return new ChainEnumerator<TResult>(partitionList.size() + 1) {
+            protected Enumerator<TResult> create(int i) {
+                if (i == 0) {
+                    return Linq4j.enumerator(results);
+                }
+                return groupBy(
+                    partitionList.get(i - 1).enumerator(), keySelector,
+                    accumulatorInitializer, accumulatorAdder, resultSelector,
+                    context, depth + 1);
+            }
+        };
+    }
+
+    /**
+     * Sorts an input, spilling sorted runs to disk if the input does not fit
+     * into the memory budget.
+     *
+     * <p>If there is no memory budget, calls {@link
+     * net.hydromatic.linq4j.ExtendedEnumerable#orderBy}. Otherwise (an
+     * external merge sort) reads rows into memory until the budget is
+     * exhausted, sorts them, and writes them to a file as a run; then merges
+     * the runs, and the rows still in memory, in one pass. As in
+     * {@link net.hydromatic.linq4j.ExtendedEnumerable#orderBy}, rows with
+     * equal keys are returned in input order.</p>
+     *
+     * <p>A run has at least {@link #SPILL_MIN_ROWS} rows. If the rows cannot
+     * be written to a {@link SpillFile}, they are sorted in memory, beyond
+     * the budget.</p>
+     *
+     * @param source Input
+     * @param keySelector Returns the sort key of a row
+     * @param comparator Compares sort keys, or null to use the keys' natural
+     *     order
+     * @param root Data context, whose {@link ExecutionContext}, if any,
+     *     limits the number of rows held in memory
+     */
+    public static <TSource, TKey> Enumerable<TSource> orderBy(
+        final Enumerable<TSource> source,
+        final Function1<TSource, TKey> keySelector,
+        Comparator<TKey> comparator,
+        final DataContext root)
+    {
+        final Comparator<TKey> keyComparator =
+            comparator != null
+                ? comparator
+                : Enumerables.<TKey>naturalComparator();
+        return new AbstractEnumerable<TSource>() {
+            public Enumerator<TSource> enumerator() {
+                final ExecutionContext context = executionContext(root);
+                if (context == null || context.getMemoryRowLimit() == 0) {
+                    return source.orderBy(keySelector, keyComparator)
+                        .enumerator();
+                }
+                return externalSort(
+                    source.enumerator(), keySelector, keyComparator, context);
+            }
+        };
+    }
+
+    private static <TSource, TKey> Enumerator<TSource> externalSort(
+        Enumerator<TSource> os,
+        final Function1<TSource, TKey> keySelector,
+        final Comparator<TKey> keyComparator,
+        final ExecutionContext context)
+    {
+        final Comparator<TSource> rowComparator =
+            new Comparator<TSource>() {
+                public int compare(TSource o0, TSource o1) {
+                    return keyComparator.compare(
+                        keySelector.apply(o0), keySelector.apply(o1));
+                }
+            };
+        final List<SpillFile<TSource>> runs =
+            new ArrayList<SpillFile<TSource>>();
+        final List<TSource> rows = new ArrayList<TSource>();
+        boolean canSpill = true;
+        int reserved = 0;
+        while (os.moveNext()) {
+            if (context.reserve(1)) {
+                ++reserved;
+            } else if (canSpill && rows.size() >= SPILL_MIN_ROWS) {
+                if (runs.isEmpty() && !SpillFile.canWrite(os.current())) {
+                    // The rows cannot be written; sort them in memory,
+                    // beyond the budget.
+                    canSpill = false;
+                    rows.add(os.current());
+                    continue;
+                }
+                Collections.sort(rows, rowComparator);
+                final SpillFile<TSource> run = new SpillFile<TSource>(context);
+                for (TSource row : rows) {
+                    run.add(row);
+                }
+                runs.add(run);
+                rows.clear();
+                context.release(reserved);
+                reserved = context.reserve(1) ? 1 : 0;
+            }
+            rows.add(os.current());
+        }
+        Collections.sort(rows, rowComparator);
+        if (runs.isEmpty()) {
+            return releasing(Linq4j.enumerator(rows), context, reserved);
+        }
+
+        // Merge the runs, and the rows in memory, which are the last run.
+        // Among rows with equal keys, an earlier run wins, so that the sort
+        // is stable.
+        final List<Enumerator<TSource>> enumerators =
+            new ArrayList<Enumerator<TSource>>();
+        for (SpillFile<TSource> run : runs) {
+            enumerators.add(run.enumerator());
+        }
+        enumerators.add(Linq4j.enumerator(rows));
+        final int rowsReserved = reserved;
+        return new Enumerator<TSource>() {
+            int reservedNow = rowsReserved;
+            final PriorityQueue<Integer> queue =
+                new PriorityQueue<Integer>(
+                    enumerators.size(),
+                    new Comparator<Integer>() {
+                        public int compare(Integer i0, Integer i1) {
+                            final int c =
+                                rowComparator.compare(
+                                    enumerators.get(i0).current(),
+                                    enumerators.get(i1).current());
+                            return c != 0 ? c : i0.compareTo(i1);
+                        }
+                    });
+            boolean started;
+            Integer currentRun;
+
+            public TSource current() {
+                return enumerators.get(currentRun).current();
+            }
+
+            public boolean moveNext() {
+                if (!started) {
+                    started = true;
+                    for (int i = 0; i < enumerators.size(); i++) {
+                        if (enumerators.get(i).moveNext()) {
+                            queue.add(i);
+                        }
+                    }
+                } else if (currentRun != null
+                    && enumerators.get(currentRun).moveNext())
+                {
+                    queue.add(currentRun);
+                }
+                currentRun = queue.poll();
+                if (currentRun == null) {
+                    // Keep the rows, in case of reset, but give back their
+                    // memory.
+                    context.release(reservedNow);
+                    reservedNow = 0;
+                    return false;
+                }
+                return true;
+            }
+
+            public void reset() {
+                // Re-open the runs, and read the rows in memory again.
+                for (Enumerator<TSource> enumerator : enumerators) {
+                    enumerator.reset();
+                }
+                queue.clear();
+                started = false;
+                currentRun = null;
+                if (reservedNow == 0 && context.reserve(rowsReserved)) {
+                    reservedNow = rowsReserved;
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the distinct rows of the first input that are also in the
+     * second input, as SQL INTERSECT does.
+     *
+     * <p>Reads the distinct rows of the second input into a hash table, then
+     * returns each row of the first input that the table contains, and
+     * removes it from the table, so that it is returned once. Rows are
+     * compared using {@link Object#equals}, or, if they are arrays,
+     * {@link Arrays#equals(Object[], Object[])}.</p>
+     *
+     * <p>If the second input does not fit into the memory budget, writes the
+     * rows of both inputs to partition files according to their hash code,
+     * as {@link #graceHashJoin} does, and intersects each pair of partitions
+     * in turn. As there, the second input is not spilled until it has at
+     * least {@link #SPILL_MIN_ROWS} rows in memory, nor if its rows cannot
+     * be written to a {@link SpillFile}.</p>
+     *
+     * @param source0 First input
+     * @param source1 Second input, whose distinct rows are held in memory
+     * @param root Data context, whose {@link ExecutionContext}, if any,
+     *     limits the number of rows held in memory
+     */
+    public static <TSource> Enumerable<TSource> intersect(
+        Enumerable<TSource> source0,
+        Enumerable<TSource> source1,
+        DataContext root)
+    {
+        return setOp(source0, source1, true, root);
+    }
+
+    /**
+     * Returns the distinct rows of the first input that are not in the
+     * second input, as SQL EXCEPT does.
+     *
+     * <p>As {@link #intersect}, but returns each row of the first input that
+     * the hash table does not contain, and adds it to the table. If the table
+     * outgrows the memory budget while the first input is being read, writes
+     * the rows of the table to the partitions of the second input, so that
+     * they are not returned again, and the rest of the first input to its
+     * own partitions.</p>
+     *
+     * @param source0 First input
+     * @param source1 Second input, whose distinct rows are held in memory
+     * @param root Data context, whose {@link ExecutionContext}, if any,
+     *     limits the number of rows held in memory
+     */
+    public static <TSource> Enumerable<TSource> except(
+        Enumerable<TSource> source0,
+        Enumerable<TSource> source1,
+        DataContext root)
+    {
+        return setOp(source0, source1, false, root);
+    }
+
+    private static <TSource> Enumerable<TSource> setOp(
+        final Enumerable<TSource> source0,
+        final Enumerable<TSource> source1,
+        final boolean intersect,
+        final DataContext root)
+    {
+        return new AbstractEnumerable<TSource>() {
+            public Enumerator<TSource> enumerator() {
+                final ExecutionContext context = executionContext(root);
+                return setOp(
+                    source0, source1, intersect,
+                    context == null || context.getMemoryRowLimit() == 0
+                        ? null
+                        : context,
+                    0);
+            }
+        };
+    }
+
+    /** Implements INTERSECT or EXCEPT. {@code context} is null if there is
+     * no memory budget; {@code depth} is the number of times that the rows
+     * have already been partitioned. */
+    private static <TSource> Enumerator<TSource> setOp(
+        final Enumerable<TSource> source0,
+        final Enumerable<TSource> source1,
+        final boolean intersect,
+        final ExecutionContext context,
+        final int depth)
+    {
+        final Map<Object, TSource> rows = new HashMap<Object, TSource>();
+        final Enumerator<TSource> os1 = source1.enumerator();
+        Enumerator<TSource> os0 = null;
+        boolean canSpill = context != null && depth < MAX_SPILL_DEPTH;
+        boolean spill = false;
+        int reserved = 0;
+        while (os1.moveNext()) {
+            final TSource row = os1.current();
+            final Object key = groupKey(row);
+            if (rows.containsKey(key)) {
+                continue;
+            }
+            if (context != null) {
+                if (context.reserve(1)) {
+                    ++reserved;
+                } else if (canSpill && rows.size() >= SPILL_MIN_ROWS) {
+                    // Look at the first row of the first input, to check
+                    // that the rows of both inputs can be written. Whatever
+                    // the answer, do not ask again.
+                    canSpill = false;
+                    os0 = source0.enumerator();
+                    final boolean empty0 = !os0.moveNext();
+                    if (!empty0) {
+                        os0 = pushBack(os0);
+                    }
+                    if (SpillFile.canWrite(row)
+                        && (empty0 || SpillFile.canWrite(os0.current())))
+                    {
+                        spill = true;
+                        break;
+                    }
+                }
+            }
+            rows.put(key, row);
+        }
+        if (spill) {
+            // The current row did not fit. Write it, the rows already read,
+            // and the rest of the second input, to partition files.
+            final List<SpillFile<TSource>> partitions1 =
+                spillPartitions(context);
+            for (Map.Entry<Object, TSource> entry : rows.entrySet()) {
+                partitions1.get(partition(entry.getKey(), depth))
+                    .add(entry.getValue());
+            }
+            rows.clear();
+            context.release(reserved);
+            do {
+                final TSource row = os1.current();
+                partitions1.get(partition(groupKey(row), depth)).add(row);
+            } while (os1.moveNext());
+            return setOpPartitions(
+                os0, partitions1, intersect, context, depth);
+        }
+
+        final Enumerator<TSource> first =
+            os0 != null ? os0 : source0.enumerator();
+        final int reserved1 = reserved;
+        final boolean canSpill0 = canSpill;
+        return new Enumerator<TSource>() {
+            int reservedNow = reserved1;
+            boolean canSpill = canSpill0;
+            Enumerator<TSource> spilled;
+
+            public TSource current() {
+                return spilled != null ? spilled.current() : first.current();
+            }
+
+            public boolean moveNext() {
+                if (spilled != null) {
+                    return spilled.moveNext();
+                }
+                while (first.moveNext()) {
+                    final TSource row = first.current();
+                    final Object key = groupKey(row);
+                    if (intersect) {
+                        if (!rows.containsKey(key)) {
+                            continue;
+                        }
+                        rows.remove(key);
+                        if (reservedNow > 0) {
+                            context.release(1);
+                            --reservedNow;
+                        }
+                        return true;
+                    }
+                    if (rows.containsKey(key)) {
+                        continue;
+                    }
+                    if (context != null) {
+                        if (context.reserve(1)) {
+                            ++reservedNow;
+                        } else if (canSpill
+                            && rows.size() >= SPILL_MIN_ROWS)
+                        {
+                            canSpill = false;
+                            if (SpillFile.canWrite(row)) {
+                                return spill();
+                            }
+                        }
+                    }
+                    rows.put(key, row);
+                    return true;
+                }
+                rows.clear();
+                if (reservedNow > 0) {
+                    context.release(reservedNow);
+                    reservedNow = 0;
+                }
+                return false;
+            }
+
+            /** Called by EXCEPT when the table does not fit. The rows of
+             * the table, which are the rows of the second input and the rows
+             * already returned, go to the partitions of the second input;
+             * the current row and the rest of the first input go to the
+             * partitions of the first. */
+            private boolean spill() {
+                final List<SpillFile<TSource>> partitions1 =
+                    spillPartitions(context);
+                for (Map.Entry<Object, TSource> entry : rows.entrySet()) {
+                    partitions1.get(partition(entry.getKey(), depth))
+                        .add(entry.getValue());
+                }
+                rows.clear();
+                context.release(reservedNow);
+                reservedNow = 0;
+                spilled =
+                    setOpPartitions(
+                        pushBack(first), partitions1, false, context, depth);
+                return spilled.moveNext();
+            }
+
+            public void reset() {
+                // INTERSECT has removed rows from the table, and EXCEPT has
+                // added them, so the rows cannot be read again.
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Writes the rest of the first input of INTERSECT or EXCEPT to partition
+     * files, and returns the rows of each pair of partitions in turn. */
+    private static <TSource> Enumerator<TSource> setOpPartitions(
+        Enumerator<TSource> os0,
+        final List<SpillFile<TSource>> partitions1,
+        final boolean intersect,
+        final ExecutionContext context,
+        final int depth)
+    {
+        final List<SpillFile<TSource>> partitions0 =
+            spillPartitions(context);
+        while (os0.moveNext()) {
+            final TSource row = os0.current();
+            partitions0.get(partition(groupKey(row), depth)).add(row);
+        }
+        return new ChainEnumerator<TSource>(partitions0.size()) {
+            protected Enumerator<TSource> create(int i) {
+                return setOp(
+                    partitions0.get(i), partitions1.get(i), intersect,
+                    context, depth + 1);
+            }
+        };
+    }
+
+    /**
+     * Returns a data context whose {@link ExecutionContext} weighs each row
+     * that an operator holds in memory as {@code rowBytes} bytes; see
+     * {@link ExecutionContext#weigh(int)}. Generated code passes it to
+     * operators whose rows are larger than {@link ExecutionContext#ROW_BYTES}.
+     */
+    public static DataContext weigh(final DataContext root, int rowBytes) {
+        final ExecutionContext context = executionContext(root);
+        if (context == null) {
+            return root;
+        }
+        final ExecutionContext weighted = context.weigh(rowBytes);
+        if (weighted == context) {
+            return root;
+        }
+        return new DataContext() {
+            public <T> Queryable<T> getTable(
+                String name,
+                Class<T> elementType)
+            {
+                return root.getTable(name, elementType);
+            }
+
+            public Schema getSubSchema(String name) {
+                return root.getSubSchema(name);
+            }
+
+            public Object get(String name) {
+                return ExecutionContext.NAME.equals(name)
+                    ? weighted
+                    : root.get(name);
+            }
+        };
+    }
+
+    /**
+     * Groups the rows of an input that is sorted on the grouping key, and
+     * aggregates each group.
+     *
+     * <p>Because the rows of each group are contiguous, returns each group as
+     * soon as it has read the first row of the next group, and holds only
+     * one accumulator at a time, whereas {@link
+     * net.hydromatic.linq4j.ExtendedEnumerable#groupBy(Function1, Function0,
+     * Function2, Function2)} reads the whole input into a hash map before it
+     * returns the first group. Groups are returned in the order of the input.
+     * Keys are compared using {@link Object#equals}, or, if they are arrays,
+     * {@link Arrays#equals(Object[], Object[])}; null keys form a group.</p>
+     *
+     * @param source Input, sorted on the grouping key
+     * @param keySelector Returns the key of a row
+     * @param accumulatorInitializer Creates the accumulator for a new group
+     * @param accumulatorAdder Adds a row to an accumulator
+     * @param resultSelector Creates the result of a group from its key and
+     *     accumulator
+     */
+    public static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult>
+    sortedGroupBy(
+        final Enumerable<TSource> source,
+        final Function1<TSource, TKey> keySelector,
+        final Function0<TAccumulate> accumulatorInitializer,
+        final Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+        final Function2<TKey, TAccumulate, TResult> resultSelector)
+    {
+        return new AbstractEnumerable<TResult>() {
+            public Enumerator<TResult> enumerator() {
+                final Enumerator<TSource> os = source.enumerator();
+                return new Enumerator<TResult>() {
+                    boolean started;
+                    boolean hasRow;
+                    TKey rowKey;
+                    TResult current;
+
+                    public TResult current() {
+                        return current;
+                    }
+
+                    public boolean moveNext() {
+                        if (!started) {
+                            started = true;
+                            advance();
+                        }
+                        if (!hasRow) {
+                            return false;
+                        }
+                        final TKey key = rowKey;
+                        TAccumulate accumulator =
+                            accumulatorInitializer.apply();
+                        do {
+                            accumulator =
+                                accumulatorAdder.apply(
+                                    accumulator, os.current());
+                        } while (advance() && keyEquals(key, rowKey));
+                        current = resultSelector.apply(key, accumulator);
+                        return true;
+                    }
+
+                    private boolean advance() {
+                        hasRow = os.moveNext();
+                        rowKey = hasRow
+                            ? keySelector.apply(os.current())
+                            : null;
+                        return hasRow;
+                    }
+
+                    public void reset() {
+                        os.reset();
+                        started = false;
+                        hasRow = false;
+                        rowKey = null;
+                        current = null;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns the number of threads that should scan a table, given an
+     * estimate of its number of rows.
+     *
+     * <p>Each thread gets at least {@link #MIN_ROWS_PER_PARTITION} rows, and
+     * there are at most {@link #MAX_DEGREE} threads. Returns 1 if the table
+     * should be read on the caller's thread.</p>
+     */
+    public static int parallelDegree(double rowCount) {
+        final double degree =
+            Math.min(MAX_DEGREE, rowCount / MIN_ROWS_PER_PARTITION);
+        return degree < 2 ? 1 : (int) degree;
+    }
+
+    /**
+     * Reads the rows of a table in parallel, choosing the number of threads
+     * from the number of rows by calling {@link #parallelDegree(double)}.
+     *
+     * <p>The degree is chosen each time the table is read, not when the
+     * statement is prepared, so a cached plan adapts to a table whose size
+     * has changed.</p>
+     *
+     * @see #parallelRanges(int, int, Function2, DataContext)
+     */
+    public static <T> Enumerable<T> parallelRanges(
+        int rowCount,
+        Function2<Integer, Integer, Enumerable<T>> rangeFactory,
+        DataContext root)
+    {
+        return parallelRanges(
+            rowCount, parallelDegree(rowCount), rangeFactory, root);
+    }
+
+    /**
+     * Reads the rows of a table in parallel. Splits the row ordinals
+     * {@code [0, rowCount)} into {@code degree} contiguous ranges, reads
+     * each range on a thread of a shared pool, and returns the rows of the
+     * ranges in order.
+     *
+     * <p>Each range passes its rows to the caller's thread through a queue
+     * of at most {@link #RANGE_QUEUE_SIZE} rows, and waits while its queue
+     * is full. So the scan holds a bounded number of rows in memory, and a
+     * consumer that stops early (say because of a {@code LIMIT}) does not
+     * cause the whole table to be read. The queues are charged to the
+     * memory budget of the execution; if the budget cannot accommodate
+     * them, the table is read on the caller's thread.</p>
+     *
+     * <p>The threads stop when the execution is cancelled or closed, or when
+     * the last row has been read.</p>
+     *
+     * @param rowCount Number of rows in the table
+     * @param degree Number of ranges
+     * @param rangeFactory Given the start (inclusive) and end (exclusive)
+     *     of a range, returns an enumerable over the rows of that range
+     * @param root Data context; may hold an {@link ExecutionContext}
+     */
+    public static <T> Enumerable<T> parallelRanges(
+        final int rowCount,
+        int degree,
+        final Function2<Integer, Integer, Enumerable<T>> rangeFactory,
+        final DataContext root)
+    {
+        final int n = Math.min(degree, rowCount);
+        if (n <= 1) {
+            return rangeFactory.apply(0, rowCount);
+        }
+        return new AbstractEnumerable<T>() {
+            public Enumerator<T> enumerator() {
+                final ExecutionContext context = executionContext(root);
+                final int bufferRows = n * RANGE_QUEUE_SIZE;
+                if (context != null && !context.reserve(bufferRows)) {
+                    return rangeFactory.apply(0, rowCount).enumerator();
+                }
+                return new RangeEnumerator<T>(
+                    rowCount, n, rangeFactory, context, bufferRows);
+            }
+        };
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            // Threads are created as needed, rather than drawn from a fixed
+            // pool, so that a range that is waiting for its consumer cannot
+            // stop the ranges of another statement from starting.
+            executor =
+                Executors.newCachedThreadPool(
+                    new ThreadFactory() {
+                        private int count;
+
+                        public synchronized Thread newThread(Runnable r) {
+                            final Thread thread =
+                                new Thread(r, "optiq-scan-" + count++);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    /** Packs two {@code int} values into a {@code long}, for use as the key
+     * of {@link #groupByLong}. */
+    public static long packInts(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    /** Returns the first value that was packed by {@link #packInts}. */
+    public static int unpackHigh(long key) {
+        return (int) (key >> 32);
+    }
+
+    /** Returns the second value that was packed by {@link #packInts}. */
+    public static int unpackLow(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Sorts an input, then skips the first {@code offset} rows and returns
+     * at most {@code fetch} rows.
+     *
+     * <p>If there is a limit, keeps only the first {@code offset + fetch}
+     * rows seen so far in a bounded heap as it reads the input. This takes
+     * O(n log k) time and O(k) memory, rather than the O(n log n) time and
+     * O(n) memory of a full sort. As in
+     * {@link net.hydromatic.linq4j.ExtendedEnumerable#orderBy}, rows with
+     * equal keys are returned in input order.</p>
+     *
+     * @param source Input
+     * @param keySelector Returns the sort key of a row
+     * @param comparator Compares sort keys, or null to use the keys' natural
+     *     order
+     * @param offset Number of rows to skip
+     * @param fetch Maximum number of rows to return, or -1 for no limit
+     */
+    public static <TSource, TKey> Enumerable<TSource> orderBy(
+        final Enumerable<TSource> source,
+        final Function1<TSource, TKey> keySelector,
+        Comparator<TKey> comparator,
+        final int offset,
+        final int fetch)
+    {
+        final Comparator<TKey> keyComparator =
+            comparator != null
+                ? comparator
+                : Enumerables.<TKey>naturalComparator();
+        if (fetch < 0) {
+            return limit(
+                source.orderBy(keySelector, keyComparator), offset, fetch);
+        }
+        return new AbstractEnumerable<TSource>() {
+            public Enumerator<TSource> enumerator() {
+                // offset + fetch may exceed Integer.MAX_VALUE; no list can
+                // hold that many rows anyway.
+                final int n =
+                    (int) Math.min((long) offset + fetch, Integer.MAX_VALUE);
+                final List<TSource> rows =
+                    topN(source, keySelector, keyComparator, n);
+                return Linq4j.enumerator(
+                    rows.subList(Math.min(offset, rows.size()), rows.size()));
+            }
+        };
+    }
+
+    /**
+     * Skips the first {@code offset} rows of an input and returns at most
+     * {@code fetch} rows. Stops reading the input as soon as it has returned
+     * {@code fetch} rows.
+     *
+     * @param source Input
+     * @param offset Number of rows to skip
+     * @param fetch Maximum number of rows to return, or -1 for no limit
+     */
+    public static <TSource> Enumerable<TSource> limit(
+        final Enumerable<TSource> source,
+        final int offset,
+        final int fetch)
+    {
+        if (offset == 0 && fetch < 0) {
+            return source;
+        }
+        return new AbstractEnumerable<TSource>() {
+            public Enumerator<TSource> enumerator() {
+                return limit(source.enumerator(), offset, fetch);
+            }
+        };
+    }
+
+    /**
+     * Returns an enumerator that skips the first {@code offset} rows of an
+     * enumerator and returns at most {@code fetch} rows.
+     *
+     * @see #limit(Enumerable, int, int)
+     */
+    public static <TSource> Enumerator<TSource> limit(
+        Enumerator<TSource> enumerator,
+        int offset,
+        int fetch)
+    {
+        if (offset == 0 && fetch < 0) {
+            return enumerator;
+        }
+        return new LimitEnumerator<TSource>(enumerator, offset, fetch);
+    }
+
+    /** Returns the first {@code n} rows of an input in sorted order. */
+    private static <TSource, TKey> List<TSource> topN(
+        Enumerable<TSource> source,
+        Function1<TSource, TKey> keySelector,
+        final Comparator<TKey> comparator,
+        int n)
+    {
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+        // Heap whose head is the last of the rows kept so far. Ties are
+        // broken by arrival order, so that the sort is stable.
+        final Comparator<HeapEntry<TSource, TKey>> lastFirst =
+            new Comparator<HeapEntry<TSource, TKey>>() {
+                public int compare(
+                    HeapEntry<TSource, TKey> e0,
+                    HeapEntry<TSource, TKey> e1)
+                {
+                    final int c = comparator.compare(e1.key, e0.key);
+                    if (c != 0) {
+                        return c;
+                    }
+                    return e1.ordinal < e0.ordinal ? -1
+                        : e1.ordinal > e0.ordinal ? 1
+                        : 0;
+                }
+            };
+        final PriorityQueue<HeapEntry<TSource, TKey>> heap =
+            new PriorityQueue<HeapEntry<TSource, TKey>>(
+                Math.min(n, 1024), lastFirst);
+        final Enumerator<TSource> enumerator = source.enumerator();
+        long ordinal = 0;
+        while (enumerator.moveNext()) {
+            final TSource row = enumerator.current();
+            final TKey key = keySelector.apply(row);
+            if (heap.size() < n) {
+                heap.add(new HeapEntry<TSource, TKey>(row, key, ordinal));
+            } else if (comparator.compare(key, heap.peek().key) < 0) {
+                heap.poll();
+                heap.add(new HeapEntry<TSource, TKey>(row, key, ordinal));
+            }
+            ++ordinal;
+        }
+        final List<HeapEntry<TSource, TKey>> entries =
+            new ArrayList<HeapEntry<TSource, TKey>>(heap);
+        Collections.sort(entries, Collections.reverseOrder(lastFirst));
+        final List<TSource> rows = new ArrayList<TSource>(entries.size());
+        for (HeapEntry<TSource, TKey> entry : entries) {
+            rows.add(entry.row);
+        }
+        return rows;
+    }
+
+    /** Returns a comparator that uses the natural order of its arguments,
+     * and sorts nulls last. */
+    private static <T> Comparator<T> naturalComparator() {
+        //noinspection unchecked
+        return (Comparator<T>) NATURAL_COMPARATOR;
+    }
+
+    private static final Comparator NATURAL_COMPARATOR =
+        new Comparator() {
+            public int compare(Object o0, Object o1) {
+                if (o0 == o1) {
+                    return 0;
+                }
+                if (o0 == null) {
+                    return 1;
+                }
+                if (o1 == null) {
+                    return -1;
+                }
+                //noinspection unchecked
+                return ((Comparable) o0).compareTo(o1);
+            }
+        };
+
+    /** Row held in the heap of a top-N sort. */
+    private static class HeapEntry<TSource, TKey> {
+        final TSource row;
+        final TKey key;
+        final long ordinal;
+
+        HeapEntry(TSource row, TKey key, long ordinal) {
+            this.row = row;
+            this.key = key;
+            this.ordinal = ordinal;
+        }
+    }
+
+    /** Enumerator that implements {@link #limit}. */
+    private static class LimitEnumerator<T> implements Enumerator<T> {
+        private final Enumerator<T> enumerator;
+        private final int offset;
+        private final int fetch;
+        private int skipped;
+        private int count;
+
+        LimitEnumerator(Enumerator<T> enumerator, int offset, int fetch) {
+            this.enumerator = enumerator;
+            this.offset = offset;
+            this.fetch = fetch;
+        }
+
+        public T current() {
+            return enumerator.current();
+        }
+
+        public boolean moveNext() {
+            for (; skipped < offset; ++skipped) {
+                if (!enumerator.moveNext()) {
+                    return false;
+                }
+            }
+            if (fetch >= 0 && count >= fetch) {
+                // Don't read any more rows from the input.
+                return false;
+            }
+            if (!enumerator.moveNext()) {
+                return false;
+            }
+            ++count;
+            return true;
+        }
+
+        public void reset() {
+            enumerator.reset();
+            skipped = 0;
+            count = 0;
+        }
+    }
+
+    /** Converts a join key into an object with value semantics, or null if
+     * the key contains a null and therefore cannot match. */
+    private static Object joinKey(Object key) {
+        if (key instanceof Object[]) {
+            final Object[] keys = (Object[]) key;
+            for (Object o : keys) {
+                if (o == null) {
+                    return null;
+                }
+            }
+            return Arrays.asList(keys);
+        }
+        return key;
+    }
+
+    /** Returns the execution context of a data context, or null. */
+    private static ExecutionContext executionContext(DataContext root) {
+        return root == null
+            ? null
+            : (ExecutionContext) root.get(ExecutionContext.NAME);
+    }
+
+    /** Creates a spill file for each partition. */
+    private static <T> List<SpillFile<T>> spillPartitions(
+        ExecutionContext context)
+    {
+        final List<SpillFile<T>> list = new ArrayList<SpillFile<T>>();
+        for (int i = 0; i < 1 << SPILL_PARTITION_BITS; i++) {
+            list.add(new SpillFile<T>(context));
+        }
+        return list;
+    }
+
+    /** Returns the spill partition of a key. Each level of re-partitioning
+     * uses different bits of the hash code. Null keys, and array keys that
+     * contain null, are in partition 0. */
+    private static int partition(Object key, int depth) {
+        if (key instanceof Object[]) {
+            key = joinKey(key);
+        }
+        if (key == null) {
+            return 0;
+        }
+        final int h = key.hashCode() * 0x9E3779B9;
+        return (h >>> (32 - SPILL_PARTITION_BITS * (depth + 1)))
+            & ((1 << SPILL_PARTITION_BITS) - 1);
+    }
+
+    /** Converts a grouping key into an object with value semantics. Unlike
+     * {@link #joinKey}, an array that contains null is a valid key. */
+    private static Object groupKey(Object key) {
+        if (key instanceof Object[]) {
+            return Arrays.asList((Object[]) key);
+        }
+        return key;
+    }
+
+    /** Wraps an enumerator so that it releases memory reserved in an
+     * execution context when it reaches the end of its rows. */
+    private static <T> Enumerator<T> releasing(
+        final Enumerator<T> enumerator,
+        final ExecutionContext context,
+        final int rowCount)
+    {
+        return new Enumerator<T>() {
+            boolean released;
+
+            public T current() {
+                return enumerator.current();
+            }
+
+            public boolean moveNext() {
+                if (enumerator.moveNext()) {
+                    return true;
+                }
+                if (!released) {
+                    released = true;
+                    context.release(rowCount);
+                }
+                return false;
+            }
+
+            public void reset() {
+                enumerator.reset();
+            }
+        };
+    }
+
+    /** Wraps an enumerator that has just moved to a row, so that the row is
+     * returned again by the first call to {@link Enumerator#moveNext()}. */
+    private static <T> Enumerator<T> pushBack(final Enumerator<T> enumerator) {
+        return new Enumerator<T>() {
+            boolean pushedBack = true;
+
+            public T current() {
+                return enumerator.current();
+            }
+
+            public boolean moveNext() {
+                if (pushedBack) {
+                    pushedBack = false;
+                    return true;
+                }
+                return enumerator.moveNext();
+            }
+
+            public void reset() {
+                pushedBack = false;
+                enumerator.reset();
+            }
+        };
+    }
+
+    /** Returns whether two grouping keys are equal. Unlike
+     * {@link #joinKey}, treats null values as equal. */
+    private static boolean keyEquals(Object key0, Object key1) {
+        if (key0 instanceof Object[] && key1 instanceof Object[]) {
+            return Arrays.equals((Object[]) key0, (Object[]) key1);
+        }
+        return key0 == null ? key1 == null : key0.equals(key1);
+    }
+
+    /** Compares two join keys, neither of which is null or contains null.
+     * Keys that are arrays are compared column by column. */
+    @SuppressWarnings("unchecked")
+    private static int compareKeys(Object key0, Object key1) {
+        if (key0 instanceof Object[]) {
+            final Object[] keys0 = (Object[]) key0;
+            final Object[] keys1 = (Object[]) key1;
+            for (int i = 0; i < keys0.length; i++) {
+                final int c = ((Comparable) keys0[i]).compareTo(keys1[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+        return ((Comparable) key0).compareTo(key1);
+    }
+
+    /** Enumerator over the rows of the ranges of a parallel scan. Each range
+     * is read by a task that puts rows into the range's queue; the
+     * enumerator takes rows from the queue of the first range until it is
+     * exhausted, then from the next range, and so on.
+     *
+     * <p>It is registered with the {@link ExecutionContext}, so that
+     * cancelling or closing the execution stops the tasks.</p> */
+    private static class RangeEnumerator<T>
+        implements Enumerator<T>, ExecutionContext.Resource
+    {
+        /** Marks the end of the rows of a range. */
+        private static final Object END = new Object();
+
+        /** Stands for a null row, because a queue cannot hold null. */
+        private static final Object NULL = new Object();
+
+        /** Exception thrown while reading a range, to be re-thrown on the
+         * consumer's thread. */
+        private static class Failure {
+            final Throwable e;
+
+            Failure(Throwable e) {
+                this.e = e;
+            }
+        }
+
+        private final int rowCount;
+        private final Function2<Integer, Integer, Enumerable<T>> rangeFactory;
+        private final ExecutionContext context;
+        private final int bufferRows;
+        private final int n;
+        private List<BlockingQueue<Object>> queues =
+            Collections.emptyList();
+        private final List<Future<?>> futures = new ArrayList<Future<?>>();
+        private volatile boolean stopped;
+        private boolean closed;
+        private int range;
+        private T current;
+
+        RangeEnumerator(
+            int rowCount,
+            int n,
+            Function2<Integer, Integer, Enumerable<T>> rangeFactory,
+            ExecutionContext context,
+            int bufferRows)
+        {
+            this.rowCount = rowCount;
+            this.rangeFactory = rangeFactory;
+            this.context = context;
+            this.bufferRows = bufferRows;
+            this.n = n;
+            if (context != null) {
+                context.register(this);
+            }
+            start();
+        }
+
+        private synchronized void start() {
+            if (closed) {
+                return;
+            }
+            stopped = false;
+            range = 0;
+            // New queues, so that a task of a previous start that has not
+            // yet noticed that it was stopped cannot add rows to them.
+            queues = new ArrayList<BlockingQueue<Object>>(n);
+            for (int p = 0; p < n; p++) {
+                queues.add(new ArrayBlockingQueue<Object>(RANGE_QUEUE_SIZE));
+            }
+            for (int p = 0; p < n; p++) {
+                final int start = (int) ((long) rowCount * p / n);
+                final int end = (int) ((long) rowCount * (p + 1) / n);
+                final BlockingQueue<Object> queue = queues.get(p);
+                futures.add(
+                    getExecutor().submit(
+                        new Runnable() {
+                            public void run() {
+                                read(start, end, queue);
+                            }
+                        }));
+            }
+        }
+
+        /** Reads the rows of a range into a queue. Runs on a thread of the
+         * pool. */
+        private void read(int start, int end, BlockingQueue<Object> queue) {
+            try {
+                try {
+                    final Enumerator<T> enumerator =
+                        rangeFactory.apply(start, end).enumerator();
+                    while (!stopped && enumerator.moveNext()) {
+                        final T row = enumerator.current();
+                        queue.put(row == null ? NULL : row);
+                    }
+                    queue.put(END);
+                } catch (RuntimeException e) {
+                    queue.put(new Failure(e));
+                } catch (Error e) {
+                    queue.put(new Failure(e));
+                }
+            } catch (InterruptedException e) {
+                // The scan has been stopped; nobody will read the queue.
+            }
+        }
+
+        /** Stops the tasks, and discards the rows they have read. */
+        private synchronized void stop() {
+            stopped = true;
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            futures.clear();
+            for (BlockingQueue<Object> queue : queues) {
+                queue.clear();
+            }
+        }
+
+        public T current() {
+            return current;
+        }
+
+        public boolean moveNext() {
+            while (range < queues.size()) {
+                final Object o = take(queues.get(range));
+                if (o == END) {
+                    ++range;
+                    continue;
+                }
+                if (o instanceof Failure) {
+                    close();
+                    final Throwable e = ((Failure) o).e;
+                    if (e instanceof Error) {
+                        throw (Error) e;
+                    }
+                    throw (RuntimeException) e;
+                }
+                @SuppressWarnings("unchecked")
+                final T row = o == NULL ? null : (T) o;
+                current = row;
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        /** Takes a row from a queue, waiting until one is available. Gives
+         * up if the scan is stopped, say because the execution has been
+         * cancelled by another thread. */
+        private Object take(BlockingQueue<Object> queue) {
+            try {
+                for (;;) {
+                    if (stopped) {
+                        return END;
+                    }
+                    final Object o = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (o != null) {
+                        return o;
+                    }
+                }
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void reset() {
+            stop();
+            current = null;
+            start();
+        }
+
+        // implement Resource
+        public void cancel() {
+            stop();
+        }
+
+        // implement Resource
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            stop();
+            current = null;
+            range = queues.size();
+            if (context != null) {
+                context.release(bufferRows);
+                context.unregister(this);
+            }
+        }
+    }
+
+    /** Hash table whose keys are {@code long} values, with linear probing.
+     * Keys, values and occupancy are held in parallel arrays whose length is
+     * a power of 2. The table doubles when it becomes half full. */
+    private static class LongHashTable {
+        long[] keys;
+        Object[] values;
+        boolean[] used;
+        int size;
+        private int mask;
+
+        LongHashTable() {
+            allocate(16);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            used = new boolean[capacity];
+            mask = capacity - 1;
+        }
+
+        /** Returns the slot that holds a key, adding the key if it is not
+         * present. The value of a newly added slot is null. */
+        int slot(long key) {
+            int i = hash(key) & mask;
+            while (used[i]) {
+                if (keys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                return slot(key);
+            }
+            used[i] = true;
+            keys[i] = key;
+            ++size;
+            return i;
+        }
+
+        private void grow() {
+            final long[] oldKeys = keys;
+            final Object[] oldValues = values;
+            final boolean[] oldUsed = used;
+            allocate(oldKeys.length * 2);
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldUsed[j]) {
+                    int i = hash(oldKeys[j]) & mask;
+                    while (used[i]) {
+                        i = (i + 1) & mask;
+                    }
+                    used[i] = true;
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+
+        /** Hashes a key, mixing all of its bits into the low bits that
+         * select a slot. Uses the finalizer of MurmurHash3 (fmix64). Folding
+         * the halves of the key together would send every key packed from
+         * two equal ints to slot 0, and keys that differ only in their high
+         * bits to the same slot. */
+        private static int hash(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            key *= 0xc4ceb9fe1a85ec53L;
+            key ^= key >>> 33;
+            return (int) key;
+        }
+    }
+
+    /** Row of the inner input of a join, and whether it has matched. */
+    private static class InnerRow<TInner> {
+        final TInner row;
+        boolean matched;
+
+        InnerRow(TInner row) {
+            this.row = row;
+        }
+    }
+
+    /** Enumerator that implements {@link #hashJoin} and
+     * {@link #nestedLoopJoin}. If the key selectors are null, every inner row
+     * is a candidate for every outer row. */
+    private static class JoinEnumerator<TSource, TInner, TKey, TResult>
+        implements Enumerator<TResult>
+    {
+        private final Enumerator<TSource> outers;
+        private final Enumerable<TInner> inner;
+        private final Function1<TSource, TKey> outerKeySelector;
+        private final Function1<TInner, TKey> innerKeySelector;
+        private final Function2<TSource, TInner, TResult> resultSelector;
+        private final Predicate2<TSource, TInner> predicate;
+        private final boolean generateNullsOnLeft;
+        private final boolean generateNullsOnRight;
+
+        /** All inner rows, in order; populated on first call to
+         * {@link #moveNext()}. */
+        private List<InnerRow<TInner>> innerRows;
+        /** Inner rows by key; null if there are no key selectors. */
+        private Map<Object, List<InnerRow<TInner>>> innerRowsByKey;
+
+        private TSource outerRow;
+        private boolean outerMatched;
+        private List<InnerRow<TInner>> candidates;
+        private int candidateIndex;
+        /** Iterator over inner rows, used to emit unmatched inner rows after
+         * all outer rows have been read. */
+        private Iterator<InnerRow<TInner>> unmatchedIterator;
+        private TResult current;
+
+        JoinEnumerator(
+            Enumerator<TSource> outers,
+            Enumerable<TInner> inner,
+            Function1<TSource, TKey> outerKeySelector,
+            Function1<TInner, TKey> innerKeySelector,
+            Function2<TSource, TInner, TResult> resultSelector,
+            Predicate2<TSource, TInner> predicate,
+            boolean generateNullsOnLeft,
+            boolean generateNullsOnRight)
+        {
+            this.outers = outers;
+            this.inner = inner;
+            this.outerKeySelector = outerKeySelector;
+            this.innerKeySelector = innerKeySelector;
+            this.resultSelector = resultSelector;
+            this.predicate = predicate;
+            this.generateNullsOnLeft = generateNullsOnLeft;
+            this.generateNullsOnRight = generateNullsOnRight;
+        }
+
+        private void buildInner() {
+            innerRows = new ArrayList<InnerRow<TInner>>();
+            if (innerKeySelector != null) {
+                innerRowsByKey = new HashMap<Object, List<InnerRow<TInner>>>();
+            }
+            final Enumerator<TInner> inners = inner.enumerator();
+            while (inners.moveNext()) {
+                final InnerRow<TInner> innerRow =
+                    new InnerRow<TInner>(inners.current());
+                innerRows.add(innerRow);
+                if (innerRowsByKey != null) {
+                    final Object key =
+                        joinKey(innerKeySelector.apply(innerRow.row));
+                    if (key == null) {
+                        continue;
+                    }
+                    List<InnerRow<TInner>> list = innerRowsByKey.get(key);
+                    if (list == null) {
+                        list = new ArrayList<InnerRow<TInner>>(1);
+                        innerRowsByKey.put(key, list);
+                    }
+                    list.add(innerRow);
+                }
+            }
+        }
+
+        public TResult current() {
+            return current;
+        }
+
+        public boolean moveNext() {
+            if (innerRows == null) {
+                buildInner();
+            }
+            for (;;) {
+                if (unmatchedIterator != null) {
+                    while (unmatchedIterator.hasNext()) {
+                        final InnerRow<TInner> innerRow =
+                            unmatchedIterator.next();
+                        if (!innerRow.matched) {
+                            current = resultSelector.apply(null, innerRow.row);
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                if (candidates != null) {
+                    while (candidateIndex < candidates.size()) {
+                        final InnerRow<TInner> innerRow =
+                            candidates.get(candidateIndex++);
+                        if (predicate == null
+                            || predicate.apply(outerRow, innerRow.row))
+                        {
+                            innerRow.matched = true;
+                            outerMatched = true;
+                            current =
+                                resultSelector.apply(outerRow, innerRow.row);
+                            return true;
+                        }
+                    }
+                    candidates = null;
+                    if (!outerMatched && generateNullsOnRight) {
+                        current = resultSelector.apply(outerRow, null);
+                        return true;
+                    }
+                }
+                if (outers.moveNext()) {
+                    outerRow = outers.current();
+                    outerMatched = false;
+                    candidateIndex = 0;
+                    if (innerRowsByKey == null) {
+                        candidates = innerRows;
+                    } else {
+                        final Object key =
+                            joinKey(outerKeySelector.apply(outerRow));
+                        candidates = key == null ? null
+                            : innerRowsByKey.get(key);
+                        if (candidates == null) {
+                            candidates = Collections.emptyList();
+                        }
+                    }
+                    continue;
+                }
+                if (!generateNullsOnLeft) {
+                    return false;
+                }
+                unmatchedIterator = innerRows.iterator();
+            }
+        }
+
+        public void reset() {
+            outers.reset();
+            innerRows = null;
+            innerRowsByKey = null;
+            candidates = null;
+            unmatchedIterator = null;
+            current = null;
+        }
+    }
+
+    /** Enumerator that merges two inputs sorted on their join keys.
+     *
+     * <p>Reads ahead one row of each input. When the look-ahead keys are
+     * equal, reads the rows of each input that have that key into a group,
+     * and returns the cross product of the two groups.</p> */
+    private static class MergeJoinEnumerator<TSource, TInner, TKey, TResult>
+        implements Enumerator<TResult>
+    {
+        private final Enumerator<TSource> outers;
+        private final Enumerator<TInner> inners;
+        private final Function1<TSource, TKey> outerKeySelector;
+        private final Function1<TInner, TKey> innerKeySelector;
+        private final Function2<TSource, TInner, TResult> resultSelector;
+        private final List<TSource> outerGroup = new ArrayList<TSource>();
+        private final List<TInner> innerGroup = new ArrayList<TInner>();
+        private boolean started;
+        /** Key of the next outer row, or null if there are no more rows. */
+        private Object outerKey;
+        private Object innerKey;
+        private int i;
+        private int j;
+        private TResult current;
+
+        MergeJoinEnumerator(
+            Enumerator<TSource> outers,
+            Enumerator<TInner> inners,
+            Function1<TSource, TKey> outerKeySelector,
+            Function1<TInner, TKey> innerKeySelector,
+            Function2<TSource, TInner, TResult> resultSelector)
+        {
+            this.outers = outers;
+            this.inners = inners;
+            this.outerKeySelector = outerKeySelector;
+            this.innerKeySelector = innerKeySelector;
+            this.resultSelector = resultSelector;
+        }
+
+        public TResult current() {
+            return current;
+        }
+
+        public boolean moveNext() {
+            if (!started) {
+                started = true;
+                advanceOuter();
+                advanceInner();
+            }
+            for (;;) {
+                if (i < outerGroup.size()) {
+                    current =
+                        resultSelector.apply(
+                            outerGroup.get(i), innerGroup.get(j));
+                    if (++j == innerGroup.size()) {
+                        j = 0;
+                        ++i;
+                    }
+                    return true;
+                }
+                outerGroup.clear();
+                innerGroup.clear();
+                i = 0;
+                j = 0;
+                if (outerKey == null || innerKey == null) {
+                    return false;
+                }
+                final int c = compareKeys(outerKey, innerKey);
+                if (c < 0) {
+                    advanceOuter();
+                } else if (c > 0) {
+                    advanceInner();
+                } else {
+                    final Object key = outerKey;
+                    do {
+                        outerGroup.add(outers.current());
+                    } while (advanceOuter() && compareKeys(outerKey, key) == 0);
+                    do {
+                        innerGroup.add(inners.current());
+                    } while (advanceInner() && compareKeys(innerKey, key) == 0);
+                }
+            }
+        }
+
+        /** Moves to the next outer row whose key is not null. Returns false,
+         * and sets the key to null, if there are no more rows. */
+        private boolean advanceOuter() {
+            while (outers.moveNext()) {
+                final TKey key = outerKeySelector.apply(outers.current());
+                if (joinKey(key) != null) {
+                    outerKey = key;
+                    return true;
+                }
+            }
+            outerKey = null;
+            return false;
+        }
+
+        private boolean advanceInner() {
+            while (inners.moveNext()) {
+                final TKey key = innerKeySelector.apply(inners.current());
+                if (joinKey(key) != null) {
+                    innerKey = key;
+                    return true;
+                }
+            }
+            innerKey = null;
+            return false;
+        }
+
+        public void reset() {
+            outers.reset();
+            inners.reset();
+            outerGroup.clear();
+            innerGroup.clear();
+            started = false;
+            outerKey = null;
+            innerKey = null;
+            i = 0;
+            j = 0;
+            current = null;
+        }
+    }
+
+    /** Enumerator that returns the rows of a sequence of enumerators. Each
+     * enumerator is created when the previous one is exhausted. */
+    private abstract static class ChainEnumerator<T> implements Enumerator<T> {
+        private final int count;
+        private int i = -1;
+        private Enumerator<T> enumerator;
+
+        ChainEnumerator(int count) {
+            this.count = count;
+        }
+
+        /** Creates the {@code i}th enumerator. */
+        protected abstract Enumerator<T> create(int i);
+
+        public T current() {
+            return enumerator.current();
+        }
+
+        public boolean moveNext() {
+            for (;;) {
+                if (enumerator != null && enumerator.moveNext()) {
+                    return true;
+                }
+                if (i + 1 >= count) {
+                    return false;
+                }
+                enumerator = create(++i);
+            }
+        }
+
+        public void reset() {
+            i = -1;
+            enumerator = null;
+        }
+    }
+
+    /** Key and accumulator of a group in a hash aggregation. */
+    private static class Group<TKey, TAccumulate> {
+        final TKey key;
+        TAccumulate accumulator;
+
+        Group(TKey key, TAccumulate accumulator) {
+            this.key = key;
+            this.accumulator = accumulator;
+        }
+    }
+}
+
+// End Enumerables.java
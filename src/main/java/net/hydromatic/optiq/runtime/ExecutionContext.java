@@ -0,0 +1,295 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.runtime;
+
+import java.util.*;
+
+/**
+ * State of one execution of a statement.
+ *
+ * <p>Holds the settings that the JDBC statement passes down to the code that
+ * reads data (fetch size, query timeout), and keeps track of the resources,
+ * such as JDBC statements against a back-end database, that are open on
+ * behalf of the execution, so that they can be cancelled or closed when the
+ * statement is cancelled or its result set is closed.</p>
+ *
+ * <p>It also holds the memory budget of the execution: the number of rows
+ * that operators such as sort, hash join and aggregate may hold in memory,
+ * in total, before they spill rows to temporary files (see
+ * {@link SpillFile}). The budget assumes rows of {@link #ROW_BYTES} bytes;
+ * an operator whose rows are larger reserves memory through a view returned
+ * by {@link #weigh(int)}, in which each row counts as several.</p>
+ *
+ * <p>Generated code finds the execution context by calling
+ * {@link net.hydromatic.optiq.DataContext#get} with name {@link #NAME}.</p>
+ *
+ * @author jhyde
+ */
+public class ExecutionContext {
+    /** Name of the {@link net.hydromatic.optiq.DataContext} variable that
+     * holds the current execution context. */
+    public static final String NAME = "executionContext";
+
+    /** Size of a row, in bytes, that the memory budget assumes. */
+    public static final int ROW_BYTES = 128;
+
+    private static Timer timer;
+
+    private final int fetchSize;
+    private final int queryTimeoutMillis;
+    private final int memoryRowLimit;
+    private int rowsInMemory;
+    private final List<Resource> resources = new ArrayList<Resource>();
+    private TimerTask timeoutTask;
+    private boolean cancelled;
+    private boolean closed;
+
+    /**
+     * Creates an ExecutionContext.
+     *
+     * @param fetchSize Number of rows to fetch from a back-end at a time,
+     *     or 0 to use the back-end's default
+     * @param queryTimeoutMillis Time after which the execution is cancelled,
+     *     or 0 for no limit
+     */
+    public ExecutionContext(int fetchSize, int queryTimeoutMillis) {
+        this(fetchSize, queryTimeoutMillis, 0);
+    }
+
+    /**
+     * Creates an ExecutionContext with a memory budget.
+     *
+     * @param fetchSize Number of rows to fetch from a back-end at a time,
+     *     or 0 to use the back-end's default
+     * @param queryTimeoutMillis Time after which the execution is cancelled,
+     *     or 0 for no limit
+     * @param memoryRowLimit Maximum number of rows that the operators of
+     *     this execution may hold in memory, or 0 for no limit
+     */
+    public ExecutionContext(
+        int fetchSize,
+        int queryTimeoutMillis,
+        int memoryRowLimit)
+    {
+        assert memoryRowLimit >= 0;
+        this.fetchSize = fetchSize;
+        this.queryTimeoutMillis = queryTimeoutMillis;
+        this.memoryRowLimit = memoryRowLimit;
+        if (queryTimeoutMillis > 0) {
+            timeoutTask = new TimerTask() {
+                public void run() {
+                    cancel();
+                }
+            };
+            getTimer().schedule(timeoutTask, queryTimeoutMillis);
+        }
+    }
+
+    private static synchronized Timer getTimer() {
+        if (timer == null) {
+            timer = new Timer("optiq-query-timeout", true);
+        }
+        return timer;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public int getQueryTimeoutMillis() {
+        return queryTimeoutMillis;
+    }
+
+    public int getMemoryRowLimit() {
+        return memoryRowLimit;
+    }
+
+    /**
+     * Reserves memory for a number of rows. Returns false, and reserves
+     * nothing, if the rows would exceed the memory budget; the operator
+     * should then spill rows to disk. Always succeeds if there is no limit.
+     */
+    public synchronized boolean reserve(int rowCount) {
+        if (memoryRowLimit > 0 && rowsInMemory + rowCount > memoryRowLimit) {
+            return false;
+        }
+        rowsInMemory += rowCount;
+        return true;
+    }
+
+    /** Releases memory that was reserved by {@link #reserve(int)}. */
+    public synchronized void release(int rowCount) {
+        rowsInMemory -= rowCount;
+        assert rowsInMemory >= 0;
+    }
+
+    /**
+     * Returns a view of this execution context for an operator whose rows
+     * are estimated to occupy {@code rowBytes} bytes each. In the view, each
+     * row reserved counts as {@code rowBytes / ROW_BYTES} rows of this
+     * context's budget, rounded up. Returns this context if the rows are no
+     * larger than {@link #ROW_BYTES}, or if there is no budget.
+     */
+    public ExecutionContext weigh(int rowBytes) {
+        final int weight = (rowBytes + ROW_BYTES - 1) / ROW_BYTES;
+        if (weight <= 1 || memoryRowLimit == 0) {
+            return this;
+        }
+        return new WeightedExecutionContext(this, weight);
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Registers a resource. If this execution has already been cancelled or
+     * closed, the resource is cancelled or closed immediately.
+     */
+    public void register(Resource resource) {
+        final boolean cancelled;
+        final boolean closed;
+        synchronized (this) {
+            cancelled = this.cancelled;
+            closed = this.closed;
+            if (!closed) {
+                resources.add(resource);
+            }
+        }
+        if (closed) {
+            resource.close();
+        } else if (cancelled) {
+            resource.cancel();
+        }
+    }
+
+    /** Unregisters a resource, typically because it has released its
+     * underlying objects of its own accord. */
+    public synchronized void unregister(Resource resource) {
+        resources.remove(resource);
+    }
+
+    /** Cancels the execution, by cancelling each registered resource.
+     * Can be called from any thread. */
+    public void cancel() {
+        final List<Resource> list;
+        synchronized (this) {
+            if (cancelled || closed) {
+                return;
+            }
+            cancelled = true;
+            list = new ArrayList<Resource>(resources);
+        }
+        for (Resource resource : list) {
+            resource.cancel();
+        }
+    }
+
+    /** Closes each registered resource. Called when the result set is
+     * closed. */
+    public void close() {
+        final List<Resource> list;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (timeoutTask != null) {
+                timeoutTask.cancel();
+                timeoutTask = null;
+            }
+            list = new ArrayList<Resource>(resources);
+            resources.clear();
+        }
+        for (Resource resource : list) {
+            resource.close();
+        }
+    }
+
+    /** View of an execution context in which each row counts as several
+     * rows of the underlying context's memory budget. Other calls are passed
+     * to the underlying context. */
+    private static class WeightedExecutionContext extends ExecutionContext {
+        private final ExecutionContext parent;
+        private final int weight;
+
+        WeightedExecutionContext(ExecutionContext parent, int weight) {
+            super(parent.fetchSize, 0, parent.memoryRowLimit);
+            this.parent = parent;
+            this.weight = weight;
+        }
+
+        @Override
+        public int getQueryTimeoutMillis() {
+            return parent.getQueryTimeoutMillis();
+        }
+
+        @Override
+        public boolean reserve(int rowCount) {
+            return parent.reserve(rowCount * weight);
+        }
+
+        @Override
+        public void release(int rowCount) {
+            parent.release(rowCount * weight);
+        }
+
+        @Override
+        public ExecutionContext weigh(int rowBytes) {
+            return parent.weigh(rowBytes);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return parent.isCancelled();
+        }
+
+        @Override
+        public void register(Resource resource) {
+            parent.register(resource);
+        }
+
+        @Override
+        public void unregister(Resource resource) {
+            parent.unregister(resource);
+        }
+
+        @Override
+        public void cancel() {
+            parent.cancel();
+        }
+
+        @Override
+        public void close() {
+            parent.close();
+        }
+    }
+
+    /** Resource that is held during an execution, such as a JDBC statement
+     * against a back-end database. */
+    public interface Resource {
+        /** Requests that the resource stop work as soon as possible. May be
+         * called from a different thread than the one using the resource. */
+        void cancel();
+
+        /** Releases the resource. */
+        void close();
+    }
+}
+
+// End ExecutionContext.java
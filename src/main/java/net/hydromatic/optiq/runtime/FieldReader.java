@@ -0,0 +1,98 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.runtime;
+
+import java.util.List;
+
+/**
+ * Reads a field of the rows returned by a generated {@link Executable}.
+ *
+ * <p>The generated code declares a sub-class for each field of its row
+ * class, which reads the field directly, rather than by reflection. If the
+ * field is of a primitive type, the sub-class also overrides the method
+ * that returns that type (and the other numeric types), so that a
+ * {@link Cursor} can read the value without boxing it.</p>
+ *
+ * @see FieldReaderCursor
+ */
+public abstract class FieldReader {
+    /**
+     * Returns the value of this field in a row. If the field is of a
+     * primitive type, the value is boxed.
+     *
+     * @param row Row
+     * @return Value of the field
+     */
+    public abstract Object get(Object row);
+
+    /**
+     * Returns whether the field is of a primitive type; if so, the
+     * typed methods such as {@link #getInt(Object)} return its value without
+     * boxing it, and the value is never null.
+     */
+    public boolean isPrimitive() {
+        return false;
+    }
+
+    public boolean getBoolean(Object row) {
+        throw cannotRead("boolean");
+    }
+
+    public byte getByte(Object row) {
+        throw cannotRead("byte");
+    }
+
+    public short getShort(Object row) {
+        throw cannotRead("short");
+    }
+
+    public int getInt(Object row) {
+        throw cannotRead("int");
+    }
+
+    public long getLong(Object row) {
+        throw cannotRead("long");
+    }
+
+    public float getFloat(Object row) {
+        throw cannotRead("float");
+    }
+
+    public double getDouble(Object row) {
+        throw cannotRead("double");
+    }
+
+    private UnsupportedOperationException cannotRead(String type) {
+        return new UnsupportedOperationException(
+            "cannot read field as " + type);
+    }
+
+    /**
+     * Object, such as a generated {@link Executable}, that can supply a
+     * reader for each field of the rows it returns.
+     */
+    public interface Provider {
+        /**
+         * Returns a list of readers, one per field of the row, or null if
+         * the rows are not records (for instance, if each row is an array).
+         */
+        List<FieldReader> getFieldReaders();
+    }
+}
+
+// End FieldReader.java
@@ -0,0 +1,125 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.linq4j.Enumerator;
+
+import java.util.List;
+
+/**
+ * Implementation of {@link Cursor} on top of an
+ * {@link net.hydromatic.linq4j.Enumerator} that returns a record for each
+ * row, whose fields are read by generated {@link FieldReader}s.
+ *
+ * <p>Unlike {@link RecordEnumeratorCursor}, does not use reflection, and
+ * does not box the value of a primitive field if it is read using a method
+ * such as {@link Cursor.Accessor#getInt()}.</p>
+ */
+public class FieldReaderCursor extends AbstractCursor {
+    private final Enumerator<Object> enumerator;
+    private final List<FieldReader> readers;
+
+    /**
+     * Creates a FieldReaderCursor.
+     *
+     * @param enumerator Enumerator
+     * @param readers Reader for each field of the row
+     */
+    public FieldReaderCursor(
+        Enumerator<Object> enumerator,
+        List<FieldReader> readers)
+    {
+        this.enumerator = enumerator;
+        this.readers = readers;
+    }
+
+    @Override
+    protected Getter createGetter(int ordinal) {
+        final FieldReader reader = readers.get(ordinal);
+        return reader.isPrimitive()
+            ? new PrimitiveFieldGetter(reader)
+            : new FieldGetter(reader);
+    }
+
+    @Override
+    public boolean next() {
+        return enumerator.moveNext();
+    }
+
+    class FieldGetter implements Getter {
+        protected final FieldReader reader;
+
+        public FieldGetter(FieldReader reader) {
+            this.reader = reader;
+        }
+
+        public Object getObject() {
+            final Object o = reader.get(enumerator.current());
+            wasNull[0] = (o == null);
+            return o;
+        }
+
+        public boolean wasNull() {
+            return wasNull[0];
+        }
+    }
+
+    /** Getter of a field of primitive type, which is never null. */
+    class PrimitiveFieldGetter extends FieldGetter implements PrimitiveGetter {
+        public PrimitiveFieldGetter(FieldReader reader) {
+            super(reader);
+        }
+
+        public boolean getBoolean() {
+            wasNull[0] = false;
+            return reader.getBoolean(enumerator.current());
+        }
+
+        public byte getByte() {
+            wasNull[0] = false;
+            return reader.getByte(enumerator.current());
+        }
+
+        public short getShort() {
+            wasNull[0] = false;
+            return reader.getShort(enumerator.current());
+        }
+
+        public int getInt() {
+            wasNull[0] = false;
+            return reader.getInt(enumerator.current());
+        }
+
+        public long getLong() {
+            wasNull[0] = false;
+            return reader.getLong(enumerator.current());
+        }
+
+        public float getFloat() {
+            wasNull[0] = false;
+            return reader.getFloat(enumerator.current());
+        }
+
+        public double getDouble() {
+            wasNull[0] = false;
+            return reader.getDouble(enumerator.current());
+        }
+    }
+}
+
+// End FieldReaderCursor.java
@@ -0,0 +1,83 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.linq4j.function.Function1;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collection of hooks that can be set by observers and are executed at various
+ * parts of the query preparation process.
+ *
+ * <p>For testing and debugging. Handlers are registered per thread, so tests
+ * that run in parallel do not see each other's queries.</p>
+ *
+ * @author jhyde
+ */
+public enum Hook {
+    /** Called with the SQL string that a JDBC data source will execute, when
+     * the plan is implemented. */
+    QUERY_PLAN,
+
+    /** Called with the text of the optimized plan, in the format produced
+     * by {@link org.eigenbase.relopt.RelOptUtil#toString}, before it is
+     * implemented. */
+    PLAN,
+
+    /** Called with the Java code generated for a plan, before it is
+     * compiled. */
+    JAVA_PLAN,
+
+    /** Called with a {@link SpillFile} when an operator creates it, to
+     * write rows that do not fit into the memory budget. */
+    SPILL;
+
+    private final ThreadLocal<List<Function1<Object, Object>>> threadHandlers =
+        new ThreadLocal<List<Function1<Object, Object>>>() {
+            protected List<Function1<Object, Object>> initialValue() {
+                return new ArrayList<Function1<Object, Object>>();
+            }
+        };
+
+    /** Adds a handler for this thread. Call {@link Closeable#close()} on the
+     * result to remove it. */
+    public Closeable addThread(final Function1<Object, Object> handler) {
+        threadHandlers.get().add(handler);
+        return new Closeable() {
+            public void close() {
+                threadHandlers.get().remove(handler);
+            }
+        };
+    }
+
+    /** Runs all handlers registered for this hook in the current thread. */
+    public void run(Object arg) {
+        for (Function1<Object, Object> handler : threadHandlers.get()) {
+            handler.apply(arg);
+        }
+    }
+
+    /** Removes a handler from a hook. */
+    public interface Closeable {
+        void close();
+    }
+}
+
+// End Hook.java
@@ -0,0 +1,214 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.runtime;
+
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerator;
+
+import java.io.*;
+
+/**
+ * Sequence of rows that an operator has written to a temporary file because
+ * they did not fit into the memory budget of an {@link ExecutionContext}.
+ *
+ * <p>Rows are added by calling {@link #add}, then read back, any number of
+ * times, by calling {@link #enumerator()}. Rows are written using Java
+ * serialization, so must be serializable; rows of the array calling
+ * convention are arrays of values of basic types, and the record classes
+ * that Optiq generates for the custom calling convention are serializable.
+ * Rows of a {@link net.hydromatic.optiq.impl.java.ReflectiveSchema} table
+ * are instances of the user's classes, and may not be; operators call
+ * {@link #canWrite(Object)} before they spill, and hold rows that cannot be
+ * written in memory.</p>
+ *
+ * <p>The file is registered with the execution context as a resource, and
+ * is deleted when the execution is closed.</p>
+ *
+ * @author jhyde
+ */
+public class SpillFile<T>
+    extends AbstractEnumerable<T>
+    implements ExecutionContext.Resource
+{
+    /** Number of rows after which the output stream forgets the objects it
+     * has written, so that its handle table does not grow without limit. */
+    private static final int RESET_INTERVAL = 1000;
+
+    private final File file;
+    private ObjectOutputStream out;
+    private int size;
+    /** Class loader of the rows; needed to read rows whose class was
+     * generated and compiled at run time. */
+    private ClassLoader classLoader;
+
+    /** Creates a SpillFile and registers it with an execution context. */
+    public SpillFile(ExecutionContext context) {
+        try {
+            file = File.createTempFile("optiq-spill", ".ser");
+            out =
+                new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new RuntimeException("while creating spill file", e);
+        }
+        context.register(this);
+        Hook.SPILL.run(this);
+    }
+
+    /** Returns whether a row can be written to a spill file: whether it is
+     * null or serializable, and, if it is an array, whether each of its
+     * elements can be written. */
+    public static boolean canWrite(Object row) {
+        if (row instanceof Object[]) {
+            for (Object o : (Object[]) row) {
+                if (!canWrite(o)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return row == null || row instanceof Serializable;
+    }
+
+    /** Returns the number of rows in this file. */
+    public int size() {
+        return size;
+    }
+
+    /** Appends a row. */
+    public void add(T row) {
+        assert out != null : "already read";
+        if (classLoader == null && row != null) {
+            classLoader = row.getClass().getClassLoader();
+        }
+        try {
+            out.writeObject(row);
+            if (++size % RESET_INTERVAL == 0) {
+                out.reset();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("while writing to " + file, e);
+        }
+    }
+
+    /** Finishes writing. Called implicitly by {@link #enumerator()}. */
+    public void finish() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new RuntimeException("while writing to " + file, e);
+            }
+            out = null;
+        }
+    }
+
+    public Enumerator<T> enumerator() {
+        finish();
+        return new Enumerator<T>() {
+            private ObjectInputStream in;
+            private int i;
+            private T current;
+
+            public T current() {
+                return current;
+            }
+
+            public boolean moveNext() {
+                if (i >= size) {
+                    closeInput();
+                    return false;
+                }
+                try {
+                    if (in == null) {
+                        in = new RowInputStream(
+                            new BufferedInputStream(
+                                new FileInputStream(file)));
+                    }
+                    //noinspection unchecked
+                    current = (T) in.readObject();
+                } catch (IOException e) {
+                    throw new RuntimeException("while reading " + file, e);
+                } catch (ClassNotFoundException e) {
+                    throw new RuntimeException("while reading " + file, e);
+                }
+                ++i;
+                return true;
+            }
+
+            public void reset() {
+                closeInput();
+                i = 0;
+                current = null;
+            }
+
+            private void closeInput() {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                    in = null;
+                }
+            }
+        };
+    }
+
+    public void cancel() {
+        // Nothing to do. Operators stop reading when the execution is
+        // cancelled.
+    }
+
+    public void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            out = null;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /** Input stream that resolves classes using the class loader of the
+     * rows that were written. */
+    private class RowInputStream extends ObjectInputStream {
+        RowInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+            throws IOException, ClassNotFoundException
+        {
+            if (classLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (ClassNotFoundException e) {
+                    // fall through
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
+
+// End SpillFile.java
@@ -21,6 +21,8 @@ import java.math.BigDecimal;
 import java.math.MathContext;
 import java.text.DecimalFormat;
 import java.text.Format;
+import java.util.Arrays;
+import java.util.Set;
 
 /**
  * Helper methods to implement SQL functions in generated code.
@@ -324,6 +326,16 @@ public class SqlFunctions {
             : (b0.longValue() / b1.longValue());
     }
 
+    /** SQL <code>/</code> operator applied to long values. */
+    public static long divide(long b0, long b1) {
+        return b0 / b1;
+    }
+
+    /** SQL <code>/</code> operator applied to double values. */
+    public static double divide(double b0, double b1) {
+        return b0 / b1;
+    }
+
     /** SQL <code>/</code> operator applied to BigDecimal values. */
     public static BigDecimal divide(BigDecimal b0, BigDecimal b1) {
         return (b0 == null || b1 == null) ? null : b0.divide(b1);
@@ -384,6 +396,12 @@ public class SqlFunctions {
         return Math.pow(b0, b1.doubleValue());
     }
 
+    /** SQL <code>POWER</code> operator applied to a double and a BigDecimal
+     * value, such as the literal 0.5 that STDDEV is reduced to. */
+    public static double power(double b0, BigDecimal b1) {
+        return Math.pow(b0, b1.doubleValue());
+    }
+
     /** SQL {@code LN(number)} function applied to double values. */
     public static double ln(double d) {
         return Math.log(d);
@@ -432,11 +450,28 @@ public class SqlFunctions {
         return b0 > b1 ? b1 : b0;
     }
 
+    /** MIN of two boolean values; FALSE sorts before TRUE. */
+    public static boolean lesser(boolean b0, boolean b1) {
+        return b0 && b1;
+    }
+
     /** Helper for implementing MAX. Somewhat similar to GREATEST operator. */
     public static <T extends Comparable<T>> T greater(T b0, T b1) {
         return b0 == null || b0.compareTo(b1) < 0 ? b1 : b0;
     }
 
+    /** MAX of two boolean values; FALSE sorts before TRUE. */
+    public static boolean greater(boolean b0, boolean b1) {
+        return b0 || b1;
+    }
+
+    /** Helper for implementing an aggregate function with DISTINCT. Adds the
+     * arguments of one row to the set of arguments seen so far by the
+     * current group, and returns whether they were not already present. */
+    public static boolean addDistinct(Set<Object> set, Object[] args) {
+        return set.add(args.length == 1 ? args[0] : Arrays.asList(args));
+    }
+
     /** Boolean comparison. */
     public static int compare(boolean x, boolean y) {
         return x == y ? 0 : x ? 1 : -1;
@@ -110,16 +110,18 @@ public class IterCalcRel
         program.explainCalc(this, pw);
     }
 
-    protected String computeDigest()
+    protected RelDigest computeDigestKey()
     {
-        String tempDigest = super.computeDigest();
+        RelDigest tempDigest = super.computeDigestKey();
         if (tag != null) {
             // append logger type to digest
-            int lastParen = tempDigest.lastIndexOf(')');
+            String s = tempDigest.toString();
+            int lastParen = s.lastIndexOf(')');
             tempDigest =
-                tempDigest.substring(0, lastParen)
-                + ",type=" + tag
-                + tempDigest.substring(lastParen);
+                RelDigest.of(
+                    s.substring(0, lastParen)
+                    + ",type=" + tag
+                    + s.substring(lastParen));
         }
         return tempDigest;
     }
@@ -48,10 +48,29 @@ public abstract class AbstractRelNode
     static int nextId = 0;
     private static final Logger tracer = EigenbaseTrace.getPlannerTracer();
 
+    /**
+     * Writer that discards its output. Used when computing digests.
+     */
+    private static final PrintWriter NULL_WRITER =
+        new PrintWriter(
+            new Writer() {
+                public void write(char [] cbuf, int off, int len)
+                {
+                }
+
+                public void flush()
+                {
+                }
+
+                public void close()
+                {
+                }
+            });
+
     //~ Instance fields --------------------------------------------------------
 
     /**
-     * Description, consists of id plus digest.
+     * Description, consists of id plus digest. Computed on demand.
      */
     private String desc;
 
@@ -61,15 +80,15 @@ public abstract class AbstractRelNode
     protected RelDataType rowType;
 
     /**
-     * A short description of this relational expression's type, inputs, and
-     * other properties. The string uniquely identifies the node; another node
-     * is equivalent if and only if it has the same value. Computed by {@link
-     * #computeDigest}, assigned by {@link #onRegister}, returned by {@link
-     * #getDigest()}.
+     * A key built from this relational expression's type, inputs, and other
+     * properties. It uniquely identifies the node; another node is equivalent
+     * if and only if it has an equal key. Computed by {@link
+     * #computeDigestKey}, assigned by {@link #onRegister}, returned by {@link
+     * #getDigestKey()}; its string form is returned by {@link #getDigest()}.
      *
      * @see #desc
      */
-    protected String digest;
+    private RelDigest digestKey;
 
     private final RelOptCluster cluster;
 
@@ -101,10 +120,10 @@ public abstract class AbstractRelNode
         this.cluster = cluster;
         this.traitSet = traitSet;
         this.id = nextId++;
-        this.digest = getRelTypeName() + "#" + id;
-        this.desc = digest;
+        this.desc = getRelTypeName() + "#" + id;
+        this.digestKey = RelDigest.of(desc);
         if (tracer.isLoggable(Level.FINEST)) {
-            tracer.finest("new " + digest);
+            tracer.finest("new " + desc);
         }
     }
 
@@ -331,17 +350,15 @@ public abstract class AbstractRelNode
         return r;
     }
 
-    public String recomputeDigest()
+    public RelDigest recomputeDigest()
     {
-        String tempDigest = computeDigest();
+        RelDigest tempDigest = computeDigestKey();
         assert tempDigest != null : "post: return != null";
-        String prefix = "rel#" + id + ":";
+        this.digestKey = tempDigest;
 
-        // Substring uses the same underlying array of chars, so saves a bit
-        // of memory.
-        this.desc = prefix + tempDigest;
-        this.digest = this.desc.substring(prefix.length());
-        return this.digest;
+        // The description is built from the digest on demand.
+        this.desc = null;
+        return tempDigest;
     }
 
     public void registerCorrelVariable(String correlVariable)
@@ -360,17 +377,25 @@ public abstract class AbstractRelNode
 
     public String toString()
     {
-        return desc;
+        return getDescription();
     }
 
     public final String getDescription()
     {
+        if (desc == null) {
+            desc = "rel#" + id + ":" + digestKey;
+        }
         return desc;
     }
 
     public final String getDigest()
     {
-        return digest;
+        return digestKey.toString();
+    }
+
+    public final RelDigest getDigestKey()
+    {
+        return digestKey;
     }
 
     public RelOptTable getTable()
@@ -379,67 +404,68 @@ public abstract class AbstractRelNode
     }
 
     /**
-     * Computes the digest. Does not modify this object.
+     * Computes the digest key. Does not modify this object.
+     *
+     * <p>The key consists of the type name and traits of this relational
+     * expression, the digests of its inputs, and the attributes that it
+     * prints in {@link #explain} at level {@link
+     * SqlExplainLevel#DIGEST_ATTRIBUTES}.
      *
      * @post return != null
      */
-    protected String computeDigest()
-    {
-        StringWriter sw = new StringWriter();
-        RelOptPlanWriter pw =
-            new RelOptPlanWriter(
-                new PrintWriter(sw),
-                SqlExplainLevel.DIGEST_ATTRIBUTES)
-            {
-                public void explain(
-                    RelNode rel,
-                    String [] terms,
-                    Object [] values)
-                {
-                    List<RelNode> inputs = rel.getInputs();
-                    RexNode [] childExps = rel.getChildExps();
-                    assert terms.length
-                        == (inputs.size() + childExps.length + values.length)
-                        : "terms.length="
-                        + terms.length
-                        + " inputs.length=" + inputs.size()
-                        + " childExps.length=" + childExps.length
-                        + " values.length=" + values.length;
-                    write(getRelTypeName());
-
-                    for (int i = 0; i < traitSet.size(); i++) {
-                        write(".");
-                        write(traitSet.getTrait(i).toString());
-                    }
-
-                    write("(");
-                    int j = 0;
-                    for (int i = 0; i < inputs.size(); i++) {
-                        if (j > 0) {
-                            write(",");
-                        }
-                        write(terms[j++] + "=" + inputs.get(i).getDigest());
-                    }
-                    for (int i = 0; i < childExps.length; i++) {
-                        if (j > 0) {
-                            write(",");
-                        }
-                        RexNode childExp = childExps[i];
-                        write(terms[j++] + "=" + childExp.toString());
-                    }
-                    for (int i = 0; i < values.length; i++) {
-                        Object value = values[i];
-                        if (j > 0) {
-                            write(",");
-                        }
-                        write(terms[j++] + "=" + value);
-                    }
-                    write(")");
-                }
-            };
+    protected RelDigest computeDigestKey()
+    {
+        final DigestWriter pw = new DigestWriter();
         explain(pw);
-        pw.flush();
-        return sw.toString();
+        assert pw.digestKey != null : "explain did not call pw.explain";
+        return pw.digestKey;
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * Plan writer that, rather than printing, builds a {@link RelDigest} from
+     * the terms and values that a relational expression passes to it.
+     */
+    private class DigestWriter
+        extends RelOptPlanWriter
+    {
+        RelDigest digestKey;
+
+        DigestWriter()
+        {
+            super(NULL_WRITER, SqlExplainLevel.DIGEST_ATTRIBUTES);
+        }
+
+        public void explain(
+            RelNode rel,
+            String [] terms,
+            Object [] values)
+        {
+            List<RelNode> inputs = rel.getInputs();
+            RexNode [] childExps = rel.getChildExps();
+            assert terms.length
+                == (inputs.size() + childExps.length + values.length)
+                : "terms.length="
+                + terms.length
+                + " inputs.length=" + inputs.size()
+                + " childExps.length=" + childExps.length
+                + " values.length=" + values.length;
+            final Object [] keyValues = new Object[terms.length];
+            int j = 0;
+            for (int i = 0; i < inputs.size(); i++) {
+                keyValues[j++] = inputs.get(i).getDigestKey();
+            }
+            for (int i = 0; i < childExps.length; i++) {
+                // RexNode caches its string form, so this does not allocate.
+                keyValues[j++] = childExps[i].toString();
+            }
+            for (int i = 0; i < values.length; i++) {
+                keyValues[j++] = RelDigest.canonizeValue(values[i]);
+            }
+            digestKey =
+                new RelDigest(getRelTypeName(), traitSet, terms, keyValues);
+        }
     }
 }
 
@@ -34,6 +34,7 @@ import org.eigenbase.sql.*;
  *
  * <ul>
  * <li>Created by {@code net.sf.farrago.query.FarragoReduceValuesRule}</li>
+ * <li>Created by {@link org.eigenbase.rel.rules.ReduceExpressionsRule}</li>
  * <li>Triggers {@link org.eigenbase.rel.rules.RemoveEmptyRule}</li>
  * </ul>
  *
@@ -17,6 +17,8 @@
 */
 package org.eigenbase.rel;
 
+import java.util.*;
+
 import org.eigenbase.rel.metadata.*;
 import org.eigenbase.relopt.*;
 import org.eigenbase.rex.*;
@@ -78,6 +80,12 @@ public abstract class FilterRelBase
         return planner.makeCost(dRows, dCpu, dIo);
     }
 
+    // override RelNode; a filter keeps the order of its input
+    public List<RelCollation> getCollationList()
+    {
+        return getChild().getCollationList();
+    }
+
     // override RelNode
     public double getRows()
     {
@@ -0,0 +1,190 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.eigenbase.rel;
+
+import java.util.*;
+
+import org.eigenbase.relopt.*;
+
+
+/**
+ * Structural key that identifies a relational expression up to equivalence.
+ *
+ * <p>Planners use digests to detect duplicate relational expressions. Two
+ * relational expressions are equivalent if and only if their digests are
+ * equal. A digest refers to each of its inputs by the input's own digest,
+ * which for a registered input (a {@link
+ * org.eigenbase.relopt.volcano.RelSubset} or a {@link
+ * org.eigenbase.relopt.hep.HepRelVertex}) is small, so comparing two digests
+ * does not descend the tree. The hash code is computed once, when the digest
+ * is created.</p>
+ *
+ * <p>The string form, returned by {@link #toString()}, is the same as the
+ * string digest returned by {@link RelNode#getDigest()}. It is only built
+ * when it is first asked for.</p>
+ *
+ * <p>A digest is immutable. If the inputs of a relational expression change,
+ * for instance because their sets have merged, the planner creates a new
+ * digest by calling {@link RelNode#recomputeDigest()}.</p>
+ *
+ * @author jhyde
+ */
+public class RelDigest
+{
+    //~ Instance fields --------------------------------------------------------
+
+    private final String name;
+    private final RelTraitSet traitSet;
+    private final String [] terms;
+    private final Object [] values;
+    private final int hash;
+    private String string;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a RelDigest.
+     *
+     * <p>The string form is <code>name.trait1.trait2(term1=value1,...)</code>.
+     * If <code>traitSet</code> is null, no traits are printed; if
+     * <code>terms</code> is null, the parenthesized list is omitted.</p>
+     *
+     * @param name Name, typically the type name of the relational expression
+     * @param traitSet Traits of the relational expression, or null
+     * @param terms Names of the attributes, or null
+     * @param values Values of the attributes; each value is a digest of an
+     * input, or an immutable value
+     */
+    public RelDigest(
+        String name,
+        RelTraitSet traitSet,
+        String [] terms,
+        Object [] values)
+    {
+        assert name != null;
+        assert (terms == null) == (values == null);
+        assert (terms == null) || (terms.length == values.length);
+        this.name = name;
+        this.traitSet = traitSet;
+        this.terms = terms;
+        this.values = values;
+        int h = name.hashCode();
+        if (traitSet != null) {
+            for (int i = 0; i < traitSet.size(); i++) {
+                h = h * 31 + traitSet.getTrait(i).hashCode();
+            }
+        }
+        if (values != null) {
+            h = h * 31 + Arrays.hashCode(terms);
+            h = h * 31 + Arrays.hashCode(values);
+        }
+        this.hash = h;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Creates a digest that consists only of a string.
+     */
+    public static RelDigest of(String s)
+    {
+        return new RelDigest(s, null, null, null);
+    }
+
+    /**
+     * Converts an attribute value into a form suitable for comparison in a
+     * digest.
+     *
+     * <p>Digests, strings and values of basic immutable types are used as is.
+     * Other values are converted to strings, so that they are compared in the
+     * same way that they are printed.</p>
+     */
+    public static Object canonizeValue(Object value)
+    {
+        if (value == null
+            || value instanceof RelDigest
+            || value instanceof String
+            || value instanceof Boolean
+            || value instanceof Integer
+            || value instanceof Enum)
+        {
+            return value;
+        }
+        return String.valueOf(value);
+    }
+
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    public boolean equals(Object obj)
+    {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof RelDigest)) {
+            return false;
+        }
+        final RelDigest that = (RelDigest) obj;
+        return this.hash == that.hash
+            && this.name.equals(that.name)
+            && ((this.traitSet == null)
+                ? (that.traitSet == null)
+                : this.traitSet.equals(that.traitSet))
+            && Arrays.equals(this.terms, that.terms)
+            && Arrays.equals(this.values, that.values);
+    }
+
+    public String toString()
+    {
+        if (string == null) {
+            string = computeString();
+        }
+        return string;
+    }
+
+    /**
+     * Builds the string form of this digest. Called at most once.
+     */
+    protected String computeString()
+    {
+        if (traitSet == null && terms == null) {
+            return name;
+        }
+        final StringBuilder buf = new StringBuilder(name);
+        if (traitSet != null) {
+            for (int i = 0; i < traitSet.size(); i++) {
+                buf.append('.').append(traitSet.getTrait(i));
+            }
+        }
+        if (terms != null) {
+            buf.append('(');
+            for (int i = 0; i < terms.length; i++) {
+                if (i > 0) {
+                    buf.append(',');
+                }
+                buf.append(terms[i]).append('=').append(values[i]);
+            }
+            buf.append(')');
+        }
+        return buf.toString();
+    }
+}
+
+// End RelDigest.java
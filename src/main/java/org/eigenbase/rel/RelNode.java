@@ -225,7 +225,14 @@ public interface RelNode
     /**
      * Computes the digest, assigns it, and returns it. For planner use only.
      */
-    public String recomputeDigest();
+    public RelDigest recomputeDigest();
+
+    /**
+     * Returns the structural digest of this relational expression. Its
+     * string form is {@link #getDigest()}. Planners use it as a key when
+     * detecting equivalent relational expressions.
+     */
+    public RelDigest getDigestKey();
 
     /**
      * Registers a correlation variable.
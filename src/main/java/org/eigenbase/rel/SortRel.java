@@ -17,7 +17,7 @@
 */
 package org.eigenbase.rel;
 
-import java.util.List;
+import java.util.*;
 
 import org.eigenbase.relopt.*;
 import org.eigenbase.reltype.*;
@@ -27,6 +27,10 @@ import org.eigenbase.rex.*;
 /**
  * Relational expression which imposes a particular sort order on its input
  * without otherwise changing its content.
+ *
+ * <p>Optionally, skips the first <code>offset</code> rows and returns at most
+ * <code>fetch</code> rows. A SortRel with no collations and an offset or
+ * fetch just limits the number of rows.</p>
  */
 public class SortRel
     extends SingleRel
@@ -35,6 +39,8 @@ public class SortRel
 
     protected final List<RelFieldCollation> collations;
     protected final RexNode [] fieldExps;
+    protected final RexNode offset;
+    protected final RexNode fetch;
 
     //~ Constructors -----------------------------------------------------------
 
@@ -51,9 +57,33 @@ public class SortRel
         RelTraitSet traits,
         RelNode child,
         List<RelFieldCollation> collations)
+    {
+        this(cluster, traits, child, collations, null, null);
+    }
+
+    /**
+     * Creates a sorter that also skips and limits rows.
+     *
+     * @param cluster Cluster this relational expression belongs to
+     * @param traits Traits
+     * @param child input relational expression
+     * @param collations array of sort specifications
+     * @param offset Expression for number of rows to discard before
+     *     returning first row, or null
+     * @param fetch Expression for number of rows to fetch, or null
+     */
+    public SortRel(
+        RelOptCluster cluster,
+        RelTraitSet traits,
+        RelNode child,
+        List<RelFieldCollation> collations,
+        RexNode offset,
+        RexNode fetch)
     {
         super(cluster, traits, child);
         this.collations = collations;
+        this.offset = offset;
+        this.fetch = fetch;
 
         fieldExps = new RexNode[collations.size()];
         final RelDataTypeField [] fields = getRowType().getFields();
@@ -69,20 +99,32 @@ public class SortRel
     //~ Methods ----------------------------------------------------------------
 
     public SortRel copy(RelTraitSet traitSet, List<RelNode> inputs) {
-        return copy(traitSet, sole(inputs), collations);
+        return copy(traitSet, sole(inputs), collations, offset, fetch);
     }
 
     public SortRel copy(
         RelTraitSet traitSet,
         RelNode newInput,
         List<RelFieldCollation> newCollations)
+    {
+        return copy(traitSet, newInput, newCollations, offset, fetch);
+    }
+
+    public SortRel copy(
+        RelTraitSet traitSet,
+        RelNode newInput,
+        List<RelFieldCollation> newCollations,
+        RexNode offset,
+        RexNode fetch)
     {
         assert traitSet.comprises(Convention.NONE);
         return new SortRel(
             getCluster(),
             getCluster().traitSetOf(Convention.NONE),
             newInput,
-            newCollations);
+            newCollations,
+            offset,
+            fetch);
     }
 
     public RexNode [] getChildExps()
@@ -99,27 +141,60 @@ public class SortRel
         return collations;
     }
 
+    public List<RelCollation> getCollationList()
+    {
+        if (collations.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.<RelCollation>singletonList(
+            new RelCollationImpl(collations));
+    }
+
+    /**
+     * @return expression for the number of rows to skip, or null
+     */
+    public RexNode getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * @return expression for the maximum number of rows to return, or null
+     */
+    public RexNode getFetch()
+    {
+        return fetch;
+    }
+
     public void explain(RelOptPlanWriter pw)
     {
-        String [] terms = new String[1 + (collations.size() * 2)];
-        Object [] values = new Object[collations.size()];
-        int i = 0;
-        terms[i++] = "child";
+        final List<String> terms = new ArrayList<String>();
+        final List<Object> values = new ArrayList<Object>();
+        terms.add("child");
         for (int j = 0; j < collations.size(); ++j) {
-            terms[i++] = "sort" + j;
+            terms.add("sort" + j);
         }
         for (int j = 0; j < collations.size(); ++j) {
-            terms[i++] = "dir" + j;
+            terms.add("dir" + j);
             final RelFieldCollation collation = collations.get(j);
-            values[j] = collation.getDirection().toString();
+            String value = collation.getDirection().toString();
             switch (collation.nullDirection) {
             case FIRST:
-                values[j] = ((String) values[j]) + "-nulls-first";
+                value += "-nulls-first";
                 break;
             case LAST:
-                values[j] = ((String) values[j]) + "-nulls-last";
+                value += "-nulls-last";
                 break;
             }
+            values.add(value);
+        }
+        if (offset != null) {
+            terms.add("offset");
+            values.add(offset);
+        }
+        if (fetch != null) {
+            terms.add("fetch");
+            values.add(fetch);
         }
         pw.explain(this, terms, values);
     }
@@ -21,22 +21,43 @@ import java.util.*;
 
 import org.eigenbase.rel.*;
 import org.eigenbase.relopt.*;
-import org.eigenbase.util.*;
 
 
 /**
  * CachingRelMetadataProvider implements the {@link RelMetadataProvider}
  * interface by caching results from an underlying provider.
  *
+ * <p>The cache holds a slot for each relational expression, and within the
+ * slot an entry for each metadata query and argument list. A lookup does not
+ * allocate a key. Each slot records the {@link
+ * RelOptPlanner#getRelMetadataTimestamp timestamp} at which its results were
+ * computed; when the planner reports a new timestamp, the slot's results are
+ * discarded.</p>
+ *
+ * <p>The number of slots is bounded; when it is exceeded, the slot of the
+ * least recently used relational expression is discarded.</p>
+ *
+ * <p>The cache is safe for use by several threads. The lock is not held while
+ * the underlying provider computes a result, so a query may call back into
+ * this provider for the inputs of a relational expression.</p>
+ *
  * @author John V. Sichi
  * @version $Id$
  */
 public class CachingRelMetadataProvider
     implements RelMetadataProvider
 {
+    //~ Static fields/initializers ---------------------------------------------
+
+    /**
+     * Default maximum number of relational expressions whose metadata is
+     * cached.
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
     //~ Instance fields --------------------------------------------------------
 
-    private final Map<List, CacheEntry> cache;
+    private final Map<RelNode, Slot> cache;
 
     private final RelMetadataProvider underlyingProvider;
 
@@ -48,10 +69,36 @@ public class CachingRelMetadataProvider
         RelMetadataProvider underlyingProvider,
         RelOptPlanner planner)
     {
+        this(underlyingProvider, planner, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a CachingRelMetadataProvider with a given capacity.
+     *
+     * @param underlyingProvider Provider that computes metadata
+     * @param planner Planner, which provides timestamps
+     * @param capacity Maximum number of relational expressions whose metadata
+     * is cached
+     */
+    public CachingRelMetadataProvider(
+        RelMetadataProvider underlyingProvider,
+        RelOptPlanner planner,
+        final int capacity)
+    {
+        assert capacity > 0;
         this.underlyingProvider = underlyingProvider;
         this.planner = planner;
 
-        cache = new HashMap<List, CacheEntry>();
+        // Relational expressions do not override equals and hashCode, so
+        // this map is keyed by identity. Access order gives LRU eviction.
+        cache =
+            new LinkedHashMap<RelNode, Slot>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(
+                    Map.Entry<RelNode, Slot> eldest)
+                {
+                    return size() > capacity;
+                }
+            };
     }
 
     //~ Methods ----------------------------------------------------------------
@@ -65,26 +112,21 @@ public class CachingRelMetadataProvider
         // TODO jvs 30-Mar-2006: Use meta-metadata to decide which metadata
         // query results can stay fresh until the next Ice Age.
 
-        // Compute hash key.
-        List<Object> hashKey;
-        if (args != null) {
-            hashKey = new ArrayList<Object>(args.length + 2);
-            hashKey.add(rel);
-            hashKey.add(metadataQueryName);
-            hashKey.addAll(Arrays.asList(args));
-        } else {
-            hashKey = Arrays.asList(rel, metadataQueryName);
-        }
-
-        long timestamp = planner.getRelMetadataTimestamp(rel);
+        final long timestamp = planner.getRelMetadataTimestamp(rel);
 
         // Perform cache lookup.
-        CacheEntry entry = cache.get(hashKey);
-        if (entry != null) {
-            if (timestamp == entry.timestamp) {
-                return entry.result;
-            } else {
-                // Cache results are stale.
+        synchronized (cache) {
+            Slot slot = cache.get(rel);
+            if (slot != null) {
+                if (slot.timestamp != timestamp) {
+                    // Cache results are stale. Evict them.
+                    slot.clear(timestamp);
+                } else {
+                    int i = slot.find(metadataQueryName, args);
+                    if (i >= 0) {
+                        return slot.results[i];
+                    }
+                }
             }
         }
 
@@ -95,21 +137,96 @@ public class CachingRelMetadataProvider
                 metadataQueryName,
                 args);
         if (result != null) {
-            entry = new CacheEntry();
-            entry.timestamp = timestamp;
-            entry.result = result;
-            cache.put(hashKey, entry);
+            synchronized (cache) {
+                Slot slot = cache.get(rel);
+                if (slot == null) {
+                    slot = new Slot(timestamp);
+                    cache.put(rel, slot);
+                } else if (slot.timestamp != timestamp) {
+                    if (slot.timestamp > timestamp) {
+                        // Another thread has stored a more recent result.
+                        return result;
+                    }
+                    slot.clear(timestamp);
+                }
+                if (slot.find(metadataQueryName, args) < 0) {
+                    slot.add(
+                        metadataQueryName,
+                        args == null ? null : args.clone(),
+                        result);
+                }
+            }
         }
         return result;
     }
 
+    /**
+     * Returns the number of relational expressions that currently have a slot
+     * in the cache.
+     */
+    public int size()
+    {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
     //~ Inner Classes ----------------------------------------------------------
 
-    private static class CacheEntry
+    /**
+     * Cached metadata of one relational expression, valid as of a particular
+     * timestamp. Entries are held in parallel arrays and searched linearly;
+     * a relational expression rarely has more than a dozen.
+     */
+    private static class Slot
     {
         long timestamp;
+        int count;
+        String [] names = new String[4];
+        Object [][] args = new Object[4][];
+        Object [] results = new Object[4];
+
+        Slot(long timestamp)
+        {
+            this.timestamp = timestamp;
+        }
+
+        int find(String name, Object [] args)
+        {
+            for (int i = 0; i < count; i++) {
+                // Query names are usually the same string constant, so try
+                // identity before equals.
+                final String name2 = names[i];
+                if ((name2 == name || name2.equals(name))
+                    && Arrays.equals(this.args[i], args))
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void add(String name, Object [] args, Object result)
+        {
+            if (count == names.length) {
+                final int n = count * 2;
+                names = Arrays.copyOf(names, n);
+                this.args = Arrays.copyOf(this.args, n);
+                results = Arrays.copyOf(results, n);
+            }
+            names[count] = name;
+            this.args[count] = args;
+            results[count] = result;
+            ++count;
+        }
 
-        Object result;
+        void clear(long timestamp)
+        {
+            this.timestamp = timestamp;
+            Arrays.fill(args, 0, count, null);
+            Arrays.fill(results, 0, count, null);
+            count = 0;
+        }
     }
 }
 
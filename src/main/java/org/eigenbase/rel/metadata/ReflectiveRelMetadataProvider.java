@@ -20,6 +20,7 @@ package org.eigenbase.rel.metadata;
 import java.lang.reflect.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.eigenbase.rel.*;
 import org.eigenbase.util.*;
@@ -30,6 +31,10 @@ import org.eigenbase.util.*;
  * implementations of the {@link RelMetadataProvider} interface. For an example,
  * see {@link DefaultRelMetadataProvider}.
  *
+ * <p>The method that implements each combination of metadata query and
+ * relational expression class is looked up once, and held in a dispatch table
+ * that can be probed without allocating a key.
+ *
  * <p>TODO jvs 28-Mar-2006: most of this should probably be refactored into
  * ReflectUtil.
  *
@@ -40,10 +45,36 @@ public abstract class ReflectiveRelMetadataProvider
     implements RelMetadataProvider,
         ReflectiveVisitor
 {
+    //~ Static fields/initializers ---------------------------------------------
+
+    /**
+     * Placeholder in the dispatch table for a combination of query and class
+     * for which there is no method. (ConcurrentHashMap does not allow null
+     * values.)
+     */
+    private static final Method NO_METHOD;
+
+    static {
+        try {
+            NO_METHOD = Object.class.getMethod("toString");
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     //~ Instance fields --------------------------------------------------------
 
     private final Map<String, List<Class>> parameterTypeMap;
 
+    /**
+     * Dispatch table. Maps a metadata query name, then a relational
+     * expression class, to the method that implements it, or to {@link
+     * #NO_METHOD}.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<Class, Method>>
+        dispatchTable =
+            new ConcurrentHashMap<String, ConcurrentMap<Class, Method>>();
+
     private final ReflectiveVisitDispatcher<ReflectiveRelMetadataProvider,
         RelNode> visitDispatcher;
 
@@ -83,18 +114,8 @@ public abstract class ReflectiveRelMetadataProvider
         String metadataQueryName,
         Object [] args)
     {
-        List<Class> parameterTypes = parameterTypeMap.get(metadataQueryName);
-        if (parameterTypes == null) {
-            parameterTypes = Collections.emptyList();
-        }
-        Method method =
-            visitDispatcher.lookupVisitMethod(
-                getClass(),
-                rel.getClass(),
-                metadataQueryName,
-                parameterTypes);
-
-        if (method == null) {
+        Method method = lookupMethod(rel.getClass(), metadataQueryName);
+        if (method == NO_METHOD) {
             return null;
         }
 
@@ -120,6 +141,52 @@ public abstract class ReflectiveRelMetadataProvider
             }
         }
     }
+
+    /**
+     * Returns the method that implements a metadata query for a class of
+     * relational expression, or {@link #NO_METHOD} if there is none. Looks in
+     * the dispatch table first; on a miss, resolves the method by reflection
+     * and remembers it.
+     */
+    private Method lookupMethod(
+        Class<? extends RelNode> relClass,
+        String metadataQueryName)
+    {
+        ConcurrentMap<Class, Method> classMap =
+            dispatchTable.get(metadataQueryName);
+        if (classMap == null) {
+            classMap = new ConcurrentHashMap<Class, Method>();
+            final ConcurrentMap<Class, Method> previous =
+                dispatchTable.putIfAbsent(metadataQueryName, classMap);
+            if (previous != null) {
+                classMap = previous;
+            }
+        }
+        Method method = classMap.get(relClass);
+        if (method == null) {
+            List<Class> parameterTypes =
+                parameterTypeMap.get(metadataQueryName);
+            if (parameterTypes == null) {
+                parameterTypes = Collections.emptyList();
+            }
+            synchronized (visitDispatcher) {
+                method =
+                    visitDispatcher.lookupVisitMethod(
+                        getClass(),
+                        relClass,
+                        metadataQueryName,
+                        parameterTypes);
+            }
+            if (method == null) {
+                method = NO_METHOD;
+            } else {
+                // Skip the access check on each invocation.
+                method.setAccessible(true);
+            }
+            classMap.put(relClass, method);
+        }
+        return method;
+    }
 }
 
 // End ReflectiveRelMetadataProvider.java
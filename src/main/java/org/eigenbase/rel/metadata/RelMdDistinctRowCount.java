@@ -24,6 +24,7 @@ import org.eigenbase.rel.rules.*;
 import org.eigenbase.relopt.*;
 import org.eigenbase.rex.*;
 import org.eigenbase.sql.fun.*;
+import org.eigenbase.stat.*;
 import org.eigenbase.util14.*;
 
 
@@ -278,6 +279,45 @@ public class RelMdDistinctRowCount
             RelMetadataQuery.getRowCount(rel));
     }
 
+    public Double getDistinctRowCount(
+        TableAccessRelBase rel,
+        BitSet groupKey,
+        RexNode predicate)
+    {
+        RelStatSource stats = RelMetadataQuery.getStatistics(rel);
+        Double rowCount = RelMetadataQuery.getRowCount(rel);
+        if ((stats == null) || (rowCount == null)) {
+            return getDistinctRowCount((RelNode) rel, groupKey, predicate);
+        }
+
+        // Assume that columns are independent, so the number of distinct
+        // combinations is the product of the columns' distinct counts,
+        // capped at the number of rows.
+        double distinctRowCount = 1.0;
+        for (int i = groupKey.nextSetBit(0);
+            i >= 0;
+            i = groupKey.nextSetBit(i + 1))
+        {
+            RelStatColumnStatistics columnStats =
+                stats.getColumnStatistics(i, null);
+            if ((columnStats == null)
+                || (columnStats.getCardinality() == null))
+            {
+                return getDistinctRowCount((RelNode) rel, groupKey, predicate);
+            }
+            distinctRowCount *= columnStats.getCardinality();
+        }
+        distinctRowCount = Math.min(distinctRowCount, rowCount);
+        if (predicate == null) {
+            return distinctRowCount;
+        }
+        return RelMdUtil.numDistinctVals(
+            distinctRowCount,
+            NumberUtil.multiply(
+                rowCount,
+                RelMetadataQuery.getSelectivity(rel, predicate)));
+    }
+
     // Catch-all rule when none of the others apply.
     public Double getDistinctRowCount(
         RelNode rel,
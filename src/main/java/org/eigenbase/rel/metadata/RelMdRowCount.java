@@ -67,7 +67,21 @@ public class RelMdRowCount
 
     public Double getRowCount(SortRel rel)
     {
-        return RelMetadataQuery.getRowCount(rel.getChild());
+        Double rowCount = RelMetadataQuery.getRowCount(rel.getChild());
+        if (rowCount == null) {
+            return null;
+        }
+        if (rel.getOffset() instanceof RexLiteral) {
+            final double offset =
+                RexLiteral.bigDecimalValue(rel.getOffset()).doubleValue();
+            rowCount = Math.max(rowCount - offset, 0D);
+        }
+        if (rel.getFetch() instanceof RexLiteral) {
+            final double fetch =
+                RexLiteral.bigDecimalValue(rel.getFetch()).doubleValue();
+            rowCount = Math.min(rowCount, fetch);
+        }
+        return rowCount;
     }
 
     public Double getRowCount(SemiJoinRel rel)
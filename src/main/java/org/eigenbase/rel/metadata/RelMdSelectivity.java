@@ -23,7 +23,9 @@ import org.eigenbase.rel.*;
 import org.eigenbase.rel.rules.*;
 import org.eigenbase.relopt.*;
 import org.eigenbase.rex.*;
+import org.eigenbase.sarg.*;
 import org.eigenbase.sql.fun.*;
+import org.eigenbase.stat.*;
 
 
 /**
@@ -189,6 +191,42 @@ public class RelMdSelectivity
         }
     }
 
+    public Double getSelectivity(TableAccessRelBase rel, RexNode predicate)
+    {
+        RelStatSource stats = RelMetadataQuery.getStatistics(rel);
+        if ((stats == null) || (predicate == null)) {
+            return RelMdUtil.guessSelectivity(predicate);
+        }
+
+        // Use column statistics for the conjuncts that restrict a single
+        // column to a set of intervals, and guess the rest.
+        SargFactory sargFactory =
+            new SargFactory(rel.getCluster().getRexBuilder());
+        SargRexAnalyzer analyzer = sargFactory.newRexAnalyzer();
+        List<SargBinding> sargBindingList = analyzer.analyzeAll(predicate);
+        List<SargBinding> unknownList = new ArrayList<SargBinding>();
+        double selectivity = 1.0;
+        for (SargBinding sargBinding : sargBindingList) {
+            RelStatColumnStatistics columnStats =
+                stats.getColumnStatistics(
+                    sargBinding.getInputRef().getIndex(),
+                    sargBinding.getExpr().evaluate());
+            if ((columnStats == null)
+                || (columnStats.getSelectivity() == null))
+            {
+                unknownList.add(sargBinding);
+            } else {
+                selectivity *= columnStats.getSelectivity();
+            }
+        }
+        selectivity *=
+            RelMdUtil.guessSelectivity(
+                analyzer.getSargBindingListToRexNode(unknownList));
+        selectivity *=
+            RelMdUtil.guessSelectivity(analyzer.getNonSargFilterRexNode());
+        return selectivity;
+    }
+
     // Catch-all rule when none of the others apply.
     public Double getSelectivity(RelNode rel, RexNode predicate)
     {
@@ -0,0 +1,46 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.eigenbase.rel.metadata;
+
+import org.eigenbase.rel.*;
+import org.eigenbase.stat.*;
+
+
+/**
+ * RelMdStatistics supplies a default implementation of {@link
+ * RelMetadataQuery#getStatistics} for the standard logical algebra.
+ *
+ * <p>A table access has the statistics of its table, if the table can be
+ * {@link org.eigenbase.relopt.RelOptTable#unwrap unwrapped} to a {@link
+ * RelStatSource}.
+ *
+ * @author jhyde
+ * @version $Id$
+ */
+public class RelMdStatistics
+    extends ReflectiveRelMetadataProvider
+{
+    //~ Methods ----------------------------------------------------------------
+
+    public RelStatSource getStatistics(TableAccessRelBase rel)
+    {
+        return rel.getTable().unwrap(RelStatSource.class);
+    }
+}
+
+// End RelMdStatistics.java
@@ -26,6 +26,7 @@ import org.eigenbase.reltype.*;
 import org.eigenbase.rex.*;
 import org.eigenbase.sql.*;
 import org.eigenbase.sql.fun.*;
+import org.eigenbase.sql.type.*;
 import org.eigenbase.util.*;
 
 
@@ -300,13 +301,25 @@ public class ReduceAggregatesRule
         final RexBuilder rexBuilder = oldAggRel.getCluster().getRexBuilder();
 
         assert oldCall.getArgList().size() == 1 : oldCall.getArgList();
-        final int argOrdinal = oldCall.getArgList().get(0);
-        final RelDataType argType =
+        int argOrdinal = oldCall.getArgList().get(0);
+        RelDataType argType =
             getFieldType(
                 oldAggRel.getChild(),
                 argOrdinal);
 
-        final RexNode argRef = inputExprs.get(argOrdinal);
+        RexNode argRef = inputExprs.get(argOrdinal);
+        if (SqlTypeUtil.isExactNumeric(argType)) {
+            // Compute in floating point. In an exact type, the divisions
+            // below would truncate (or, for DECIMAL, fail if the quotient
+            // does not terminate). The result is cast back to the type of
+            // the original call.
+            argType =
+                typeFactory.createTypeWithNullability(
+                    typeFactory.createSqlType(SqlTypeName.DOUBLE),
+                    argType.isNullable());
+            argRef = rexBuilder.makeCast(argType, argRef);
+            argOrdinal = lookupOrAdd(inputExprs, argRef);
+        }
         final RexNode argSquared =
             rexBuilder.makeCall(
                 SqlStdOperatorTable.multiplyOperator, argRef, argRef);
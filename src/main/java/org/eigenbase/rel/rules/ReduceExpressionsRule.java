@@ -0,0 +1,462 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.eigenbase.rel.rules;
+
+import java.util.*;
+
+import org.eigenbase.rel.*;
+import org.eigenbase.relopt.*;
+import org.eigenbase.rex.*;
+import org.eigenbase.sql.*;
+import org.eigenbase.sql.type.*;
+
+
+/**
+ * Collection of rules which reduce constant expressions to literals, and
+ * simplify the conditions that contain them.
+ *
+ * <p>A constant expression is a call that references no input fields,
+ * correlating variables or dynamic parameters, and all of whose operators
+ * are deterministic. The rules evaluate constant expressions once, at
+ * planning time, using the {@link RelOptPlanner.Executor} of the planner;
+ * if the planner has no executor, they only simplify conditions.</p>
+ *
+ * <p>After reduction, a condition is simplified: <code>TRUE</code> operands
+ * of <code>AND</code> and <code>FALSE</code> operands of <code>OR</code> are
+ * removed. A filter whose condition is always true is removed; a filter, or
+ * an inner join, whose condition is always false or unknown becomes an
+ * {@link EmptyRel}, which {@link RemoveEmptyRule} can then propagate.</p>
+ *
+ * <p>Examples:
+ *
+ * <ul>
+ * <li>Filter(Rel, x &gt; 1 + 2) becomes Filter(Rel, x &gt; 3)
+ * <li>Filter(Rel, x &gt; 3 AND 1 = 1) becomes Filter(Rel, x &gt; 3)
+ * <li>Filter(Rel, 1 = 2) becomes Empty
+ * <li>Project(Rel, UPPER('abc')) becomes Project(Rel, 'ABC')
+ * </ul>
+ *
+ * @author jhyde
+ * @see RelOptPlanner#setExecutor
+ */
+public abstract class ReduceExpressionsRule
+    extends RelOptRule
+{
+    //~ Static fields/initializers ---------------------------------------------
+
+    /**
+     * Types of expressions that can be reduced; the result of an expression
+     * of one of these types can be represented as a {@link RexLiteral}.
+     */
+    private static final Set<SqlTypeName> REDUCIBLE_TYPES =
+        EnumSet.of(
+            SqlTypeName.BOOLEAN,
+            SqlTypeName.TINYINT,
+            SqlTypeName.SMALLINT,
+            SqlTypeName.INTEGER,
+            SqlTypeName.BIGINT,
+            SqlTypeName.DECIMAL,
+            SqlTypeName.FLOAT,
+            SqlTypeName.REAL,
+            SqlTypeName.DOUBLE,
+            SqlTypeName.CHAR,
+            SqlTypeName.VARCHAR,
+            SqlTypeName.DATE,
+            SqlTypeName.TIME,
+            SqlTypeName.TIMESTAMP);
+
+    /**
+     * Singleton instance of rule which reduces constant expressions in the
+     * condition of a {@link FilterRel}.
+     */
+    public static final ReduceExpressionsRule filterInstance =
+        new ReduceExpressionsRule(
+            new RelOptRuleOperand(FilterRel.class, ANY),
+            "Filter")
+        {
+            public void onMatch(RelOptRuleCall call)
+            {
+                final FilterRel filter = (FilterRel) call.rels[0];
+                final List<RexNode> exps =
+                    new ArrayList<RexNode>(
+                        Collections.singletonList(filter.getCondition()));
+                final boolean reduced = reduceExpressions(filter, exps);
+                final RexNode condition =
+                    simplifyCondition(
+                        filter.getCluster().getRexBuilder(), exps.get(0));
+                final RelNode newRel;
+                if (isAlwaysFalse(condition)) {
+                    newRel =
+                        new EmptyRel(
+                            filter.getCluster(),
+                            filter.getRowType());
+                } else if (condition.isAlwaysTrue()) {
+                    newRel = filter.getChild();
+                } else if (reduced || condition != exps.get(0)) {
+                    newRel =
+                        new FilterRel(
+                            filter.getCluster(),
+                            filter.getChild(),
+                            condition);
+                } else {
+                    return;
+                }
+                call.transformTo(newRel);
+
+                // The new expression is always better than the old one.
+                call.getPlanner().setImportance(filter, 0);
+            }
+        };
+
+    /**
+     * Singleton instance of rule which reduces constant expressions in the
+     * expressions of a {@link ProjectRel}.
+     */
+    public static final ReduceExpressionsRule projectInstance =
+        new ReduceExpressionsRule(
+            new RelOptRuleOperand(ProjectRel.class, ANY),
+            "Project")
+        {
+            public void onMatch(RelOptRuleCall call)
+            {
+                final ProjectRel project = (ProjectRel) call.rels[0];
+                final List<RexNode> exps =
+                    new ArrayList<RexNode>(
+                        Arrays.asList(project.getProjectExps()));
+                if (!reduceExpressions(project, exps)) {
+                    return;
+                }
+                call.transformTo(
+                    new ProjectRel(
+                        project.getCluster(),
+                        project.getChild(),
+                        exps.toArray(new RexNode[exps.size()]),
+                        project.getRowType(),
+                        project.getFlags(),
+                        project.getCollationList()));
+                call.getPlanner().setImportance(project, 0);
+            }
+        };
+
+    /**
+     * Singleton instance of rule which reduces constant expressions in the
+     * condition of a {@link JoinRel}. An inner join whose condition is
+     * always false becomes empty.
+     */
+    public static final ReduceExpressionsRule joinInstance =
+        new ReduceExpressionsRule(
+            new RelOptRuleOperand(JoinRel.class, ANY),
+            "Join")
+        {
+            public void onMatch(RelOptRuleCall call)
+            {
+                final JoinRel join = (JoinRel) call.rels[0];
+                final List<RexNode> exps =
+                    new ArrayList<RexNode>(
+                        Collections.singletonList(join.getCondition()));
+                final boolean reduced = reduceExpressions(join, exps);
+                final RexNode condition =
+                    simplifyCondition(
+                        join.getCluster().getRexBuilder(), exps.get(0));
+                final RelNode newRel;
+                if (isAlwaysFalse(condition)
+                    && join.getJoinType() == JoinRelType.INNER)
+                {
+                    newRel =
+                        new EmptyRel(
+                            join.getCluster(),
+                            join.getRowType());
+                } else if (reduced || condition != exps.get(0)) {
+                    newRel =
+                        join.copy(
+                            join.getTraitSet(),
+                            condition,
+                            join.getLeft(),
+                            join.getRight());
+                } else {
+                    return;
+                }
+                call.transformTo(newRel);
+                call.getPlanner().setImportance(join, 0);
+            }
+        };
+
+    /**
+     * Singleton instance of rule which reduces constant expressions in the
+     * program of a {@link CalcRel}.
+     */
+    public static final ReduceExpressionsRule calcInstance =
+        new ReduceExpressionsRule(
+            new RelOptRuleOperand(CalcRel.class, ANY),
+            "Calc")
+        {
+            public void onMatch(RelOptRuleCall call)
+            {
+                final CalcRel calc = (CalcRel) call.rels[0];
+                final RexProgram program = calc.getProgram();
+                final List<RexNode> exps = new ArrayList<RexNode>();
+                for (RexLocalRef ref : program.getProjectList()) {
+                    exps.add(program.expandLocalRef(ref));
+                }
+                final int projectCount = exps.size();
+                final RexLocalRef conditionRef = program.getCondition();
+                if (conditionRef != null) {
+                    exps.add(program.expandLocalRef(conditionRef));
+                }
+                final boolean reduced = reduceExpressions(calc, exps);
+                final RexBuilder rexBuilder =
+                    calc.getCluster().getRexBuilder();
+                RexNode condition = null;
+                boolean simplified = false;
+                if (conditionRef != null) {
+                    condition =
+                        simplifyCondition(rexBuilder, exps.get(projectCount));
+                    simplified = condition != exps.get(projectCount);
+                    if (isAlwaysFalse(condition)) {
+                        call.transformTo(
+                            new EmptyRel(
+                                calc.getCluster(),
+                                calc.getRowType()));
+                        call.getPlanner().setImportance(calc, 0);
+                        return;
+                    }
+                    if (condition.isAlwaysTrue()) {
+                        condition = null;
+                        simplified = true;
+                    }
+                }
+                if (!reduced && !simplified) {
+                    return;
+                }
+                final RexProgram newProgram =
+                    RexProgram.create(
+                        program.getInputRowType(),
+                        exps.subList(0, projectCount).toArray(
+                            new RexNode[projectCount]),
+                        condition,
+                        calc.getRowType(),
+                        rexBuilder);
+                call.transformTo(
+                    new CalcRel(
+                        calc.getCluster(),
+                        calc.getTraitSet(),
+                        calc.getChild(),
+                        calc.getRowType(),
+                        newProgram,
+                        calc.getCollationList()));
+                call.getPlanner().setImportance(calc, 0);
+            }
+        };
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a ReduceExpressionsRule.
+     *
+     * @param operand Operand
+     * @param desc Description
+     */
+    private ReduceExpressionsRule(RelOptRuleOperand operand, String desc)
+    {
+        super(operand, "ReduceExpressionsRule:" + desc);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Reduces the constant sub-expressions of a list of expressions, in
+     * place.
+     *
+     * @param rel Relational expression that owns the expressions
+     * @param exps List of expressions; reduced expressions are written back
+     *
+     * @return whether any expression was reduced
+     */
+    static boolean reduceExpressions(RelNode rel, List<RexNode> exps)
+    {
+        final RelOptPlanner.Executor executor =
+            rel.getCluster().getPlanner().getExecutor();
+        if (executor == null) {
+            return false;
+        }
+
+        // Find the largest constant sub-expressions, without duplicates.
+        final Map<String, RexNode> constExpMap =
+            new LinkedHashMap<String, RexNode>();
+        for (RexNode exp : exps) {
+            findReducibleExps(exp, constExpMap);
+        }
+        if (constExpMap.isEmpty()) {
+            return false;
+        }
+        final List<RexNode> constExps =
+            new ArrayList<RexNode>(constExpMap.values());
+        final List<RexNode> reducedValues = new ArrayList<RexNode>();
+        executor.reduce(
+            rel.getCluster().getRexBuilder(), constExps, reducedValues);
+        assert reducedValues.size() == constExps.size();
+
+        // If an expression reduces to itself (say, a cast of a literal that
+        // cannot be represented as a literal) leave it alone; otherwise the
+        // rule would fire forever.
+        final Map<String, RexNode> replacements =
+            new HashMap<String, RexNode>();
+        for (int i = 0; i < constExps.size(); i++) {
+            final String digest = constExps.get(i).toString();
+            final RexNode reducedValue = reducedValues.get(i);
+            if (!reducedValue.toString().equals(digest)) {
+                replacements.put(digest, reducedValue);
+            }
+        }
+        if (replacements.isEmpty()) {
+            return false;
+        }
+        final RexShuttle replacer =
+            new RexShuttle() {
+                public RexNode visitCall(RexCall call)
+                {
+                    final RexNode replacement =
+                        replacements.get(call.toString());
+                    if (replacement != null) {
+                        return replacement;
+                    }
+                    return super.visitCall(call);
+                }
+            };
+        for (int i = 0; i < exps.size(); i++) {
+            exps.set(i, exps.get(i).accept(replacer));
+        }
+        return true;
+    }
+
+    /**
+     * Adds to a map the largest sub-expressions of an expression that are
+     * constant calls of a type that can be represented as a literal.
+     */
+    private static void findReducibleExps(
+        RexNode exp,
+        Map<String, RexNode> constExpMap)
+    {
+        if (!(exp instanceof RexCall)) {
+            return;
+        }
+        if (isConstant(exp)
+            && REDUCIBLE_TYPES.contains(exp.getType().getSqlTypeName()))
+        {
+            constExpMap.put(exp.toString(), exp);
+            return;
+        }
+        for (RexNode operand : ((RexCall) exp).getOperands()) {
+            findReducibleExps(operand, constExpMap);
+        }
+    }
+
+    /**
+     * Returns whether an expression always evaluates to the same value; that
+     * is, whether it consists only of literals and calls to deterministic
+     * operators.
+     */
+    private static boolean isConstant(RexNode exp)
+    {
+        if (exp instanceof RexLiteral) {
+            return true;
+        }
+        if (!(exp instanceof RexCall) || exp instanceof RexOver) {
+            return false;
+        }
+        final SqlOperator op = ((RexCall) exp).getOperator();
+        if (!op.isDeterministic()
+            || op.isDynamicFunction()
+            || op.isAggregator())
+        {
+            return false;
+        }
+        for (RexNode operand : ((RexCall) exp).getOperands()) {
+            if (!isConstant(operand)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Simplifies a condition, in a context where UNKNOWN is treated as FALSE
+     * (the condition of a filter or join). Removes <code>TRUE</code>
+     * operands of <code>AND</code> and <code>FALSE</code> operands of
+     * <code>OR</code>, and collapses an <code>AND</code> with a
+     * <code>FALSE</code> operand or an <code>OR</code> with a
+     * <code>TRUE</code> operand.
+     *
+     * @return simplified condition, or the same condition if it cannot be
+     * simplified
+     */
+    static RexNode simplifyCondition(RexBuilder rexBuilder, RexNode condition)
+    {
+        final boolean and = condition.isA(RexKind.And);
+        if (!and && !condition.isA(RexKind.Or)) {
+            return condition;
+        }
+        final RexNode [] operands = ((RexCall) condition).getOperands();
+        final List<RexNode> newOperands = new ArrayList<RexNode>();
+        boolean changed = false;
+        for (RexNode operand : operands) {
+            final RexNode newOperand = simplifyCondition(rexBuilder, operand);
+            if (newOperand != operand) {
+                changed = true;
+            }
+            if (and ? isAlwaysFalse(newOperand) : newOperand.isAlwaysTrue()) {
+                return rexBuilder.makeLiteral(!and);
+            }
+            if (and ? newOperand.isAlwaysTrue() : isAlwaysFalse(newOperand)) {
+                changed = true;
+                continue;
+            }
+            newOperands.add(newOperand);
+        }
+        if (!changed) {
+            return condition;
+        }
+        switch (newOperands.size()) {
+        case 0:
+            return rexBuilder.makeLiteral(and);
+        case 1:
+            return newOperands.get(0);
+        default:
+            return and
+                ? RexUtil.andRexNodeList(rexBuilder, newOperands)
+                : RexUtil.orRexNodeList(rexBuilder, newOperands);
+        }
+    }
+
+    /**
+     * Returns whether a condition is the literal <code>FALSE</code> or a null
+     * literal, either of which rejects every row.
+     */
+    static boolean isAlwaysFalse(RexNode condition)
+    {
+        if (!(condition instanceof RexLiteral)) {
+            return false;
+        }
+        final RexLiteral literal = (RexLiteral) condition;
+        return RexLiteral.isNullLiteral(literal)
+            || (literal.getTypeName() == SqlTypeName.BOOLEAN
+                && !RexLiteral.booleanValue(literal));
+    }
+}
+
+// End ReduceExpressionsRule.java
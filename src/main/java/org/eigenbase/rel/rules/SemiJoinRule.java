@@ -0,0 +1,168 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.eigenbase.rel.rules;
+
+import java.util.*;
+
+import org.eigenbase.rel.*;
+import org.eigenbase.relopt.*;
+import org.eigenbase.reltype.*;
+import org.eigenbase.rex.*;
+import org.eigenbase.sql.fun.*;
+
+
+/**
+ * Rule that converts a join against a distinct set of keys, followed by a
+ * projection of the left input's columns, into a {@link SemiJoinRel}.
+ *
+ * <p>{@link org.eigenbase.sql2rel.SqlToRelConverter} translates <code>IN</code>
+ * and <code>EXISTS</code> sub-queries into that shape. Transformation is as
+ * follows:
+ *
+ * <p>ProjectRel(JoinRel(X, AggregateRel(Y, group=k)), left fields only)
+ * -> ProjectRel(SemiJoinRel(X, Y))
+ *
+ * <p>The rule applies only if the join is an inner equi-join, and the join
+ * keys on the right are exactly the group columns of the aggregate. Then
+ * each row of X matches at most one row of the aggregate, and the semi-join
+ * need not eliminate duplicates of Y. The aggregate may compute functions,
+ * such as the <code>MIN(TRUE)</code> indicator that <code>EXISTS</code>
+ * generates, provided that neither the join nor the projection uses them.
+ *
+ * @author jhyde
+ * @version $Id$
+ */
+public class SemiJoinRule
+    extends RelOptRule
+{
+    public static final SemiJoinRule instance = new SemiJoinRule();
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a SemiJoinRule.
+     */
+    private SemiJoinRule()
+    {
+        super(
+            new RelOptRuleOperand(
+                ProjectRel.class,
+                new RelOptRuleOperand(
+                    JoinRel.class,
+                    new RelOptRuleOperand(RelNode.class, ANY),
+                    new RelOptRuleOperand(AggregateRel.class, ANY))));
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    // implement RelOptRule
+    public void onMatch(RelOptRuleCall call)
+    {
+        final ProjectRel project = (ProjectRel) call.rels[0];
+        final JoinRel join = (JoinRel) call.rels[1];
+        final RelNode left = call.rels[2];
+        final AggregateRel aggregate = (AggregateRel) call.rels[3];
+        if (join.getJoinType() != JoinRelType.INNER) {
+            return;
+        }
+        // The projection must use only columns from the left input.
+        final int leftCount = left.getRowType().getFieldCount();
+        final BitSet projectBits = new BitSet();
+        new RelOptUtil.InputFinder(projectBits).apply(
+            project.getProjectExps(),
+            null);
+        if (projectBits.nextSetBit(leftCount) >= 0) {
+            return;
+        }
+
+        // The join condition must be an equi-join, and its keys must be the
+        // group columns of the aggregate, which precede its aggregate
+        // functions.
+        final List<Integer> leftKeys = new ArrayList<Integer>();
+        final List<Integer> rightKeys = new ArrayList<Integer>();
+        final RexNode remaining =
+            RelOptUtil.splitJoinCondition(
+                left,
+                aggregate,
+                join.getCondition(),
+                leftKeys,
+                rightKeys);
+        if (leftKeys.isEmpty() || !remaining.isAlwaysTrue()) {
+            return;
+        }
+        final BitSet rightBits = new BitSet();
+        for (int rightKey : rightKeys) {
+            rightBits.set(rightKey);
+        }
+        final int groupCount = aggregate.getGroupSet().cardinality();
+        if (rightBits.cardinality() != groupCount
+            || rightBits.nextSetBit(groupCount) >= 0)
+        {
+            return;
+        }
+
+        // Map the right keys, which are columns of the aggregate, to the
+        // columns of its input.
+        final List<Integer> groupList = new ArrayList<Integer>();
+        final BitSet groupSet = aggregate.getGroupSet();
+        for (int i = groupSet.nextSetBit(0); i >= 0;
+            i = groupSet.nextSetBit(i + 1))
+        {
+            groupList.add(i);
+        }
+        final RelNode right = aggregate.getChild();
+        final List<Integer> newRightKeys = new ArrayList<Integer>();
+        for (int rightKey : rightKeys) {
+            newRightKeys.add(groupList.get(rightKey));
+        }
+
+        final RelOptCluster cluster = join.getCluster();
+        final RexBuilder rexBuilder = cluster.getRexBuilder();
+        final RelDataTypeField [] leftFields = left.getRowType().getFields();
+        final RelDataTypeField [] rightFields =
+            right.getRowType().getFields();
+        final List<RexNode> conditions = new ArrayList<RexNode>();
+        for (int i = 0; i < leftKeys.size(); i++) {
+            final int leftKey = leftKeys.get(i);
+            final int rightKey = newRightKeys.get(i);
+            conditions.add(
+                rexBuilder.makeCall(
+                    SqlStdOperatorTable.equalsOperator,
+                    rexBuilder.makeInputRef(
+                        leftFields[leftKey].getType(),
+                        leftKey),
+                    rexBuilder.makeInputRef(
+                        rightFields[rightKey].getType(),
+                        leftCount + rightKey)));
+        }
+        final SemiJoinRel semiJoin =
+            new SemiJoinRel(
+                cluster,
+                left,
+                right,
+                RexUtil.andRexNodeList(rexBuilder, conditions),
+                leftKeys,
+                newRightKeys);
+        call.transformTo(
+            project.copy(
+                project.getTraitSet(),
+                Collections.<RelNode>singletonList(semiJoin)));
+    }
+}
+
+// End SemiJoinRule.java
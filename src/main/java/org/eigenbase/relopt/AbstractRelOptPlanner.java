@@ -59,6 +59,8 @@ public abstract class AbstractRelOptPlanner
 
     private CancelFlag cancelFlag;
 
+    private Executor executor;
+
     private final Set<Class<? extends RelNode>> classes =
         new HashSet<Class<? extends RelNode>>();
 
@@ -78,6 +80,18 @@ public abstract class AbstractRelOptPlanner
 
     //~ Methods ----------------------------------------------------------------
 
+    // implement RelOptPlanner
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    // implement RelOptPlanner
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
     // implement RelOptPlanner
     public void setCancelFlag(CancelFlag cancelFlag)
     {
@@ -17,12 +17,14 @@
 */
 package org.eigenbase.relopt;
 
+import java.util.*;
 import java.util.logging.*;
 import java.util.regex.*;
 
 import org.eigenbase.oj.rel.*;
 import org.eigenbase.rel.*;
 import org.eigenbase.rel.metadata.*;
+import org.eigenbase.rex.*;
 import org.eigenbase.trace.*;
 import org.eigenbase.util.*;
 
@@ -274,6 +276,50 @@ public interface RelOptPlanner
      * @param node Relational expression
      */
     void registerClass(RelNode node);
+
+    /**
+     * Sets the object that can evaluate constant expressions at planning
+     * time, so that rules such as
+     * {@link org.eigenbase.rel.rules.ReduceExpressionsRule} can replace them
+     * with literals.
+     *
+     * @param executor Executor, or null if expressions are not to be
+     * evaluated
+     */
+    void setExecutor(Executor executor);
+
+    /**
+     * Returns the executor used to evaluate constant expressions, or null.
+     */
+    Executor getExecutor();
+
+    //~ Inner Interfaces -------------------------------------------------------
+
+    /**
+     * Evaluates constant expressions.
+     */
+    interface Executor
+    {
+        /**
+         * Reduces expressions, and writes their results into
+         * <code>reducedValues</code>.
+         *
+         * <p>Each reduced value is a literal of the same type as the
+         * original expression, or, if the value cannot be represented as
+         * such a literal, a cast of a literal. If the executor cannot
+         * evaluate an expression, it writes the original expression.</p>
+         *
+         * @param rexBuilder Builder of rex expressions
+         * @param constExps Expressions to reduce; they contain no references
+         * to input fields, variables or parameters
+         * @param reducedValues List to which to write the reduced values, one
+         * per expression
+         */
+        void reduce(
+            RexBuilder rexBuilder,
+            List<RexNode> constExps,
+            List<RexNode> reducedValues);
+    }
 }
 
 // End RelOptPlanner.java
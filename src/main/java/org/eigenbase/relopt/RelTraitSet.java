@@ -191,6 +191,11 @@ public class RelTraitSet
         return false;
     }
 
+    public int hashCode()
+    {
+        return Arrays.hashCode(traits);
+    }
+
     /**
      * Compares two RelTraitSet objects to see if they match for the purposes of
      * firing a rule. A null RelTrait within a RelTraitSet indicates a wildcard:
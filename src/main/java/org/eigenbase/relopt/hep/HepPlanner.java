@@ -52,7 +52,7 @@ public class HepPlanner
 
     private RelTraitSet requestedRootTraits;
 
-    private Map<String, HepRelVertex> mapDigestToVertex;
+    private Map<RelDigest, HepRelVertex> mapDigestToVertex;
 
     private Set<RelOptRule> allRules;
 
@@ -93,7 +93,7 @@ public class HepPlanner
     {
         this.mainProgram = program;
 
-        mapDigestToVertex = new HashMap<String, HepRelVertex>();
+        mapDigestToVertex = new HashMap<RelDigest, HepRelVertex>();
         graph =
             new DefaultDirectedGraph<HepRelVertex, DefaultEdge>(
                 DefaultEdge.class);
@@ -757,7 +757,7 @@ public class HepPlanner
         // try to find equivalent rel only if DAG is allowed
         if (!noDAG) {
             // Now, check if an equivalent vertex already exists in graph.
-            String digest = rel.getDigest();
+            RelDigest digest = rel.getDigestKey();
             HepRelVertex equivVertex = mapDigestToVertex.get(digest);
             if (equivVertex != null) {
                 // Use existing vertex.
@@ -825,11 +825,11 @@ public class HepPlanner
             // reachable from here.
             notifyDiscard(vertex.getCurrentRel());
         }
-        String oldDigest = vertex.getCurrentRel().toString();
+        RelDigest oldDigest = vertex.getCurrentRel().getDigestKey();
         if (mapDigestToVertex.get(oldDigest) == vertex) {
             mapDigestToVertex.remove(oldDigest);
         }
-        String newDigest = rel.recomputeDigest();
+        RelDigest newDigest = rel.recomputeDigest();
         if (mapDigestToVertex.get(newDigest) == null) {
             mapDigestToVertex.put(newDigest, vertex);
         } else {
@@ -907,7 +907,7 @@ public class HepPlanner
         graphSizeLastGC = graph.vertexSet().size();
 
         // Clean up digest map too.
-        Iterator<Map.Entry<String, HepRelVertex>> digestIter =
+        Iterator<Map.Entry<RelDigest, HepRelVertex>> digestIter =
             mapDigestToVertex.entrySet().iterator();
         while (digestIter.hasNext()) {
             HepRelVertex vertex = digestIter.next().getValue();
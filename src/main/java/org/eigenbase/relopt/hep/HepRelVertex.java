@@ -89,9 +89,11 @@ public class HepRelVertex
     }
 
     // implement RelNode
-    protected String computeDigest()
+    protected RelDigest computeDigestKey()
     {
-        return "HepRelVertex(" + currentRel + ")";
+        // The graph holds one vertex per digest, so a vertex is identified
+        // by the digest of the expression it currently wraps.
+        return currentRel.getDigestKey();
     }
 
     /**
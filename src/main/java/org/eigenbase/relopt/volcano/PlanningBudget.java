@@ -0,0 +1,140 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package org.eigenbase.relopt.volcano;
+
+/**
+ * Limits on the effort that {@link VolcanoPlanner#findBestExp()} may spend
+ * planning a statement.
+ *
+ * <p>When any limit is reached, the planner stops firing rules. If it has
+ * found an implementable plan, it returns the cheapest one found so far;
+ * otherwise it throws {@link ExhaustedException}.</p>
+ *
+ * <p>A limit of 0 means no limit.</p>
+ *
+ * @author jhyde
+ */
+public class PlanningBudget
+{
+    //~ Static fields/initializers ---------------------------------------------
+
+    /**
+     * Budget with no limits.
+     */
+    public static final PlanningBudget UNLIMITED = new PlanningBudget(0, 0, 0);
+
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * Maximum elapsed time, in milliseconds.
+     */
+    public final long timeLimitMillis;
+
+    /**
+     * Maximum number of rule matches to fire.
+     */
+    public final int ruleFiringLimit;
+
+    /**
+     * Maximum number of equivalence sets ({@link RelSet}s).
+     */
+    public final int setLimit;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a PlanningBudget.
+     *
+     * @param timeLimitMillis Maximum elapsed time in milliseconds, or 0
+     * @param ruleFiringLimit Maximum number of rule firings, or 0
+     * @param setLimit Maximum number of equivalence sets, or 0
+     */
+    public PlanningBudget(
+        long timeLimitMillis,
+        int ruleFiringLimit,
+        int setLimit)
+    {
+        assert timeLimitMillis >= 0;
+        assert ruleFiringLimit >= 0;
+        assert setLimit >= 0;
+        this.timeLimitMillis = timeLimitMillis;
+        this.ruleFiringLimit = ruleFiringLimit;
+        this.setLimit = setLimit;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Returns whether this budget has no limits.
+     */
+    public boolean isUnlimited()
+    {
+        return timeLimitMillis == 0
+            && ruleFiringLimit == 0
+            && setLimit == 0;
+    }
+
+    /**
+     * Returns a description of the limit that has been reached, or null if
+     * planning is within budget.
+     *
+     * @param elapsedMillis Time spent planning so far
+     * @param ruleFiringCount Number of rules fired so far
+     * @param setCount Current number of equivalence sets
+     */
+    public String check(
+        long elapsedMillis,
+        int ruleFiringCount,
+        int setCount)
+    {
+        if (timeLimitMillis > 0 && elapsedMillis >= timeLimitMillis) {
+            return "time limit of " + timeLimitMillis + " ms";
+        }
+        if (ruleFiringLimit > 0 && ruleFiringCount >= ruleFiringLimit) {
+            return "limit of " + ruleFiringLimit + " rule firings";
+        }
+        if (setLimit > 0 && setCount >= setLimit) {
+            return "limit of " + setLimit + " equivalence sets";
+        }
+        return null;
+    }
+
+    public String toString()
+    {
+        return "PlanningBudget(timeLimitMillis=" + timeLimitMillis
+            + ", ruleFiringLimit=" + ruleFiringLimit
+            + ", setLimit=" + setLimit + ")";
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * Thrown when the planner exhausts its budget before it has found an
+     * implementable plan.
+     */
+    public static class ExhaustedException
+        extends RuntimeException
+    {
+        public ExhaustedException(String message)
+        {
+            super(message);
+        }
+    }
+}
+
+// End PlanningBudget.java
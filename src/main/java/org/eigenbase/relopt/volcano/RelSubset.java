@@ -148,6 +148,22 @@ public class RelSubset
         }
     }
 
+    /**
+     * Returns the collations of the best relational expression found so far
+     * in this subset, or an empty list if there is none yet.
+     *
+     * <p>As with {@link #getRows()}, the answer may change as the planner
+     * finds better expressions; when it does, the planner re-computes the
+     * cost of the subset's parents.
+     */
+    public List<RelCollation> getCollationList()
+    {
+        if (best == null) {
+            return Collections.emptyList();
+        }
+        return best.getCollationList();
+    }
+
     // implement RelNode
     public void explain(RelOptPlanWriter pw)
     {
@@ -166,14 +182,9 @@ public class RelSubset
             rels.get(0));
     }
 
-    protected String computeDigest()
+    protected RelDigest computeDigestKey()
     {
-        StringBuilder digest = new StringBuilder("Subset#");
-        digest.append(set.id);
-        for (int i = 0; i < traitSet.size(); i++) {
-            digest.append('.').append(traitSet.getTrait(i));
-        }
-        return digest.toString();
+        return new RelDigest("Subset#" + set.id, traitSet, null, null);
     }
 
     // implement RelNode
@@ -72,12 +72,6 @@ class RuleQueue
     final Map<VolcanoPlannerPhase, PhaseMatchList> matchListMap =
         new HashMap<VolcanoPlannerPhase, PhaseMatchList>();
 
-    /**
-     * Sorts rule-matches into decreasing order of importance.
-     */
-    private final Comparator<VolcanoRuleMatch> ruleMatchImportanceComparator =
-        new RuleMatchImportanceComparator();
-
     private final VolcanoPlanner planner;
 
     /**
@@ -161,7 +155,7 @@ class RuleQueue
      */
     public boolean hasNextMatch(VolcanoPlannerPhase phase)
     {
-        return !matchListMap.get(phase).list.isEmpty();
+        return !matchListMap.get(phase).isEmpty();
     }
 
     /**
@@ -286,6 +280,7 @@ class RuleQueue
             if (relMatchMap.containsKey(subset)) {
                 for (VolcanoRuleMatch match : relMatchMap.getMulti(subset)) {
                     match.clearCachedImportance();
+                    matchList.invalidate(match);
                 }
             }
         }
@@ -332,9 +327,10 @@ class RuleQueue
      */
     void addMatch(VolcanoRuleMatch match)
     {
-        final String matchName = match.toString();
+        final Pair<RelOptRule, List<RelNode>> matchKey =
+            Pair.of(match.getRule(), Arrays.asList(match.getRels()));
         for (PhaseMatchList matchList : matchListMap.values()) {
-            if (!matchList.names.add(matchName)) {
+            if (!matchList.matchKeys.add(matchKey)) {
                 // Identical match has already been added.
                 continue;
             }
@@ -351,10 +347,10 @@ class RuleQueue
             if (tracer.isLoggable(Level.FINEST)) {
                 tracer.finest(
                     matchList.phase.toString() + " Rule-match queued: "
-                    + matchName);
+                    + match);
             }
 
-            matchList.list.add(match);
+            matchList.add(match);
 
             matchList.matchMap.putMulti(
                 planner.getSubset(match.rels[0]),
@@ -450,14 +446,14 @@ class RuleQueue
         assert (phaseMatchList != null) : "Used match list for phase " + phase
             + " after phase complete";
 
-        List<VolcanoRuleMatch> matchList = phaseMatchList.list;
-
-        Collections.sort(matchList, ruleMatchImportanceComparator);
+        // Bring the heap up to date with the importance of rule-matches that
+        // were added, or whose subsets' importance changed, since last time.
+        phaseMatchList.refresh();
 
         if (tracer.isLoggable(Level.FINEST)) {
             StringBuilder b = new StringBuilder();
             b.append("Sorted rule queue:");
-            for (VolcanoRuleMatch match : matchList) {
+            for (VolcanoRuleMatch match : phaseMatchList.sortedMatches()) {
                 final double importance = match.computeImportance();
                 b.append("\n");
                 b.append(match);
@@ -468,7 +464,7 @@ class RuleQueue
             tracer.finest(b.toString());
         }
 
-        VolcanoRuleMatch match = matchList.remove(0);
+        VolcanoRuleMatch match = phaseMatchList.pop();
 
         // A rule match's digest is composed of the operand RelNodes' digests,
         // which may have changed if sets have merged since the rule match was
@@ -577,27 +573,62 @@ class RuleQueue
     }
 
     /**
-     * Compares {@link VolcanoRuleMatch} objects according to their importance.
-     * Matches which are more important collate earlier. Ties are adjudicated by
-     * comparing the {@link RelNode#getId id}s of the relational expressions
-     * matched.
+     * Compares entries in a {@link PhaseMatchList} according to the
+     * importance of their rule-matches. Matches which are more important
+     * collate earlier. Ties are adjudicated by comparing the {@link
+     * RelNode#getId id}s of the relational expressions matched, then by the
+     * order in which the matches were added.
+     */
+    private static final Comparator<MatchEntry> MATCH_ENTRY_COMPARATOR =
+        new Comparator<MatchEntry>() {
+            public int compare(MatchEntry entry1, MatchEntry entry2)
+            {
+                int c = Double.compare(entry2.importance, entry1.importance);
+                if (c == 0) {
+                    c = compareRels(
+                        entry2.match.getRels(),
+                        entry1.match.getRels());
+                }
+                if (c == 0) {
+                    c = (entry1.ordinal < entry2.ordinal) ? -1
+                        : ((entry1.ordinal == entry2.ordinal) ? 0 : 1);
+                }
+                return c;
+            }
+        };
+
+    /**
+     * A rule-match in a {@link PhaseMatchList}, with the importance it had
+     * when it was last positioned in the heap.
      */
-    private class RuleMatchImportanceComparator
-        implements Comparator<VolcanoRuleMatch>
+    private static class MatchEntry
     {
-        public int compare(
-            VolcanoRuleMatch match1,
-            VolcanoRuleMatch match2)
+        final VolcanoRuleMatch match;
+
+        /**
+         * Order in which the match was added to the list; breaks ties so that
+         * the heap has a total order.
+         */
+        final long ordinal;
+
+        double importance = Double.NaN;
+
+        /**
+         * Position in the heap, or -1 if the entry has not been put in the
+         * heap yet.
+         */
+        int index = -1;
+
+        /**
+         * Whether the entry is in the list of entries whose importance needs
+         * to be recomputed.
+         */
+        boolean dirty;
+
+        MatchEntry(VolcanoRuleMatch match, long ordinal)
         {
-            double imp1 = match1.getImportance();
-            double imp2 = match2.getImportance();
-            int c = Double.compare(imp1, imp2);
-            if (c == 0) {
-                c = compareRels(
-                    match1.getRels(),
-                    match2.getRels());
-            }
-            return -c;
+            this.match = match;
+            this.ordinal = ordinal;
         }
     }
 
@@ -605,6 +636,15 @@ class RuleQueue
      * PhaseMatchList represents a set of {@link VolcanoRuleMatch rule-matches}
      * for a particular {@link VolcanoPlannerPhase phase of the planner's
      * execution}.
+     *
+     * <p>The rule-matches are held in a binary heap, most important first.
+     * Each entry knows its position in the heap, so when the importance of a
+     * rule-match changes, it is moved up or down the heap rather than
+     * sorting the whole list. Importance changes are applied lazily, just
+     * before the next rule-match is popped, so that the importance of a
+     * rule-match is computed at most once per pop, as it was when the list
+     * was sorted. Adding, re-prioritizing and popping a rule-match each take
+     * O(log n) time.</p>
      */
     private static class PhaseMatchList
     {
@@ -614,18 +654,30 @@ class RuleQueue
         final VolcanoPlannerPhase phase;
 
         /**
-         * Current list of VolcanoRuleMatches for this phase. New rule-matches
-         * are appended to the end of this list. When removing a rule-match, the
-         * list is sorted and the highest importance rule-match removed. It is
-         * important for performance that this list remain mostly sorted.
+         * Binary heap of entries ordered by {@link #MATCH_ENTRY_COMPARATOR}.
+         */
+        private final List<MatchEntry> heap = new ArrayList<MatchEntry>();
+
+        /**
+         * Entries that have been added, or whose importance may have changed,
+         * since the heap was last refreshed.
          */
-        final List<VolcanoRuleMatch> list;
+        private final List<MatchEntry> dirtyEntries =
+            new ArrayList<MatchEntry>();
 
         /**
-         * A set of rule-match names contained in {@link #list}. Allows fast
-         * detection of duplicate rule-matches.
+         * Entry for each rule-match currently in this list.
          */
-        final Set<String> names;
+        private final Map<VolcanoRuleMatch, MatchEntry> entries =
+            new HashMap<VolcanoRuleMatch, MatchEntry>();
+
+        /**
+         * The rules and relational expressions of the rule-matches that have
+         * been added to this list. Allows fast detection of duplicate
+         * rule-matches, without comparing their string digests.
+         */
+        final Set<Pair<RelOptRule, List<RelNode>>> matchKeys =
+            new HashSet<Pair<RelOptRule, List<RelNode>>>();
 
         /**
          * Multi-map of RelSubset to VolcanoRuleMatches. Used to {@link
@@ -636,16 +688,157 @@ class RuleQueue
          */
         final MultiMap<RelSubset, VolcanoRuleMatch> matchMap;
 
+        private long nextOrdinal;
+
         PhaseMatchList(VolcanoPlannerPhase phase)
         {
             this.phase = phase;
-
-            // Use a double-linked list because an array-list does not
-            // implement remove(0) efficiently.
-            this.list = new LinkedList<VolcanoRuleMatch>();
-            this.names = new HashSet<String>();
             this.matchMap = new MultiMap<RelSubset, VolcanoRuleMatch>();
         }
+
+        boolean isEmpty()
+        {
+            return entries.isEmpty();
+        }
+
+        /**
+         * Adds a rule-match. Its importance is computed when the list is
+         * next refreshed.
+         */
+        void add(VolcanoRuleMatch match)
+        {
+            final MatchEntry entry = new MatchEntry(match, nextOrdinal++);
+            entries.put(match, entry);
+            markDirty(entry);
+        }
+
+        /**
+         * Notes that the importance of a rule-match may have changed.
+         */
+        void invalidate(VolcanoRuleMatch match)
+        {
+            final MatchEntry entry = entries.get(match);
+            if (entry != null) {
+                markDirty(entry);
+            }
+        }
+
+        private void markDirty(MatchEntry entry)
+        {
+            if (!entry.dirty) {
+                entry.dirty = true;
+                dirtyEntries.add(entry);
+            }
+        }
+
+        /**
+         * Computes the importance of each entry that has been added or
+         * invalidated since the last call, and moves it to its proper place
+         * in the heap.
+         */
+        void refresh()
+        {
+            for (MatchEntry entry : dirtyEntries) {
+                entry.dirty = false;
+                final double importance = entry.match.getImportance();
+                if (entry.index < 0) {
+                    entry.importance = importance;
+                    entry.index = heap.size();
+                    heap.add(entry);
+                    siftUp(entry.index);
+                } else if (importance != entry.importance) {
+                    entry.importance = importance;
+                    siftDown(siftUp(entry.index));
+                }
+            }
+            dirtyEntries.clear();
+        }
+
+        /**
+         * Removes and returns the most important rule-match.
+         *
+         * @pre !isEmpty()
+         */
+        VolcanoRuleMatch pop()
+        {
+            refresh();
+            final MatchEntry entry = heap.get(0);
+            final MatchEntry last = heap.remove(heap.size() - 1);
+            if (last != entry) {
+                last.index = 0;
+                heap.set(0, last);
+                siftDown(0);
+            }
+            entry.index = -1;
+            entries.remove(entry.match);
+            return entry.match;
+        }
+
+        /**
+         * Returns the rule-matches in order of decreasing importance. For
+         * tracing only; takes O(n log n) time.
+         */
+        List<VolcanoRuleMatch> sortedMatches()
+        {
+            final List<MatchEntry> sortedEntries =
+                new ArrayList<MatchEntry>(heap);
+            Collections.sort(sortedEntries, MATCH_ENTRY_COMPARATOR);
+            final List<VolcanoRuleMatch> matches =
+                new ArrayList<VolcanoRuleMatch>();
+            for (MatchEntry entry : sortedEntries) {
+                matches.add(entry.match);
+            }
+            return matches;
+        }
+
+        private int siftUp(int index)
+        {
+            while (index > 0) {
+                final int parent = (index - 1) / 2;
+                if (MATCH_ENTRY_COMPARATOR.compare(
+                        heap.get(index), heap.get(parent)) >= 0)
+                {
+                    break;
+                }
+                swap(index, parent);
+                index = parent;
+            }
+            return index;
+        }
+
+        private void siftDown(int index)
+        {
+            final int size = heap.size();
+            for (;;) {
+                int child = 2 * index + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size
+                    && MATCH_ENTRY_COMPARATOR.compare(
+                        heap.get(child + 1), heap.get(child)) < 0)
+                {
+                    ++child;
+                }
+                if (MATCH_ENTRY_COMPARATOR.compare(
+                        heap.get(child), heap.get(index)) >= 0)
+                {
+                    break;
+                }
+                swap(index, child);
+                index = child;
+            }
+        }
+
+        private void swap(int i, int j)
+        {
+            final MatchEntry entryI = heap.get(i);
+            final MatchEntry entryJ = heap.get(j);
+            entryI.index = j;
+            entryJ.index = i;
+            heap.set(i, entryJ);
+            heap.set(j, entryI);
+        }
     }
 }
 
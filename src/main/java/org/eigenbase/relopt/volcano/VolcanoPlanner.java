@@ -86,11 +86,11 @@ public class VolcanoPlanner
     final List<RelSet> allSets = new ArrayList<RelSet>();
 
     /**
-     * Canonical map from {@link String digest} to the unique {@link RelNode
+     * Canonical map from {@link RelDigest digest} to the unique {@link RelNode
      * relational expression} with that digest.
      */
-    private final Map<String, RelNode> mapDigestToRel =
-        new HashMap<String, RelNode>();
+    private final Map<RelDigest, RelNode> mapDigestToRel =
+        new HashMap<RelDigest, RelNode>();
 
     /**
      * Map each registered expression ({@link RelNode}) to its equivalence set
@@ -157,6 +157,23 @@ public class VolcanoPlanner
      */
     private String originalRootString;
 
+    /**
+     * Limits on the effort of {@link #findBestExp()}.
+     */
+    private PlanningBudget budget = PlanningBudget.UNLIMITED;
+
+    /**
+     * Number of rule matches fired by the most recent call to {@link
+     * #findBestExp()}.
+     */
+    private int ruleFiringCount;
+
+    /**
+     * Description of the budget limit that stopped the most recent call to
+     * {@link #findBestExp()}, or null if it ran to completion.
+     */
+    private String budgetExhaustion;
+
     //~ Constructors -----------------------------------------------------------
 
     /**
@@ -222,6 +239,42 @@ public class VolcanoPlanner
         return root;
     }
 
+    /**
+     * Sets limits on the effort that {@link #findBestExp()} may spend.
+     *
+     * @param budget Planning budget; use {@link PlanningBudget#UNLIMITED} for
+     * no limits
+     */
+    public void setBudget(PlanningBudget budget)
+    {
+        assert budget != null;
+        this.budget = budget;
+    }
+
+    public PlanningBudget getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * Returns the number of rule matches fired by the most recent call to
+     * {@link #findBestExp()}.
+     */
+    public int getRuleFiringCount()
+    {
+        return ruleFiringCount;
+    }
+
+    /**
+     * Returns a description of the budget limit that stopped the most recent
+     * call to {@link #findBestExp()} before it ran out of rules to fire, or
+     * null if it was not stopped.
+     */
+    public String getBudgetExhaustion()
+    {
+        return budgetExhaustion;
+    }
+
     /**
      * Finds an expression's equivalence set. If the expression is not
      * registered, returns null.
@@ -416,12 +469,21 @@ public class VolcanoPlanner
      * found, the artificially raised importances are cleared ({@link
      * #clearImportanceBoost()}).
      *
+     * <p>If the planner has a {@link #setBudget budget}, it also stops when
+     * any of the budget's limits is reached. It then returns the cheapest
+     * plan found so far, or throws {@link PlanningBudget.ExhaustedException}
+     * if it has not found an implementable plan.
+     *
      * @return the most efficient RelNode tree found for implementing the given
      * query
      */
     public RelNode findBestExp()
     {
+        final long startMillis = System.currentTimeMillis();
+        ruleFiringCount = 0;
+        budgetExhaustion = null;
         int cumulativeTicks = 0;
+PHASE_LOOP:
         for (VolcanoPlannerPhase phase : VolcanoPlannerPhase.values()) {
             setInitialImportance();
 
@@ -473,6 +535,29 @@ public class VolcanoPlanner
                     break;
                 }
 
+                if (!budget.isUnlimited()) {
+                    budgetExhaustion =
+                        budget.check(
+                            System.currentTimeMillis() - startMillis,
+                            ruleFiringCount,
+                            allSets.size());
+                    if (budgetExhaustion != null) {
+                        if (root.bestCost.isInfinite()) {
+                            throw new PlanningBudget.ExhaustedException(
+                                "Planner reached " + budgetExhaustion
+                                + " after " + ruleFiringCount
+                                + " rule firings and " + allSets.size()
+                                + " sets without finding an implementable"
+                                + " plan");
+                        }
+                        tracer.fine(
+                            "Planner reached " + budgetExhaustion
+                            + "; using best plan found so far, cost "
+                            + root.bestCost);
+                        break PHASE_LOOP;
+                    }
+                }
+
                 if (tracer.isLoggable(Level.FINE)) {
                     tracer.fine(
                         "PLANNER = " + this
@@ -484,6 +569,7 @@ public class VolcanoPlanner
                 VolcanoRuleMatch match = ruleQueue.popMatch(phase);
                 assert match.getRule().matches(match);
                 match.onMatch();
+                ++ruleFiringCount;
 
                 // The root may have been merged with another
                 // subset. Find the new root subset.
@@ -978,24 +1064,28 @@ SUBSET_LOOP:
      */
     void rename(RelNode rel)
     {
-        final String oldDigest = rel.getDigest();
+        final RelDigest oldDigest = rel.getDigestKey();
         if (fixupInputs(rel)) {
             assert mapDigestToRel.remove(oldDigest) == rel;
-            final String newDigest = rel.recomputeDigest();
-            tracer.finer(
-                "Rename #" + rel.getId() + " from '" + oldDigest
-                + "' to '" + newDigest + "'");
+            final RelDigest newDigest = rel.recomputeDigest();
+            if (tracer.isLoggable(Level.FINER)) {
+                tracer.finer(
+                    "Rename #" + rel.getId() + " from '" + oldDigest
+                    + "' to '" + newDigest + "'");
+            }
             final RelNode equivRel = mapDigestToRel.put(newDigest, rel);
             if (equivRel != null) {
                 assert equivRel != rel;
 
                 // There's already an equivalent with the same name, and we
                 // just knocked it out. Put it back, and forget about 'rel'.
-                tracer.finer(
-                    "After renaming rel#" + rel.getId()
-                    + ", it is now equivalent to rel#" + equivRel.getId());
+                if (tracer.isLoggable(Level.FINER)) {
+                    tracer.finer(
+                        "After renaming rel#" + rel.getId()
+                        + ", it is now equivalent to rel#" + equivRel.getId());
+                }
                 mapDigestToRel.put(
-                    equivRel.getDigest(),
+                    equivRel.getDigestKey(),
                     equivRel);
 
                 RelSubset equivRelSubset = getSubset(equivRel);
@@ -1042,7 +1132,7 @@ SUBSET_LOOP:
         // Is there an equivalent relational expression? (This might have
         // just occurred because the relational expression's child was just
         // found to be equivalent to another set.)
-        RelNode equivRel = mapDigestToRel.get(rel.getDigest());
+        RelNode equivRel = mapDigestToRel.get(rel.getDigestKey());
         if ((equivRel != null) && (equivRel != rel)) {
             assert (equivRel.getClass() == rel.getClass());
             assert (equivRel.getTraitSet().equals(rel.getTraitSet()));
@@ -1233,7 +1323,7 @@ SUBSET_LOOP:
 
         // If it is equivalent to an existing expression, return the set that
         // the equivalent expression belongs to.
-        String digest = rel.getDigest();
+        RelDigest digest = rel.getDigestKey();
         RelNode equivExp = mapDigestToRel.get(digest);
         if (equivExp == null) {
             ;
@@ -66,13 +66,16 @@ class VolcanoRuleMatch
         // for now -- that the set is the same as the root relexp.
         targetSet = volcanoPlanner.getSet(rels[0]);
         assert targetSet != null : rels[0].toString() + " isn't in a set";
-        digest = computeDigest();
     }
 
     //~ Methods ----------------------------------------------------------------
 
     public String toString()
     {
+        // The digest is only used for tracing, so build it on demand.
+        if (digest == null) {
+            digest = computeDigest();
+        }
         return digest;
     }
 
@@ -147,7 +150,9 @@ class VolcanoRuleMatch
 
     /**
      * Computes a string describing this rule match. Two rule matches are
-     * equivalent if and only if their digests are the same.
+     * equivalent if and only if their digests are the same. (The {@link
+     * RuleQueue} detects duplicate rule matches by comparing their rules and
+     * relational expressions, not their digests.)
      *
      * @return description of this rule match
      */
@@ -171,7 +176,7 @@ class VolcanoRuleMatch
      */
     public void recomputeDigest()
     {
-        digest = computeDigest();
+        digest = null;
     }
 
     /**
@@ -572,6 +572,21 @@ public class RexLiteral
         return ((Number) value).intValue();
     }
 
+    /**
+     * Returns the value of a numeric literal, or of a cast of a numeric
+     * literal, as a {@link BigDecimal}. Unlike {@link #intValue(RexNode)},
+     * does not truncate values that are outside the range of
+     * <code>int</code>.
+     */
+    public static BigDecimal bigDecimalValue(RexNode node)
+    {
+        final Comparable value = findValue(node);
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        return new BigDecimal(value.toString());
+    }
+
     public static String stringValue(RexNode node)
     {
         final Comparable value = findValue(node);
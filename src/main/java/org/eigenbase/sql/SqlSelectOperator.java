@@ -39,6 +39,8 @@ import org.eigenbase.sql.util.*;
  * <li>5: groupClause ({@link SqlNode})</li>
  * <li>6: windowClause ({@link SqlNodeList})</li>
  * <li>7: orderClause ({@link SqlNode})</li>
+ * <li>8: offset ({@link SqlNode})</li>
+ * <li>9: fetch ({@link SqlNode})</li>
  * </ul>
  * </p>
  */
@@ -101,6 +103,52 @@ public class SqlSelectOperator
         SqlNodeList windowDecls,
         SqlNode orderBy,
         SqlParserPos pos)
+    {
+        return createCall(
+            keywordList,
+            selectList,
+            fromClause,
+            whereClause,
+            groupBy,
+            having,
+            windowDecls,
+            orderBy,
+            null,
+            null,
+            pos);
+    }
+
+    /**
+     * Creates a call to the <code>SELECT</code> operator, with OFFSET and
+     * FETCH clauses.
+     *
+     * @param keywordList List of keywords such DISTINCT and ALL, or null
+     * @param selectList The SELECT clause, or null if empty
+     * @param fromClause The FROM clause
+     * @param whereClause The WHERE clause, or null if not present
+     * @param groupBy The GROUP BY clause, or null if not present
+     * @param having The HAVING clause, or null if not present
+     * @param windowDecls The WINDOW clause, or null if not present
+     * @param orderBy The ORDER BY clause, or null if not present
+     * @param offset Number of rows to skip, or null if not present
+     * @param fetch Maximum number of rows to return, or null if not present
+     * @param pos The parser position, or {@link SqlParserPos#ZERO} if not
+     * specified; must not be null.
+     *
+     * @return A {@link SqlSelect}, never null
+     */
+    public SqlSelect createCall(
+        SqlNodeList keywordList,
+        SqlNodeList selectList,
+        SqlNode fromClause,
+        SqlNode whereClause,
+        SqlNode groupBy,
+        SqlNode having,
+        SqlNodeList windowDecls,
+        SqlNode orderBy,
+        SqlNode offset,
+        SqlNode fetch,
+        SqlParserPos pos)
     {
         if (keywordList == null) {
             keywordList = new SqlNodeList(pos);
@@ -117,7 +165,9 @@ public class SqlSelectOperator
             groupBy,
             having,
             windowDecls,
-            orderBy);
+            orderBy,
+            offset,
+            fetch);
     }
 
     public <R> void acceptCall(
@@ -257,9 +307,32 @@ public class SqlSelectOperator
             unparseListClause(writer, orderClause);
             writer.endList(orderFrame);
         }
+        unparseFetch(
+            writer,
+            operands[SqlSelect.OFFSET_OPERAND],
+            operands[SqlSelect.FETCH_OPERAND]);
         writer.endList(selectFrame);
     }
 
+    /**
+     * Writes the OFFSET and FETCH clauses of a query, if present, in SQL:2008
+     * syntax.
+     */
+    static void unparseFetch(SqlWriter writer, SqlNode offset, SqlNode fetch)
+    {
+        if (offset != null) {
+            writer.sep("OFFSET");
+            offset.unparse(writer, 0, 0);
+            writer.keyword("ROWS");
+        }
+        if (fetch != null) {
+            writer.sep("FETCH");
+            writer.keyword("NEXT");
+            fetch.unparse(writer, 0, 0);
+            writer.keyword("ROWS ONLY");
+        }
+    }
+
     public boolean argumentMustBeScalar(int ordinal)
     {
         return ordinal == SqlSelect.WHERE_OPERAND;
@@ -141,11 +141,15 @@ public class SqlCastFunction
             SqlNode operand0 = callBinding.getCall().operands[0];
 
             // dynamic parameters and null constants need their types assigned
-            // to them using the type they are casted to.
+            // to them using the type they are casted to. Either may be null,
+            // so the type, and the result of the cast, are nullable.
             if (((operand0 instanceof SqlLiteral)
                     && (((SqlLiteral) operand0).getValue() == null))
                 || (operand0 instanceof SqlDynamicParam))
             {
+                ret =
+                    opBinding.getTypeFactory().createTypeWithNullability(
+                        ret, true);
                 callBinding.getValidator().setValidatedNodeType(
                     operand0,
                     ret);
@@ -1031,14 +1031,30 @@ public class SqlValidatorImpl
             SqlNodeList orderList =
                 (SqlNodeList)
                 orderBy.getOperands()[SqlOrderByOperator.ORDER_OPERAND];
+            if (orderList.size() == 0) {
+                // OFFSET or FETCH without ORDER BY
+                orderList = null;
+            }
+            final SqlNode offset =
+                orderBy.getOperands()[SqlOrderByOperator.OFFSET_OPERAND];
+            final SqlNode fetch =
+                orderBy.getOperands()[SqlOrderByOperator.FETCH_OPERAND];
             if (query instanceof SqlSelect) {
                 SqlSelect select = (SqlSelect) query;
 
                 // Don't clobber existing ORDER BY.  It may be needed for
-                // an order-sensitive function like RANK.
-                if (select.getOrderList() == null) {
-                    // push ORDER BY into existing select
-                    select.setOperand(SqlSelect.ORDER_OPERAND, orderList);
+                // an order-sensitive function like RANK. Likewise, OFFSET
+                // and FETCH apply after the existing ones.
+                if ((orderList == null || select.getOrderList() == null)
+                    && select.getOffset() == null
+                    && select.getFetch() == null)
+                {
+                    // push ORDER BY, OFFSET and FETCH into existing select
+                    if (orderList != null) {
+                        select.setOperand(SqlSelect.ORDER_OPERAND, orderList);
+                    }
+                    select.setOperand(SqlSelect.OFFSET_OPERAND, offset);
+                    select.setOperand(SqlSelect.FETCH_OPERAND, fetch);
                     return select;
                 }
             }
@@ -1053,6 +1069,8 @@ public class SqlValidatorImpl
                 null,
                 null,
                 orderList,
+                offset,
+                fetch,
                 SqlParserPos.ZERO);
         }
 
@@ -700,7 +700,9 @@ public class SqlToRelConverter
     {
         if (select.getOrderList() == null) {
             assert collationList.isEmpty();
-            return;
+            if (select.getOffset() == null && select.getFetch() == null) {
+                return;
+            }
         }
 
         // Create a sorter using the previously constructed collations.
@@ -709,7 +711,13 @@ public class SqlToRelConverter
                 cluster,
                 cluster.traitSetOf(Convention.NONE),
                 bb.root,
-                collationList),
+                collationList,
+                select.getOffset() == null
+                    ? null
+                    : convertExpression(select.getOffset()),
+                select.getFetch() == null
+                    ? null
+                    : convertExpression(select.getFetch())),
             false);
 
         // If extra expressions were added to the project list for sorting,
@@ -17,6 +17,9 @@
 */
 package net.hydromatic.optiq.impl.clone;
 
+import net.hydromatic.optiq.ColumnStatistic;
+import net.hydromatic.optiq.runtime.ByteString;
+
 import junit.framework.TestCase;
 
 import org.eigenbase.util.Pair;
@@ -132,6 +135,80 @@ public class ArrayTableTest extends TestCase {
         assertEquals(64, representation2.getObject(pair.right, 5));
     }
 
+    /** Tests that negative values in a signed bit-sliced column are
+     * sign-extended when read, and do not corrupt their neighbors. */
+    public void testValueSetNegative() {
+        final int[] ints = {-1, 5, -17, 31, -32, 0, -2, 7, 1, -31, 30};
+        final ColumnLoader.ValueSet valueSet =
+            new ColumnLoader.ValueSet(int.class);
+        for (int i : ints) {
+            valueSet.add(i);
+        }
+        final Pair<ArrayTable.Representation, Object> pair =
+            valueSet.freeze(0);
+        assertTrue(pair.left instanceof ArrayTable.BitSlicedPrimitiveArray);
+        final ArrayTable.BitSlicedPrimitiveArray representation =
+            (ArrayTable.BitSlicedPrimitiveArray) pair.left;
+        assertEquals(6, representation.bitCount);
+        assertTrue(representation.signed);
+        final ArrayTable.Column column =
+            new ArrayTable.Column(pair.left, pair.right);
+        for (int i = 0; i < ints.length; i++) {
+            assertEquals(ints[i], representation.getInt(pair.right, i));
+            assertEquals(ints[i], representation.getObject(pair.right, i));
+            assertEquals((long) ints[i], column.getLong(i));
+            assertEquals((double) ints[i], column.getDouble(i));
+        }
+
+        // Signed values that span words; 21 bits, 3 per word.
+        final ColumnLoader.ValueSet valueSet2 =
+            new ColumnLoader.ValueSet(long.class);
+        for (int i = 0; i < 10; i++) {
+            valueSet2.add(i % 2 == 0 ? -1000000L + i : 1000000L - i);
+        }
+        final Pair<ArrayTable.Representation, Object> pair2 =
+            valueSet2.freeze(0);
+        assertEquals(
+            21, ((ArrayTable.BitSlicedPrimitiveArray) pair2.left).bitCount);
+        final ArrayTable.Column column2 =
+            new ArrayTable.Column(pair2.left, pair2.right);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(
+                i % 2 == 0 ? -1000000L + i : 1000000L - i, column2.getLong(i));
+        }
+    }
+
+    public void testColumn() {
+        final ColumnLoader.ValueSet valueSet =
+            new ColumnLoader.ValueSet(long.class);
+        valueSet.add(0L);
+        valueSet.add(-5000000000L);
+        valueSet.add(7L);
+        final Pair<ArrayTable.Representation, Object> pair = valueSet.freeze(0);
+        assertTrue(pair.left instanceof ArrayTable.PrimitiveArray);
+        final ArrayTable.Column column =
+            new ArrayTable.Column(pair.left, pair.right);
+        assertEquals(-5000000000L, column.getLong(1));
+        assertEquals(7L, column.getLong(2));
+        assertEquals(7, column.getInt(2));
+        assertEquals(7d, column.getDouble(2));
+        assertEquals(-5000000000L, column.getObject(1));
+
+        // 32-bit unsigned values are bit-sliced
+        final ColumnLoader.ValueSet valueSet2 =
+            new ColumnLoader.ValueSet(long.class);
+        valueSet2.add(0L);
+        valueSet2.add(4000000000L);
+        final Pair<ArrayTable.Representation, Object> pair2 =
+            valueSet2.freeze(0);
+        assertTrue(pair2.left instanceof ArrayTable.BitSlicedPrimitiveArray);
+        final ArrayTable.Column column2 =
+            new ArrayTable.Column(pair2.left, pair2.right);
+        assertEquals(0L, column2.getLong(0));
+        assertEquals(4000000000L, column2.getLong(1));
+        assertEquals(4000000000d, column2.getDouble(1));
+    }
+
     public void testValueSetBoolean() {
         final ColumnLoader.ValueSet valueSet =
             new ColumnLoader.ValueSet(boolean.class);
@@ -177,24 +254,25 @@ public class ArrayTableTest extends TestCase {
         assertEquals("foo", representation.getObject(pair.right, 0));
         assertEquals("foo", representation.getObject(pair.right, 1));
 
-        // Large number of the same string. ObjectDictionary backed by Constant.
+        // Large number of the same string. StringDictionary backed by
+        // Constant.
         for (int i = 0; i < 2000; i++) {
             valueSet.add("foo");
         }
         pair = valueSet.freeze(0);
-        final ArrayTable.ObjectDictionary representation2 =
-            (ArrayTable.ObjectDictionary) pair.left;
+        final ArrayTable.StringDictionary representation2 =
+            (ArrayTable.StringDictionary) pair.left;
         assertTrue(
             representation2.representation instanceof ArrayTable.Constant);
         assertEquals("foo", representation2.getObject(pair.right, 0));
         assertEquals("foo", representation2.getObject(pair.right, 1000));
 
-        // One different string. ObjectDictionary backed by 1-bit
+        // One different string. StringDictionary backed by 1-bit
         // BitSlicedPrimitiveArray
         valueSet.add("bar");
         pair = valueSet.freeze(0);
-        final ArrayTable.ObjectDictionary representation3 =
-            (ArrayTable.ObjectDictionary) pair.left;
+        final ArrayTable.StringDictionary representation3 =
+            (ArrayTable.StringDictionary) pair.left;
         assertTrue(
             representation3.representation
                 instanceof ArrayTable.BitSlicedPrimitiveArray);
@@ -205,6 +283,98 @@ public class ArrayTableTest extends TestCase {
         assertEquals("foo", representation3.getObject(pair.right, 0));
         assertEquals("foo", representation3.getObject(pair.right, 1000));
         assertEquals("bar", representation3.getObject(pair.right, 2003));
+
+        // All strings share one block of chars: "bar" then "foo".
+        final ArrayTable.Heap heap = (ArrayTable.Heap) pair.right;
+        assertEquals("barfoo", new String((char[]) heap.data));
+        assertEquals(3, heap.offsets.length);
+
+        // Too many distinct values for ObjectDictionary, but not for
+        // StringDictionary.
+        for (int i = 0; i < 3000; i++) {
+            valueSet.add("x" + i);
+        }
+        pair = valueSet.freeze(0);
+        final ArrayTable.StringDictionary representation5 =
+            (ArrayTable.StringDictionary) pair.left;
+        assertEquals("foo", representation5.getObject(pair.right, 0));
+        assertEquals("bar", representation5.getObject(pair.right, 2003));
+        assertEquals("x0", representation5.getObject(pair.right, 2004));
+        assertEquals("x2999", representation5.getObject(pair.right, 5003));
+    }
+
+    /** Tests the limit on the number of codes in a string dictionary, and
+     * that a string dictionary does not return numeric values. */
+    public void testStringDictionaryLimit() {
+        final ColumnLoader.ValueSet valueSet =
+            new ColumnLoader.ValueSet(String.class);
+        for (int i = 0; i < 65535; i++) {
+            valueSet.add("s" + i);
+        }
+        valueSet.add(null);
+        Pair<ArrayTable.Representation, Object> pair = valueSet.freeze(0);
+        final ArrayTable.StringDictionary representation =
+            (ArrayTable.StringDictionary) pair.left;
+        assertEquals("s0", representation.getObject(pair.right, 0));
+        assertEquals("s65534", representation.getObject(pair.right, 65534));
+        assertNull(representation.getObject(pair.right, 65535));
+        try {
+            final int x = representation.getInt(pair.right, 0);
+            fail("expected exception, got " + x);
+        } catch (UnsupportedOperationException e) {
+            assertEquals(
+                "STRING_DICTIONARY column has no numeric values",
+                e.getMessage());
+        }
+
+        // One more code than fits in 16 bits.
+        valueSet.add("s65535");
+        pair = valueSet.freeze(0);
+        assertTrue(pair.left instanceof ArrayTable.ObjectArray);
+    }
+
+    public void testByteStrings() {
+        final ColumnLoader.ValueSet valueSet =
+            new ColumnLoader.ValueSet(ByteString.class);
+        final ByteString foo = new ByteString(new byte[] {1, 2, 3});
+        final ByteString bar = new ByteString(new byte[] {1, 2});
+        for (int i = 0; i < 3000; i++) {
+            valueSet.add(i % 3 == 0 ? bar : i % 3 == 1 ? foo : null);
+        }
+        final Pair<ArrayTable.Representation, Object> pair =
+            valueSet.freeze(0);
+        final ArrayTable.ByteStringDictionary representation =
+            (ArrayTable.ByteStringDictionary) pair.left;
+        assertEquals(
+            2,
+            ((ArrayTable.BitSlicedPrimitiveArray)
+                representation.representation).bitCount);
+        assertEquals(bar, representation.getObject(pair.right, 0));
+        assertEquals(foo, representation.getObject(pair.right, 1));
+        assertNull(representation.getObject(pair.right, 2));
+        assertEquals(foo, representation.getObject(pair.right, 2998));
+    }
+
+    public void testPrimitiveDictionary() {
+        final ColumnLoader.ValueSet valueSet =
+            new ColumnLoader.ValueSet(Long.class);
+        for (int i = 0; i < 3000; i++) {
+            valueSet.add(i % 4 == 0 ? null : 1000000000000L * (i % 4));
+        }
+        final Pair<ArrayTable.Representation, Object> pair =
+            valueSet.freeze(0);
+        final ArrayTable.PrimitiveDictionary representation =
+            (ArrayTable.PrimitiveDictionary) pair.left;
+        assertEquals(
+            2,
+            ((ArrayTable.BitSlicedPrimitiveArray)
+                representation.representation).bitCount);
+        assertNull(representation.getObject(pair.right, 0));
+        assertEquals(1000000000000L, representation.getObject(pair.right, 1));
+        assertEquals(3000000000000L, representation.getObject(pair.right, 3));
+        assertNull(representation.getObject(pair.right, 2996));
+        assertEquals(
+            2000000000000L, representation.getObject(pair.right, 2998));
     }
 
     public void testAllNull() {
@@ -224,10 +394,12 @@ public class ArrayTableTest extends TestCase {
             valueSet.add(null);
         }
         pair = valueSet.freeze(0);
-        final ArrayTable.ObjectDictionary representation2 =
-            (ArrayTable.ObjectDictionary) pair.left;
+        final ArrayTable.StringDictionary representation2 =
+            (ArrayTable.StringDictionary) pair.left;
         assertTrue(
             representation2.representation instanceof ArrayTable.Constant);
+        assertNull(representation2.getObject(pair.right, 0));
+        assertNull(representation2.getObject(pair.right, 2000));
     }
 
     public void testOneValueOneNull() {
@@ -248,8 +420,8 @@ public class ArrayTableTest extends TestCase {
             valueSet.add(null);
         }
         pair = valueSet.freeze(0);
-        final ArrayTable.ObjectDictionary representation2 =
-            (ArrayTable.ObjectDictionary) pair.left;
+        final ArrayTable.StringDictionary representation2 =
+            (ArrayTable.StringDictionary) pair.left;
         assertEquals(
             1,
             ((ArrayTable.BitSlicedPrimitiveArray)
@@ -257,6 +429,58 @@ public class ArrayTableTest extends TestCase {
         assertEquals("foo", representation2.getObject(pair.right, 1));
         assertNull(representation2.getObject(pair.right, 10));
     }
+
+    /** Tests the statistics that a value set gathers for the planner. */
+    public void testValueSetStatistic() {
+        final ColumnLoader.ValueSet valueSet =
+            new ColumnLoader.ValueSet(int.class);
+        for (int i = 0; i < 100; i++) {
+            valueSet.add(i % 50);
+        }
+        valueSet.add(null);
+        ColumnStatistic statistic = valueSet.statistic();
+        assertEquals(50d, statistic.distinctCount);
+        assertEquals(1d, statistic.nullCount);
+        assertEquals(0, statistic.min);
+        assertEquals(49, statistic.max);
+        assertEquals(
+            ColumnLoader.ValueSet.HISTOGRAM_BUCKET_COUNT,
+            statistic.histogram.size());
+        assertEquals(2, statistic.histogram.get(0));
+        assertEquals(49, statistic.histogram.get(19));
+
+        // Too few distinct values for a histogram.
+        final ColumnLoader.ValueSet valueSet2 =
+            new ColumnLoader.ValueSet(String.class);
+        valueSet2.add("a");
+        valueSet2.add("b");
+        statistic = valueSet2.statistic();
+        assertEquals(2d, statistic.distinctCount);
+        assertEquals(0d, statistic.nullCount);
+        assertEquals("a", statistic.min);
+        assertEquals("b", statistic.max);
+        assertNull(statistic.histogram);
+    }
+
+    /** Tests that a value set detects whether its values are ascending,
+     * which the planner uses to merge rather than hash. */
+    public void testValueSetAscending() {
+        final ColumnLoader.ValueSet valueSet =
+            new ColumnLoader.ValueSet(int.class);
+        for (int i : new int[] {1, 1, 2, 5}) {
+            valueSet.add(i);
+        }
+        assertTrue(valueSet.ascending);
+        valueSet.add(3);
+        assertFalse(valueSet.ascending);
+
+        // A null value means that the column is not usefully sorted.
+        final ColumnLoader.ValueSet valueSet2 =
+            new ColumnLoader.ValueSet(String.class);
+        valueSet2.add("a");
+        valueSet2.add(null);
+        assertFalse(valueSet2.ascending);
+    }
 }
 
 // End ArrayTableTest.java
@@ -0,0 +1,103 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.prepare;
+
+import net.hydromatic.linq4j.expressions.Expressions;
+
+import net.hydromatic.optiq.*;
+
+import junit.framework.TestCase;
+
+import org.eigenbase.stat.RelStatSource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+/**
+ * Unit test for {@link OptiqPrepareImpl.RelOptTableImpl}.
+ */
+public class RelOptTableImplTest extends TestCase {
+    /** Creates a table that implements only the methods that
+     * {@link OptiqPrepareImpl.RelOptTableImpl} calls. If {@code statistic}
+     * is not null, the table is a {@link StatisticalTable}. */
+    private static Table table(final Statistic statistic) {
+        return (Table) Proxy.newProxyInstance(
+            RelOptTableImplTest.class.getClassLoader(),
+            new Class[] {
+                statistic == null ? Table.class : StatisticalTable.class
+            },
+            new InvocationHandler() {
+                public Object invoke(
+                    Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("getStatistic")) {
+                        return statistic;
+                    }
+                    if (method.getName().equals("getExpression")) {
+                        return Expressions.constant(null);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    private static OptiqPrepareImpl.RelOptTableImpl relOptTable(Table table) {
+        return new OptiqPrepareImpl.RelOptTableImpl(
+            null, null, new String[] {"t"}, table);
+    }
+
+    public void testRowCountFromStatistic() {
+        final OptiqPrepareImpl.RelOptTableImpl relOptTable =
+            relOptTable(
+                table(
+                    Statistics.of(
+                        1234d,
+                        Collections.singletonList(
+                            new ColumnStatistic(
+                                10d, 0d, null, null, null)))));
+        assertEquals(1234d, relOptTable.getRowCount(), 0d);
+        final RelStatSource statSource =
+            relOptTable.unwrap(RelStatSource.class);
+        assertNotNull(statSource);
+        assertEquals(1234d, statSource.getRowCount());
+        assertEquals(
+            10d,
+            statSource.getColumnStatistics(0, null).getCardinality());
+        assertNull(statSource.getColumnStatistics(1, null));
+    }
+
+    public void testRowCountUnknown() {
+        // The table has statistics, but does not know its row count; use
+        // the default.
+        final OptiqPrepareImpl.RelOptTableImpl relOptTable =
+            relOptTable(table(Statistics.UNKNOWN));
+        assertEquals(100d, relOptTable.getRowCount(), 0d);
+        assertNull(relOptTable.unwrap(RelStatSource.class).getRowCount());
+    }
+
+    public void testRowCountWithoutStatistics() {
+        final OptiqPrepareImpl.RelOptTableImpl relOptTable =
+            relOptTable(table(null));
+        assertEquals(100d, relOptTable.getRowCount(), 0d);
+        assertNull(relOptTable.unwrap(RelStatSource.class));
+    }
+}
+
+// End RelOptTableImplTest.java
@@ -0,0 +1,805 @@
+/*
+// Licensed to Julian Hyde under one or more contributor license
+// agreements. See the NOTICE file distributed with this work for
+// additional information regarding copyright ownership.
+//
+// Julian Hyde licenses this file to you under the Apache License,
+// Version 2.0 (the "License"); you may not use this file except in
+// compliance with the License. You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+*/
+package net.hydromatic.optiq.test;
+
+import net.hydromatic.linq4j.AbstractEnumerable;
+import net.hydromatic.linq4j.Enumerable;
+import net.hydromatic.linq4j.Enumerator;
+import net.hydromatic.linq4j.Linq4j;
+import net.hydromatic.linq4j.Queryable;
+import net.hydromatic.linq4j.function.Function0;
+import net.hydromatic.linq4j.function.Function1;
+import net.hydromatic.linq4j.function.Function2;
+import net.hydromatic.linq4j.function.LongFunction1;
+
+import net.hydromatic.optiq.DataContext;
+import net.hydromatic.optiq.Schema;
+import net.hydromatic.optiq.runtime.Enumerables;
+import net.hydromatic.optiq.runtime.ExecutionContext;
+import net.hydromatic.optiq.runtime.Hook;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test for the relational operators in {@link Enumerables}.
+ */
+public class EnumerablesTest extends TestCase {
+    /** Test for {@link Enumerables#parallelDegree}. */
+    public void testParallelDegree() {
+        assertEquals(1, Enumerables.parallelDegree(0));
+        assertEquals(1, Enumerables.parallelDegree(100));
+        assertEquals(
+            1,
+            Enumerables.parallelDegree(
+                Enumerables.MIN_ROWS_PER_PARTITION * 1.5));
+        assertEquals(
+            Math.min(2, Enumerables.MAX_DEGREE),
+            Enumerables.parallelDegree(
+                Enumerables.MIN_ROWS_PER_PARTITION * 2.5));
+        assertEquals(
+            Enumerables.MAX_DEGREE,
+            Enumerables.parallelDegree(1e12));
+    }
+
+    /** Test for {@link Enumerables#parallelRanges}. Rows come back in order,
+     * whatever the number of ranges, and each row exactly once. */
+    public void testParallelRanges() {
+        final List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < 10001; i++) {
+            list.add(i);
+        }
+        final Function2<Integer, Integer, Enumerable<Integer>> rangeFactory =
+            new Function2<Integer, Integer, Enumerable<Integer>>() {
+                public Enumerable<Integer> apply(Integer start, Integer end) {
+                    return Linq4j.asEnumerable(list.subList(start, end));
+                }
+            };
+        for (int degree : new int[] {1, 2, 3, 8, 20}) {
+            final Enumerator<Integer> enumerator =
+                Enumerables.parallelRanges(
+                    list.size(), degree, rangeFactory, null)
+                    .enumerator();
+            int expected = 0;
+            while (enumerator.moveNext()) {
+                assertEquals(expected++, enumerator.current().intValue());
+            }
+            assertEquals(list.size(), expected);
+
+            // Reading again gives the same rows.
+            enumerator.reset();
+            expected = 0;
+            while (enumerator.moveNext()) {
+                assertEquals(expected++, enumerator.current().intValue());
+            }
+            assertEquals(list.size(), expected);
+        }
+
+        // More ranges than rows.
+        final Enumerator<Integer> enumerator =
+            Enumerables.parallelRanges(3, 8, rangeFactory, null)
+                .enumerator();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(enumerator.moveNext());
+            assertEquals(i, enumerator.current().intValue());
+        }
+        assertFalse(enumerator.moveNext());
+
+        // Empty table.
+        assertFalse(
+            Enumerables.parallelRanges(0, 4, rangeFactory, null)
+                .enumerator()
+                .moveNext());
+    }
+
+    /** Tests that a parallel scan whose consumer stops early reads only a
+     * bounded number of rows ahead, releases its memory when the execution
+     * is closed, and stops its threads. */
+    public void testParallelRangesStopEarly() throws InterruptedException {
+        final int rowCount = 1000000;
+        final int degree = 4;
+        final AtomicInteger rowsRead = new AtomicInteger();
+        final ExecutionContext context =
+            new ExecutionContext(0, 0, 1000000);
+        final Enumerator<Integer> enumerator =
+            Enumerables.parallelRanges(
+                rowCount, degree, countingRangeFactory(rowsRead),
+                dataContext(context))
+                .enumerator();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(enumerator.moveNext());
+            assertEquals(i, enumerator.current().intValue());
+        }
+        // The queues have been charged to the memory budget.
+        assertFalse(context.reserve(1000000));
+        Thread.sleep(200);
+        context.close();
+        Thread.sleep(200);
+        final int read = rowsRead.get();
+        assertTrue(
+            "read " + read,
+            read <= 10 + degree * (Enumerables.RANGE_QUEUE_SIZE + 1));
+        Thread.sleep(200);
+        assertEquals(read, rowsRead.get());
+        assertFalse(enumerator.moveNext());
+        // The memory has been released.
+        assertTrue(context.reserve(1000000));
+    }
+
+    /** Tests that cancelling the execution stops a parallel scan. */
+    public void testParallelRangesCancel() throws InterruptedException {
+        final AtomicInteger rowsRead = new AtomicInteger();
+        final ExecutionContext context = new ExecutionContext(0, 0);
+        final Enumerator<Integer> enumerator =
+            Enumerables.parallelRanges(
+                1000000, 4, countingRangeFactory(rowsRead),
+                dataContext(context))
+                .enumerator();
+        assertTrue(enumerator.moveNext());
+        context.cancel();
+        int n = 0;
+        while (enumerator.moveNext()) {
+            // The consumer may see rows that were queued before the cancel,
+            // but no more than the queue of one range.
+            assertTrue(++n <= Enumerables.RANGE_QUEUE_SIZE);
+        }
+        Thread.sleep(200);
+        final int read = rowsRead.get();
+        Thread.sleep(200);
+        assertEquals(read, rowsRead.get());
+        context.close();
+    }
+
+    /** Tests that a parallel scan reads the table on the caller's thread if
+     * the memory budget cannot hold its queues. */
+    public void testParallelRangesMemoryBudget() {
+        final List<String> threads = new ArrayList<String>();
+        final ExecutionContext context = new ExecutionContext(0, 0, 100);
+        final Enumerator<Integer> enumerator =
+            Enumerables.parallelRanges(
+                10000, 4,
+                new Function2<Integer, Integer, Enumerable<Integer>>() {
+                    public Enumerable<Integer> apply(
+                        Integer start, Integer end)
+                    {
+                        threads.add(
+                            Thread.currentThread().getName() + ":" + start
+                            + "-" + end);
+                        return Linq4j.asEnumerable(
+                            new ArrayList<Integer>(
+                                Collections.nCopies(end - start, 0)));
+                    }
+                },
+                dataContext(context))
+                .enumerator();
+        int n = 0;
+        while (enumerator.moveNext()) {
+            ++n;
+        }
+        assertEquals(10000, n);
+        assertEquals(
+            Collections.singletonList(
+                Thread.currentThread().getName() + ":0-10000"),
+            threads);
+        context.close();
+    }
+
+    /** Returns a range factory that returns the ordinals of the rows in the
+     * range, and counts the rows it has read. */
+    private static Function2<Integer, Integer, Enumerable<Integer>>
+    countingRangeFactory(final AtomicInteger rowsRead)
+    {
+        return new Function2<Integer, Integer, Enumerable<Integer>>() {
+            public Enumerable<Integer> apply(
+                final Integer start,
+                final Integer end)
+            {
+                return new AbstractEnumerable<Integer>() {
+                    public Enumerator<Integer> enumerator() {
+                        return new Enumerator<Integer>() {
+                            int i = start - 1;
+
+                            public Integer current() {
+                                return i;
+                            }
+
+                            public boolean moveNext() {
+                                if (i + 1 >= end) {
+                                    return false;
+                                }
+                                ++i;
+                                rowsRead.incrementAndGet();
+                                return true;
+                            }
+
+                            public void reset() {
+                                i = start - 1;
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+
+    /** Test for {@link Enumerables#mergeJoin}. Keys that occur more than
+     * once on both sides generate their cross product; null keys match
+     * nothing. */
+    public void testMergeJoin() {
+        final Function1<Integer, Integer> identity =
+            new Function1<Integer, Integer>() {
+                public Integer apply(Integer a0) {
+                    return a0;
+                }
+            };
+        final Function2<Integer, Integer, String> concat =
+            new Function2<Integer, Integer, String>() {
+                public String apply(Integer left, Integer right) {
+                    return left + ":" + right;
+                }
+            };
+        assertEquals(
+            "[1:1, 3:3, 3:3, 3:3, 3:3, 7:7]",
+            toList(
+                Enumerables.mergeJoin(
+                    Linq4j.asEnumerable(Arrays.asList(null, 1, 3, 3, 5, 7)),
+                    Linq4j.asEnumerable(Arrays.asList(0, 1, 2, 3, 3, 7, 9)),
+                    identity,
+                    identity,
+                    concat)).toString());
+
+        // Either side empty.
+        assertEquals(
+            "[]",
+            toList(
+                Enumerables.mergeJoin(
+                    Linq4j.asEnumerable(Arrays.<Integer>asList()),
+                    Linq4j.asEnumerable(Arrays.asList(1, 2)),
+                    identity,
+                    identity,
+                    concat)).toString());
+    }
+
+    /** Test for {@link Enumerables#sortedGroupBy}. */
+    public void testSortedGroupBy() {
+        final Enumerable<String> names =
+            Linq4j.asEnumerable(
+                Arrays.asList("Bill", "Bob", "Eric", "Fred", "Frida", "Jo"));
+        assertEquals(
+            "[B:2, E:1, F:2, J:1]",
+            toList(
+                Enumerables.sortedGroupBy(
+                    names,
+                    new Function1<String, Character>() {
+                        public Character apply(String a0) {
+                            return a0.charAt(0);
+                        }
+                    },
+                    new Function0<Integer>() {
+                        public Integer apply() {
+                            return 0;
+                        }
+                    },
+                    new Function2<Integer, String, Integer>() {
+                        public Integer apply(Integer count, String a0) {
+                            return count + 1;
+                        }
+                    },
+                    new Function2<Character, Integer, String>() {
+                        public String apply(Character key, Integer count) {
+                            return key + ":" + count;
+                        }
+                    })).toString());
+    }
+
+    /** Test for {@link Enumerables#orderBy(Enumerable, Function1,
+     * java.util.Comparator, int, int)} where {@code offset + fetch} does not
+     * fit into an int. */
+    public void testOrderByOffsetFetchOverflow() {
+        final Enumerable<Integer> source =
+            Linq4j.asEnumerable(Arrays.asList(3, 1, 2));
+        final Function1<Integer, Integer> identity =
+            new Function1<Integer, Integer>() {
+                public Integer apply(Integer a0) {
+                    return a0;
+                }
+            };
+        assertEquals(
+            "[2, 3]",
+            toList(
+                Enumerables.orderBy(
+                    source, identity, null, 1, Integer.MAX_VALUE))
+                .toString());
+        assertEquals(
+            "[]",
+            toList(
+                Enumerables.orderBy(
+                    source, identity, null, Integer.MAX_VALUE, 2))
+                .toString());
+        assertEquals(
+            "[1]",
+            toList(Enumerables.orderBy(source, identity, null, 0, 1))
+                .toString());
+    }
+
+    /** Test for {@link Enumerables#orderBy(Enumerable, Function1,
+     * java.util.Comparator, DataContext)}. With a small memory budget, the
+     * sort spills several runs; the result is sorted, and stable. */
+    public void testOrderBySpill() {
+        final ExecutionContext context = new ExecutionContext(0, 0, 150);
+        final List<int[]> list = new ArrayList<int[]>();
+        final Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            list.add(new int[] {random.nextInt(50), i});
+        }
+        final List<Object> spills = new ArrayList<Object>();
+        final Hook.Closeable hook = addSpillHook(spills);
+        final Enumerator<int[]> enumerator =
+            Enumerables.orderBy(
+                Linq4j.asEnumerable(list),
+                new Function1<int[], Integer>() {
+                    public Integer apply(int[] a0) {
+                        return a0[0];
+                    }
+                },
+                null,
+                dataContext(context))
+                .enumerator();
+        final List<int[]> sorted = new ArrayList<int[]>();
+        while (enumerator.moveNext()) {
+            sorted.add(enumerator.current());
+        }
+        hook.close();
+        assertTrue(spills.size() > 1);
+        assertEquals(list.size(), sorted.size());
+        for (int i = 1; i < sorted.size(); i++) {
+            final int[] previous = sorted.get(i - 1);
+            final int[] row = sorted.get(i);
+            assertTrue(
+                previous[0] < row[0]
+                || previous[0] == row[0] && previous[1] < row[1]);
+        }
+
+        // After reset, the runs are read again, and give the same rows.
+        enumerator.reset();
+        for (int[] row : sorted) {
+            assertTrue(enumerator.moveNext());
+            assertTrue(Arrays.equals(row, enumerator.current()));
+        }
+        assertFalse(enumerator.moveNext());
+        context.close();
+    }
+
+    /** Test for {@link Enumerables#groupBy}. With a small memory budget, the
+     * groups that do not fit are partitioned to disk, and each group is
+     * still returned once. */
+    public void testGroupBySpill() {
+        final ExecutionContext context = new ExecutionContext(0, 0, 150);
+        final List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(i % 500);
+        }
+        final List<int[]> groups =
+            toList(
+                Enumerables.groupBy(
+                    Linq4j.asEnumerable(list),
+                    new Function1<Integer, Integer>() {
+                        public Integer apply(Integer a0) {
+                            return a0;
+                        }
+                    },
+                    new Function0<Integer>() {
+                        public Integer apply() {
+                            return 0;
+                        }
+                    },
+                    new Function2<Integer, Integer, Integer>() {
+                        public Integer apply(Integer count, Integer a0) {
+                            return count + 1;
+                        }
+                    },
+                    new Function2<Integer, Integer, int[]>() {
+                        public int[] apply(Integer key, Integer count) {
+                            return new int[] {key, count};
+                        }
+                    },
+                    null,
+                    dataContext(context)));
+        context.close();
+        assertEquals(500, groups.size());
+        final boolean[] seen = new boolean[500];
+        for (int[] group : groups) {
+            assertFalse(seen[group[0]]);
+            seen[group[0]] = true;
+            assertEquals(2, group[1]);
+        }
+    }
+
+    /** Test for {@link Enumerables#hashJoin}. With a small memory budget,
+     * both inputs are partitioned to disk; a left join still returns every
+     * matching pair once, and every unmatched left row. */
+    public void testHashJoinSpill() {
+        final ExecutionContext context = new ExecutionContext(0, 0, 150);
+        final List<Integer> left = new ArrayList<Integer>();
+        final List<Integer> right = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            left.add(i);
+            right.add(i * 2);
+        }
+        left.add(null);
+        final Function1<Integer, Integer> identity =
+            new Function1<Integer, Integer>() {
+                public Integer apply(Integer a0) {
+                    return a0;
+                }
+            };
+        final List<Integer[]> rows =
+            toList(
+                Enumerables.hashJoin(
+                    Linq4j.asEnumerable(left),
+                    Linq4j.asEnumerable(right),
+                    identity,
+                    identity,
+                    new Function2<Integer, Integer, Integer[]>() {
+                        public Integer[] apply(Integer a0, Integer a1) {
+                            return new Integer[] {a0, a1};
+                        }
+                    },
+                    null,
+                    false,
+                    true,
+                    dataContext(context)));
+        context.close();
+        assertEquals(left.size(), rows.size());
+        int matched = 0;
+        for (Integer[] row : rows) {
+            if (row[1] != null) {
+                assertEquals(row[0], row[1]);
+                ++matched;
+            }
+        }
+        assertEquals(500, matched);
+    }
+
+    /** Test for {@link Enumerables#hashJoin}. The memory budget is so small
+     * that the partitions of the inner input do not fit either, and are
+     * partitioned again. */
+    public void testHashJoinRepartition() {
+        final ExecutionContext context = new ExecutionContext(0, 0, 150);
+        final List<Integer> left = new ArrayList<Integer>();
+        final List<Integer> right = new ArrayList<Integer>();
+        for (int i = 0; i < 5000; i++) {
+            left.add(i);
+            right.add(i * 2);
+        }
+        final Function1<Integer, Integer> identity =
+            new Function1<Integer, Integer>() {
+                public Integer apply(Integer a0) {
+                    return a0;
+                }
+            };
+        final List<Object> spills = new ArrayList<Object>();
+        final Hook.Closeable hook = addSpillHook(spills);
+        final List<Integer[]> rows =
+            toList(
+                Enumerables.hashJoin(
+                    Linq4j.asEnumerable(left),
+                    Linq4j.asEnumerable(right),
+                    identity,
+                    identity,
+                    new Function2<Integer, Integer, Integer[]>() {
+                        public Integer[] apply(Integer a0, Integer a1) {
+                            return new Integer[] {a0, a1};
+                        }
+                    },
+                    null,
+                    false,
+                    false,
+                    dataContext(context)));
+        hook.close();
+        context.close();
+        // The first level writes a partition file for each input and each
+        // partition; re-partitioning writes more.
+        assertTrue(spills.size() > 2 * 16);
+        assertEquals(2500, rows.size());
+        for (Integer[] row : rows) {
+            assertEquals(row[0], row[1]);
+            assertEquals(0, row[0] % 2);
+        }
+    }
+
+    /** Test for {@link Enumerables#intersect} and
+     * {@link Enumerables#except}. Without a memory budget, the distinct rows
+     * are held in memory; with a small budget, both inputs are partitioned
+     * to disk, and the result is the same. */
+    public void testIntersectExceptSpill() {
+        final List<Integer> list0 = new ArrayList<Integer>();
+        final List<Integer> list1 = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            list0.add(i % 700);
+            list1.add(i % 500 * 2);
+        }
+        final Set<Integer> intersect = new HashSet<Integer>(list0);
+        intersect.retainAll(list1);
+        final Set<Integer> except = new HashSet<Integer>(list0);
+        except.removeAll(list1);
+
+        final List<Object> spills = new ArrayList<Object>();
+        final Hook.Closeable hook = addSpillHook(spills);
+        for (ExecutionContext context
+            : Arrays.asList(null, new ExecutionContext(0, 0, 150)))
+        {
+            spills.clear();
+            final List<Integer> rows =
+                toList(
+                    Enumerables.intersect(
+                        Linq4j.asEnumerable(list0),
+                        Linq4j.asEnumerable(list1),
+                        dataContext(context)));
+            assertEquals(intersect.size(), rows.size());
+            assertEquals(intersect, new HashSet<Integer>(rows));
+            assertEquals(context != null, !spills.isEmpty());
+
+            spills.clear();
+            final List<Integer> rows2 =
+                toList(
+                    Enumerables.except(
+                        Linq4j.asEnumerable(list0),
+                        Linq4j.asEnumerable(list1),
+                        dataContext(context)));
+            assertEquals(except.size(), rows2.size());
+            assertEquals(except, new HashSet<Integer>(rows2));
+            assertEquals(context != null, !spills.isEmpty());
+            if (context != null) {
+                context.close();
+            }
+        }
+
+        // The second input fits, but the rows that EXCEPT returns do not.
+        spills.clear();
+        final ExecutionContext context = new ExecutionContext(0, 0, 150);
+        final List<Integer> rows =
+            toList(
+                Enumerables.except(
+                    Linq4j.asEnumerable(list0),
+                    Linq4j.asEnumerable(Arrays.asList(1, 3, 5)),
+                    dataContext(context)));
+        context.close();
+        hook.close();
+        assertFalse(spills.isEmpty());
+        assertEquals(697, rows.size());
+        assertEquals(697, new HashSet<Integer>(rows).size());
+        assertFalse(rows.contains(3));
+    }
+
+    /** Test for {@link ExecutionContext#weigh(int)}. */
+    public void testWeigh() {
+        final ExecutionContext context = new ExecutionContext(0, 0, 10);
+        assertSame(context, context.weigh(ExecutionContext.ROW_BYTES));
+        final ExecutionContext unlimited = new ExecutionContext(0, 0, 0);
+        assertSame(unlimited, unlimited.weigh(1000));
+
+        // Rows of 300 bytes count as 3 rows each.
+        final ExecutionContext weighted = context.weigh(300);
+        assertTrue(weighted.reserve(3));
+        assertFalse(weighted.reserve(1));
+        assertTrue(context.reserve(1));
+        assertFalse(context.reserve(1));
+        weighted.release(3);
+        assertTrue(context.reserve(9));
+        context.close();
+    }
+
+    /** Tests that the operators that spill hold rows that are not
+     * serializable in memory, beyond the budget, rather than fail. */
+    public void testSpillNotSerializable() {
+        final List<Opaque> list = new ArrayList<Opaque>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(new Opaque(i % 500));
+        }
+        final Function1<Opaque, Integer> keySelector =
+            new Function1<Opaque, Integer>() {
+                public Integer apply(Opaque a0) {
+                    return a0.i;
+                }
+            };
+        final List<Object> spills = new ArrayList<Object>();
+        final Hook.Closeable hook = addSpillHook(spills);
+
+        ExecutionContext context = new ExecutionContext(0, 0, 150);
+        final List<Opaque> sorted =
+            toList(
+                Enumerables.orderBy(
+                    Linq4j.asEnumerable(list), keySelector, null,
+                    dataContext(context)));
+        context.close();
+        assertEquals(1000, sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            assertEquals(i / 2, sorted.get(i).i);
+        }
+
+        context = new ExecutionContext(0, 0, 150);
+        final List<Integer> groups =
+            toList(
+                Enumerables.groupBy(
+                    Linq4j.asEnumerable(list),
+                    keySelector,
+                    new Function0<Integer>() {
+                        public Integer apply() {
+                            return 0;
+                        }
+                    },
+                    new Function2<Integer, Opaque, Integer>() {
+                        public Integer apply(Integer count, Opaque a0) {
+                            return count + 1;
+                        }
+                    },
+                    new Function2<Integer, Integer, Integer>() {
+                        public Integer apply(Integer key, Integer count) {
+                            return count;
+                        }
+                    },
+                    null,
+                    dataContext(context)));
+        context.close();
+        assertEquals(Collections.nCopies(500, 2), groups);
+
+        context = new ExecutionContext(0, 0, 150);
+        final List<Opaque[]> rows =
+            toList(
+                Enumerables.hashJoin(
+                    Linq4j.asEnumerable(list),
+                    Linq4j.asEnumerable(list),
+                    keySelector,
+                    keySelector,
+                    new Function2<Opaque, Opaque, Opaque[]>() {
+                        public Opaque[] apply(Opaque a0, Opaque a1) {
+                            return new Opaque[] {a0, a1};
+                        }
+                    },
+                    null,
+                    false,
+                    false,
+                    dataContext(context)));
+        context.close();
+        assertEquals(2000, rows.size());
+        hook.close();
+        assertEquals(Collections.emptyList(), spills);
+    }
+
+    /** Adds a handler to {@link Hook#SPILL} that adds each spill file to a
+     * list. */
+    private static Hook.Closeable addSpillHook(final List<Object> spills) {
+        return Hook.SPILL.addThread(
+            new Function1<Object, Object>() {
+                public Object apply(Object a0) {
+                    spills.add(a0);
+                    return null;
+                }
+            });
+    }
+
+    private static DataContext dataContext(final ExecutionContext context) {
+        return new DataContext() {
+            public <T> Queryable<T> getTable(String name, Class<T> clazz) {
+                return null;
+            }
+
+            public Schema getSubSchema(String name) {
+                return null;
+            }
+
+            public Object get(String name) {
+                return name.equals(ExecutionContext.NAME) ? context : null;
+            }
+        };
+    }
+
+    private static <T> List<T> toList(Enumerable<T> enumerable) {
+        final List<T> list = new ArrayList<T>();
+        final Enumerator<T> enumerator = enumerable.enumerator();
+        while (enumerator.moveNext()) {
+            list.add(enumerator.current());
+        }
+        return list;
+    }
+
+    /** Test for {@link Enumerables#groupByLong}. Uses enough groups that
+     * the hash table grows several times, negative keys, and keys packed
+     * from pairs of ints whose halves are equal or differ only in the high
+     * int; the latter used to collide. */
+    public void testGroupByLong() {
+        final List<Long> list = new ArrayList<Long>();
+        final List<Long> distinctKeys = new ArrayList<Long>();
+        for (int i = 1; i <= 20000; i++) {
+            distinctKeys.add(Enumerables.packInts(i, i));
+            distinctKeys.add(Enumerables.packInts(i, 0));
+            distinctKeys.add(Enumerables.packInts(-i, -i));
+            distinctKeys.add((long) -i - 1);
+        }
+        distinctKeys.add(0L);
+        distinctKeys.add(Long.MIN_VALUE);
+        distinctKeys.add(Long.MAX_VALUE);
+        for (int i = 0; i < 3; i++) {
+            list.addAll(distinctKeys);
+        }
+        Collections.shuffle(list, new Random(0));
+        final List<long[]> groups =
+            toList(
+                Enumerables.groupByLong(
+                    Linq4j.asEnumerable(list),
+                    new LongFunction1<Long>() {
+                        public long apply(Long a0) {
+                            return a0;
+                        }
+                    },
+                    new Function0<Integer>() {
+                        public Integer apply() {
+                            return 0;
+                        }
+                    },
+                    new Function2<Integer, Long, Integer>() {
+                        public Integer apply(Integer count, Long a0) {
+                            return count + 1;
+                        }
+                    },
+                    new Function2<Long, Integer, long[]>() {
+                        public long[] apply(Long key, Integer count) {
+                            return new long[] {key, count};
+                        }
+                    },
+                    null));
+        assertEquals(distinctKeys.size(), groups.size());
+        final Set<Long> seen = new HashSet<Long>();
+        for (long[] group : groups) {
+            assertTrue(seen.add(group[0]));
+            assertEquals(3L, group[1]);
+        }
+        assertEquals(new HashSet<Long>(distinctKeys), seen);
+    }
+
+    /** Test for {@link Enumerables#packInts}. */
+    public void testPackInts() {
+        for (int high : new int[] {0, 1, -1, Integer.MIN_VALUE}) {
+            for (int low : new int[] {0, 7, -1, Integer.MAX_VALUE}) {
+                final long key = Enumerables.packInts(high, low);
+                assertEquals(high, Enumerables.unpackHigh(key));
+                assertEquals(low, Enumerables.unpackLow(key));
+            }
+        }
+    }
+
+    /** Row that is not serializable, so cannot be spilled. */
+    private static class Opaque {
+        final int i;
+
+        Opaque(int i) {
+            this.i = i;
+        }
+    }
+}
+
+// End EnumerablesTest.java
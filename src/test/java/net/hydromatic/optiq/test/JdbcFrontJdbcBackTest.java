@@ -18,12 +18,20 @@
 package net.hydromatic.optiq.test;
 
 import net.hydromatic.linq4j.function.Function1;
+import net.hydromatic.optiq.Statistic;
+import net.hydromatic.optiq.StatisticalTable;
+import net.hydromatic.optiq.Table;
+import net.hydromatic.optiq.impl.jdbc.JdbcSchema;
 import net.hydromatic.optiq.jdbc.OptiqConnection;
+import net.hydromatic.optiq.prepare.PlanCache;
+import net.hydromatic.optiq.runtime.Hook;
 
 import junit.framework.TestCase;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 import static net.hydromatic.optiq.test.OptiqAssert.assertThat;
 
@@ -100,6 +108,121 @@ public class JdbcFrontJdbcBackTest extends TestCase {
             );
     }
 
+    /** Tests that the JDBC schema caches table definitions, and re-reads
+     * them after a refresh. */
+    public void testMetadataCache() throws Exception {
+        assertThat()
+            .with(OptiqAssert.Config.JDBC_FOODMART2)
+            .doWithConnection(
+                new Function1<OptiqConnection, Object>() {
+                    public Object apply(OptiqConnection a0) {
+                        final JdbcSchema schema =
+                            (JdbcSchema) a0.getRootSchema()
+                                .getSubSchema("foodmart");
+                        schema.refresh();
+                        final JdbcSchema.CacheStatistics stats0 =
+                            schema.getCacheStatistics();
+                        final Table<Object> table =
+                            schema.getTable("days", Object.class);
+                        assertNotNull(table);
+                        assertSame(
+                            table, schema.getTable("days", Object.class));
+                        assertNull(schema.getTable("xxx", Object.class));
+                        assertNull(schema.getTable("xxx", Object.class));
+                        final JdbcSchema.CacheStatistics stats1 =
+                            schema.getCacheStatistics();
+                        assertEquals(2, stats1.hitCount - stats0.hitCount);
+                        assertEquals(2, stats1.missCount - stats0.missCount);
+
+                        schema.refresh("days");
+                        assertNotSame(
+                            table, schema.getTable("days", Object.class));
+                        assertEquals(
+                            stats1.missCount + 1,
+                            schema.getCacheStatistics().missCount);
+                        return null;
+                    }
+                }
+            );
+    }
+
+    /** Tests that a statement is prepared again after the JDBC schema's
+     * metadata is refreshed, or if the schema does not cache metadata. */
+    public void testMetadataCachePlans() throws Exception {
+        assertThat()
+            .with(OptiqAssert.Config.JDBC_FOODMART2)
+            .doWithConnection(
+                new Function1<OptiqConnection, Object>() {
+                    public Object apply(OptiqConnection a0) {
+                        final JdbcSchema schema =
+                            (JdbcSchema) a0.getRootSchema()
+                                .getSubSchema("foodmart");
+                        final PlanCache planCache = a0.getPlanCache();
+                        final String sql =
+                            "select count(*) from \"foodmart\".\"days\"";
+                        try {
+                            final Statement statement = a0.createStatement();
+                            final long missCount = planCache.getMissCount();
+                            for (int i = 0; i < 2; i++) {
+                                statement.executeQuery(sql).close();
+                            }
+                            assertEquals(
+                                missCount + 1, planCache.getMissCount());
+
+                            final long version = schema.getVersion();
+                            schema.refresh("days");
+                            assertTrue(schema.getVersion() > version);
+                            statement.executeQuery(sql).close();
+                            assertEquals(
+                                missCount + 2, planCache.getMissCount());
+
+                            // Without a metadata cache, the version changes
+                            // every time, and plans are never re-used.
+                            schema.setCacheTimeoutMillis(0);
+                            for (int i = 0; i < 2; i++) {
+                                statement.executeQuery(sql).close();
+                            }
+                            assertEquals(
+                                missCount + 4, planCache.getMissCount());
+                            schema.setCacheTimeoutMillis(
+                                JdbcSchema.DEFAULT_CACHE_TIMEOUT_MILLIS);
+                            statement.close();
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                        return null;
+                    }
+                }
+            );
+    }
+
+    /** Tests that statistics of a JDBC table are read once, and that the
+     * table is counted only if the schema allows it. */
+    public void testStatistics() throws Exception {
+        final List<String> log = new ArrayList<String>();
+        final OptiqConnection connection =
+            JdbcTest.getRecordingConnection(log);
+        final JdbcSchema schema =
+            (JdbcSchema) connection.getRootSchema().getSubSchema("foodmart");
+        assertFalse(schema.isCountRows());
+        final StatisticalTable table =
+            (StatisticalTable) schema.getTable("days", Object.class);
+        final Statistic statistic = table.getStatistic();
+        assertNotNull(statistic);
+        assertSame(statistic, table.getStatistic());
+        assertFalse(log.toString(), log.contains("Statement.executeQuery"));
+
+        // After a refresh, the table is read again, and this time the
+        // statistics may come from "select count(*)".
+        schema.setCountRows(true);
+        schema.refresh("days");
+        final StatisticalTable table2 =
+            (StatisticalTable) schema.getTable("days", Object.class);
+        assertNotSame(table, table2);
+        assertNotNull(table2.getStatistic().getRowCount());
+        connection.close();
+    }
+
     public void testCase() {
         assertThat()
             .with(OptiqAssert.Config.JDBC_FOODMART2)
@@ -113,6 +236,115 @@ public class JdbcFrontJdbcBackTest extends TestCase {
                 "c0=11.4000\n"
                 + "c0=8.5500\n");
     }
+
+    /** Tests a query whose filter, join, aggregation and sort can all be
+     * executed by the JDBC data source, as a single SQL statement. */
+    public void testPushDown() throws Exception {
+        final OptiqAssert.AssertQuery query =
+            assertThat()
+                .with(OptiqAssert.Config.JDBC_FOODMART2)
+                .withSchema("foodmart")
+                .query(PUSH_DOWN_SQL);
+
+        // Every operator is executed by the data source; only the converter
+        // that reads the result remains in Java.
+        query
+            .explainContains("JdbcToEnumerableConverter")
+            .withHook(
+                Hook.PLAN,
+                new Function1<String, Void>() {
+                    public Void apply(String plan) {
+                        assertFalse(plan, plan.contains("EnumerableJoinRel"));
+                        assertFalse(
+                            plan, plan.contains("EnumerableAggregateRel"));
+                        assertFalse(plan, plan.contains("EnumerableSortRel"));
+                        return null;
+                    }
+                })
+            .planSqlContains("JOIN")
+            .planSqlContains("WHERE")
+            .planSqlContains("GROUP BY")
+            .planSqlContains("ORDER BY")
+            .planSqlContains("COUNT(*)")
+            .planSqlContains("SUM(");
+
+        // Same rows as when Optiq executes the query over an in-memory clone
+        // of the same data.
+        final String expected =
+            assertThat()
+                .with(OptiqAssert.Config.FOODMART_CLONE)
+                .withSchema("foodmart")
+                .doWithConnection(
+                    new Function1<OptiqConnection, String>() {
+                        public String apply(OptiqConnection a0) {
+                            return execute(a0, PUSH_DOWN_SQL);
+                        }
+                    });
+        assertTrue(expected, expected.length() > 0);
+        query.returns(expected);
+
+        // COUNT and SUM computed by the data source have the same types as
+        // if Optiq had computed them.
+        assertThat()
+            .with(OptiqAssert.Config.JDBC_FOODMART2)
+            .withSchema("foodmart")
+            .doWithConnection(
+                new Function1<OptiqConnection, Object>() {
+                    public Object apply(OptiqConnection a0) {
+                        try {
+                            final Statement statement = a0.createStatement();
+                            final ResultSet resultSet =
+                                statement.executeQuery(PUSH_DOWN_SQL);
+                            final ResultSetMetaData metaData =
+                                resultSet.getMetaData();
+                            assertEquals(
+                                Types.INTEGER, metaData.getColumnType(1));
+                            assertEquals(
+                                Types.BIGINT, metaData.getColumnType(2));
+                            assertEquals(
+                                Types.DECIMAL, metaData.getColumnType(3));
+                            assertTrue(resultSet.next());
+                            assertEquals(
+                                Integer.class,
+                                resultSet.getObject(1).getClass());
+                            assertEquals(
+                                Long.class,
+                                resultSet.getObject(2).getClass());
+                            assertEquals(
+                                BigDecimal.class,
+                                resultSet.getObject(3).getClass());
+                            resultSet.close();
+                            statement.close();
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private static final String PUSH_DOWN_SQL =
+        "select \"s\".\"store_id\", count(*) as \"c\",\n"
+        + " sum(\"s\".\"unit_sales\") as \"u\"\n"
+        + "from \"sales_fact_1997\" as \"s\"\n"
+        + "join \"customer\" as \"c\"\n"
+        + " on \"s\".\"customer_id\" = \"c\".\"customer_id\"\n"
+        + "where \"s\".\"product_id\" = 1\n"
+        + "group by \"s\".\"store_id\"\n"
+        + "order by \"s\".\"store_id\"";
+
+    /** Executes a query and returns its rows in the format that
+     * {@link OptiqAssert.AssertQuery#returns(String)} expects. */
+    private static String execute(OptiqConnection connection, String sql) {
+        try {
+            final Statement statement = connection.createStatement();
+            final String s = JdbcTest.toString(statement.executeQuery(sql));
+            statement.close();
+            return s;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
 
 // End JdbcFrontJdbcBackTest.java
@@ -32,6 +32,9 @@ import net.hydromatic.optiq.impl.jdbc.JdbcSchema;
 import net.hydromatic.optiq.jdbc.OptiqConnection;
 import net.hydromatic.optiq.jdbc.OptiqPrepare;
 import net.hydromatic.optiq.prepare.Factory;
+import net.hydromatic.optiq.prepare.PlanCache;
+import net.hydromatic.optiq.runtime.Enumerables;
+import net.hydromatic.optiq.runtime.Hook;
 
 import junit.framework.TestCase;
 
@@ -40,12 +43,18 @@ import org.apache.commons.dbcp.BasicDataSource;
 import org.eigenbase.oj.stmt.OJPreparingStmt;
 import org.eigenbase.rel.*;
 import org.eigenbase.relopt.*;
+import org.eigenbase.relopt.volcano.PlanningBudget;
 import org.eigenbase.reltype.RelDataType;
 import org.eigenbase.sql.SqlDialect;
+import org.eigenbase.sql.type.SqlTypeName;
 import org.eigenbase.util.Util;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
+import java.math.BigDecimal;
 import java.sql.*;
 import java.sql.Statement;
 import java.util.*;
@@ -328,6 +337,22 @@ public class JdbcTest extends TestCase {
                             public List<String> getDefaultSchemaPath() {
                                 return Collections.emptyList();
                             }
+
+                            public PlanCache getPlanCache() {
+                                return null;
+                            }
+
+                            public PlanningBudget getPlanningBudget() {
+                                return PlanningBudget.UNLIMITED;
+                            }
+
+                            public boolean isHeuristicPlanning() {
+                                return true;
+                            }
+
+                            public boolean isOperatorFusion() {
+                                return true;
+                            }
                         },
                         viewSql);
                 return new ViewTable<T>(
@@ -412,6 +437,88 @@ public class JdbcTest extends TestCase {
         return optiqConnection;
     }
 
+    /**
+     * Creates a connection with a "foodmart" schema whose JDBC data source
+     * records, in {@code log}, calls to the methods of its statements and
+     * connections that affect resources: "Statement.setFetchSize(n)",
+     * "Statement.executeQuery", "Statement.cancel", "Statement.close" and
+     * "Connection.close".
+     */
+    static OptiqConnection getRecordingConnection(final List<String> log)
+        throws ClassNotFoundException, SQLException
+    {
+        Class.forName("net.hydromatic.optiq.jdbc.Driver");
+        Class.forName("com.mysql.jdbc.Driver");
+        Connection connection = DriverManager.getConnection("jdbc:optiq:");
+        OptiqConnection optiqConnection =
+            connection.unwrap(OptiqConnection.class);
+        final BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setUrl("jdbc:mysql://localhost");
+        dataSource.setUsername("foodmart");
+        dataSource.setPassword("foodmart");
+        final DataSource recordingDataSource =
+            recorder(
+                DataSource.class, dataSource, log,
+                new Function1<Object, Object>() {
+                    public Object apply(Object a0) {
+                        if (a0 instanceof Connection) {
+                            return recorder(
+                                Connection.class, a0, log, this);
+                        }
+                        if (a0 instanceof Statement) {
+                            return recorder(
+                                Statement.class, a0, log, this);
+                        }
+                        return a0;
+                    }
+                });
+        JdbcSchema.create(
+            optiqConnection,
+            optiqConnection.getRootSchema(),
+            recordingDataSource,
+            "foodmart",
+            "",
+            "foodmart");
+        return optiqConnection;
+    }
+
+    /** Creates a proxy that delegates to an object, logs calls to the
+     * methods that {@link #getRecordingConnection} documents, and wraps
+     * the values that the methods return. */
+    private static <T> T recorder(
+        final Class<T> clazz,
+        final Object target,
+        final List<String> log,
+        final Function1<Object, Object> wrapper)
+    {
+        return clazz.cast(
+            Proxy.newProxyInstance(
+                clazz.getClassLoader(),
+                new Class[] {clazz},
+                new InvocationHandler() {
+                    public Object invoke(
+                        Object proxy, Method method, Object[] args)
+                        throws Throwable
+                    {
+                        final String name =
+                            clazz.getSimpleName() + "." + method.getName();
+                        if (method.getName().equals("setFetchSize")) {
+                            log.add(name + "(" + args[0] + ")");
+                        } else if (method.getName().equals("executeQuery")
+                            || method.getName().equals("cancel")
+                            || method.getName().equals("close"))
+                        {
+                            log.add(name);
+                        }
+                        try {
+                            return wrapper.apply(method.invoke(target, args));
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                }));
+    }
+
     /**
      * The example in the README.
      */
@@ -474,6 +581,213 @@ public class JdbcTest extends TestCase {
         connection.close();
     }
 
+    /** Tests that a statement executed more than once is prepared only once,
+     * and is prepared again after the schema changes. */
+    public void testPlanCache() throws ClassNotFoundException, SQLException {
+        // A connection with its own cache, so that counts are exact.
+        Class.forName("net.hydromatic.optiq.jdbc.Driver");
+        final Properties info = new Properties();
+        info.setProperty("planCacheSize", "100");
+        final OptiqConnection connection =
+            DriverManager.getConnection("jdbc:optiq:", info)
+                .unwrap(OptiqConnection.class);
+        ReflectiveSchema.create(
+            connection, connection.getRootSchema(), "hr", new HrSchema());
+        final PlanCache planCache = connection.getPlanCache();
+        assertNotSame(PlanCache.INSTANCE, planCache);
+        assertEquals(100, planCache.getCapacity());
+        final String sql =
+            "select count(*) as c from \"hr\".\"emps\" where \"deptno\" = 10";
+        Statement statement = connection.createStatement();
+        for (int i = 0; i < 3; i++) {
+            ResultSet resultSet = statement.executeQuery(
+                i == 1 ? sql + "\n" : sql);
+            assertEquals("C=2\n", toString(resultSet));
+            resultSet.close();
+        }
+        assertEquals(1, planCache.size());
+        assertEquals(1, planCache.getMissCount());
+        assertEquals(2, planCache.getHitCount());
+
+        // Adding a schema changes the version; the statement is prepared
+        // again.
+        MapSchema.create(connection, connection.getRootSchema(), "s");
+        ResultSet resultSet = statement.executeQuery(sql);
+        assertEquals("C=2\n", toString(resultSet));
+        resultSet.close();
+        assertEquals(2, planCache.getMissCount());
+        assertEquals(2, planCache.size());
+
+        // Changing a setting that affects planning, on the same connection,
+        // causes the statement to be planned again.
+        for (String[] setting : new String[][] {
+                {"heuristicPlanning", "false"},
+                {"operatorFusion", "false"},
+                {"plannerTimeLimit", "600000"},
+                {"plannerSetLimit", "100000"},
+                {"plannerRuleFiringLimit", "100000"}})
+        {
+            final long missCount = planCache.getMissCount();
+            connection.getProperties().setProperty(setting[0], setting[1]);
+            resultSet = statement.executeQuery(sql);
+            assertEquals("C=2\n", toString(resultSet));
+            resultSet.close();
+            assertEquals(setting[0], missCount + 1, planCache.getMissCount());
+        }
+        assertEquals(7, planCache.size());
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests that connections share the default plan cache, and share a
+     * plan only if their root schemas contain the same objects. */
+    public void testPlanCacheShared()
+        throws ClassNotFoundException, SQLException
+    {
+        final String sql =
+            "select count(*) as c from \"hr\".\"emps\" where \"deptno\" = 20";
+        final PlanCache planCache = PlanCache.INSTANCE;
+        final OptiqConnection connection1 = getConnection("hr");
+        assertSame(planCache, connection1.getPlanCache());
+        final long missCount = planCache.getMissCount();
+        final long hitCount = planCache.getHitCount();
+        Statement statement = connection1.createStatement();
+        ResultSet resultSet = statement.executeQuery(sql);
+        assertEquals("C=1\n", toString(resultSet));
+        resultSet.close();
+        statement.close();
+        assertEquals(missCount + 1, planCache.getMissCount());
+
+        // Second connection contains the same "hr" schema object, so it
+        // uses the plan prepared by the first connection, and reads from
+        // its own root schema.
+        final OptiqConnection connection2 = getConnection();
+        assertSame(planCache, connection2.getPlanCache());
+        connection2.getRootSchema().addSchema(
+            "hr", connection1.getRootSchema().getSubSchema("hr"));
+        statement = connection2.createStatement();
+        resultSet = statement.executeQuery(sql);
+        assertEquals("C=1\n", toString(resultSet));
+        resultSet.close();
+        statement.close();
+        assertEquals(missCount + 1, planCache.getMissCount());
+        assertEquals(hitCount + 1, planCache.getHitCount());
+
+        // Third connection has its own "hr" schema, so it prepares the
+        // statement again.
+        final OptiqConnection connection3 = getConnection("hr");
+        statement = connection3.createStatement();
+        resultSet = statement.executeQuery(sql);
+        assertEquals("C=1\n", toString(resultSet));
+        resultSet.close();
+        statement.close();
+        assertEquals(missCount + 2, planCache.getMissCount());
+        connection1.close();
+        connection2.close();
+        connection3.close();
+    }
+
+    /** Tests a prepared statement with dynamic parameters, executed several
+     * times with different values. */
+    public void testPreparedStatementParameters()
+        throws ClassNotFoundException, SQLException
+    {
+        OptiqConnection connection = getConnection("hr");
+        final long missCount = connection.getPlanCache().getMissCount();
+        PreparedStatement preparedStatement =
+            connection.prepareStatement(
+                "select \"empid\", \"name\" from \"hr\".\"emps\"\n"
+                + "where \"deptno\" = ? and \"empid\" > ?");
+        final ParameterMetaData parameterMetaData =
+            preparedStatement.getParameterMetaData();
+        assertEquals(2, parameterMetaData.getParameterCount());
+        assertEquals(
+            java.sql.Types.INTEGER, parameterMetaData.getParameterType(1));
+        assertEquals("INTEGER", parameterMetaData.getParameterTypeName(1));
+
+        try {
+            preparedStatement.executeQuery();
+            fail("expected error");
+        } catch (SQLException e) {
+            assertEquals("parameter ordinal 1 is not set", e.getMessage());
+        }
+
+        preparedStatement.setInt(1, 10);
+        preparedStatement.setLong(2, 0L);
+        ResultSet resultSet = preparedStatement.executeQuery();
+        assertEquals(
+            "empid=100; name=Bill\n"
+            + "empid=150; name=Sebastian\n",
+            toString(resultSet));
+        resultSet.close();
+
+        preparedStatement.setInt(1, 10);
+        preparedStatement.setInt(2, 120);
+        resultSet = preparedStatement.executeQuery();
+        assertEquals("empid=150; name=Sebastian\n", toString(resultSet));
+        resultSet.close();
+
+        preparedStatement.clearParameters();
+        preparedStatement.setInt(1, 20);
+        preparedStatement.setInt(2, 0);
+        resultSet = preparedStatement.executeQuery();
+        assertEquals("empid=200; name=Eric\n", toString(resultSet));
+        resultSet.close();
+
+        // Statement was prepared once.
+        assertEquals(
+            missCount + 1, connection.getPlanCache().getMissCount());
+        preparedStatement.close();
+        connection.close();
+    }
+
+    /** Tests a prepared statement whose numeric parameters are set to null,
+     * or are not set. */
+    public void testPreparedStatementSetNull()
+        throws ClassNotFoundException, SQLException
+    {
+        OptiqConnection connection = getConnection("hr");
+        PreparedStatement preparedStatement =
+            connection.prepareStatement(
+                "select \"empid\" from \"hr\".\"emps\"\n"
+                + "where \"deptno\" = ?");
+        preparedStatement.setNull(1, java.sql.Types.INTEGER);
+        ResultSet resultSet = preparedStatement.executeQuery();
+        assertEquals("", toString(resultSet));
+        resultSet.close();
+        preparedStatement.setInt(1, 20);
+        resultSet = preparedStatement.executeQuery();
+        assertEquals("empid=200\n", toString(resultSet));
+        resultSet.close();
+        preparedStatement.close();
+
+        preparedStatement =
+            connection.prepareStatement(
+                "select \"empid\" + ? as \"x\",\n"
+                + " cast(? as integer) as \"y\"\n"
+                + "from \"hr\".\"emps\"\n"
+                + "where \"deptno\" = 20");
+        try {
+            preparedStatement.execute();
+            fail("expected error");
+        } catch (SQLException e) {
+            assertEquals("parameter ordinal 1 is not set", e.getMessage());
+        }
+        preparedStatement.setNull(1, java.sql.Types.INTEGER);
+        preparedStatement.setNull(2, java.sql.Types.INTEGER);
+        assertTrue(preparedStatement.execute());
+        resultSet = preparedStatement.getResultSet();
+        assertEquals("x=null; y=null\n", toString(resultSet));
+        resultSet.close();
+        preparedStatement.setInt(1, 1);
+        preparedStatement.setInt(2, 5);
+        resultSet = preparedStatement.executeQuery();
+        assertEquals("x=201; y=5\n", toString(resultSet));
+        resultSet.close();
+        preparedStatement.close();
+        connection.close();
+    }
+
     public void testCloneSchema() throws ClassNotFoundException, SQLException {
         final OptiqConnection connection = JdbcTest.getConnection(null, false);
         Schema foodmart = connection.getRootSchema().getSubSchema("foodmart");
@@ -502,6 +816,297 @@ public class JdbcTest extends TestCase {
                 + "the_year=1998; C=365; M=April\n");
     }
 
+    /** Tests a filter and projection over a cloned table. The generated code
+     * reads values directly from the table's columns. */
+    public void testCloneFilter() {
+        OptiqAssert.assertThat()
+            .with(OptiqAssert.Config.FOODMART_CLONE)
+            .query(
+                "select count(*) as c, min(\"the_day\") as d\n"
+                + "from \"foodmart2\".\"time_by_day\"\n"
+                + "where \"the_year\" = 1997 and \"time_id\" > 0")
+            .returns("C=365; D=Friday\n");
+    }
+
+    /** Tests a filter over a cloned table that is large enough to be
+     * scanned in parallel. Rows come back in table order; a statement that
+     * is closed early, or cancelled, stops the scan. */
+    public void testParallelScan() throws Exception {
+        final int rowCount = 3 * Enumerables.MIN_ROWS_PER_PARTITION;
+        final OptiqAssert.ConnectionFactory connectionFactory =
+            bigConnectionFactory(rowCount);
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 3; i < rowCount; i += 10) {
+            buf.append("id=").append(i).append("\n");
+        }
+        OptiqAssert.assertThat()
+            .with(connectionFactory)
+            .query("select \"id\" from \"big\".\"t\" where \"k\" = 3")
+            .planContains("parallelRanges(")
+            .returns(buf.toString());
+
+        // An aggregate over the filter decides, when it is executed, whether
+        // to read the filter's parallel scan or fuse the filter into a loop
+        // over the columns; it decides as the scan does.
+        final String aggregateSql =
+            "select count(*) as c from \"big\".\"t\" where \"k\" = 3";
+        OptiqAssert.assertThat()
+            .with(connectionFactory)
+            .query(aggregateSql)
+            .planContains("parallelDegree(")
+            .returns("C=" + rowCount / 10 + "\n");
+        OptiqAssert.assertThat()
+            .with(bigConnectionFactory(1000))
+            .query(aggregateSql)
+            .planContains("parallelDegree(")
+            .returns("C=100\n");
+
+        final OptiqConnection connection =
+            connectionFactory.createConnection();
+        final Statement statement = connection.createStatement();
+        final String sql =
+            "select \"id\" from \"big\".\"t\" where \"k\" >= 0";
+
+        // Read a few rows, then close the result set.
+        ResultSet resultSet = statement.executeQuery(sql);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(resultSet.next());
+            assertEquals(i, resultSet.getInt(1));
+        }
+        resultSet.close();
+
+        // Read a row, then cancel the statement.
+        resultSet = statement.executeQuery(sql);
+        assertTrue(resultSet.next());
+        statement.cancel();
+        try {
+            final boolean next = resultSet.next();
+            fail("expected error, got " + next);
+        } catch (SQLException e) {
+            assertEquals("Statement canceled", e.getMessage());
+        }
+        resultSet.close();
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests that a join of two tables that are sorted on the join key is
+     * implemented by merging the inputs, and that the output keeps the
+     * order of the left input. */
+    public void testMergeJoin() {
+        OptiqAssert.assertThat()
+            .with(bigConnectionFactory(1000))
+            .query(
+                "select a.\"id\", b.\"k\"\n"
+                + "from \"big\".\"t\" as a\n"
+                + "join \"big\".\"t\" as b on a.\"id\" = b.\"id\"\n"
+                + "where a.\"id\" < 5")
+            .planContains("mergeJoin(")
+            .returns(
+                "id=0; k=0\n"
+                + "id=1; k=1\n"
+                + "id=2; k=2\n"
+                + "id=3; k=3\n"
+                + "id=4; k=4\n");
+
+        // Column "k" is not sorted, so the join hashes.
+        OptiqAssert.assertThat()
+            .with(bigConnectionFactory(100))
+            .query(
+                "select count(*) as c\n"
+                + "from \"big\".\"t\" as a\n"
+                + "join \"big\".\"t\" as b on a.\"k\" = b.\"k\"")
+            .planContains("hashJoin(")
+            .returns("C=1000\n");
+    }
+
+    /** Tests that an aggregate whose input is sorted on the group key is
+     * implemented by a streaming aggregate, which returns the groups in
+     * input order. */
+    public void testSortedGroupBy() {
+        OptiqAssert.assertThat()
+            .with(bigConnectionFactory(1000))
+            .query(
+                "select \"id\", count(*) as c, sum(\"k\") as s\n"
+                + "from \"big\".\"t\"\n"
+                + "where \"id\" < 3\n"
+                + "group by \"id\"")
+            .planContains("sortedGroupBy(")
+            .returns(
+                "id=0; C=1; S=0\n"
+                + "id=1; C=1; S=1\n"
+                + "id=2; C=1; S=2\n");
+    }
+
+    /** Tests that the planner carries the collation of a sorted table
+     * through a filter, a join and an aggregate, and so chooses a merge
+     * join and a streaming aggregate, and satisfies ORDER BY without
+     * sorting. On an unsorted column, it hashes and sorts. */
+    public void testCollationThroughPlan() {
+        OptiqAssert.assertThat()
+            .with(bigConnectionFactory(1000))
+            .query(
+                "select a.\"id\", count(*) as c\n"
+                + "from \"big\".\"t\" as a\n"
+                + "join \"big\".\"t\" as b on a.\"id\" = b.\"id\"\n"
+                + "where a.\"id\" < 3\n"
+                + "group by a.\"id\"\n"
+                + "order by a.\"id\"")
+            .planContains("mergeJoin(")
+            .planContains("sortedGroupBy(")
+            .withHook(
+                Hook.JAVA_PLAN,
+                new Function1<String, Void>() {
+                    public Void apply(String code) {
+                        assertFalse(code, code.contains("orderBy("));
+                        return null;
+                    }
+                })
+            .returns(
+                "id=0; C=1\n"
+                + "id=1; C=1\n"
+                + "id=2; C=1\n");
+
+        OptiqAssert.assertThat()
+            .with(bigConnectionFactory(100))
+            .query(
+                "select a.\"k\", count(*) as c\n"
+                + "from \"big\".\"t\" as a\n"
+                + "join \"big\".\"t\" as b on a.\"k\" = b.\"k\"\n"
+                + "where a.\"k\" < 2\n"
+                + "group by a.\"k\"\n"
+                + "order by a.\"k\"")
+            .planContains("hashJoin(")
+            .planContains("orderBy(")
+            .returns(
+                "k=0; C=100\n"
+                + "k=1; C=100\n");
+    }
+
+    /** Returns a factory for connections created by
+     * {@link #getBigConnection(int)}. */
+    static OptiqAssert.ConnectionFactory bigConnectionFactory(
+        final int rowCount)
+    {
+        return new OptiqAssert.ConnectionFactory() {
+            public OptiqConnection createConnection() throws Exception {
+                return getBigConnection(rowCount);
+            }
+        };
+    }
+
+    /** Creates a connection with a schema "big" that holds a cloned table
+     * "t" of {@code rowCount} rows. Column "id" holds the row's ordinal, so
+     * the table is sorted on it; column "k" holds {@code id % 10}; column
+     * "r" holds {@code id * 7919 % rowCount}, a permutation of the ids in
+     * no particular order (unless {@code rowCount} is a multiple of 7919,
+     * which is prime). */
+    static OptiqConnection getBigConnection(final int rowCount)
+        throws ClassNotFoundException, SQLException
+    {
+        Class.forName("net.hydromatic.optiq.jdbc.Driver");
+        Connection connection = DriverManager.getConnection("jdbc:optiq:");
+        OptiqConnection optiqConnection =
+            connection.unwrap(OptiqConnection.class);
+        final MutableSchema rootSchema = optiqConnection.getRootSchema();
+        final MapSchema source =
+            MapSchema.create(optiqConnection, rootSchema, "src");
+        addIntTable(
+            source, "t", new String[] {"id", "k", "r"}, rowCount,
+            new Function1<Integer, Object[]>() {
+                public Object[] apply(Integer i) {
+                    return new Object[] {
+                        i, i % 10, (int) (i * 7919L % rowCount)
+                    };
+                }
+            });
+        CloneSchema.create(optiqConnection, rootSchema, "big", source);
+        return optiqConnection;
+    }
+
+    /** Creates a connection with a schema "star" that holds cloned tables
+     * in a star schema: a fact table "f" of 1,000 rows, and
+     * {@code dimensionCount} dimension tables "d0", "d1", ... of 10 rows
+     * each. Column "id" of each dimension table holds 0 to 9; column
+     * "d<i>j</i>" of the fact table references dimension <i>j</i>, and
+     * holds {@code (id + j) % 10}, where "id" is the fact row's ordinal. */
+    static OptiqConnection getStarConnection(final int dimensionCount)
+        throws ClassNotFoundException, SQLException
+    {
+        Class.forName("net.hydromatic.optiq.jdbc.Driver");
+        Connection connection = DriverManager.getConnection("jdbc:optiq:");
+        OptiqConnection optiqConnection =
+            connection.unwrap(OptiqConnection.class);
+        final MutableSchema rootSchema = optiqConnection.getRootSchema();
+        final MapSchema source =
+            MapSchema.create(optiqConnection, rootSchema, "src");
+        final String[] factColumns = new String[dimensionCount + 1];
+        factColumns[0] = "id";
+        for (int j = 0; j < dimensionCount; j++) {
+            factColumns[j + 1] = "d" + j;
+            addIntTable(
+                source, "d" + j, new String[] {"id"}, 10,
+                new Function1<Integer, Object[]>() {
+                    public Object[] apply(Integer i) {
+                        return new Object[] {i};
+                    }
+                });
+        }
+        addIntTable(
+            source, "f", factColumns, 1000,
+            new Function1<Integer, Object[]>() {
+                public Object[] apply(Integer i) {
+                    final Object[] row = new Object[dimensionCount + 1];
+                    row[0] = i;
+                    for (int j = 0; j < dimensionCount; j++) {
+                        row[j + 1] = (i + j) % 10;
+                    }
+                    return row;
+                }
+            });
+        CloneSchema.create(optiqConnection, rootSchema, "star", source);
+        return optiqConnection;
+    }
+
+    /** Adds to a schema a table whose columns are all of type INTEGER NOT
+     * NULL, and whose rows are generated, from their ordinal, by a
+     * function. */
+    private static void addIntTable(
+        MapSchema schema,
+        String name,
+        String[] columnNames,
+        final int rowCount,
+        final Function1<Integer, Object[]> rowFactory)
+    {
+        final JavaTypeFactory typeFactory =
+            ((OptiqConnection) schema.getQueryProvider()).getTypeFactory();
+        final RelDataType[] types = new RelDataType[columnNames.length];
+        Arrays.fill(types, typeFactory.createSqlType(SqlTypeName.INTEGER));
+        final RelDataType rowType =
+            typeFactory.createStructType(types, columnNames);
+        schema.addTable(
+            name,
+            new AbstractTable<Object[]>(schema, Object[].class, rowType, name) {
+                public Enumerator<Object[]> enumerator() {
+                    return new Enumerator<Object[]>() {
+                        int i = -1;
+
+                        public Object[] current() {
+                            return rowFactory.apply(i);
+                        }
+
+                        public boolean moveNext() {
+                            return ++i < rowCount;
+                        }
+
+                        public void reset() {
+                            i = -1;
+                        }
+                    };
+                }
+            });
+    }
+
     private static final String[] queries = {
         "select count(*) from (select 1 as \"c0\" from \"salary\" as \"salary\") as \"init\"",
         "EXPR$0=21252\n",
@@ -668,6 +1273,1017 @@ public class JdbcTest extends TestCase {
                 + "EXPR$0=2; EXPR$1=abc\n");
     }
 
+    /** Tests a LEFT JOIN. Employee 200 is in department 20, which does not
+     * exist. */
+    public void testLeftJoin() {
+        OptiqAssert.assertThat()
+            .query(
+                "select e.\"empid\", d.\"name\"\n"
+                + "from \"hr\".\"emps\" as e\n"
+                + "left join \"hr\".\"depts\" as d\n"
+                + "on e.\"deptno\" = d.\"deptno\"")
+            .returns(
+                "empid=100; name=Sales\n"
+                + "empid=200; name=null\n"
+                + "empid=150; name=Sales\n");
+    }
+
+    /** Tests a FULL JOIN. Departments that have no employees appear after
+     * the employees. */
+    public void testFullJoin() {
+        OptiqAssert.assertThat()
+            .query(
+                "select e.\"empid\", d.\"deptno\"\n"
+                + "from \"hr\".\"emps\" as e\n"
+                + "full join \"hr\".\"depts\" as d\n"
+                + "on e.\"deptno\" = d.\"deptno\"")
+            .returns(
+                "empid=100; deptno=10\n"
+                + "empid=200; deptno=null\n"
+                + "empid=150; deptno=10\n"
+                + "empid=null; deptno=30\n"
+                + "empid=null; deptno=40\n");
+    }
+
+    /** Tests an outer join whose condition has an equality and another
+     * term; the other term is evaluated after matching keys. */
+    public void testLeftJoinResidual() {
+        OptiqAssert.assertThat()
+            .query(
+                "select e.\"empid\", d.\"name\"\n"
+                + "from \"hr\".\"emps\" as e\n"
+                + "left join \"hr\".\"depts\" as d\n"
+                + "on e.\"deptno\" = d.\"deptno\" and e.\"empid\" < 150")
+            .returns(
+                "empid=100; name=Sales\n"
+                + "empid=200; name=null\n"
+                + "empid=150; name=null\n");
+    }
+
+    /** Tests joins whose condition has no equality, which are executed
+     * using nested loops. */
+    public void testNonEquiJoin() {
+        OptiqAssert.assertThat()
+            .query(
+                "select e.\"empid\", d.\"deptno\"\n"
+                + "from \"hr\".\"emps\" as e\n"
+                + "join \"hr\".\"depts\" as d\n"
+                + "on e.\"deptno\" > d.\"deptno\"")
+            .returns("empid=200; deptno=10\n");
+        OptiqAssert.assertThat()
+            .query(
+                "select e.\"empid\", d.\"deptno\"\n"
+                + "from \"hr\".\"emps\" as e\n"
+                + "left join \"hr\".\"depts\" as d\n"
+                + "on e.\"deptno\" > d.\"deptno\"")
+            .returns(
+                "empid=100; deptno=null\n"
+                + "empid=200; deptno=10\n"
+                + "empid=150; deptno=null\n");
+    }
+
+    /** Query that returns the department numbers of employees, with NULL
+     * for employee 200: 10, NULL, 10. */
+    private static final String NULLABLE_DEPTNO =
+        "  select case when \"empid\" = 200 then null\n"
+        + "    else \"deptno\" end as \"deptno\"\n"
+        + "  from \"hr\".\"emps\"";
+
+    /** Tests an uncorrelated IN sub-query, which is executed as a
+     * semi-join. */
+    public void testInSubQuery() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\" from \"hr\".\"emps\"\n"
+                + "where \"deptno\" in (\n"
+                + "  select \"deptno\" from \"hr\".\"depts\")")
+            .explainContains("EnumerableSemiJoinRel")
+            .returns(
+                "empid=100\n"
+                + "empid=150\n");
+    }
+
+    /** Tests an IN sub-query whose values include NULL. The NULL matches
+     * nothing. */
+    public void testInSubQueryWithNull() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"name\" from \"hr\".\"depts\"\n"
+                + "where \"deptno\" in (\n"
+                + NULLABLE_DEPTNO + ")")
+            .explainContains("EnumerableSemiJoinRel")
+            .returns("name=Sales\n");
+    }
+
+    /** Tests a NOT IN sub-query. */
+    public void testNotInSubQuery() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"name\" from \"hr\".\"depts\"\n"
+                + "where \"deptno\" not in (\n"
+                + "  select \"deptno\" from \"hr\".\"emps\")\n"
+                + "order by \"name\"")
+            .returns(
+                "name=HR\n"
+                + "name=Marketing\n");
+    }
+
+    /** Tests a NOT IN sub-query whose values include NULL. No row qualifies,
+     * because "x NOT IN (10, NULL)" is unknown if x is not 10. */
+    public void testNotInSubQueryWithNull() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"name\" from \"hr\".\"depts\"\n"
+                + "where \"deptno\" not in (\n"
+                + NULLABLE_DEPTNO + ")")
+            .returns("");
+    }
+
+    /** Tests a correlated EXISTS sub-query, which is decorrelated into a
+     * join. */
+    public void testCorrelatedExists() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"name\" from \"hr\".\"depts\" as d\n"
+                + "where exists (\n"
+                + "  select 1 from \"hr\".\"emps\" as e\n"
+                + "  where e.\"deptno\" = d.\"deptno\")")
+            .explainContains("EnumerableSemiJoinRel")
+            .returns("name=Sales\n");
+    }
+
+    /** Tests a correlated NOT EXISTS sub-query. */
+    public void testCorrelatedNotExists() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"name\" from \"hr\".\"depts\" as d\n"
+                + "where not exists (\n"
+                + "  select 1 from \"hr\".\"emps\" as e\n"
+                + "  where e.\"deptno\" = d.\"deptno\")\n"
+                + "order by \"name\"")
+            .returns(
+                "name=HR\n"
+                + "name=Marketing\n");
+    }
+
+    /** Tests a correlated NOT EXISTS sub-query whose inner side contains
+     * NULL. Unlike NOT IN, the NULL does not eliminate any rows, because it
+     * equals nothing. */
+    public void testCorrelatedNotExistsWithNull() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"name\" from \"hr\".\"depts\" as d\n"
+                + "where not exists (\n"
+                + "  select 1 from (\n"
+                + NULLABLE_DEPTNO + ") as e\n"
+                + "  where e.\"deptno\" = d.\"deptno\")\n"
+                + "order by \"name\"")
+            .returns(
+                "name=HR\n"
+                + "name=Marketing\n");
+    }
+
+    /** Tests COUNT(DISTINCT ...) in the same aggregate as a non-distinct
+     * aggregate; both are computed in one pass. */
+    public void testCountDistinct() {
+        OptiqAssert.assertThat()
+            .query(
+                "select count(distinct \"deptno\") as \"c\",\n"
+                + " count(*) as \"n\"\n"
+                + "from \"hr\".\"emps\"")
+            .returns("c=2; n=3\n");
+        OptiqAssert.assertThat()
+            .query(
+                "select \"deptno\", count(distinct \"name\") as \"c\"\n"
+                + "from \"hr\".\"emps\"\n"
+                + "group by \"deptno\"\n"
+                + "order by \"deptno\"")
+            .returns(
+                "deptno=10; c=2\n"
+                + "deptno=20; c=1\n");
+    }
+
+    /** Tests GROUP BY on two int columns, whose values are packed into one
+     * long key. */
+    public void testGroupByTwoIntColumns() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"deptno\", \"empid\" / 100 as \"h\",\n"
+                + " count(*) as \"c\"\n"
+                + "from \"hr\".\"emps\"\n"
+                + "group by \"deptno\", \"empid\" / 100\n"
+                + "order by 1, 2")
+            .returns(
+                "deptno=10; h=1; c=2\n"
+                + "deptno=20; h=2; c=1\n");
+    }
+
+    /** Tests AVG, which is reduced to SUM and COUNT. */
+    public void testAvg() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"deptno\", avg(\"empid\") as \"a\"\n"
+                + "from \"hr\".\"emps\"\n"
+                + "group by \"deptno\"\n"
+                + "order by \"deptno\"")
+            .returns(
+                "deptno=10; a=125\n"
+                + "deptno=20; a=200\n");
+    }
+
+    /** Tests STDDEV_POP, STDDEV_SAMP, VAR_POP and VAR_SAMP. Department 20
+     * has one employee, so the sample statistics are null. */
+    public void testStddevVar() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"deptno\",\n"
+                + " stddev_pop(\"empid\") as \"sp\",\n"
+                + " stddev_samp(\"empid\") as \"ss\",\n"
+                + " var_pop(\"empid\") as \"vp\",\n"
+                + " var_samp(\"empid\") as \"vs\"\n"
+                + "from \"hr\".\"emps\"\n"
+                + "group by \"deptno\"\n"
+                + "order by \"deptno\"")
+            .returns(
+                "deptno=10; sp=25; ss=35; vp=625; vs=1250\n"
+                + "deptno=20; sp=0; ss=null; vp=0; vs=null\n");
+    }
+
+    /** Tests that STDDEV and VAR of integer values do not truncate
+     * intermediate results. For {2, 3}, VAR_SAMP is 0.5, which is 0 as an
+     * integer; had "SUM(x) * SUM(x) / COUNT(x)" been computed in integer
+     * arithmetic, it would have been 1. */
+    public void testStddevVarInteger() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"deptno\",\n"
+                + " stddev_samp(\"empid\" / 50) as \"ss\",\n"
+                + " var_samp(\"empid\" / 50) as \"vs\",\n"
+                + " var_samp(cast(\"empid\" / 50 as double)) as \"vd\"\n"
+                + "from \"hr\".\"emps\"\n"
+                + "where \"deptno\" = 10\n"
+                + "group by \"deptno\"")
+            .returns("deptno=10; ss=0; vs=0; vd=0.5\n");
+    }
+
+    /** Tests ORDER BY with FETCH, which is executed as a top-N sort. */
+    public void testOrderByFetch() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\", \"name\" from \"hr\".\"emps\"\n"
+                + "order by \"empid\" desc fetch first 2 rows only")
+            .returns(
+                "empid=200; name=Eric\n"
+                + "empid=150; name=Sebastian\n");
+    }
+
+    /** Tests ORDER BY with OFFSET and FETCH, and with rows that have equal
+     * sort keys. */
+    public void testOrderByOffsetFetch() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\", \"deptno\" from \"hr\".\"emps\"\n"
+                + "order by \"deptno\" offset 1 row fetch next 1 row only")
+            .returns("empid=150; deptno=10\n");
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\" from \"hr\".\"emps\"\n"
+                + "order by \"empid\" offset 5 rows")
+            .returns("");
+    }
+
+    /** Tests OFFSET and FETCH values that do not fit into an int. A large
+     * FETCH means "all rows"; a large OFFSET is an error. */
+    public void testOrderByLargeOffsetFetch() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\" from \"hr\".\"emps\"\n"
+                + "order by \"empid\" offset 1 row\n"
+                + "fetch next 3000000000 rows only")
+            .returns(
+                "empid=150\n"
+                + "empid=200\n");
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\" from \"hr\".\"emps\"\n"
+                + "limit 3000000000")
+            .returns(
+                "empid=100\n"
+                + "empid=200\n"
+                + "empid=150\n");
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\" from \"hr\".\"emps\"\n"
+                + "order by \"empid\" offset 3000000000 rows")
+            .throws_(
+                "OFFSET value 3000000000 is greater than maximum 2147483647");
+    }
+
+    /** Tests LIMIT and OFFSET without ORDER BY. */
+    public void testLimit() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\" from \"hr\".\"emps\" limit 2")
+            .returns(
+                "empid=100\n"
+                + "empid=200\n");
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\" from \"hr\".\"emps\" limit 2 offset 2")
+            .returns("empid=150\n");
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\" from \"hr\".\"emps\"\n"
+                + "order by \"empid\" limit all offset 1")
+            .returns(
+                "empid=150\n"
+                + "empid=200\n");
+    }
+
+    /** Tests that {@link Statement#setMaxRows(int)} limits the number of rows
+     * returned. */
+    public void testSetMaxRows() throws Exception {
+        Connection connection = getConnection("hr");
+        Statement statement = connection.createStatement();
+        assertEquals(0, statement.getMaxRows());
+        statement.setMaxRows(2);
+        assertEquals(2, statement.getMaxRows());
+        ResultSet resultSet =
+            statement.executeQuery(
+                "select \"empid\" from \"hr\".\"emps\"\n"
+                + "order by \"empid\"");
+        assertEquals(
+            "empid=100\n"
+            + "empid=150\n",
+            toString(resultSet));
+        resultSet.close();
+        try {
+            statement.setMaxRows(-1);
+            fail("expected error");
+        } catch (SQLException e) {
+            // ok
+        }
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests that {@link Statement#cancel()} stops a statement whose result
+     * set is open, and cancels the statement that reads from the JDBC
+     * data source. */
+    public void testCancel() throws Exception {
+        final List<String> log = new ArrayList<String>();
+        final OptiqConnection connection = getRecordingConnection(log);
+        final Statement statement = connection.createStatement();
+        final ResultSet resultSet =
+            statement.executeQuery(
+                "select * from \"foodmart\".\"days\"");
+        assertTrue(resultSet.next());
+        assertFalse(log.contains("Statement.cancel"));
+        statement.cancel();
+        assertTrue(log.toString(), log.contains("Statement.cancel"));
+        try {
+            final boolean next = resultSet.next();
+            fail("expected error, got " + next);
+        } catch (SQLException e) {
+            assertEquals("Statement canceled", e.getMessage());
+        }
+        resultSet.close();
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests that {@link Statement#setQueryTimeout(int)} cancels a statement
+     * that runs for too long. */
+    public void testQueryTimeout() throws Exception {
+        Connection connection = getConnection("hr");
+        Statement statement = connection.createStatement();
+        assertEquals(0, statement.getQueryTimeout());
+        statement.setQueryTimeout(1);
+        assertEquals(1, statement.getQueryTimeout());
+        ResultSet resultSet =
+            statement.executeQuery(
+                "select \"empid\" from \"hr\".\"emps\"");
+        assertTrue(resultSet.next());
+        Thread.sleep(2000);
+        try {
+            final boolean next = resultSet.next();
+            fail("expected error, got " + next);
+        } catch (SQLException e) {
+            assertEquals("Statement canceled", e.getMessage());
+        }
+        resultSet.close();
+        try {
+            statement.setQueryTimeout(-1);
+            fail("expected error");
+        } catch (SQLException e) {
+            // ok
+        }
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests that {@link Statement#setFetchSize(int)} is passed to the
+     * statement that reads from the JDBC data source, and that the schema's
+     * fetch size applies if the statement has none. */
+    public void testFetchSize() throws Exception {
+        final List<String> log = new ArrayList<String>();
+        final OptiqConnection connection = getRecordingConnection(log);
+        final JdbcSchema schema =
+            (JdbcSchema) connection.getRootSchema().getSubSchema("foodmart");
+        final String sql = "select * from \"foodmart\".\"days\"";
+
+        // MySQL's driver streams only if fetch size is Integer.MIN_VALUE,
+        // so any positive fetch size is sent as that value.
+        final String streaming =
+            "Statement.setFetchSize(" + Integer.MIN_VALUE + ")";
+        Statement statement = connection.createStatement();
+        statement.setFetchSize(7);
+        assertEquals(7, statement.getFetchSize());
+        schema.setFetchSize(0);
+        toString(statement.executeQuery(sql));
+        assertTrue(log.toString(), log.contains(streaming));
+        statement.close();
+
+        // Neither the statement nor the schema has a fetch size; use the
+        // driver's default.
+        log.clear();
+        statement = connection.createStatement();
+        assertEquals(0, statement.getFetchSize());
+        toString(statement.executeQuery(sql));
+        assertTrue(log.toString(), log.contains("Statement.executeQuery"));
+        assertFalse(log.toString(), log.contains(streaming));
+
+        // The schema's fetch size applies.
+        log.clear();
+        schema.setFetchSize(JdbcSchema.DEFAULT_FETCH_SIZE);
+        toString(statement.executeQuery(sql));
+        assertTrue(log.toString(), log.contains(streaming));
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests that closing a result set before reading all rows closes the
+     * statement and connection that read from the JDBC data source, and
+     * that reading all rows closes them without closing the result set. */
+    public void testCloseResultSetClosesBackEnd() throws Exception {
+        final List<String> log = new ArrayList<String>();
+        final OptiqConnection connection = getRecordingConnection(log);
+        final Statement statement = connection.createStatement();
+        final String sql = "select * from \"foodmart\".\"days\"";
+        // Preparing the statement may read metadata; the data source is not
+        // queried until the first row is read.
+        ResultSet resultSet = statement.executeQuery(sql);
+        log.clear();
+        assertTrue(resultSet.next());
+        assertTrue(log.toString(), log.contains("Statement.executeQuery"));
+        assertFalse(log.toString(), log.contains("Statement.close"));
+        assertFalse(log.toString(), log.contains("Connection.close"));
+        resultSet.close();
+        assertTrue(log.toString(), log.contains("Statement.close"));
+        assertTrue(log.toString(), log.contains("Connection.close"));
+
+        resultSet = statement.executeQuery(sql);
+        log.clear();
+        toString(resultSet);
+        assertTrue(log.toString(), log.contains("Statement.close"));
+        assertTrue(log.toString(), log.contains("Connection.close"));
+        resultSet.close();
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests the "plannerRuleFiringLimit" connection property. A generous
+     * limit still finds a plan; a limit too small to convert the query to
+     * the enumerable convention fails with a clear error. */
+    public void testPlanningBudget() throws Exception {
+        OptiqConnection connection = getConnection("hr");
+        connection.getProperties().setProperty(
+            "plannerRuleFiringLimit", "10000");
+        Statement statement = connection.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "select \"empid\" from \"hr\".\"emps\"\n"
+                + "where \"empid\" < 150");
+        assertEquals(
+            "empid=100\n",
+            toString(resultSet));
+        resultSet.close();
+
+        connection.getProperties().setProperty(
+            "plannerRuleFiringLimit", "1");
+        try {
+            resultSet =
+                statement.executeQuery(
+                    "select \"empid\" + 1 from \"hr\".\"emps\"\n"
+                    + "where \"empid\" > 150");
+            fail("expected error, got " + toString(resultSet));
+        } catch (SQLException e) {
+            assertTrue(
+                Util.getMessages(e),
+                Util.getMessages(e).contains(
+                    "Planner reached limit of 1 rule firings"));
+        }
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests the "memoryRowLimit" connection property. Sort, join and
+     * aggregate return the same results when they run within a memory
+     * budget. */
+    public void testMemoryRowLimit() throws Exception {
+        OptiqConnection connection = getConnection("hr");
+        connection.getProperties().setProperty("memoryRowLimit", "1");
+        Statement statement = connection.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "select \"d\".\"deptno\", count(*) as c\n"
+                + "from \"hr\".\"emps\" as \"e\"\n"
+                + "join \"hr\".\"depts\" as \"d\"\n"
+                + "on \"e\".\"deptno\" = \"d\".\"deptno\"\n"
+                + "group by \"d\".\"deptno\"\n"
+                + "order by \"d\".\"deptno\"");
+        assertEquals(
+            "deptno=10; C=2\n",
+            toString(resultSet));
+        resultSet.close();
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests sort, join and aggregate over tables large enough that, with
+     * the "memoryRowLimit" connection property, they write rows to disk. */
+    public void testMemoryRowLimitSpill() throws Exception {
+        final int rowCount = 1000;
+        final OptiqConnection connection = getBigConnection(rowCount);
+        connection.getProperties().setProperty("memoryRowLimit", "150");
+        final Statement statement = connection.createStatement();
+        final List<Object> spills = new ArrayList<Object>();
+        final Hook.Closeable hook =
+            Hook.SPILL.addThread(
+                new Function1<Object, Object>() {
+                    public Object apply(Object a0) {
+                        spills.add(a0);
+                        return null;
+                    }
+                });
+        try {
+            // Sort
+            final int[] ids = new int[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                ids[(int) (i * 7919L % rowCount)] = i;
+            }
+            final StringBuilder buf = new StringBuilder();
+            for (int id : ids) {
+                buf.append("id=").append(id).append("\n");
+            }
+            ResultSet resultSet =
+                statement.executeQuery(
+                    "select \"id\" from \"big\".\"t\" order by \"r\"");
+            assertEquals(buf.toString(), toString(resultSet));
+            resultSet.close();
+            assertFalse(spills.isEmpty());
+
+            // Aggregate
+            spills.clear();
+            resultSet =
+                statement.executeQuery(
+                    "select count(*) as c, sum(\"n\") as s\n"
+                    + "from (\n"
+                    + "  select \"r\", count(*) as \"n\"\n"
+                    + "  from \"big\".\"t\"\n"
+                    + "  group by \"r\")");
+            assertEquals("C=1000; S=1000\n", toString(resultSet));
+            resultSet.close();
+            assertFalse(spills.isEmpty());
+
+            // Join
+            spills.clear();
+            resultSet =
+                statement.executeQuery(
+                    "select count(*) as c\n"
+                    + "from \"big\".\"t\" as a\n"
+                    + "join \"big\".\"t\" as b on a.\"r\" = b.\"id\"\n"
+                    + "where a.\"k\" = b.\"k\"");
+            assertEquals("C=200\n", toString(resultSet));
+            resultSet.close();
+            assertFalse(spills.isEmpty());
+
+            // Intersect and except
+            for (String op : Arrays.asList("intersect", "except")) {
+                spills.clear();
+                resultSet =
+                    statement.executeQuery(
+                        "select count(*) as c\n"
+                        + "from (\n"
+                        + "  select \"r\" from \"big\".\"t\"\n"
+                        + "  where \"id\" < 600\n"
+                        + "  " + op + "\n"
+                        + "  select \"r\" from \"big\".\"t\"\n"
+                        + "  where \"id\" >= 300)");
+                assertEquals("C=300\n", toString(resultSet));
+                resultSet.close();
+                assertFalse(spills.isEmpty());
+            }
+        } finally {
+            hook.close();
+        }
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests the "memoryRowLimit" connection property over a table whose
+     * rows are instances of a class that is not serializable. The operators
+     * hold the rows in memory, beyond the budget, rather than fail. */
+    public void testMemoryRowLimitNotSerializable() throws Exception {
+        Class.forName("net.hydromatic.optiq.jdbc.Driver");
+        final OptiqConnection connection =
+            DriverManager.getConnection("jdbc:optiq:")
+                .unwrap(OptiqConnection.class);
+        ReflectiveSchema.create(
+            connection, connection.getRootSchema(), "hr",
+            new BigHrSchema(1000));
+        connection.getProperties().setProperty("memoryRowLimit", "150");
+        final Statement statement = connection.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "select \"d\".\"deptno\", count(*) as c\n"
+                + "from \"hr\".\"emps\" as \"e\"\n"
+                + "join \"hr\".\"emps\" as \"e2\"\n"
+                + "on \"e\".\"empid\" = \"e2\".\"empid\"\n"
+                + "join \"hr\".\"depts\" as \"d\"\n"
+                + "on \"e2\".\"deptno\" = \"d\".\"deptno\"\n"
+                + "group by \"d\".\"deptno\"\n"
+                + "order by \"d\".\"deptno\"");
+        assertEquals(
+            "deptno=10; C=250\n"
+            + "deptno=30; C=250\n"
+            + "deptno=40; C=250\n",
+            toString(resultSet));
+        resultSet.close();
+        resultSet =
+            statement.executeQuery(
+                "select * from \"hr\".\"emps\"\n"
+                + "order by \"deptno\" desc, \"empid\" desc");
+        final String s = toString(resultSet);
+        assertTrue(
+            s.startsWith(
+                "empid=1999; deptno=40; name=e999\n"
+                + "empid=1995; deptno=40; name=e995\n"));
+        assertEquals(1000, s.split("\n").length);
+        resultSet.close();
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests that a query gives the same result whether the rewrite rules
+     * are applied in a heuristic pass before cost-based planning, or by the
+     * cost-based planner. */
+    public void testHeuristicPlanning() throws Exception {
+        for (String heuristicPlanning : new String[] {"true", "false"}) {
+            OptiqConnection connection = getConnection("hr");
+            connection.getProperties().setProperty(
+                "heuristicPlanning", heuristicPlanning);
+            Statement statement = connection.createStatement();
+            ResultSet resultSet =
+                statement.executeQuery(
+                    "select \"e\".\"name\"\n"
+                    + "from (select * from \"hr\".\"emps\") as \"e\"\n"
+                    + "join \"hr\".\"depts\" as \"d\"\n"
+                    + "on \"e\".\"deptno\" = \"d\".\"deptno\"\n"
+                    + "where \"d\".\"deptno\" = 10 and \"e\".\"empid\" > 100");
+            assertEquals(
+                "name=Sebastian\n",
+                toString(resultSet));
+            resultSet.close();
+            statement.close();
+            connection.close();
+        }
+    }
+
+    /** Tests that joins give the same result whether or not they are
+     * reordered. The heuristic planner puts the largest input first;
+     * null-generating inputs of outer joins must come after the inputs that
+     * their join condition references. */
+    public void testJoinOrder() throws Exception {
+        for (String heuristicPlanning : new String[] {"true", "false"}) {
+            OptiqConnection connection = getConnection("hr", "foodmart");
+            connection.getProperties().setProperty(
+                "heuristicPlanning", heuristicPlanning);
+            Statement statement = connection.createStatement();
+            ResultSet resultSet =
+                statement.executeQuery(
+                    "select \"e\".\"name\", \"d\".\"name\" as \"dname\",\n"
+                    + " \"s\".\"prod_id\"\n"
+                    + "from \"hr\".\"depts\" as \"d\",\n"
+                    + " \"hr\".\"emps\" as \"e\",\n"
+                    + " \"foodmart\".\"sales_fact_1997\" as \"s\"\n"
+                    + "where \"s\".\"cust_id\" = \"e\".\"empid\"\n"
+                    + "and \"e\".\"deptno\" = \"d\".\"deptno\"\n"
+                    + "order by \"e\".\"name\"");
+            assertEquals(
+                "name=Bill; dname=Sales; prod_id=10\n"
+                + "name=Sebastian; dname=Sales; prod_id=20\n",
+                toString(resultSet));
+            resultSet.close();
+            resultSet =
+                statement.executeQuery(
+                    "select \"e\".\"name\", \"d\".\"name\" as \"dname\",\n"
+                    + " \"s\".\"prod_id\"\n"
+                    + "from \"hr\".\"emps\" as \"e\"\n"
+                    + "left join \"hr\".\"depts\" as \"d\"\n"
+                    + "on \"e\".\"deptno\" = \"d\".\"deptno\"\n"
+                    + "left join \"foodmart\".\"sales_fact_1997\" as \"s\"\n"
+                    + "on \"e\".\"empid\" = \"s\".\"cust_id\"\n"
+                    + "order by \"e\".\"name\"");
+            assertEquals(
+                "name=Bill; dname=Sales; prod_id=10\n"
+                + "name=Eric; dname=null; prod_id=null\n"
+                + "name=Sebastian; dname=Sales; prod_id=20\n",
+                toString(resultSet));
+            resultSet.close();
+            resultSet = statement.executeQuery(OUTER_JOIN_ORDER_SQL);
+            assertEquals(
+                "name=Bill; dname=Sales; prod_id=10\n"
+                + "name=Eric; dname=null; prod_id=null\n"
+                + "name=Sebastian; dname=Sales; prod_id=20\n",
+                toString(resultSet));
+            resultSet.close();
+            statement.close();
+            connection.close();
+        }
+
+        // "d" and "s" are null-generating, and their join conditions
+        // reference "e", so "e" is joined first, although it is not first
+        // in the FROM clause.
+        OptiqAssert.assertThat()
+            .query(OUTER_JOIN_ORDER_SQL)
+            .withHook(
+                Hook.PLAN,
+                new Function1<String, Void>() {
+                    public Void apply(String plan) {
+                        final List<String> tables = tables(plan);
+                        assertEquals(plan, 3, tables.size());
+                        assertEquals(plan, "hr, emps", tables.get(0));
+                        return null;
+                    }
+                })
+            .runs();
+    }
+
+    /** Query for {@link #testJoinOrder()} whose first input is
+     * null-generating. */
+    private static final String OUTER_JOIN_ORDER_SQL =
+        "select \"e\".\"name\", \"d\".\"name\" as \"dname\",\n"
+        + " \"s\".\"prod_id\"\n"
+        + "from \"hr\".\"depts\" as \"d\"\n"
+        + "right join \"hr\".\"emps\" as \"e\"\n"
+        + "on \"e\".\"deptno\" = \"d\".\"deptno\"\n"
+        + "left join \"foodmart\".\"sales_fact_1997\" as \"s\"\n"
+        + "on \"e\".\"empid\" = \"s\".\"cust_id\"\n"
+        + "order by \"e\".\"name\"";
+
+    /** Tests that the heuristic planner puts the fact table of a 12-way star
+     * join first, whatever its position in the FROM clause, and that
+     * planning such a join is fast. */
+    public void testStarJoinOrder() throws Exception {
+        final int dimensionCount = 11;
+        final StringBuilder from = new StringBuilder();
+        final StringBuilder where = new StringBuilder();
+        for (int j = 0; j < dimensionCount; j++) {
+            if (j == dimensionCount / 2) {
+                from.append(", \"star\".\"f\"");
+            }
+            from.append(", \"star\".\"d").append(j).append("\"");
+            where.append(j == 0 ? "where " : "and ")
+                .append("\"f\".\"d").append(j).append("\" = \"d")
+                .append(j).append("\".\"id\"\n");
+        }
+        final String sql =
+            "select count(*) as c\n"
+            + "from " + from.substring(2) + "\n"
+            + where;
+        OptiqAssert.assertThat()
+            .with(
+                new OptiqAssert.ConnectionFactory() {
+                    public OptiqConnection createConnection()
+                        throws Exception
+                    {
+                        return getStarConnection(dimensionCount);
+                    }
+                })
+            .query(sql)
+            .withHook(
+                Hook.PLAN,
+                new Function1<String, Void>() {
+                    public Void apply(String plan) {
+                        final List<String> tables = tables(plan);
+                        assertEquals(plan, dimensionCount + 1, tables.size());
+                        assertEquals(plan, "star, f", tables.get(0));
+                        return null;
+                    }
+                })
+            .returns("C=1000\n");
+
+        // Prepare and execute on a new connection, so that the plan is not
+        // cached. The greedy join orderer considers O(N^2) candidates,
+        // whereas there are 12! left-deep orders.
+        final OptiqConnection connection = getStarConnection(dimensionCount);
+        final Statement statement = connection.createStatement();
+        final long start = System.currentTimeMillis();
+        final ResultSet resultSet = statement.executeQuery(sql);
+        assertEquals("C=1000\n", toString(resultSet));
+        final long elapsed = System.currentTimeMillis() - start;
+        assertTrue("took " + elapsed + " ms", elapsed < 10000);
+        resultSet.close();
+        statement.close();
+        connection.close();
+    }
+
+    /** Returns the qualified names of the tables that a plan reads, in the
+     * order that they appear in the plan. In a left-deep tree of joins, this
+     * is the order in which they are joined. */
+    private static List<String> tables(String plan) {
+        final List<String> list = new ArrayList<String>();
+        final String prefix = "table=[[";
+        int i = 0;
+        for (;;) {
+            i = plan.indexOf(prefix, i);
+            if (i < 0) {
+                return list;
+            }
+            final int end = plan.indexOf("]]", i);
+            list.add(plan.substring(i + prefix.length(), end));
+            i = end;
+        }
+    }
+
+    /** Tests that an aggregate without GROUP BY over a filter, and a
+     * projection over a join, return the same results whether or not
+     * operators are fused into a single loop.
+     *
+     * <p>With fusion, the generated code has no enumerator for the calc:
+     * the aggregate filters and accumulates in one loop over the table,
+     * and the join's result selector evaluates the projection. Without
+     * fusion, the calc implements {@code moveNext()}.</p> */
+    public void testOperatorFusion() throws Exception {
+        for (String operatorFusion : new String[] {"true", "false"}) {
+            final boolean fused = operatorFusion.equals("true");
+            final List<String> plans = new ArrayList<String>();
+            final Hook.Closeable hook =
+                Hook.JAVA_PLAN.addThread(
+                    new Function1<Object, Object>() {
+                        public Object apply(Object a0) {
+                            plans.add((String) a0);
+                            return null;
+                        }
+                    });
+            try {
+                OptiqConnection connection = getConnection("hr");
+                connection.getProperties().setProperty(
+                    "operatorFusion", operatorFusion);
+                Statement statement = connection.createStatement();
+                ResultSet resultSet =
+                    statement.executeQuery(
+                        "select count(*) as \"c\",\n"
+                        + " sum(\"empid\" + 1) as \"s\",\n"
+                        + " min(\"name\") as \"m\"\n"
+                        + "from \"hr\".\"emps\"\n"
+                        + "where \"deptno\" = 10");
+                assertEquals("c=2; s=252; m=Bill\n", toString(resultSet));
+                resultSet.close();
+                String plan = plans.get(plans.size() - 1);
+                assertEquals(plan, !fused, plan.contains("boolean moveNext()"));
+                assertEquals(plan, fused, plan.contains("boolean pass"));
+                resultSet =
+                    statement.executeQuery(
+                        "select count(*) as \"c\", sum(\"empid\") as \"s\"\n"
+                        + "from \"hr\".\"emps\"\n"
+                        + "where \"deptno\" = 99");
+                assertEquals("c=0; s=null\n", toString(resultSet));
+                resultSet.close();
+                plan = plans.get(plans.size() - 1);
+                assertEquals(plan, !fused, plan.contains("boolean moveNext()"));
+                assertEquals(plan, fused, plan.contains("boolean pass"));
+                resultSet =
+                    statement.executeQuery(
+                        "select \"e\".\"empid\" + 1 as \"x\", \"d\".\"name\"\n"
+                        + "from \"hr\".\"emps\" as \"e\"\n"
+                        + "join \"hr\".\"depts\" as \"d\"\n"
+                        + "on \"e\".\"deptno\" = \"d\".\"deptno\"\n"
+                        + "order by \"x\"");
+                assertEquals(
+                    "x=101; name=Sales\n"
+                    + "x=151; name=Sales\n",
+                    toString(resultSet));
+                resultSet.close();
+                plan = plans.get(plans.size() - 1);
+                assertEquals(plan, !fused, plan.contains("boolean moveNext()"));
+                statement.close();
+                connection.close();
+            } finally {
+                hook.close();
+            }
+        }
+    }
+
+    /** Tests reading the columns of a result set whose rows are records, via
+     * generated {@link net.hydromatic.optiq.runtime.FieldReader}s; primitive
+     * columns can be read as any numeric type, and as objects. */
+    public void testFieldReaders() throws Exception {
+        OptiqConnection connection = getConnection("hr");
+        Statement statement = connection.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "select \"empid\", \"deptno\" * 2 as \"d2\", \"name\",\n"
+                + " \"empid\" > 120 as \"b\"\n"
+                + "from \"hr\".\"emps\"\n"
+                + "order by \"empid\"");
+        assertTrue(resultSet.next());
+        assertEquals(100, resultSet.getInt(1));
+        assertEquals(100L, resultSet.getLong(1));
+        assertEquals(100d, resultSet.getDouble(1));
+        assertEquals(new BigDecimal(100), resultSet.getBigDecimal(1));
+        assertEquals(100, resultSet.getObject(1));
+        assertEquals("100", resultSet.getString(1));
+        assertEquals(20, resultSet.getShort(2));
+        assertEquals("Bill", resultSet.getString(3));
+        assertFalse(resultSet.getBoolean(4));
+        assertTrue(resultSet.next());
+        assertEquals(150, resultSet.getInt("empid"));
+        assertTrue(resultSet.getBoolean("b"));
+        assertTrue(resultSet.next());
+        assertEquals(200, resultSet.getInt(1));
+        assertEquals(40L, resultSet.getLong(2));
+        assertEquals("Eric", resultSet.getString(3));
+        assertFalse(resultSet.next());
+        resultSet.close();
+
+        // Rows are instances of a user class, Employee.
+        resultSet =
+            statement.executeQuery("select * from \"hr\".\"emps\"");
+        assertEquals(
+            "empid=100; deptno=10; name=Bill\n"
+            + "empid=200; deptno=20; name=Eric\n"
+            + "empid=150; deptno=10; name=Sebastian\n",
+            toString(resultSet));
+        resultSet.close();
+        statement.close();
+        connection.close();
+    }
+
+    /** Tests that constant expressions are reduced at planning time, and
+     * that a condition that reduces to FALSE returns no rows. */
+    public void testReduceExpressions() {
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\", 1 + 2 as \"three\", upper('abc') as \"u\"\n"
+                + "from \"hr\".\"emps\"\n"
+                + "where \"deptno\" = 10 + 10 and 2 > 1")
+            .withHook(
+                Hook.PLAN,
+                new Function1<String, Void>() {
+                    public Void apply(String plan) {
+                        // The filter compares "deptno" ($1) with the literal
+                        // 20, and the projections are literals. The calc's
+                        // program prints each literal as an expression of
+                        // its own, say "expr#3=[20]".
+                        assertTrue(plan, plan.contains("=[20]"));
+                        assertTrue(plan, plan.contains("=[3]"));
+                        assertTrue(plan, plan.contains("=($t1, $t"));
+                        assertFalse(plan, plan.contains("+("));
+                        assertFalse(plan, plan.contains(">("));
+                        assertFalse(plan, plan.contains("UPPER("));
+                        return null;
+                    }
+                })
+            .returns("empid=200; three=3; u=ABC\n");
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\" from \"hr\".\"emps\"\n"
+                + "where 1 = 2 or \"deptno\" > 1 + 1 * 100")
+            .explainContains("=[101]")
+            .returns("");
+
+        // The condition is always false, so the query becomes an empty
+        // VALUES, and does not read the table.
+        OptiqAssert.assertThat()
+            .query(
+                "select \"empid\" from \"hr\".\"emps\"\n"
+                + "where 1 = 2")
+            .withHook(
+                Hook.PLAN,
+                new Function1<String, Void>() {
+                    public Void apply(String plan) {
+                        assertTrue(
+                            plan,
+                            plan.contains("EnumerableValuesRel(tuples=[[]])"));
+                        assertFalse(plan, plan.contains("emps"));
+                        return null;
+                    }
+                })
+            .returns("");
+    }
+
     /** A difficult query: an IN list so large that the planner promotes it
      * to a semi-join against a VALUES relation. */
     public void testIn() {
@@ -749,6 +2365,37 @@ public class JdbcTest extends TestCase {
                 + "store_id=0; grocery_sqft=null\n");
     }
 
+    /** Tests a sort whose key is not projected, executed by a JDBC data
+     * source. The projection is applied after the sort, so the generated
+     * SQL must sort the outer query, not a sub-query, whose order SQL does
+     * not guarantee. */
+    public void testJdbcSortUnderProject() {
+        OptiqAssert.assertThat()
+            .with(OptiqAssert.Config.JDBC_FOODMART2)
+            .withSchema("foodmart")
+            .query(
+                "select \"store_name\" from \"store\"\n"
+                + "where \"store_id\" > 0 and \"store_id\" < 4\n"
+                + "order by \"store_id\" desc")
+            .explainContains("JdbcSortRel")
+            .withHook(
+                Hook.QUERY_PLAN,
+                new Function1<String, Void>() {
+                    public Void apply(String sql) {
+                        final int orderBy = sql.lastIndexOf("ORDER BY");
+                        assertTrue(sql, orderBy >= 0);
+                        assertTrue(sql, sql.indexOf("ORDER BY") == orderBy);
+                        assertTrue(sql, orderBy > sql.lastIndexOf(")"));
+                        assertTrue(sql, sql.indexOf("DESC", orderBy) > 0);
+                        return null;
+                    }
+                })
+            .returns(
+                "store_name=Store 3\n"
+                + "store_name=Store 2\n"
+                + "store_name=Store 1\n");
+    }
+
     /** Tests the TABLES table in the information schema. */
     public void testMetaTables() {
         OptiqAssert.assertThat()
@@ -779,6 +2426,21 @@ public class JdbcTest extends TestCase {
         };
     }
 
+    /** Schema like {@link HrSchema} whose "emps" table has many rows. Employee
+     * {@code i} has empid {@code 1000 + i} and is in department
+     * {@code 10 * (1 + i % 4)}. */
+    public static class BigHrSchema {
+        public final Employee[] emps;
+        public final Department[] depts = new HrSchema().depts;
+
+        public BigHrSchema(int employeeCount) {
+            emps = new Employee[employeeCount];
+            for (int i = 0; i < employeeCount; i++) {
+                emps[i] = new Employee(1000 + i, 10 * (1 + i % 4), "e" + i);
+            }
+        }
+    }
+
     public static class Employee {
         public final int empid;
         public final int deptno;
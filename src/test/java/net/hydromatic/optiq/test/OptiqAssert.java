@@ -21,6 +21,7 @@ import net.hydromatic.linq4j.function.Function1;
 
 import net.hydromatic.optiq.impl.jdbc.JdbcQueryProvider;
 import net.hydromatic.optiq.jdbc.OptiqConnection;
+import net.hydromatic.optiq.runtime.Hook;
 
 import junit.framework.Assert;
 import junit.framework.TestSuite;
@@ -33,6 +34,8 @@ import org.eigenbase.util.Util;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Fluid DSL for testing Optiq connections and queries.
@@ -54,6 +57,7 @@ public class OptiqAssert {
         testSuite.addTestSuite(JdbcFrontJdbcBackTest.class);
         testSuite.addTestSuite(SqlToRelConverterTest.class);
         testSuite.addTestSuite(SqlFunctionsTest.class);
+        testSuite.addTestSuite(EnumerablesTest.class);
         testSuite.addTestSuite(SqlOperatorTest.class);
         if (Bug.TodoFixed) {
             // 96 failures currently
@@ -269,11 +273,11 @@ public class OptiqAssert {
             return connectionFactory.createConnection();
         }
 
-        public void returns(String expected) {
-            returns(checkResult(expected));
+        public AssertQuery returns(String expected) {
+            return returns(checkResult(expected));
         }
 
-        public void returns(Function1<String, Void> checker) {
+        public AssertQuery returns(Function1<String, Void> checker) {
             try {
                 assertQuery(
                     createConnection(), sql, checker, null);
@@ -281,6 +285,7 @@ public class OptiqAssert {
                 throw new RuntimeException(
                     "exception while executing [" + sql + "]", e);
             }
+            return this;
         }
 
         public void throws_(String message) {
@@ -293,13 +298,58 @@ public class OptiqAssert {
             }
         }
 
-        public void runs() {
+        public AssertQuery runs() {
             try {
                 assertQuery(createConnection(), sql, null, null);
             } catch (Exception e) {
                 throw new RuntimeException(
                     "exception while executing [" + sql + "]", e);
             }
+            return this;
+        }
+
+        /** Checks that the optimized plan contains a given string. */
+        public AssertQuery explainContains(String expected) {
+            return withHook(Hook.PLAN, checkResultContains(expected));
+        }
+
+        /** Checks that the SQL sent to a JDBC data source contains a given
+         * string. */
+        public AssertQuery planSqlContains(String expected) {
+            return withHook(Hook.QUERY_PLAN, checkResultContains(expected));
+        }
+
+        /** Checks that the generated Java code contains a given string. */
+        public AssertQuery planContains(String expected) {
+            return withHook(Hook.JAVA_PLAN, checkResultContains(expected));
+        }
+
+        /** Executes the query, and applies a checker to the strings that
+         * the query passes to a hook, concatenated. */
+        public AssertQuery withHook(
+            Hook hook,
+            Function1<String, Void> checker)
+        {
+            final List<String> list = new ArrayList<String>();
+            final Hook.Closeable closeable =
+                hook.addThread(
+                    new Function1<Object, Object>() {
+                        public Object apply(Object a0) {
+                            list.add((String) a0);
+                            return null;
+                        }
+                    });
+            try {
+                runs();
+            } finally {
+                closeable.close();
+            }
+            final StringBuilder buf = new StringBuilder();
+            for (String s : list) {
+                buf.append(s).append("\n");
+            }
+            checker.apply(buf.toString());
+            return this;
         }
     }
 
@@ -53,6 +53,22 @@ public class VolcanoPlannerTest
             "PHYS",
             RelNode.class);
 
+    /**
+     * The order in which {@link RuleQueue} should pop {@link TestMatch}es:
+     * more important first, then larger rel ids first.
+     */
+    private static final Comparator<TestMatch> TEST_MATCH_COMPARATOR =
+        new Comparator<TestMatch>() {
+            public int compare(TestMatch o1, TestMatch o2)
+            {
+                int c = Double.compare(o2.importance, o1.importance);
+                if (c == 0) {
+                    c = o2.rels[0].getId() - o1.rels[0].getId();
+                }
+                return c;
+            }
+        };
+
     //~ Constructors -----------------------------------------------------------
 
     public VolcanoPlannerTest(String name)
@@ -298,6 +314,58 @@ public class VolcanoPlannerTest
             resultLeaf.getLabel());
     }
 
+    /**
+     * Tests that relational expressions with the same structure have equal
+     * digests, that the planner uses digests to detect duplicates, and that
+     * the string form of a digest is unchanged.
+     */
+    public void testDigest()
+    {
+        VolcanoPlanner planner = new VolcanoPlanner();
+        planner.addRelTraitDef(ConventionTraitDef.instance);
+
+        RelOptCluster cluster = newCluster(planner);
+        NoneLeafRel leafRel =
+            new NoneLeafRel(
+                cluster,
+                "a");
+        NoneLeafRel leafRel2 =
+            new NoneLeafRel(
+                cluster,
+                "a");
+        NoneLeafRel leafRel3 =
+            new NoneLeafRel(
+                cluster,
+                "b");
+        RelDigest digest = leafRel.recomputeDigest();
+        RelDigest digest2 = leafRel2.recomputeDigest();
+        RelDigest digest3 = leafRel3.recomputeDigest();
+        assertEquals(digest, digest2);
+        assertEquals(digest.hashCode(), digest2.hashCode());
+        assertFalse(digest.equals(digest3));
+        assertEquals("NoneLeafRel.NONE(label=a)", leafRel.getDigest());
+        assertEquals(
+            "rel#" + leafRel.getId() + ":NoneLeafRel.NONE(label=a)",
+            leafRel.toString());
+
+        RelNode subset =
+            planner.register(
+                new NoneSingleRel(cluster, leafRel),
+                null);
+        RelNode leafSubset = planner.getSubset(leafRel);
+        RelNode singleRel = ((RelSubset) subset).getRels().get(0);
+        assertEquals(
+            "NoneSingleRel.NONE(child=" + leafSubset.getDigest() + ")",
+            singleRel.getDigest());
+
+        // A structurally identical tree is recognized as a duplicate.
+        RelNode subset2 =
+            planner.register(
+                new NoneSingleRel(cluster, leafRel2),
+                null);
+        assertSame(subset, subset2);
+    }
+
     /**
      * Tests whether planner correctly notifies listeners of events.
      */
@@ -400,6 +468,209 @@ public class VolcanoPlannerTest
             null);
     }
 
+    /**
+     * Tests that the rule queue pops rule-matches in order of importance,
+     * ignores duplicate rule-matches, and re-positions a rule-match when the
+     * importance of its subset changes.
+     */
+    public void testRuleQueueOrder()
+    {
+        VolcanoPlanner planner = new VolcanoPlanner();
+        planner.addRelTraitDef(ConventionTraitDef.instance);
+        final RuleQueue ruleQueue = planner.ruleQueue;
+        final RelOptRule rule = new PhysLeafRule();
+
+        // No rules are registered with the planner, so the only rule-matches
+        // in the queue are the ones that this test adds.
+        RelOptCluster cluster = newCluster(planner);
+        final List<TestMatch> matches = new ArrayList<TestMatch>();
+        final double [] importances = { .5, .9, .1, .9, .3 };
+        for (int i = 0; i < importances.length; i++) {
+            matches.add(
+                addMatch(planner, cluster, rule, "r" + i, importances[i]));
+        }
+
+        // Adding an identical match has no effect.
+        final TestMatch match0 = matches.get(0);
+        ruleQueue.addMatch(
+            new TestMatch(planner, rule, match0.rels[0], 1.0));
+
+        // Raise the importance of r2 above all others; lower r1.
+        setImportance(planner, matches.get(2), .95);
+        setImportance(planner, matches.get(1), .2);
+
+        assertPopOrder(
+            planner,
+            Arrays.asList(
+                matches.get(2),
+                matches.get(3),
+                matches.get(0),
+                matches.get(4),
+                matches.get(1)));
+        assertFalse(ruleQueue.hasNextMatch(VolcanoPlannerPhase.OPTIMIZE));
+    }
+
+    /**
+     * Tests the rule queue against a sorted list with many rule-matches,
+     * interleaving pops, importance changes and duplicate rule-matches.
+     */
+    public void testRuleQueueRandom()
+    {
+        VolcanoPlanner planner = new VolcanoPlanner();
+        planner.addRelTraitDef(ConventionTraitDef.instance);
+        final RuleQueue ruleQueue = planner.ruleQueue;
+        final RelOptRule rule = new PhysLeafRule();
+        final Random random = new Random(12345);
+
+        RelOptCluster cluster = newCluster(planner);
+        final List<TestMatch> remaining = new ArrayList<TestMatch>();
+        for (int i = 0; i < 300; i++) {
+            // Few distinct importances, so that many ties are broken by id.
+            remaining.add(
+                addMatch(
+                    planner, cluster, rule, "r" + i,
+                    random.nextInt(10) / 10d));
+        }
+        int popCount = 0;
+        while (!remaining.isEmpty()) {
+            switch (random.nextInt(4)) {
+            case 0:
+                // Re-prioritize a rule-match.
+                final TestMatch match =
+                    remaining.get(random.nextInt(remaining.size()));
+                setImportance(planner, match, random.nextInt(10) / 10d);
+                break;
+            case 1:
+                // Add a duplicate; it must be ignored.
+                final TestMatch original =
+                    remaining.get(random.nextInt(remaining.size()));
+                ruleQueue.addMatch(
+                    new TestMatch(planner, rule, original.rels[0], 1.0));
+                break;
+            default:
+                final TestMatch expected =
+                    Collections.min(remaining, TEST_MATCH_COMPARATOR);
+                assertTrue(
+                    ruleQueue.hasNextMatch(VolcanoPlannerPhase.OPTIMIZE));
+                assertSame(
+                    "pop #" + popCount,
+                    expected,
+                    ruleQueue.popMatch(VolcanoPlannerPhase.OPTIMIZE));
+                remaining.remove(expected);
+                ++popCount;
+            }
+        }
+        assertEquals(300, popCount);
+        assertFalse(ruleQueue.hasNextMatch(VolcanoPlannerPhase.OPTIMIZE));
+    }
+
+    /**
+     * Tests planning of a join graph with many inputs. Each rule should fire
+     * exactly once on each relational expression, however the importance
+     * of the rule-matches changes as the plan is costed.
+     */
+    public void testLargeJoinGraph()
+    {
+        TestListener listener = new TestListener();
+        VolcanoPlanner planner = new VolcanoPlanner();
+        planner.addListener(listener);
+        planner.addRelTraitDef(ConventionTraitDef.instance);
+
+        planner.addRule(new PhysLeafRule());
+        planner.addRule(new PhysJoinRule());
+
+        // A bushy tree of joins over 64 leaves.
+        RelOptCluster cluster = newCluster(planner);
+        final RexNode condition =
+            cluster.getRexBuilder().makeLiteral(true);
+        List<RelNode> rels = new ArrayList<RelNode>();
+        final int leafCount = 64;
+        for (int i = 0; i < leafCount; i++) {
+            rels.add(new NoneLeafRel(cluster, "t" + i));
+        }
+        while (rels.size() > 1) {
+            List<RelNode> joins = new ArrayList<RelNode>();
+            for (int i = 0; i < rels.size(); i += 2) {
+                joins.add(
+                    new JoinRel(
+                        cluster,
+                        rels.get(i),
+                        rels.get(i + 1),
+                        condition,
+                        JoinRelType.INNER,
+                        Collections.<String>emptySet()));
+            }
+            rels = joins;
+        }
+        RelNode convertedRel =
+            planner.changeTraits(
+                rels.get(0),
+                cluster.traitSetOf(PHYS_CALLING_CONVENTION));
+        planner.setRoot(convertedRel);
+        RelNode result = planner.chooseDelegate().findBestExp();
+        assertTrue(result instanceof PhysJoinRel);
+
+        final Map<Class, Integer> ruleCounts = new HashMap<Class, Integer>();
+        for (RelOptListener.RelEvent event : listener.getEventList()) {
+            // RuleProductionEvent is a subclass; don't count it.
+            if (event.getClass() == RelOptListener.RuleAttemptedEvent.class
+                && ((RelOptListener.RuleAttemptedEvent) event).isBefore())
+            {
+                final Class ruleClass =
+                    ((RelOptListener.RuleAttemptedEvent) event)
+                        .getRuleCall().getRule().getClass();
+                final Integer count = ruleCounts.get(ruleClass);
+                ruleCounts.put(ruleClass, count == null ? 1 : count + 1);
+            }
+        }
+        assertEquals(
+            Integer.valueOf(leafCount), ruleCounts.get(PhysLeafRule.class));
+        assertEquals(
+            Integer.valueOf(leafCount - 1),
+            ruleCounts.get(PhysJoinRule.class));
+    }
+
+    private static TestMatch addMatch(
+        VolcanoPlanner planner,
+        RelOptCluster cluster,
+        RelOptRule rule,
+        String label,
+        double importance)
+    {
+        final RelNode rel = new NoneLeafRel(cluster, label);
+        planner.register(rel, null);
+        final TestMatch match = new TestMatch(planner, rule, rel, importance);
+        planner.ruleQueue.addMatch(match);
+        return match;
+    }
+
+    /**
+     * Changes the importance of a rule-match, and notifies the rule queue
+     * the way the planner does when the importance of a subset changes.
+     */
+    private static void setImportance(
+        VolcanoPlanner planner,
+        TestMatch match,
+        double importance)
+    {
+        match.importance = importance;
+        final RelSubset subset = planner.getSubset(match.rels[0]);
+        planner.ruleQueue.updateImportance(subset, importance);
+    }
+
+    private static void assertPopOrder(
+        VolcanoPlanner planner,
+        List<TestMatch> expected)
+    {
+        final List<VolcanoRuleMatch> actual =
+            new ArrayList<VolcanoRuleMatch>();
+        while (planner.ruleQueue.hasNextMatch(VolcanoPlannerPhase.OPTIMIZE)) {
+            actual.add(
+                planner.ruleQueue.popMatch(VolcanoPlannerPhase.OPTIMIZE));
+        }
+        assertEquals(expected, actual);
+    }
+
     private void checkEvent(
         List<RelOptListener.RelEvent> eventList,
         int iEvent,
@@ -628,6 +899,42 @@ public class VolcanoPlannerTest
         }
     }
 
+    private static class PhysJoinRel
+        extends JoinRelBase
+    {
+        PhysJoinRel(
+            RelOptCluster cluster,
+            RelNode left,
+            RelNode right,
+            RexNode condition)
+        {
+            super(
+                cluster,
+                cluster.traitSetOf(PHYS_CALLING_CONVENTION),
+                left,
+                right,
+                condition,
+                JoinRelType.INNER,
+                Collections.<String>emptySet());
+        }
+
+        // implement RelNode
+        public RelOptCost computeSelfCost(RelOptPlanner planner)
+        {
+            return planner.makeTinyCost();
+        }
+
+        public JoinRelBase copy(
+            RelTraitSet traitSet,
+            RexNode conditionExpr,
+            RelNode left,
+            RelNode right)
+        {
+            assert traitSet.comprises(PHYS_CALLING_CONVENTION);
+            return new PhysJoinRel(getCluster(), left, right, conditionExpr);
+        }
+    }
+
     private static class PhysLeafRule
         extends RelOptRule
     {
@@ -653,6 +960,35 @@ public class VolcanoPlannerTest
         }
     }
 
+    private static class PhysJoinRule
+        extends RelOptRule
+    {
+        PhysJoinRule()
+        {
+            super(new RelOptRuleOperand(JoinRel.class, ANY));
+        }
+
+        // implement RelOptRule
+        public Convention getOutConvention()
+        {
+            return PHYS_CALLING_CONVENTION;
+        }
+
+        // implement RelOptRule
+        public void onMatch(RelOptRuleCall call)
+        {
+            JoinRel join = (JoinRel) call.rels[0];
+            RelTraitSet traitSet =
+                join.getTraitSet().replace(PHYS_CALLING_CONVENTION);
+            call.transformTo(
+                new PhysJoinRel(
+                    join.getCluster(),
+                    convert(join.getLeft(), traitSet),
+                    convert(join.getRight(), traitSet),
+                    join.getCondition()));
+        }
+    }
+
     private static class GoodSingleRule
         extends RelOptRule
     {
@@ -811,6 +1147,32 @@ public class VolcanoPlannerTest
         }
     }
 
+    /**
+     * Rule-match whose importance is set by the test, rather than derived
+     * from the importance of its subset.
+     */
+    private static class TestMatch
+        extends VolcanoRuleMatch
+    {
+        double importance;
+
+        TestMatch(
+            VolcanoPlanner planner,
+            RelOptRule rule,
+            RelNode rel,
+            double importance)
+        {
+            super(planner, rule.getOperand(), new RelNode[] { rel });
+            this.importance = importance;
+        }
+
+        // override VolcanoRuleMatch
+        double computeImportance()
+        {
+            return importance;
+        }
+    }
+
     private static class TestListener
         implements RelOptListener
     {
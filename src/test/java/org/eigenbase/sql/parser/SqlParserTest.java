@@ -1276,6 +1276,48 @@ public class SqlParserTest
                 + "WHERE (`A` = `B`)"));
     }
 
+    public void testOffsetFetch()
+    {
+        check(
+            "select a from foo order by b, c offset 1 row fetch first 2 row only",
+            TestUtil.fold(
+                "SELECT `A`\n"
+                + "FROM `FOO`\n"
+                + "ORDER BY `B`, `C`\n"
+                + "OFFSET 1 ROWS\n"
+                + "FETCH NEXT 2 ROWS ONLY"));
+        check(
+            "select a from foo fetch next 3 rows only",
+            TestUtil.fold(
+                "SELECT `A`\n"
+                + "FROM `FOO`\n"
+                + "FETCH NEXT 3 ROWS ONLY"));
+        check(
+            "select a from foo offset 4 rows",
+            TestUtil.fold(
+                "SELECT `A`\n"
+                + "FROM `FOO`\n"
+                + "OFFSET 4 ROWS"));
+    }
+
+    public void testLimit()
+    {
+        check(
+            "select a from foo order by b limit 2 offset 1",
+            TestUtil.fold(
+                "SELECT `A`\n"
+                + "FROM `FOO`\n"
+                + "ORDER BY `B`\n"
+                + "OFFSET 1 ROWS\n"
+                + "FETCH NEXT 2 ROWS ONLY"));
+        check(
+            "select a from foo limit all offset 1",
+            TestUtil.fold(
+                "SELECT `A`\n"
+                + "FROM `FOO`\n"
+                + "OFFSET 1 ROWS"));
+    }
+
     public void testOrderIllegalInExpression()
     {
         check(
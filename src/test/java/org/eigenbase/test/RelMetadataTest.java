@@ -17,11 +17,21 @@
 */
 package org.eigenbase.test;
 
+import java.math.BigDecimal;
 import java.util.*;
 
+import net.hydromatic.optiq.ColumnStatistic;
+import net.hydromatic.optiq.Statistic;
+import net.hydromatic.optiq.Statistics;
+
 import org.eigenbase.rel.*;
 import org.eigenbase.rel.metadata.*;
 import org.eigenbase.relopt.*;
+import org.eigenbase.reltype.*;
+import org.eigenbase.rex.*;
+import org.eigenbase.sql.*;
+import org.eigenbase.sql.fun.*;
+import org.eigenbase.stat.*;
 
 
 /**
@@ -550,6 +560,258 @@ public class RelMetadataTest
                 null);
         assertTrue(result == null);
     }
+
+    /**
+     * Returns a scan of EMP whose table has statistics: 1000 rows; EMPNO has
+     * 1000 distinct values between 0 and 999, in an equi-depth histogram of
+     * 4 skewed buckets; DEPTNO has 10 distinct values between 10 and 100,
+     * and 100 nulls.
+     */
+    private TableAccessRel empScanWithStatistics()
+    {
+        RelNode rel = convertSql("select * from emp");
+        while (!(rel instanceof TableAccessRel)) {
+            rel = rel.getInputs().get(0);
+        }
+        final RelOptTable table = rel.getTable();
+        final Statistic statistic =
+            Statistics.of(
+                1000d,
+                Arrays.asList(
+                    new ColumnStatistic(
+                        1000d, 0d, 0, 999,
+                        Arrays.<Comparable>asList(99, 199, 599, 999)),
+                    null, null, null, null, null, null,
+                    new ColumnStatistic(10d, 100d, 10, 100, null)));
+        final RelStatSource statSource =
+            Statistics.toRelStatSource(statistic);
+        return new TableAccessRel(
+            rel.getCluster(),
+            new RelOptTable() {
+                public String [] getQualifiedName()
+                {
+                    return table.getQualifiedName();
+                }
+
+                public double getRowCount()
+                {
+                    return statistic.getRowCount();
+                }
+
+                public RelDataType getRowType()
+                {
+                    return table.getRowType();
+                }
+
+                public RelOptSchema getRelOptSchema()
+                {
+                    return table.getRelOptSchema();
+                }
+
+                public RelNode toRel(ToRelContext context)
+                {
+                    return new TableAccessRel(context.getCluster(), this);
+                }
+
+                public List<RelCollation> getCollationList()
+                {
+                    return table.getCollationList();
+                }
+
+                public <T> T unwrap(Class<T> clazz)
+                {
+                    if (clazz == RelStatSource.class) {
+                        return clazz.cast(statSource);
+                    }
+                    return table.unwrap(clazz);
+                }
+            });
+    }
+
+    /** Creates a call to a comparison operator with a column of a scan and
+     * an integer literal as arguments. */
+    private RexNode compare(
+        TableAccessRel scan,
+        SqlOperator op,
+        int ordinal,
+        int value)
+    {
+        final RexBuilder rexBuilder = scan.getCluster().getRexBuilder();
+        return rexBuilder.makeCall(
+            op,
+            rexBuilder.makeInputRef(
+                scan.getRowType().getFieldList().get(ordinal).getType(),
+                ordinal),
+            rexBuilder.makeExactLiteral(BigDecimal.valueOf(value)));
+    }
+
+    private void checkScanSelectivity(
+        TableAccessRel scan,
+        RexNode predicate,
+        double expected)
+    {
+        Double result = RelMetadataQuery.getSelectivity(scan, predicate);
+        assertTrue(result != null);
+        assertEquals(
+            expected,
+            result.doubleValue(),
+            EPSILON);
+    }
+
+    public void testRowCountTableWithStatistics()
+    {
+        final TableAccessRel scan = empScanWithStatistics();
+        assertEquals(1000d, RelMetadataQuery.getRowCount(scan), EPSILON);
+        assertNotNull(RelMetadataQuery.getStatistics(scan));
+    }
+
+    public void testSelectivityWithMinMax()
+    {
+        final TableAccessRel scan = empScanWithStatistics();
+
+        // DEPTNO > 55 is half of the range [10, 100]; nulls do not match.
+        checkScanSelectivity(
+            scan,
+            compare(scan, SqlStdOperatorTable.greaterThanOperator, 7, 55),
+            0.9 * 0.5);
+
+        // One of 10 distinct values, among the 90% of rows that are not null.
+        checkScanSelectivity(
+            scan,
+            compare(scan, SqlStdOperatorTable.equalsOperator, 7, 20),
+            0.9 / 10);
+
+        // Outside [min, max].
+        checkScanSelectivity(
+            scan,
+            compare(scan, SqlStdOperatorTable.equalsOperator, 7, 200),
+            0d);
+
+        // ENAME has no statistics; guess.
+        final RexBuilder rexBuilder = scan.getCluster().getRexBuilder();
+        checkScanSelectivity(
+            scan,
+            rexBuilder.makeCall(
+                SqlStdOperatorTable.isNotNullOperator,
+                rexBuilder.makeInputRef(
+                    scan.getRowType().getFieldList().get(1).getType(), 1)),
+            DEFAULT_NOTNULL_SELECTIVITY);
+    }
+
+    public void testSelectivityWithHistogram()
+    {
+        final TableAccessRel scan = empScanWithStatistics();
+
+        // 150 is 51% of the way through the second of 4 buckets, (99, 199].
+        // Interpolating between min and max would give 0.15.
+        checkScanSelectivity(
+            scan,
+            compare(scan, SqlStdOperatorTable.lessThanOperator, 0, 150),
+            (1 + 0.51) / 4);
+
+        // The last bucket, (599, 999], holds a quarter of the values.
+        checkScanSelectivity(
+            scan,
+            compare(scan, SqlStdOperatorTable.greaterThanOperator, 0, 599),
+            0.25);
+    }
+
+    public void testDistinctRowCountWithStatistics()
+    {
+        final TableAccessRel scan = empScanWithStatistics();
+        final BitSet deptno = new BitSet();
+        deptno.set(7);
+        assertEquals(
+            10d,
+            RelMetadataQuery.getDistinctRowCount(scan, deptno, null),
+            EPSILON);
+
+        // Assumes columns are independent, but there cannot be more
+        // distinct combinations than rows.
+        final BitSet empnoDeptno = new BitSet();
+        empnoDeptno.set(0);
+        empnoDeptno.set(7);
+        assertEquals(
+            1000d,
+            RelMetadataQuery.getDistinctRowCount(scan, empnoDeptno, null),
+            EPSILON);
+
+        // ENAME has no statistics.
+        final BitSet ename = new BitSet();
+        ename.set(1);
+        assertNull(RelMetadataQuery.getDistinctRowCount(scan, ename, null));
+
+        // The predicate keeps about 45% of the rows, but there are still
+        // likely to be rows from each of 10 departments.
+        final Double d =
+            RelMetadataQuery.getDistinctRowCount(
+                scan,
+                deptno,
+                compare(
+                    scan, SqlStdOperatorTable.greaterThanOperator, 7, 55));
+        assertNotNull(d);
+        assertTrue(d.toString(), d > 9d && d <= 10d);
+    }
+
+    /**
+     * Tests that {@link CachingRelMetadataProvider} returns cached results,
+     * evicts them when the planner's timestamp changes, and bounds the number
+     * of relational expressions it holds.
+     */
+    public void testCachingProvider()
+    {
+        final RelNode rel = convertSql("select * from emp where deptno = 10");
+        final RelNode child = rel.getInputs().get(0);
+        final int [] callCount = {0};
+        final RelMetadataProvider countingProvider =
+            new RelMetadataProvider() {
+                public Object getRelMetadata(
+                    RelNode rel,
+                    String metadataQueryName,
+                    Object [] args)
+                {
+                    ++callCount[0];
+                    return metadataQueryName;
+                }
+            };
+        final long [] timestamp = {0};
+        final MockRelOptPlanner planner =
+            new MockRelOptPlanner() {
+                public long getRelMetadataTimestamp(RelNode rel)
+                {
+                    return timestamp[0];
+                }
+            };
+        final CachingRelMetadataProvider provider =
+            new CachingRelMetadataProvider(countingProvider, planner, 1);
+
+        assertEquals(
+            "getRowCount",
+            provider.getRelMetadata(rel, "getRowCount", null));
+        assertEquals(1, callCount[0]);
+        provider.getRelMetadata(rel, "getRowCount", null);
+        assertEquals(1, callCount[0]);
+
+        // Different arguments are a different entry.
+        provider.getRelMetadata(rel, "getSelectivity", new Object[] {null});
+        assertEquals(2, callCount[0]);
+        provider.getRelMetadata(rel, "getSelectivity", new Object[] {null});
+        assertEquals(2, callCount[0]);
+
+        // A new timestamp evicts the results.
+        timestamp[0] = 1;
+        provider.getRelMetadata(rel, "getRowCount", null);
+        assertEquals(3, callCount[0]);
+        provider.getRelMetadata(rel, "getRowCount", null);
+        assertEquals(3, callCount[0]);
+
+        // Capacity is 1, so caching the child evicts the parent.
+        provider.getRelMetadata(child, "getRowCount", null);
+        assertEquals(4, callCount[0]);
+        assertEquals(1, provider.size());
+        provider.getRelMetadata(rel, "getRowCount", null);
+        assertEquals(5, callCount[0]);
+    }
 }
 
 // End RelMetadataTest.java